@@ -0,0 +1,214 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.batch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import de.uni_erlangen.lstm.file.CSVReader;
+import de.uni_erlangen.lstm.file.CSVWriter;
+import de.uni_erlangen.lstm.modelaccess.RunFingerprint;
+
+/**
+ * Runs the scenarios of a manifest concurrently with a bounded number of threads.
+ * Influent files shared by several scenarios are parsed once and kept in memory,
+ * each scenario writes its own output and a summary table is written at the end.
+ * 
+ * The manifest is a CSV file (separated by ;) with a header line naming the columns:
+ * name, type (steady/dynamic), in, init, param, s, f, step, ode, fast, petersen, biop, repro, event (i:value:rising, separated by |).
+ * Empty or missing columns take the defaults of Main.
+ * 
+ * @author liampetti
+ *
+ */
+public class BatchRunner implements Runnable {
+	public final static Logger LOGGER = Logger.getLogger(BatchRunner.class.getName());
+	
+	private List<Scenario> scenarios;
+	private InfluentCache cache;
+	private int threads;
+	private String summaryFile;
+	private volatile int done;
+	
+	public BatchRunner(List<Scenario> scenarios) {
+		this.scenarios = scenarios;
+		cache = new InfluentCache();
+		threads = Runtime.getRuntime().availableProcessors();
+		summaryFile = "batch_summary.csv";
+	}
+	
+	/**
+	 * Reads the scenarios of a manifest file
+	 */
+	public static List<Scenario> readManifest(String filename) {
+		CSVReader reader = new CSVReader(filename, ";");
+		List<Scenario> scenarios = new ArrayList<Scenario>();
+		String[] header = null;
+		while (!reader.finished()) {
+			String[] line = reader.getNextString();
+			if (line.length == 0 || line[0].trim().startsWith("#")) {
+				continue;
+			}
+			if (header == null) {
+				header = line;
+				continue;
+			}
+			Map<String, String> row = new HashMap<String, String>();
+			for (int i=0;i<header.length && i<line.length;i++) {
+				row.put(header[i].trim().toLowerCase(), line[i]);
+			}
+			scenarios.add(Scenario.fromRow(row));
+		}
+		return scenarios;
+	}
+	
+	/**
+	 * Maximum number of scenarios running at the same time
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	public void setSummaryFile(String summaryFile) {
+		this.summaryFile = summaryFile;
+	}
+	
+	/**
+	 * Wall clock limit for each scenario
+	 * 
+	 * @param millis Time limit in milliseconds, zero for no limit
+	 */
+	public void setTimeout(long millis) {
+		for (Scenario scenario : scenarios) {
+			scenario.setTimeout(millis);
+		}
+	}
+	
+	/**
+	 * Reproducible mode for all scenarios, the summary lists their input and trajectory hashes
+	 */
+	public void setReproducible(boolean reproducible) {
+		for (Scenario scenario : scenarios) {
+			scenario.setReproducible(reproducible);
+		}
+	}
+	
+	/**
+	 * Stop running scenarios and skip those not yet started
+	 */
+	public void cancel() {
+		for (Scenario scenario : scenarios) {
+			scenario.cancel();
+		}
+	}
+	
+	/**
+	 * Share influent files with other batches
+	 */
+	public void setCache(InfluentCache cache) {
+		this.cache = cache;
+	}
+	
+	public InfluentCache getCache() {
+		return cache;
+	}
+	
+	public List<Scenario> getScenarios() {
+		return scenarios;
+	}
+	
+	/**
+	 * Number of finished scenarios
+	 */
+	public int getDone() {
+		return done;
+	}
+	
+	/**
+	 * Run all scenarios and write the summary table
+	 */
+	public void simulate() {
+		done = 0;
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, scenarios.size())));
+		try {
+			List<Future<?>> tasks = new ArrayList<Future<?>>();
+			for (final Scenario scenario : scenarios) {
+				tasks.add(pool.submit(new Runnable() {
+					public void run() {
+						scenario.run(cache);
+						synchronized (BatchRunner.this) {
+							done++;
+						}
+					}
+				}));
+			}
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Batch interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Scenario failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		writeSummary();
+	}
+	
+	/**
+	 * One line per scenario: status, run time, end time, pH, gas flow and methane in gas,
+	 * input and trajectory hashes of reproducible scenarios
+	 */
+	private void writeSummary() {
+		String output = "Scenario; Type; Status; Runtime (ms); End; pH; Gas flow (m3/d); CH4 (m3/d); Output; Inputs; Trajectory";
+		for (Scenario scenario : scenarios) {
+			double[] x = scenario.getX();
+			RunFingerprint print = scenario.getFingerprint();
+			output += "\n" + scenario.getName() + 
+					"; " + (scenario.isSteady() ? "steady" : "dynamic") + 
+					"; " + (scenario.getError() == null ? "ok" : scenario.getError()) + 
+					"; " + scenario.getRuntime() + 
+					"; " + scenario.getEnd() + 
+					"; " + (x == null ? "" : x[39]) + 
+					"; " + (x == null ? "" : x[38]) + 
+					"; " + (x == null ? "" : x[37]) + 
+					"; " + scenario.getOutputFile() + 
+					"; " + (print == null ? "" : print.getInputHash()) + 
+					"; " + (print == null ? "" : print.getTrajectoryHash());
+		}
+		System.out.println(output);
+		new CSVWriter().WriteString(summaryFile, output, false);
+	}
+
+	@Override
+	public void run() {
+		simulate();
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.uni_erlangen.lstm.modelaccess.SimulationResult;
+import de.uni_erlangen.lstm.modelaccess.StateEvent;
+import de.uni_erlangen.lstm.modelaccess.TimeEvent;
+import de.uni_erlangen.lstm.models.adm1.DigesterParameters;
+
+/**
+ * One what-if continuation of a baseline (see Branching): from the branch time on it runs with its own influent,
+ * parameters or additional events. Settings that are not changed are those of the baseline.
+ * 
+ * @author liampetti
+ *
+ */
+public class Branch {
+	private String name;
+	private double time;
+	private InfluentSeries influent; // Replaces the baseline influent, null to keep it
+	private DigesterParameters parameters; // Replaces the baseline parameters, null to keep them
+	private List<TimeEvent> timeEvents;
+	private List<StateEvent> stateEvents;
+	
+	// Results
+	private int row;
+	private SimulationResult result;
+	private double[] x;
+	private String error;
+	private long runtime;
+	
+	/**
+	 * @param name	Name of the what-if
+	 * @param time	Time the branch leaves the baseline, a branch point of the baseline
+	 */
+	public Branch(String name, double time) {
+		this.name = name;
+		this.time = time;
+		timeEvents = new ArrayList<TimeEvent>();
+		stateEvents = new ArrayList<StateEvent>();
+	}
+	
+	/**
+	 * Influent of the branch, with the time steps of the baseline series (row r is the influent from start + r*step).
+	 * Rows before the branch time are not used, the branch ends with the last row.
+	 */
+	public void setInfluent(InfluentSeries influent) {
+		this.influent = influent;
+	}
+	
+	public void setParameters(DigesterParameters parameters) {
+		this.parameters = parameters;
+	}
+	
+	public void addTimeEvent(TimeEvent event) {
+		timeEvents.add(event);
+	}
+	
+	/**
+	 * State events count their occurrences, use a new event for every branch
+	 */
+	public void addStateEvent(StateEvent event) {
+		stateEvents.add(event);
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public double getTime() {
+		return time;
+	}
+	
+	InfluentSeries getInfluent() {
+		return influent;
+	}
+	
+	DigesterParameters getParameters() {
+		return parameters;
+	}
+	
+	List<TimeEvent> getTimeEvents() {
+		return timeEvents;
+	}
+	
+	List<StateEvent> getStateEvents() {
+		return stateEvents;
+	}
+	
+	void setResult(int row, SimulationResult result, double[] x, String error, long runtime) {
+		this.row = row;
+		this.result = result;
+		this.x = x;
+		this.error = error;
+		this.runtime = runtime;
+	}
+	
+	/**
+	 * First row of the branch in the baseline result, the baseline rows before it are the shared prefix
+	 */
+	public int getRow() {
+		return row;
+	}
+	
+	/**
+	 * Rows of the branch (time and states of each influent step as the dynamic output), null before the run
+	 */
+	public SimulationResult getResult() {
+		return result;
+	}
+	
+	/**
+	 * Final digester state
+	 */
+	public double[] getX() {
+		return x;
+	}
+	
+	/**
+	 * Error message if the branch failed, null otherwise
+	 */
+	public String getError() {
+		return error;
+	}
+	
+	/**
+	 * Wall clock time of the run (ms)
+	 */
+	public long getRuntime() {
+		return runtime;
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.batch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import de.uni_erlangen.lstm.modelaccess.Model;
+import de.uni_erlangen.lstm.modelaccess.SimulationResult;
+import de.uni_erlangen.lstm.modelaccess.StateEvent;
+import de.uni_erlangen.lstm.modelaccess.TimeEvent;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * What-if branches of a dynamic simulation. The baseline runs once over its influent series (one run per row, 
+ * as a dynamic scenario) and the model is copied in memory (Model.copy) at each branch point. Branches continue
+ * from these snapshots in parallel with their own influent, parameters or events, so the baseline up to the
+ * branch time is simulated and stored once and is the common prefix of all branches leaving there.
+ * 
+ * A branch without changes gives the same rows as the baseline, the snapshots include the step size and Jacobian
+ * the integrators carry from one run to the next.
+ * 
+ * @author liampetti
+ *
+ */
+public class Branching {
+	public final static Logger LOGGER = Logger.getLogger(Branching.class.getName());
+	
+	private Model model;
+	private InfluentSeries influent;
+	private double start;
+	private double step;
+	private TreeSet<Integer> points; // Rows at which the baseline is copied
+	private Map<Integer, Snapshot> snapshots;
+	private SimulationResult baseline;
+	private int threads;
+	
+	/**
+	 * @param model		Baseline model with its initial state, parameters and settings
+	 * @param influent	Baseline influent, one row per time step
+	 * @param start		Start time (days)
+	 * @param step		Time step of the influent rows (days)
+	 */
+	public Branching(Model model, InfluentSeries influent, double start, double step) {
+		if (step <= 0) {
+			throw new IllegalArgumentException("Step must be positive: " + step);
+		}
+		this.model = model;
+		this.influent = influent;
+		this.start = start;
+		this.step = step;
+		points = new TreeSet<Integer>();
+		snapshots = new HashMap<Integer, Snapshot>();
+		threads = Runtime.getRuntime().availableProcessors();
+	}
+	
+	/**
+	 * Copy the baseline at the given time, rounded to the start of an influent row
+	 */
+	public void addBranchPoint(double time) {
+		if (baseline != null) {
+			throw new IllegalStateException("Branch points must be added before the baseline runs");
+		}
+		points.add(row(time));
+	}
+	
+	/**
+	 * Maximum number of branches running at the same time
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	/**
+	 * Runs the baseline to the end of its influent and keeps a snapshot at every branch point
+	 */
+	public void runBaseline() {
+		if (baseline != null) {
+			throw new IllegalStateException("The baseline has already run");
+		}
+		SimulationResult result = new SimulationResult(influent.size());
+		advance(model, influent, 0, start, result, true);
+		baseline = result;
+	}
+	
+	/**
+	 * Rows of the baseline (time and states of each influent step as the dynamic output), null before it ran
+	 */
+	public SimulationResult getBaseline() {
+		return baseline;
+	}
+	
+	/**
+	 * Copy of the baseline model at a branch point, to be set up and run by the caller
+	 */
+	public Model getSnapshot(double time) {
+		return snapshot(time).model.copy();
+	}
+	
+	/**
+	 * Runs the branches from their snapshots, each on a copy so any number of branches can leave at the same point
+	 */
+	public void run(List<Branch> branches) {
+		for (Branch branch : branches) {
+			snapshot(branch.getTime());
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, branches.size())));
+		try {
+			List<Future<?>> tasks = new ArrayList<Future<?>>();
+			for (final Branch branch : branches) {
+				tasks.add(pool.submit(new Runnable() {
+					public void run() {
+						runBranch(branch);
+					}
+				}));
+			}
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Branches interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Branch failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private void runBranch(Branch branch) {
+		long stime = System.currentTimeMillis();
+		int row = row(branch.getTime());
+		Snapshot snapshot = snapshots.get(row);
+		Model model = snapshot.model.copy();
+		if (branch.getParameters() != null) {
+			model.setParameters(branch.getParameters());
+		}
+		for (TimeEvent event : branch.getTimeEvents()) {
+			model.addTimeEvent(event);
+		}
+		for (StateEvent event : branch.getStateEvents()) {
+			model.addStateEvent(event);
+		}
+		InfluentSeries series = branch.getInfluent() != null ? branch.getInfluent() : influent;
+		SimulationResult result = new SimulationResult(Math.max(1, series.size()-row));
+		String error = null;
+		try {
+			advance(model, series, row, snapshot.t, result, false);
+		} catch (RuntimeException e) {
+			error = e.toString();
+			LOGGER.severe(branch.getName() + ": " + error);
+		}
+		branch.setResult(row, result, model.getX().clone(), error, System.currentTimeMillis()-stime);
+	}
+	
+	/**
+	 * Runs the model one influent row at a time from the given row to the end of the series
+	 * 
+	 * @param t			Time at the start of the first row
+	 * @param snapshot	Copy the model at the branch points
+	 */
+	private void advance(Model model, InfluentSeries series, int first, double t, SimulationResult result, boolean snapshot) {
+		StateVariables u = new StateVariables();
+		double[] buffer = new double[StateVariables.SIZE];
+		for (int r=first;r<series.size();r++) {
+			if (snapshot && points.contains(r)) {
+				snapshots.put(r, new Snapshot(t, model.copy()));
+			}
+			series.view(r, u, buffer);
+			model.setInfluent(u);
+			model.setTime(t, t+step);
+			model.simulate();
+			
+			// Time at the start of the step as the dynamic output
+			result.append(t, model.getX());
+			t = t+step;
+		}
+	}
+	
+	/**
+	 * Influent row starting at the given time
+	 */
+	private int row(double time) {
+		int row = (int) Math.round((time-start)/step);
+		if (row < 0 || row >= influent.size()) {
+			throw new IllegalArgumentException("Time " + time + " outside of the influent (" + start + " to " 
+					+ (start+influent.size()*step) + ")");
+		}
+		return row;
+	}
+	
+	private Snapshot snapshot(double time) {
+		if (baseline == null) {
+			throw new IllegalStateException("The baseline has not run");
+		}
+		Snapshot snapshot = snapshots.get(row(time));
+		if (snapshot == null) {
+			throw new IllegalArgumentException("No branch point at " + time);
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * Baseline model before a row and the time at its start
+	 */
+	private static class Snapshot {
+		final double t;
+		final Model model;
+		
+		Snapshot(double t, Model model) {
+			this.t = t;
+			this.model = model;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+/**
+ * Loads each distinct influent file once, scenarios requesting a file that is 
+ * still being parsed wait for the first load instead of reading it again
+ * 
+ * @author liampetti
+ *
+ */
+public class InfluentCache {
+	public final static Logger LOGGER = Logger.getLogger(InfluentCache.class.getName());
+	
+	private ConcurrentMap<String, FutureTask<InfluentSeries>> series;
+	
+	public InfluentCache() {
+		series = new ConcurrentHashMap<String, FutureTask<InfluentSeries>>();
+	}
+	
+	/**
+	 * @param filename	Influent file
+	 * @param splitter	Column separator
+	 * @return The shared series for the file
+	 */
+	public InfluentSeries get(final String filename, final String splitter) {
+		String key = key(filename) + "|" + splitter;
+		FutureTask<InfluentSeries> task = series.get(key);
+		if (task == null) {
+			FutureTask<InfluentSeries> load = new FutureTask<InfluentSeries>(new Callable<InfluentSeries>() {
+				public InfluentSeries call() {
+					return InfluentSeries.read(filename, splitter);
+				}
+			});
+			task = series.putIfAbsent(key, load);
+			if (task == null) {
+				task = load;
+				task.run();
+			}
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading " + filename, e);
+		} catch (ExecutionException e) {
+			series.remove(key, task);
+			throw new IllegalStateException("Could not load influent " + filename, e.getCause());
+		}
+	}
+	
+	/**
+	 * Number of distinct files loaded
+	 */
+	public int size() {
+		return series.size();
+	}
+	
+	public void clear() {
+		series.clear();
+	}
+	
+	private static String key(String filename) {
+		try {
+			return new File(filename).getCanonicalPath();
+		} catch (IOException e) {
+			return new File(filename).getAbsolutePath();
+		}
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+
+package de.uni_erlangen.lstm.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import de.uni_erlangen.lstm.models.adm1.BSM2Defaults;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+import de.uni_erlangen.lstm.surrogate.SurrogateTrainer;
+
+/**
+ * Generates stochastic influent time series in memory for stress tests of control strategies.
+ * A base influent (BSM2 by default) is modulated by a diurnal pattern, rain events (more flow, 
+ * diluted concentrations), feed shocks (step changes of the organic load), co-substrate pulses 
+ * (short additions of fat rich COD) and autocorrelated noise.
+ * 
+ * The strength of each profile is a factor with a range, the factors of a set of scenarios are 
+ * sampled by latin hypercube so the scenarios cover the ranges evenly. Each series is reproducible 
+ * from the seed and its scenario number.
+ * 
+ * @author liampetti
+ *
+ */
+public class InfluentGenerator {
+	public final static Logger LOGGER = Logger.getLogger(InfluentGenerator.class.getName());
+	
+	/*
+	 * Profile factors
+	 */
+	public static final int DIURNAL = 0; // Amplitude of the daily flow variation (fraction of the base flow)
+	public static final int RAIN_RATE = 1; // Rain events per day
+	public static final int RAIN_FLOW = 2; // Peak flow during rain (multiple of the base flow)
+	public static final int SHOCK_RATE = 3; // Feed shocks per day
+	public static final int SHOCK_LOAD = 4; // Organic concentrations during a shock (multiple of the base)
+	public static final int COSUB_RATE = 5; // Co-substrate pulses per day
+	public static final int COSUB_COD = 6; // COD added by a pulse (kg COD/m3)
+	public static final int NOISE = 7; // Relative standard deviation of the noise
+	public static final int FACTORS = 8;
+	public static final String[] FACTOR_NAMES = {"diurnal", "rain_rate", "rain_flow", "shock_rate", "shock_load", 
+		"cosub_rate", "cosub_cod", "noise"};
+	
+	// Organic substrates scaled by feed shocks: sugars, amino acids, LCFA, VFA, carbohydrates, proteins, lipids
+	private static final int[] ORGANIC = {0, 1, 2, 3, 4, 5, 6, 13, 14, 15};
+	// Concentrations diluted by rain (all liquid and particulate components except the ions)
+	private static final int LAST_CONCENTRATION = StateVariables.S_AN;
+	
+	private static final double RAIN_DURATION = 0.5; // Mean duration of a rain event (d)
+	private static final double SHOCK_DURATION = 1.0; // Mean duration of a feed shock (d)
+	private static final double COSUB_DURATION = 0.0833333333; // Duration of a co-substrate pulse (d, 2 hours)
+	private static final double NOISE_CORRELATION = 0.1; // Correlation time of the noise (d)
+	
+	private double[] base;
+	private double[][] ranges;
+	private double duration;
+	private double step;
+	private long seed;
+	private int threads;
+	
+	/**
+	 * Generator around the BSM2 influent
+	 */
+	public InfluentGenerator() {
+		this(new BSM2Defaults().Influent());
+	}
+	
+	/**
+	 * @param base	Influent the profiles are applied to (StateVariables layout)
+	 */
+	public InfluentGenerator(double[] base) {
+		StateVariables u = new StateVariables();
+		u.setVar(base);
+		this.base = u.getVar();
+		ranges = new double[FACTORS][];
+		ranges[DIURNAL] = new double[] {0.1, 0.4};
+		ranges[RAIN_RATE] = new double[] {0.0, 0.1};
+		ranges[RAIN_FLOW] = new double[] {1.5, 3.0};
+		ranges[SHOCK_RATE] = new double[] {0.0, 0.05};
+		ranges[SHOCK_LOAD] = new double[] {1.2, 2.0};
+		ranges[COSUB_RATE] = new double[] {0.0, 0.5};
+		ranges[COSUB_COD] = new double[] {5.0, 30.0};
+		ranges[NOISE] = new double[] {0.0, 0.1};
+		duration = 30.0;
+		step = 0.01041666667; // 15 minutes in days
+		seed = 1;
+		threads = Runtime.getRuntime().availableProcessors();
+	}
+	
+	/**
+	 * Range of a profile factor in the latin hypercube, equal values fix the factor
+	 */
+	public void setRange(int factor, double min, double max) {
+		ranges[factor] = new double[] {min, max};
+	}
+	
+	public double[] getRange(int factor) {
+		return ranges[factor].clone();
+	}
+	
+	/**
+	 * Length of each series (in days)
+	 */
+	public void setDuration(double duration) {
+		this.duration = duration;
+	}
+	
+	/**
+	 * Time between rows (in days)
+	 */
+	public void setStep(double step) {
+		this.step = step;
+	}
+	
+	public double getStep() {
+		return step;
+	}
+	
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+	
+	/**
+	 * Threads used to generate several series
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	/**
+	 * Latin hypercube sample of the profile factors
+	 * 
+	 * @param n	Number of scenarios
+	 * @return Factors [n][FACTORS]
+	 */
+	public double[][] design(int n) {
+		double[][] design = SurrogateTrainer.latinHypercube(n, FACTORS, new Random(seed));
+		for (int i=0;i<n;i++) {
+			for (int j=0;j<FACTORS;j++) {
+				design[i][j] = ranges[j][0]+design[i][j]*(ranges[j][1]-ranges[j][0]);
+			}
+		}
+		return design;
+	}
+	
+	/**
+	 * Series for each row of a design, generated in parallel
+	 */
+	public List<InfluentSeries> generate(final double[][] design) {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, design.length)));
+		try {
+			List<Future<InfluentSeries>> tasks = new ArrayList<Future<InfluentSeries>>();
+			for (int i=0;i<design.length;i++) {
+				final int scenario = i;
+				tasks.add(pool.submit(new Callable<InfluentSeries>() {
+					public InfluentSeries call() {
+						return generate(scenario, design[scenario]);
+					}
+				}));
+			}
+			List<InfluentSeries> series = new ArrayList<InfluentSeries>();
+			for (Future<InfluentSeries> task : tasks) {
+				series.add(task.get());
+			}
+			return series;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Influent generation interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Influent generation failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Dynamic scenarios fed directly from generated series (no influent files), 
+	 * named prefix_0, prefix_1... and run with a BatchRunner
+	 * 
+	 * @param n			Number of scenarios
+	 * @param prefix	Scenario name prefix
+	 */
+	public List<Scenario> scenarios(int n, String prefix) {
+		List<InfluentSeries> series = generate(design(n));
+		List<Scenario> scenarios = new ArrayList<Scenario>();
+		for (int i=0;i<n;i++) {
+			Scenario scenario = new Scenario(prefix + "_" + i, false);
+			scenario.setInfluent(series.get(i));
+			scenario.setTime(0.0, duration);
+			scenario.setStep(step);
+			scenarios.add(scenario);
+		}
+		return scenarios;
+	}
+	
+	/**
+	 * One series with the given profile factors
+	 * 
+	 * @param scenario	Scenario number, selects the random stream
+	 * @param factors	Profile factors [FACTORS]
+	 */
+	public InfluentSeries generate(int scenario, double[] factors) {
+		Random rand = new Random(seed*1000003L+scenario);
+		int n = (int) Math.round(duration/step);
+		double[] rain = events(rand, factors[RAIN_RATE], RAIN_DURATION, n);
+		double[] shock = events(rand, factors[SHOCK_RATE], SHOCK_DURATION, n);
+		double[] pulse = pulses(rand, factors[COSUB_RATE], n);
+		
+		double phi = Math.exp(-step/NOISE_CORRELATION);
+		double innovation = Math.sqrt(1.0-phi*phi);
+		double noiseFlow = 0.0, noiseLoad = 0.0;
+		
+		double[][] rows = new double[n][];
+		for (int k=0;k<n;k++) {
+			double t = k*step;
+			double[] u = base.clone();
+			noiseFlow = phi*noiseFlow+innovation*rand.nextGaussian();
+			noiseLoad = phi*noiseLoad+innovation*rand.nextGaussian();
+			
+			// Diurnal pattern, flow peaks around noon and the load a little later
+			double flow = 1.0+factors[DIURNAL]*Math.sin(2.0*Math.PI*(t-0.25));
+			double load = 1.0+0.5*factors[DIURNAL]*Math.sin(2.0*Math.PI*(t-0.3));
+			// Rain adds water with the same load, a smooth peak over the event
+			double dilution = 1.0+(factors[RAIN_FLOW]-1.0)*rain[k];
+			flow *= dilution*Math.max(1.0+factors[NOISE]*noiseFlow, 0.1);
+			load *= Math.max(1.0+factors[NOISE]*noiseLoad, 0.1)/dilution;
+			
+			for (int i=0;i<=LAST_CONCENTRATION;i++) {
+				u[i] *= load;
+			}
+			for (int i : ORGANIC) {
+				u[i] *= 1.0+(factors[SHOCK_LOAD]-1.0)*shock[k];
+			}
+			// Co-substrate (e.g. grease trap waste): mostly lipids
+			double cod = factors[COSUB_COD]*pulse[k];
+			u[StateVariables.X_LI] += 0.6*cod;
+			u[StateVariables.X_CH] += 0.3*cod;
+			u[StateVariables.X_PR] += 0.1*cod;
+			u[StateVariables.Q_D] = base[StateVariables.Q_D]*flow;
+			rows[k] = u;
+		}
+		return InfluentSeries.of("generated_" + scenario, rows);
+	}
+	
+	/**
+	 * Intensity (0 to 1) of randomly occurring events: poisson arrivals, exponential durations, 
+	 * a fast rise and an exponential decay after the event
+	 */
+	private double[] events(Random rand, double rate, double meanDuration, int n) {
+		double[] intensity = new double[n];
+		if (rate <= 0.0) {
+			return intensity;
+		}
+		double t = -Math.log(1.0-rand.nextDouble())/rate;
+		while (t < n*step) {
+			double length = -Math.log(1.0-rand.nextDouble())*meanDuration;
+			for (int k=(int) Math.ceil(t/step);k<n;k++) {
+				double s = k*step-t;
+				double value = s < length ? 1.0-Math.exp(-s/(0.1*meanDuration)) : 
+					(1.0-Math.exp(-length/(0.1*meanDuration)))*Math.exp(-(s-length)/(0.2*meanDuration));
+				if (value < 1.0e-3 && s > length) {
+					break;
+				}
+				intensity[k] = Math.max(intensity[k], value);
+			}
+			t += -Math.log(1.0-rand.nextDouble())/rate;
+		}
+		return intensity;
+	}
+	
+	/**
+	 * Rectangular co-substrate pulses (0 or 1) at poisson distributed times
+	 */
+	private double[] pulses(Random rand, double rate, int n) {
+		double[] pulse = new double[n];
+		if (rate <= 0.0) {
+			return pulse;
+		}
+		double t = -Math.log(1.0-rand.nextDouble())/rate;
+		while (t < n*step) {
+			for (int k=(int) Math.ceil(t/step);k<n && k*step < t+COSUB_DURATION;k++) {
+				pulse[k] = 1.0;
+			}
+			t += -Math.log(1.0-rand.nextDouble())/rate;
+		}
+		return pulse;
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import de.uni_erlangen.lstm.file.CSVReader;
+import de.uni_erlangen.lstm.models.adm1.InfluentInput;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * Immutable influent time series parsed once from a CSV file (or generated in memory), 
+ * can be shared by any number of concurrently running scenarios
+ * 
+ * @author liampetti
+ *
+ */
+public final class InfluentSeries {
+	public final static Logger LOGGER = Logger.getLogger(InfluentSeries.class.getName());
+	
+	private final String filename;
+	private final double[][] rows;
+	
+	private InfluentSeries(String filename, double[][] rows) {
+		this.filename = filename;
+		this.rows = rows;
+	}
+	
+	/**
+	 * Reads and parses every (non empty) line of the given file
+	 * 
+	 * @param filename	Influent file
+	 * @param splitter	Column separator
+	 */
+	public static InfluentSeries read(String filename, String splitter) {
+		CSVReader reader = new CSVReader(filename, splitter);
+		List<double[]> rows = new ArrayList<double[]>();
+		while (!reader.finished()) {
+			String[] line = reader.getNextString();
+			if (line.length > 0) {
+				double[] row = new double[line.length];
+				for (int i=0;i<row.length;i++) {
+					row[i] = Double.parseDouble(line[i]);
+				}
+				rows.add(row);
+			}
+		}
+		if (rows.isEmpty()) {
+			throw new IllegalArgumentException("No influent data in " + filename);
+		}
+		return new InfluentSeries(filename, rows.toArray(new double[rows.size()][]));
+	}
+	
+	/**
+	 * Series of rows created in memory (e.g. by the InfluentGenerator), the rows are not copied
+	 * 
+	 * @param name	Name reported instead of a file name
+	 * @param rows	One influent per time step
+	 */
+	public static InfluentSeries of(String name, double[][] rows) {
+		if (rows.length == 0) {
+			throw new IllegalArgumentException("No influent data in " + name);
+		}
+		return new InfluentSeries(name, rows);
+	}
+	
+	public String getFilename() {
+		return filename;
+	}
+	
+	/**
+	 * Number of rows (time steps)
+	 */
+	public int size() {
+		return rows.length;
+	}
+	
+	/**
+	 * Number of values in the given row
+	 */
+	public int width(int row) {
+		return rows[row].length;
+	}
+	
+	public double get(int row, int i) {
+		return rows[row][i];
+	}
+	
+	/**
+	 * Points the influent at the given row without copying (flyweight), 
+	 * rows in the BSM2 export format (fewer than 43 values) are converted into the buffer
+	 */
+	void view(int row, StateVariables influent, double[] buffer) {
+		if (rows[row].length >= StateVariables.SIZE) {
+			influent.point(rows[row], 0);
+		} else {
+			influent.point(buffer, 0);
+			influent.setVar(rows[row]);
+		}
+	}
+	
+	/**
+	 * Copy of the given row
+	 */
+	public double[] getRow(int row) {
+		return rows[row].clone();
+	}
+	
+	/**
+	 * The series as an influent input for a single model run over all rows
+	 * 
+	 * @param start	Time of the first row
+	 * @param step	Time between the rows
+	 * @param mode	InfluentInput.STEP, LINEAR or CUBIC
+	 */
+	public InfluentInput input(double start, double step, int mode) {
+		return new InfluentInput(start, step, rows, mode);
+	}
+}
@@ -0,0 +1,425 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import de.uni_erlangen.lstm.file.CSVWriter;
+import de.uni_erlangen.lstm.file.OutputSink;
+import de.uni_erlangen.lstm.file.OutputSinks;
+import de.uni_erlangen.lstm.modelaccess.DiscreteEvent;
+import de.uni_erlangen.lstm.modelaccess.Model;
+import de.uni_erlangen.lstm.modelaccess.RunFingerprint;
+import de.uni_erlangen.lstm.models.adm1.BSM2Defaults;
+import de.uni_erlangen.lstm.models.adm1.DigesterParameters;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+import de.uni_erlangen.lstm.models.adm1.petersen.PetersenMatrix;
+
+/**
+ * One steady or dynamic simulation of a batch, set up like the command line options of Main
+ * 
+ * @author liampetti
+ *
+ */
+public class Scenario {
+	public final static Logger LOGGER = Logger.getLogger(Scenario.class.getName());
+	
+	
+	private String name;
+	private boolean steady;
+	private String influentFile;
+	private InfluentSeries influent; // Series in memory, used instead of the influent file
+	private String initFile;
+	private String paramFile;
+	private double start;
+	private double finish;
+	private double step;
+	private boolean dae;
+	private boolean fast;
+	private String matrixFile; // Petersen matrix, null for the built-in model
+	private boolean phosphorus;
+	private boolean reproducible; // StrictMath and run fingerprints
+	private List<double[]> events; // Variable number, value, rising (1) or falling (0)
+	private long timeout; // Wall clock limit (ms), zero for none
+	private volatile boolean cancelled;
+	private volatile Model model; // Model currently running
+	
+	// Results
+	private boolean finished;
+	private String error;
+	private long runtime;
+	private double end;
+	private double[] x;
+	private RunFingerprint fingerprint;
+	
+	/**
+	 * Scenario with the defaults of Main
+	 * 
+	 * @param name		Used to name the output file
+	 * @param steady	Steady or dynamic simulation
+	 */
+	public Scenario(String name, boolean steady) {
+		this.name = name;
+		this.steady = steady;
+		start = 0.0;
+		if (steady) {
+			finish = 200.0;
+			step = 0.1;
+		} else {
+			influentFile = "digesterin.csv";
+			finish = 609.0;
+			step = 0.01041666667; // 15 minutes in days	
+		}
+		dae = true;
+		events = new ArrayList<double[]>();
+	}
+	
+	/**
+	 * Creates a scenario from one manifest row
+	 * 
+	 * @param row Values by column name (name, type, in, init, param, s, f, step, ode, fast, petersen, biop, repro, event)
+	 */
+	public static Scenario fromRow(Map<String, String> row) {
+		String name = value(row, "name");
+		if (name == null) {
+			throw new IllegalArgumentException("Scenario without name");
+		}
+		String type = value(row, "type");
+		Scenario scenario = new Scenario(name, type == null || type.equalsIgnoreCase("steady"));
+		if (type != null && !type.equalsIgnoreCase("steady") && !type.equalsIgnoreCase("dynamic")) {
+			throw new IllegalArgumentException("Unknown scenario type " + type);
+		}
+		if (value(row, "in") != null) scenario.setInfluentFile(value(row, "in"));
+		if (value(row, "init") != null) scenario.setInitFile(value(row, "init"));
+		if (value(row, "param") != null) scenario.setParamFile(value(row, "param"));
+		if (value(row, "s") != null) scenario.start = Double.parseDouble(value(row, "s"));
+		if (value(row, "f") != null) scenario.finish = Double.parseDouble(value(row, "f"));
+		if (value(row, "step") != null) scenario.step = Double.parseDouble(value(row, "step"));
+		if (value(row, "ode") != null) scenario.dae = !Boolean.parseBoolean(value(row, "ode"));
+		if (value(row, "fast") != null) scenario.fast = Boolean.parseBoolean(value(row, "fast"));
+		if (value(row, "petersen") != null) scenario.setMatrixFile(value(row, "petersen"));
+		if (value(row, "biop") != null) scenario.phosphorus = Boolean.parseBoolean(value(row, "biop"));
+		if (value(row, "repro") != null) scenario.reproducible = Boolean.parseBoolean(value(row, "repro"));
+		if (value(row, "event") != null) {
+			// Events separated by |, each as variable number:value:rising
+			for (String event : value(row, "event").split("\\|")) {
+				String[] spec = event.trim().split(":");
+				scenario.addEvent(Integer.parseInt(spec[0]), Double.parseDouble(spec[1]), Boolean.parseBoolean(spec[2]));
+			}
+		}
+		return scenario;
+	}
+	
+	private static String value(Map<String, String> row, String key) {
+		String value = row.get(key);
+		if (value == null || value.trim().isEmpty()) {
+			return null;
+		}
+		return value.trim();
+	}
+	
+	public void setInfluentFile(String influentFile) {
+		this.influentFile = influentFile;
+	}
+	
+	/**
+	 * Dynamic influent held in memory (e.g. generated), no file is read
+	 */
+	public void setInfluent(InfluentSeries influent) {
+		this.influent = influent;
+	}
+	
+	public void setInitFile(String initFile) {
+		this.initFile = initFile;
+	}
+	
+	public void setParamFile(String paramFile) {
+		this.paramFile = paramFile;
+	}
+	
+	public void setTime(double start, double finish) {
+		this.start = start;
+		this.finish = finish;
+	}
+	
+	public void setStep(double step) {
+		this.step = step;
+	}
+	
+	public void setDAE(boolean dae) {
+		this.dae = dae;
+	}
+	
+	public void setFastMath(boolean fast) {
+		this.fast = fast;
+	}
+	
+	/**
+	 * Process rates from a Petersen matrix file, as the -petersen option of Main
+	 */
+	public void setMatrixFile(String matrixFile) {
+		this.matrixFile = matrixFile;
+	}
+	
+	/**
+	 * Bio-P states and processes, as the -biop option of Main
+	 */
+	public void setPhosphorus(boolean phosphorus) {
+		this.phosphorus = phosphorus;
+	}
+	
+	/**
+	 * Reproducible mode with run fingerprints, as the -repro option of Main
+	 */
+	public void setReproducible(boolean reproducible) {
+		this.reproducible = reproducible;
+	}
+	
+	/**
+	 * Stop event, as the -event option of Main
+	 */
+	public void addEvent(int i, double target, boolean dirIncrease) {
+		events.add(new double[] { i, target, dirIncrease ? 1.0 : 0.0 });
+	}
+	
+	/**
+	 * Stop the scenario if it runs longer than the given wall clock time
+	 * 
+	 * @param millis Time limit in milliseconds, zero for no limit
+	 */
+	public void setTimeout(long millis) {
+		this.timeout = millis;
+	}
+	
+	/**
+	 * Stop the scenario at the next integration step, or skip it if it has not started
+	 */
+	public void cancel() {
+		cancelled = true;
+		Model current = model;
+		if (current != null) {
+			current.cancel();
+		}
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public boolean isSteady() {
+		return steady;
+	}
+	
+	public String getInfluentFile() {
+		return influent != null ? influent.getFilename() : influentFile;
+	}
+	
+	/**
+	 * Name of the per scenario output file
+	 */
+	public String getOutputFile() {
+		return name + (steady ? "_steady_result.csv" : "_dynamic_output.csv");
+	}
+	
+	/**
+	 * Run the scenario and write its output, influent files are taken from the cache
+	 */
+	public void run(InfluentCache cache) {
+		long stime = System.currentTimeMillis();
+		finished = false;
+		error = null;
+		fingerprint = null;
+		if (cancelled) {
+			error = "cancelled";
+			finished = true;
+			return;
+		}
+		try {
+			StateVariables initial = new StateVariables();
+			initial.setVar(new BSM2Defaults().DigesterInit());
+			if (initFile != null) {
+				initial.readVar(initFile);
+			}
+			DigesterParameters parameters = new DigesterParameters();
+			if (paramFile != null) {
+				parameters.readParameters(paramFile);
+			}
+			if (steady) {
+				runSteady(cache, initial, parameters);
+			} else {
+				runDynamic(cache, initial, parameters);
+			}
+		} catch (RuntimeException e) {
+			error = e.toString();
+			LOGGER.severe(name + ": " + error);
+		}
+		model = null;
+		runtime = System.currentTimeMillis()-stime;
+		finished = true;
+	}
+	
+	private Model createModel(double end, DigesterParameters parameters, StateVariables initial, StateVariables influent) {
+		Model model = new Model(start, end, parameters, initial, influent, false, null);
+		model.setDAE(dae);
+		model.setFastMath(fast);
+		model.setPhosphorus(phosphorus);
+		if (matrixFile != null) {
+			// Matrices with the same content share one compiled kernel class
+			model.setKernel(PetersenMatrix.read(matrixFile).getKernel());
+		}
+		List<DiscreteEvent> discrete = new ArrayList<DiscreteEvent>();
+		for (double[] event : events) {
+			discrete.add(new DiscreteEvent((int) event[0], event[1], event[2] > 0));
+		}
+		model.addEvents(discrete);
+		if (reproducible) {
+			model.setReproducible(true);
+			fingerprint = model.getFingerprint();
+			if (this.influent == null && influentFile != null) {
+				fingerprint.addInputFile("influent file", influentFile);
+			}
+		}
+		this.model = model;
+		if (cancelled) {
+			model.cancel();
+		}
+		return model;
+	}
+	
+	private void runSteady(InfluentCache cache, StateVariables initial, DigesterParameters parameters) {
+		StateVariables influent = new StateVariables();
+		if (influentFile != null) {
+			// Last line without time, as StateVariables.readVar
+			InfluentSeries series = cache.get(influentFile, ";");
+			int last = series.size()-1;
+			double[] u = new double[series.width(last)-1];
+			for (int i=1;i<u.length;i++) {
+				u[i-1] = series.get(last, i);
+			}
+			influent.setVar(u);
+		} else {
+			influent.setVar(new BSM2Defaults().Influent());
+		}
+		Model model = createModel(finish, parameters, initial, influent);
+		model.setTimeout(timeout);
+		model.simulate();
+		x = model.getX().clone();
+		end = model.getEnd();
+		if (model.isCancelled()) {
+			error = model.isTimedOut() ? "timed out" : "cancelled";
+		}
+		
+		double[] u = model.getU();
+		String output = "Scenario; " + name + 
+				"; Start; " + start + 
+				"; Finish; " + end + "\n";
+		for (int i=0;i<x.length;i++) {
+			output += "State no; " + (i+1) + 
+					";\t Influent; " + u[i] + 
+					";\t Effluent; " + x[i] + "\n";
+	 	}
+		new CSVWriter().WriteString(getOutputFile(), output, false);
+	}
+	
+	private void runDynamic(InfluentCache cache, StateVariables initial, DigesterParameters parameters) {
+		InfluentSeries series = this.influent != null ? this.influent : cache.get(influentFile, ",");
+		// Same format as the dynamic output of the command line (header line, format by file extension)
+		OutputSink sink = OutputSinks.forFile(getOutputFile());
+		sink.open(OutputSinks.columns("t", StateVariables.NAMES));
+		StateVariables influent = new StateVariables();
+		double[] buffer = new double[StateVariables.SIZE];
+		Model model = createModel(start+step, parameters, initial, influent);
+		
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+		double t = start;
+		double[] row = new double[StateVariables.SIZE+1];
+		try {
+			for (int r=0;r<series.size();r++) {
+				if (deadline != 0) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						error = "timed out";
+						break;
+					}
+					model.setTimeout(remaining);
+				}
+				series.view(r, influent, buffer);
+				model.setInfluent(influent);
+				model.setTime(t, t+step);
+				model.simulate();
+				if (model.isCancelled()) {
+					error = model.isTimedOut() ? "timed out" : "cancelled";
+					break;
+				}
+			
+				// Time followed by the state
+				row[0] = t;
+				System.arraycopy(model.getX(), 0, row, 1, StateVariables.SIZE);
+				sink.write(row);
+				t = t+step;
+			}
+		} finally {
+			sink.close();
+		}
+		x = model.getX().clone();
+		end = t;
+	}
+	
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	/**
+	 * Error message if the scenario failed, null otherwise
+	 */
+	public String getError() {
+		return error;
+	}
+	
+	/**
+	 * Wall clock time of the run (ms)
+	 */
+	public long getRuntime() {
+		return runtime;
+	}
+	
+	public double getEnd() {
+		return end;
+	}
+	
+	/**
+	 * Final digester state
+	 */
+	public double[] getX() {
+		return x;
+	}
+	
+	/**
+	 * Fingerprint of the last run in reproducible mode, null otherwise
+	 */
+	public RunFingerprint getFingerprint() {
+		return fingerprint;
+	}
+}
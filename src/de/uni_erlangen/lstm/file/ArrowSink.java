@@ -0,0 +1,344 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+
+package de.uni_erlangen.lstm.file;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * Arrow IPC streaming format output (read with pyarrow.ipc.open_stream, Arrow JS, etc.), 
+ * one non-nullable float64 column per value. Rows are collected into record batches.
+ * 
+ * The flatbuffer metadata is written directly, no Arrow library is needed.
+ * 
+ * @author liampetti
+ *
+ */
+public class ArrowSink implements OutputSink {
+	public final static Logger LOGGER = Logger.getLogger(ArrowSink.class.getName());
+	
+	// Arrow format constants (Schema.fbs, Message.fbs)
+	private static final short METADATA_V5 = 4;
+	private static final byte HEADER_SCHEMA = 1, HEADER_RECORD_BATCH = 3;
+	private static final byte TYPE_FLOATING_POINT = 3;
+	private static final short PRECISION_DOUBLE = 2;
+	private static final int CONTINUATION = 0xFFFFFFFF;
+	
+	private String filename;
+	private int batchSize;
+	private OutputStream out;
+	private double[][] columns;
+	private int rows;
+	
+	public ArrowSink(String filename) {
+		this(filename, 4096);
+	}
+	
+	/**
+	 * @param batchSize	Rows per record batch
+	 */
+	public ArrowSink(String filename, int batchSize) {
+		this.filename = filename;
+		this.batchSize = batchSize;
+	}
+	
+	public void open(String[] names) {
+		columns = new double[names.length][batchSize];
+		rows = 0;
+		try {
+			out = new BufferedOutputStream(OutputSinks.create(filename), 1 << 16);
+			message(schema(names));
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+	
+	public void write(double[] row) {
+		if (out == null) {
+			return;
+		}
+		for (int i=0;i<columns.length;i++) {
+			columns[i][rows] = i < row.length ? row[i] : Double.NaN;
+		}
+		rows++;
+		if (rows == batchSize) {
+			flush();
+		}
+	}
+	
+	public void close() {
+		if (out == null) {
+			return;
+		}
+		flush();
+		try {
+			// End of stream marker
+			ByteBuffer eos = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			eos.putInt(CONTINUATION).putInt(0);
+			out.write(eos.array());
+			out.close();
+		} catch (IOException e) {
+			LOGGER.severe(e.toString());
+		}
+		out = null;
+	}
+	
+	/**
+	 * Writes the collected rows as one record batch
+	 */
+	private void flush() {
+		if (out == null || rows == 0) {
+			return;
+		}
+		int n = columns.length;
+		long bytes = rows*8L;
+		long[] nodes = new long[2*n];
+		long[] buffers = new long[4*n];
+		for (int i=0;i<n;i++) {
+			nodes[2*i] = rows; // Length, no nulls
+			buffers[4*i] = i*bytes; // Empty validity bitmap
+			buffers[4*i+2] = i*bytes; // Values
+			buffers[4*i+3] = bytes;
+		}
+		Flatbuffer fb = new Flatbuffer();
+		int[] message = new int[4];
+		fb.table(message, 2, 1, 4, 8);
+		fb.putShort(message[0], METADATA_V5);
+		fb.putByte(message[1], HEADER_RECORD_BATCH);
+		fb.putLong(message[3], n*bytes);
+		int[] batch = new int[3];
+		fb.link(message[2], fb.table(batch, 8, 4, 4));
+		fb.putLong(batch[0], rows);
+		fb.link(batch[1], fb.structs(nodes));
+		fb.link(batch[2], fb.structs(buffers));
+		try {
+			message(fb);
+			ByteBuffer body = ByteBuffer.allocate((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i=0;i<n;i++) {
+				body.clear();
+				for (int r=0;r<rows;r++) {
+					body.putDouble(columns[i][r]);
+				}
+				out.write(body.array(), 0, body.position());
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+		rows = 0;
+	}
+	
+	private static Flatbuffer schema(String[] names) {
+		Flatbuffer fb = new Flatbuffer();
+		int[] message = new int[4];
+		fb.table(message, 2, 1, 4, 8);
+		fb.putShort(message[0], METADATA_V5);
+		fb.putByte(message[1], HEADER_SCHEMA);
+		int[] schema = new int[2];
+		fb.link(message[2], fb.table(schema, 0, 4)); // Little endian (default)
+		int[] slots = new int[names.length];
+		fb.link(schema[1], fb.offsets(slots));
+		for (int i=0;i<names.length;i++) {
+			int[] field = new int[6];
+			fb.link(slots[i], fb.table(field, 4, 1, 1, 4, 0, 4)); // Not nullable
+			fb.putByte(field[2], TYPE_FLOATING_POINT);
+			fb.link(field[0], fb.string(names[i]));
+			int[] type = new int[1];
+			fb.link(field[3], fb.table(type, 2));
+			fb.putShort(type[0], PRECISION_DOUBLE);
+			fb.link(field[5], fb.offsets(new int[0])); // No children
+		}
+		return fb;
+	}
+	
+	/**
+	 * Encapsulated message header: continuation marker, metadata size, metadata (8 byte aligned), the body follows
+	 */
+	private void message(Flatbuffer metadata) throws IOException {
+		byte[] meta = metadata.finish();
+		ByteBuffer prefix = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		prefix.putInt(CONTINUATION).putInt(meta.length);
+		out.write(prefix.array());
+		out.write(meta);
+	}
+	
+	private void fail(IOException e) {
+		LOGGER.severe(e.toString());
+		try {
+			out.close();
+		} catch (IOException c) {
+			LOGGER.severe(c.toString());
+		}
+		out = null;
+	}
+	
+	/**
+	 * Minimal flatbuffer writer. Objects are laid out front to back (the root first, children after their parent),
+	 * so all offsets point forward as the format requires. Each vtable directly precedes its table.
+	 */
+	static final class Flatbuffer {
+		private ByteBuffer buf;
+		
+		Flatbuffer() {
+			buf = ByteBuffer.allocate(512).order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt(0); // Root table offset
+		}
+		
+		/**
+		 * Writes a table with the given field sizes in bytes (0 for absent fields), values are zero 
+		 * until set with put or link
+		 * 
+		 * @param fields	Receives the position of each field
+		 * @return Position of the table, the first table is the root
+		 */
+		int table(int[] fields, int... sizes) {
+			int n = sizes.length;
+			int[] rel = new int[n];
+			int size = 4; // soffset to the vtable
+			for (int s=8;s>=1;s/=2) {
+				for (int i=0;i<n;i++) {
+					if (sizes[i] == s) {
+						size = align(size, s);
+						rel[i] = size;
+						size += s;
+					}
+				}
+			}
+			int vtable = 4+2*n;
+			int start = align(buf.position()+vtable, 8);
+			reserve(start-buf.position()+size);
+			pad(start-vtable);
+			buf.putShort((short) vtable);
+			buf.putShort((short) size);
+			for (int i=0;i<n;i++) {
+				buf.putShort((short) rel[i]);
+			}
+			buf.putInt(vtable);
+			pad(start+size);
+			for (int i=0;i<n;i++) {
+				fields[i] = start+rel[i];
+			}
+			if (buf.getInt(0) == 0) {
+				buf.putInt(0, start);
+			}
+			return start;
+		}
+		
+		/**
+		 * Vector of structs made of longs (FieldNode, Buffer), elements 8 byte aligned
+		 */
+		int structs(long[] values) {
+			int start = align(buf.position()+4, 8)-4;
+			reserve(start-buf.position()+4+8*values.length);
+			pad(start);
+			buf.putInt(values.length/2);
+			for (long v : values) {
+				buf.putLong(v);
+			}
+			return start;
+		}
+		
+		/**
+		 * Vector of table offsets
+		 * 
+		 * @param slots	Receives the position of each element, set with link
+		 */
+		int offsets(int[] slots) {
+			int start = align(buf.position(), 4);
+			reserve(start-buf.position()+4+4*slots.length);
+			pad(start);
+			buf.putInt(slots.length);
+			for (int i=0;i<slots.length;i++) {
+				slots[i] = buf.position();
+				buf.putInt(0);
+			}
+			return start;
+		}
+		
+		int string(String s) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			int start = align(buf.position(), 4);
+			reserve(start-buf.position()+5+bytes.length);
+			pad(start);
+			buf.putInt(bytes.length);
+			buf.put(bytes);
+			buf.put((byte) 0);
+			return start;
+		}
+		
+		/**
+		 * Sets an offset field to an object written after it
+		 */
+		void link(int field, int target) {
+			buf.putInt(field, target-field);
+		}
+		
+		void putByte(int field, byte value) {
+			buf.put(field, value);
+		}
+		
+		void putShort(int field, short value) {
+			buf.putShort(field, value);
+		}
+		
+		void putLong(int field, long value) {
+			buf.putLong(field, value);
+		}
+		
+		/**
+		 * The flatbuffer padded to a multiple of 8 bytes
+		 */
+		byte[] finish() {
+			int end = align(buf.position(), 8);
+			reserve(end-buf.position());
+			pad(end);
+			byte[] bytes = new byte[end];
+			buf.flip();
+			buf.get(bytes);
+			return bytes;
+		}
+		
+		private void pad(int position) {
+			while (buf.position() < position) {
+				buf.put((byte) 0);
+			}
+		}
+		
+		private void reserve(int bytes) {
+			if (buf.remaining() < bytes) {
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(2*buf.capacity(), buf.position()+bytes)).order(ByteOrder.LITTLE_ENDIAN);
+				buf.flip();
+				bigger.put(buf);
+				buf = bigger;
+			}
+		}
+		
+		private static int align(int position, int alignment) {
+			return (position+alignment-1)/alignment*alignment;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+
+package de.uni_erlangen.lstm.file;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ * Passes the rows to another sink on a background writer thread, so formatting and file I/O 
+ * run beside the simulation. Rows are copied into reusable buffers and handed over through a 
+ * bounded queue; the caller only waits when the writer falls a full queue behind.
+ * 
+ * @author liampetti
+ *
+ */
+public class AsyncSink implements OutputSink {
+	public final static Logger LOGGER = Logger.getLogger(AsyncSink.class.getName());
+	
+	private static final double[] END = new double[0];
+	
+	private final OutputSink sink;
+	private final BlockingQueue<double[]> queue; // Rows waiting for the writer
+	private final BlockingQueue<double[]> free; // Written rows for reuse
+	private Thread writer;
+	
+	public AsyncSink(OutputSink sink) {
+		this(sink, 1024);
+	}
+	
+	/**
+	 * @param sink		The sink that writes the rows
+	 * @param capacity	Rows that can wait for the writer
+	 */
+	public AsyncSink(OutputSink sink, int capacity) {
+		this.sink = sink;
+		this.queue = new ArrayBlockingQueue<double[]>(capacity);
+		this.free = new ArrayBlockingQueue<double[]>(capacity);
+	}
+	
+	public void open(final String[] columns) {
+		queue.clear();
+		writer = new Thread(new Runnable() {
+			public void run() {
+				boolean failed = false;
+				try {
+					sink.open(columns);
+				} catch (RuntimeException e) {
+					LOGGER.severe(e.toString());
+					failed = true;
+				}
+				while (true) {
+					double[] row;
+					try {
+						row = queue.take();
+					} catch (InterruptedException e) {
+						break;
+					}
+					if (row == END) {
+						break;
+					}
+					// Keep taking rows after a failure so the simulation is never blocked
+					if (!failed) {
+						try {
+							sink.write(row);
+						} catch (RuntimeException e) {
+							LOGGER.severe(e.toString());
+							failed = true;
+						}
+					}
+					free.offer(row);
+				}
+				sink.close();
+			}
+		}, "output-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	public void write(double[] row) {
+		double[] copy = free.poll();
+		if (copy == null || copy.length != row.length) {
+			copy = new double[row.length];
+		}
+		System.arraycopy(row, 0, copy, 0, row.length);
+		put(copy);
+	}
+	
+	/**
+	 * Waits until the writer has written all rows and closed the sink
+	 */
+	public void close() {
+		if (writer == null) {
+			return;
+		}
+		put(END);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.warning("Interrupted while closing the output: " + e.toString());
+		}
+		writer = null;
+	}
+	
+	private void put(double[] row) {
+		try {
+			queue.put(row);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.warning("Output row dropped: " + e.toString());
+		}
+	}
+}
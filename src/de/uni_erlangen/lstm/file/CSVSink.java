@@ -0,0 +1,108 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+
+package de.uni_erlangen.lstm.file;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * Buffered CSV output with a header line and no trailing separator
+ * 
+ * @author liampetti
+ *
+ */
+public class CSVSink implements OutputSink {
+	public final static Logger LOGGER = Logger.getLogger(CSVSink.class.getName());
+	
+	private String filename;
+	private String separator;
+	private Writer out;
+	private StringBuilder line;
+	
+	public CSVSink(String filename) {
+		this(filename, ";");
+	}
+	
+	public CSVSink(String filename, String separator) {
+		this.filename = filename;
+		this.separator = separator;
+		this.line = new StringBuilder();
+	}
+	
+	public void open(String[] columns) {
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(OutputSinks.create(filename), StandardCharsets.UTF_8), 1 << 16);
+			line.setLength(0);
+			for (int i=0;i<columns.length;i++) {
+				if (i > 0) {
+					line.append(separator);
+				}
+				line.append(columns[i]);
+			}
+			line.append('\n');
+			out.write(line.toString());
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+	
+	public void write(double[] row) {
+		if (out == null) {
+			return;
+		}
+		line.setLength(0);
+		for (int i=0;i<row.length;i++) {
+			if (i > 0) {
+				line.append(separator);
+			}
+			line.append(row[i]);
+		}
+		line.append('\n');
+		try {
+			out.write(line.toString());
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+	
+	public void close() {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			LOGGER.severe(e.toString());
+		}
+		out = null;
+	}
+	
+	private void fail(IOException e) {
+		LOGGER.severe(e.toString());
+		close();
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+
+package de.uni_erlangen.lstm.file;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * Newline delimited JSON output, one object per row with the column names as keys. 
+ * Values that are not finite are written as null.
+ * 
+ * @author liampetti
+ *
+ */
+public class NDJSONSink implements OutputSink {
+	public final static Logger LOGGER = Logger.getLogger(NDJSONSink.class.getName());
+	
+	private String filename;
+	private String[] keys; // Quoted column names with the separators
+	private Writer out;
+	private StringBuilder line;
+	
+	public NDJSONSink(String filename) {
+		this.filename = filename;
+		this.line = new StringBuilder();
+	}
+	
+	public void open(String[] columns) {
+		keys = new String[columns.length];
+		for (int i=0;i<columns.length;i++) {
+			keys[i] = (i == 0 ? "{" : ",") + quote(columns[i]) + ":";
+		}
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(OutputSinks.create(filename), StandardCharsets.UTF_8), 1 << 16);
+		} catch (IOException e) {
+			LOGGER.severe(e.toString());
+		}
+	}
+	
+	public void write(double[] row) {
+		if (out == null) {
+			return;
+		}
+		line.setLength(0);
+		for (int i=0;i<row.length && i<keys.length;i++) {
+			line.append(keys[i]);
+			if (Double.isNaN(row[i]) || Double.isInfinite(row[i])) {
+				line.append("null");
+			} else {
+				line.append(row[i]);
+			}
+		}
+		line.append("}\n");
+		try {
+			out.write(line.toString());
+		} catch (IOException e) {
+			LOGGER.severe(e.toString());
+			close();
+		}
+	}
+	
+	public void close() {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			LOGGER.severe(e.toString());
+		}
+		out = null;
+	}
+	
+	private static String quote(String name) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : name.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+
+package de.uni_erlangen.lstm.file;
+
+/**
+ * Receives the rows of a simulation output, one value per column. 
+ * Errors are logged by the sink, a sink that failed ignores the remaining rows.
+ * 
+ * @author liampetti
+ *
+ */
+public interface OutputSink {
+	
+	/**
+	 * Creates the output, called once before the first row
+	 * 
+	 * @param columns	Column names
+	 */
+	public void open(String[] columns);
+	
+	/**
+	 * Adds one row, the array is not kept by the sink and can be reused by the caller
+	 */
+	public void write(double[] row);
+	
+	/**
+	 * Writes all buffered rows and closes the output
+	 */
+	public void close();
+}
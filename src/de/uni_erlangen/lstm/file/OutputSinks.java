@@ -0,0 +1,73 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+
+package de.uni_erlangen.lstm.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Selects the output sink for a file name
+ * 
+ * @author liampetti
+ *
+ */
+public class OutputSinks {
+	
+	/**
+	 * Sink chosen by the file extension: .ndjson or .jsonl for NDJSON, .arrow or .arrows for the 
+	 * Arrow IPC stream, CSV with a header for anything else
+	 */
+	public static OutputSink forFile(String filename) {
+		String name = filename.toLowerCase();
+		if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+			return new NDJSONSink(filename);
+		}
+		if (name.endsWith(".arrow") || name.endsWith(".arrows")) {
+			return new ArrowSink(filename);
+		}
+		return new CSVSink(filename);
+	}
+	
+	/**
+	 * Column names of a recorded run: time followed by the state variables
+	 */
+	public static String[] columns(String time, String[] names) {
+		String[] columns = new String[names.length+1];
+		columns[0] = time;
+		System.arraycopy(names, 0, columns, 1, names.length);
+		return columns;
+	}
+	
+	/**
+	 * Opens the file for writing (replacing it), creates missing directories
+	 */
+	static OutputStream create(String filename) throws IOException {
+		File f = new File(filename);
+		if (f.getParentFile() != null) {
+			f.getParentFile().mkdirs();
+		}
+		return new FileOutputStream(f, false);
+	}
+}
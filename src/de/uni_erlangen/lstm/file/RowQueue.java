@@ -0,0 +1,151 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+
+package de.uni_erlangen.lstm.file;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free queue of reusable rows between one producer thread and one consumer thread. 
+ * The rows are allocated once, the producer fills a claimed row and publishes it, the consumer 
+ * releases a taken row when it is done with it. Both sides spin briefly and then park while 
+ * waiting for the other. A side that fails stops the queue, the other side gets the error 
+ * instead of waiting forever.
+ * 
+ * @author liampetti
+ *
+ */
+public class RowQueue {
+	private final double[][] rows;
+	private final int mask;
+	private final AtomicLong head; // Next row to take, written by the consumer
+	private final AtomicLong tail; // Next row to publish, written by the producer
+	private volatile boolean closed;
+	private volatile Throwable failure; // First error of either side, null while running
+	
+	/**
+	 * @param capacity	Number of rows, rounded up to a power of two
+	 * @param width		Values per row
+	 */
+	public RowQueue(int capacity, int width) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2)-1) << 1;
+		rows = new double[size][width];
+		mask = size-1;
+		head = new AtomicLong();
+		tail = new AtomicLong();
+	}
+	
+	/**
+	 * Producer: the next row to fill, waits while the queue is full
+	 */
+	public double[] claim() {
+		long t = tail.get();
+		for (int spins=0;t-head.get() == rows.length;spins++) {
+			check();
+			idle(spins);
+		}
+		check();
+		return rows[(int) t & mask];
+	}
+	
+	/**
+	 * Producer: hands the claimed row to the consumer
+	 */
+	public void publish() {
+		tail.lazySet(tail.get()+1);
+	}
+	
+	/**
+	 * Producer: no more rows will be published
+	 */
+	public void close() {
+		closed = true;
+	}
+	
+	/**
+	 * Either side: stops the queue after an error, claim and take (also those already waiting) 
+	 * throw an IllegalStateException with the first error as the cause
+	 */
+	public void fail(Throwable cause) {
+		if (failure == null) {
+			failure = cause;
+		}
+		closed = true;
+	}
+	
+	/**
+	 * The error the queue was stopped with, null if it did not fail
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+	
+	/**
+	 * Consumer: the next published row, waits while the queue is empty
+	 * 
+	 * @return The row, null when the queue is closed and all rows were taken
+	 */
+	public double[] take() {
+		long h = head.get();
+		for (int spins=0;h == tail.get();spins++) {
+			check();
+			if (closed && h == tail.get()) {
+				return null;
+			}
+			idle(spins);
+		}
+		check();
+		return rows[(int) h & mask];
+	}
+	
+	/**
+	 * Consumer: returns the taken row for reuse
+	 */
+	public void release() {
+		head.lazySet(head.get()+1);
+	}
+	
+	/**
+	 * Published rows not yet released
+	 */
+	public int size() {
+		return (int) (tail.get()-head.get());
+	}
+	
+	private void check() {
+		Throwable cause = failure;
+		if (cause != null) {
+			throw new IllegalStateException("Row queue stopped: " + cause, cause);
+		}
+	}
+	
+	private static void idle(int spins) {
+		if (spins < 100) {
+			// Busy wait, the other side is usually just writing
+		} else if (spins < 200) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(50000);
+		}
+	}
+}
@@ -23,15 +23,32 @@ package de.uni_erlangen.lstm.main;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 
+import de.uni_erlangen.lstm.batch.BatchRunner;
+import de.uni_erlangen.lstm.batch.InfluentGenerator;
 import de.uni_erlangen.lstm.file.CSVReader;
 import de.uni_erlangen.lstm.file.CSVWriter;
+import de.uni_erlangen.lstm.file.OutputSink;
+import de.uni_erlangen.lstm.file.OutputSinks;
+import de.uni_erlangen.lstm.file.RowQueue;
 import de.uni_erlangen.lstm.modelaccess.DiscreteEvent;
 import de.uni_erlangen.lstm.modelaccess.Model;
+import de.uni_erlangen.lstm.modelaccess.ProgressListener;
+import de.uni_erlangen.lstm.modelaccess.ResultCache;
+import de.uni_erlangen.lstm.modelaccess.RunFingerprint;
+import de.uni_erlangen.lstm.modelaccess.RunHistory;
+import de.uni_erlangen.lstm.modelaccess.Tolerances;
 import de.uni_erlangen.lstm.models.adm1.BSM2Defaults;
 import de.uni_erlangen.lstm.models.adm1.DigesterParameters;
+import de.uni_erlangen.lstm.models.adm1.InfluentInput;
 import de.uni_erlangen.lstm.models.adm1.StateVariables;
+import de.uni_erlangen.lstm.models.adm1.petersen.Kernel;
+import de.uni_erlangen.lstm.models.adm1.petersen.PetersenMatrix;
+import de.uni_erlangen.lstm.validation.ModelSetup;
+import de.uni_erlangen.lstm.validation.Validation;
 
 /**
  * Main class allows user access to the model through a command line interface
@@ -39,7 +56,8 @@ import de.uni_erlangen.lstm.models.adm1.StateVariables;
  * Command line arguments ->
  * -steady	Run steady state simulation
  * -dynamic Run dynamic simulation
- * -cont 	Write continuous output model to CSV file
+ * -cont 	Write continuous output model to file
+ * -out		Continuous output file, the format follows the extension (.csv, .ndjson, .arrows)
  * -s  		Start time (in days)
  * -f		Finish time (in days)
  * -in		Influent filename for steady (one line) or dynamic (multiple lines)
@@ -47,7 +65,32 @@ import de.uni_erlangen.lstm.models.adm1.StateVariables;
  * -param	Reactor parameters
  * -step 	Step size for dynamic model influent (in days)
  * -ode 	Run ODE model (very slow!)
+ * -fast	Use tabulated inhibition functions (fast math)
+ * -rtol	Relative integrator tolerance with absolute tolerances scaled to the typical magnitude of each state
+ * -solver	Integrator: adams (default), auto (switches between explicit and implicit on stiffness), bdf 
+ * 			or imex (fast solubles, ions and gas phase implicit, particulates explicit)
+ * -jthreads	Number of threads evaluating the Jacobian of the auto, bdf and imex solvers
  * -event 	Add state event to the simulation to tell it when to stop, three variables: variable number, variable value, rising/falling (true/false)
+ * -batch	Run all scenarios of a manifest file (shared influent files are read once)
+ * -threads	Number of scenarios run at the same time in batch mode
+ * -timeout	Stop steady or batch simulations running longer than the given time (in seconds)
+ * -cache	Directory of the result cache, steady runs with the same inputs are read from it
+ * -cachesize	Size limit of the result cache (in MB, default 256)
+ * -incremental	History file of dynamic runs, rows before the first changed influent row are taken from the previous run
+ * -snapshot	Time between the restart points of the auto, bdf and imex solvers in the history (in days, default 1)
+ * -interp	Dynamic simulation in one run with the influent held (step), linearly (linear) or monotone cubic (cubic) 
+ * 			interpolated between the rows, the output at the resolution of the influent step (not with -incremental)
+ * -synthetic	Run the given number of dynamic scenarios with generated influents (latin hypercube over the load profiles)
+ * -seed	Random seed of the generated influents
+ * -petersen	Process rates from a Petersen matrix file instead of the built-in model (see models/)
+ * -biop	Integrate the bio-P states and processes (S_IP, X_PHA, X_PP, X_PAO)
+ * -repro	Reproducible mode: StrictMath, no fast math, hashes of the inputs and of the trajectory
+ * -manifest	Run manifest file of the reproducible mode (default run_manifest.csv)
+ * -validate	Compare the BSM2 steady and dynamic cases against the reference trajectories, 
+ * 			the model options (-ode, -fast, -rtol, -solver, -petersen, -repro) select the candidate compared with the baseline
+ * -record	Write new reference trajectories from the baseline (with -validate)
+ * -ref		Reference trajectory file (default validation/bsm2_reference.csv)
+ * -tol		Per variable tolerances, lines of name;relative;absolute
  * 
  * @author liampetti
  * 
@@ -69,6 +112,21 @@ public class Main {
 	private boolean modOut; // Store all model outputs (needed for plotting)
 	private double step; // Adjust time step size for model outputs
 	private boolean dae; // Tells the model to run the algebraic equations
+	private boolean fast; // Tabulated inhibition functions
+	private Tolerances tolerances; // Per state integrator tolerances, null for the defaults
+	private int solver; // Model.ADAMS, Model.AUTO, Model.BDF or Model.IMEX
+	private int jacobianThreads = 1;
+	private long timeout; // Wall clock limit (ms)
+	private String cache_dir; // Result cache directory, null for no cache
+	private long cacheSize = 256; // Result cache limit (MB)
+	private String history_file; // Incremental dynamic runs, null to simulate all rows
+	private double snapshot = 1.0; // Time between the stored integrator states of incremental runs (days)
+	private int interp = -1; // InfluentInput mode of a dynamic simulation in one run, -1 for one run per row
+	private Kernel kernel; // Petersen matrix process rates, null for the built-in model
+	private boolean phosphorus; // Bio-P states and processes
+	private boolean repro; // Reproducible mode with run fingerprints
+	private String manifest_file = "run_manifest.csv";
+	private String influent_file; // Dynamic influent file
 	private List<DiscreteEvent> events; // Discrete event detection
 	private CSVReader dynamicIn; // Input file for dynamic influent
 
@@ -86,6 +144,15 @@ public class Main {
 										steady = false;
 										spec = true;
 										break;
+					case "-batch":		runBatch(args[i+1]);
+										spec = true;
+										break;
+					case "-synthetic":	runSynthetic(Integer.parseInt(args[i+1]));
+										spec = true;
+										break;
+					case "-validate":	runValidation();
+										spec = true;
+										break;
 					default:			break;
 				}
 			}	
@@ -100,7 +167,6 @@ public class Main {
 	
 	private void runSteady() {	
 		CSVWriter writer = new CSVWriter();
-		writer.Clear(output_file);
 		stime = System.currentTimeMillis();
 		events = new ArrayList<DiscreteEvent>();
 		// Setup model outputs and parameters (default is BSM2)
@@ -121,24 +187,38 @@ public class Main {
 
 		model = new Model(start, finish, parameters, initial, influent, modOut, output_file);	
 		model.setDAE(dae);		
+		model.setFastMath(fast);
+		model.setKernel(kernel);
+		model.setPhosphorus(phosphorus);
 		model.addEvents(events);
-		
-		if (modOut) {
-			writer.Clear("cont_model_output.csv");
+		if (tolerances != null) {
+			model.setTolerances(tolerances);
 		}
+		model.setIntegrator(solver);
+		model.setJacobianThreads(jacobianThreads);
+		model.setTimeout(timeout);
+		model.setReproducible(repro);
 		
-		new Thread(model).start();
+		model.addProgressListener(progress());
 		
-		while(!model.isFinished()) {
+		ResultCache cache = null;
+		if (cache_dir != null) {
+			cache = new ResultCache(cache_dir, cacheSize*1024*1024);
 			try {
-				Thread.sleep(3000); // Wait 3 seconds before checking
-				System.out.println("Progress = " +
-						String.format("%.2f",(model.getProgress()/finish)*100)
-						+ "%");
-			} catch (InterruptedException e) {
+				cache.simulate(model);
+			} catch (RuntimeException e) {
 				LOGGER.severe(e.toString());
-			} 
-			
+				return;
+			}
+		} else {
+			try {
+				model.simulateAsync().join();
+			} catch (CancellationException e) {
+				LOGGER.warning(e.toString());
+			} catch (CompletionException e) {
+				LOGGER.severe(e.getCause().toString());
+				return;
+			}
 		}
 		
 		double[] x = model.getX();
@@ -155,19 +235,23 @@ public class Main {
 		System.out.println(output);
 		
 		writer.WriteString("steady_result.csv", output, true);
+		if (cache != null) {
+			System.out.println("Result cache; " + cache);
+		}
+		statistics();
+		fingerprint();
 	}
 	
 	private void runDynamic() {
 		double stime = System.currentTimeMillis();
-		CSVWriter writer = new CSVWriter();
-		writer.Clear("dynamic_output.csv");
 		events = new ArrayList<DiscreteEvent>();
 		// Setup model outputs and parameters (default is BSM2)
 		BSM2Defaults defaults = new BSM2Defaults();
 		initial = new StateVariables();
 		initial.setVar(defaults.DigesterInit());
 		influent = new StateVariables();
-		dynamicIn = new CSVReader("digesterin.csv", ",");
+		influent_file = "digesterin.csv";
+		dynamicIn = new CSVReader(influent_file, ",");
 		parameters = new DigesterParameters();
 		// No command line arguments, run a default setup
 		start = 0.0;
@@ -176,53 +260,421 @@ public class Main {
 		// Continuous output models are not used in dynamic models at the moment
 		modOut = false;	
 		dae = true;
+		output_file = "dynamic_output.csv";
 		
 		checkArgs();
+		if (interp >= 0 && history_file != null) {
+			LOGGER.warning("The influent is not interpolated in incremental mode, one run per row");
+			interp = -1;
+		}
 
-		model = new Model(start, start+step, parameters, initial, influent, modOut, output_file);
+		// The run over the interpolated influent writes its continuous output
+		model = new Model(start, start+step, parameters, initial, influent, modOut || interp >= 0, output_file);
 		model.setDAE(dae);
+		model.setFastMath(fast);
+		model.setKernel(kernel);
+		model.setPhosphorus(phosphorus);
 		model.addEvents(events);
+		if (tolerances != null) {
+			model.setTolerances(tolerances);
+		}
+		model.setIntegrator(solver);
+		model.setJacobianThreads(jacobianThreads);
+		model.setReproducible(repro);
+		if (repro) {
+			model.getFingerprint().addInputFile("influent file", influent_file);
+		}
+		if (interp >= 0) {
+			runInterpolated(stime);
+			return;
+		}
 		
-		int t = 0;
+		/*
+		 * Three stages connected by lock-free queues of reusable rows: the reader parses the influent
+		 * ahead of the simulation, the writer formats and writes the results behind it. 
+		 * A failing stage stops the queues and the error is thrown once the writer has finished.
+		 */
+		RowQueue influents = new RowQueue(1024, StateVariables.SIZE);
+		RowQueue outputs = new RowQueue(1024, StateVariables.SIZE+1);
+		Thread reader = reader(dynamicIn, influents);
+		Thread writer = writer(OutputSinks.forFile(output_file), outputs, influents);
+		reader.setDaemon(true);
+		reader.start();
+		writer.start();
 		
-		while (!dynamicIn.finished()) {
-			String[] inString = dynamicIn.getNextString();		
-			if (inString.length > 0) {
-				double[] in = new double[inString.length];
-				for (int i=0;i<in.length;i++) {
-					in[i] = Double.parseDouble(inString[i]);
+		/*
+		 * Incremental mode: rows with the same influent as the stored simulation are taken from its history 
+		 * up to the first changed row, the simulation continues from the last restart point before it
+		 */
+		RunHistory history = null;
+		boolean replay = false;
+		List<double[]> pending = new ArrayList<double[]>(); // Unchanged rows since the last restart point
+		double pendingStart = start;
+		int reused = 0;
+		if (history_file != null) {
+			if (repro) {
+				LOGGER.warning("Incremental mode is not used in reproducible runs");
+			} else {
+				history = new RunHistory(model, Math.max(1, (int) Math.round(snapshot/step)));
+				replay = history.load(history_file) > 0;
+			}
+		}
+		
+		int t = 0;
+		double[] in;
+		try {
+			while ((in = influents.take()) != null) {
+				if (replay) {
+					if (history.isRestartPoint(t)) {
+						reuse(history, t-pending.size(), t, outputs);
+						pending.clear();
+						pendingStart = start;
+					}
+					if (history.matches(t, in)) {
+						pending.add(in.clone());
+						influents.release();
+						start = start+step;
+						t++;
+						continue;
+					}
+					replay = false;
+					reused = history.restore(t, model);
+					start = pendingStart;
+					for (double[] row : pending) {
+						simulateRow(row, influent, outputs, history);
+					}
+					pending.clear();
+				}
+				simulateRow(in, influent, outputs, history);
+				influents.release();
+				
+				if (t%(Math.max(Math.round(finish/100), 1)) == 0) {
+					System.out.println("Progress = " + String.format("%.2f",(start/finish)*100) + "%");
 				}
-				influent.setVar(in);
-				model.setInfluent(influent);
+				t++;
 			}
-			
-			model.setTime(start, start+step);
-			model.run();
-			
-			// Add time to the beginning of the array and save to csv
-			double[] timemodel = new double[model.getX().length+1];
-			timemodel[0] = start;
-			for (int i=1;i<timemodel.length;i++) {
-				timemodel[i] = model.getX()[i-1];
+			if (replay) {
+				// Same influent as the stored simulation, or fewer rows
+				reuse(history, t-pending.size(), t, outputs);
+				history.truncate(t);
+				reused = t;
 			}
-			writer.WriteArray("dynamic_output.csv", timemodel, true);
+		} catch (Throwable e) {
+			// Stops the reader, the writer still writes the rows simulated so far
+			influents.fail(e);
+		} finally {
+			outputs.close();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			LOGGER.warning(e.toString());
+		}
+		// The writer's error first, a failed writer also stops the influents
+		Throwable failure = outputs.getFailure() != null ? outputs.getFailure() : influents.getFailure();
+		if (failure != null) {
+			throw new IllegalStateException("Dynamic simulation failed: " + failure, failure);
+		}
+		if (history != null) {
+			history.save(history_file);
+			System.out.println("Incremental; reused rows; " + reused + "; simulated rows; " + (t-reused));
+		}
+		
+		System.out.println("Simulation time; " + (System.currentTimeMillis()-stime));
+		statistics();
+		fingerprint();
+	}
+	
+	/**
+	 * Dynamic simulation in one run (-interp): the influent rows are read first and interpolated by the model 
+	 * (Model.setInfluentInput), the continuous output is written at the resolution of the influent step
+	 */
+	private void runInterpolated(double stime) {
+		RowQueue influents = new RowQueue(1024, StateVariables.SIZE);
+		Thread reader = reader(dynamicIn, influents);
+		reader.setDaemon(true);
+		reader.start();
+		List<double[]> rows = new ArrayList<double[]>();
+		double[] in;
+		while ((in = influents.take()) != null) {
+			rows.add(in.clone());
+			influents.release();
+		}
+		InfluentInput input = new InfluentInput(start, step, rows.toArray(new double[rows.size()][]), interp);
+		influent.setVar(rows.get(0));
+		model.setInfluent(influent);
+		model.setInfluentInput(input);
+		// Just below the step, so that the rows reached at the breakpoints (row times) are all written
+		model.setResolution(step*(1.0-1.0e-6));
+		model.setTime(start, start+rows.size()*step);
+		model.addProgressListener(progress());
+		model.run();
+		
+		System.out.println("Simulation time; " + (System.currentTimeMillis()-stime) + 
+				"; Interpolation; " + InfluentInput.MODES[interp] + "; Rows; " + rows.size());
+		statistics();
+		fingerprint();
+	}
+	
+	/**
+	 * Reports the progress of a run at most every 3 seconds
+	 */
+	private static ProgressListener progress() {
+		return new ProgressListener() {
+			long last = System.currentTimeMillis();
 			
-			start = start+step;
-			if (t%(Math.round(finish/100)) == 0) {
-				System.out.println("Progress = " + String.format("%.2f",(start/finish)*100) + "%");
+			public void progress(double t, double start, double end) {
+				if (System.currentTimeMillis()-last >= 3000) {
+					System.out.println("Progress = " +
+							String.format("%.2f",(t/end)*100)
+							+ "%");
+					last = System.currentTimeMillis();
+				}
 			}
-			t++;
-		}
+		};
+	}
+	
+	/**
+	 * Reader stage of dynamic runs: parses one influent per line into the queue, an empty line 
+	 * (or the end of the file) repeats the previous one. A malformed line fails the queue.
+	 */
+	static Thread reader(final CSVReader in, final RowQueue influents) {
+		return new Thread(new Runnable() {
+			public void run() {
+				StateVariables row = new StateVariables();
+				double[] values = new double[0];
+				try {
+					do {
+						String[] inString = in.getNextString();
+						if (inString.length > 0) {
+							if (values.length != inString.length) {
+								values = new double[inString.length];
+							}
+							for (int i=0;i<values.length;i++) {
+								values[i] = Double.parseDouble(inString[i]);
+							}
+							row.setVar(values);
+						}
+						row.copyTo(influents.claim());
+						influents.publish();
+					} while (!in.finished());
+					influents.close();
+				} catch (Throwable e) {
+					influents.fail(e);
+				}
+			}
+		}, "influent-reader");
+	}
+	
+	/**
+	 * Writer stage of dynamic runs: writes the output rows to the sink until the queue is closed. 
+	 * A failing sink fails both queues, so that neither the simulation nor the reader waits for it.
+	 */
+	static Thread writer(final OutputSink sink, final RowQueue outputs, final RowQueue influents) {
+		return new Thread(new Runnable() {
+			public void run() {
+				try {
+					sink.open(OutputSinks.columns("t", StateVariables.NAMES));
+					double[] row;
+					while ((row = outputs.take()) != null) {
+						sink.write(row);
+						outputs.release();
+					}
+					sink.close();
+				} catch (Throwable e) {
+					LOGGER.severe(e.toString());
+					outputs.fail(e);
+					influents.fail(e);
+				}
+			}
+		}, "output-writer");
+	}
+	
+	/**
+	 * Runs the model over one influent row and passes the state to the output (and the history)
+	 */
+	private void simulateRow(double[] in, StateVariables influent, RowQueue outputs, RunHistory history) {
+		influent.setVar(in);
+		model.setInfluent(influent);
 		
+		model.setTime(start, start+step);
+		model.run();
+		
+		// Add time to the beginning of the array and save
+		double[] timemodel = outputs.claim();
+		timemodel[0] = start;
+		System.arraycopy(model.getX(), 0, timemodel, 1, timemodel.length-1);
+		outputs.publish();
+		if (history != null) {
+			history.record(in, start, model);
+		}
+		start = start+step;
+	}
+	
+	/**
+	 * Passes the stored rows from first to end (exclusive) to the output
+	 */
+	private static void reuse(RunHistory history, int first, int end, RowQueue outputs) {
+		for (int r=first;r<end;r++) {
+			double[] row = outputs.claim();
+			System.arraycopy(history.getRow(r), 0, row, 0, row.length);
+			outputs.publish();
+		}
+	}
+	
+	/**
+	 * Steps, rejected steps and time spent in the explicit and implicit regimes of the integrators
+	 */
+	private void statistics() {
+		if (solver != Model.ADAMS) {
+			System.out.println(model.getStatistics());
+		}
+	}
+	
+	/**
+	 * Integrator selected by name
+	 */
+	private static int solver(String name) {
+		switch (name) {
+			case "adams":	return Model.ADAMS;
+			case "auto":	return Model.AUTO;
+			case "bdf":		return Model.BDF;
+			case "imex":	return Model.IMEX;
+			default:		throw new IllegalArgumentException("Unknown solver: " + name);
+		}
+	}
+	
+	/**
+	 * Hashes of a reproducible run, written to the run manifest
+	 */
+	private void fingerprint() {
+		RunFingerprint print = model.getFingerprint();
+		if (print != null) {
+			System.out.println("Inputs; " + print.getInputHash() + 
+					"; Trajectory; " + print.getTrajectoryHash() + 
+					"; Steps; " + print.getSteps());
+			print.write(manifest_file);
+		}
+	}
+	
+	private void runBatch(String manifest) {
+		double stime = System.currentTimeMillis();
+		BatchRunner batch = new BatchRunner(BatchRunner.readManifest(manifest));
+		for (int i=0;i<args.length;i++) {
+			if (args[i].equals("-threads")) {
+				batch.setThreads(Integer.parseInt(args[i+1]));
+			}
+			if (args[i].equals("-timeout")) {
+				batch.setTimeout((long) (Double.parseDouble(args[i+1])*1000));
+			}
+			if (args[i].equals("-repro")) {
+				batch.setReproducible(true);
+			}
+		}
+		batch.simulate();
+		System.out.println("Simulation time; " + (System.currentTimeMillis()-stime) + 
+				"; Influent files read; " + batch.getCache().size());
+	}
+	
+	private void runSynthetic(int n) {
+		double stime = System.currentTimeMillis();
+		InfluentGenerator generator = new InfluentGenerator();
+		for (int i=0;i<args.length;i++) {
+			switch (args[i]) {
+				case "-f":		generator.setDuration(Double.parseDouble(args[i+1]));
+								break;
+				case "-step":	generator.setStep(Double.parseDouble(args[i+1]));
+								break;
+				case "-seed":	generator.setSeed(Long.parseLong(args[i+1]));
+								break;
+				default:		break;
+			}
+		}
+		BatchRunner batch = new BatchRunner(generator.scenarios(n, "synthetic"));
+		for (int i=0;i<args.length;i++) {
+			if (args[i].equals("-threads")) {
+				batch.setThreads(Integer.parseInt(args[i+1]));
+			}
+			if (args[i].equals("-timeout")) {
+				batch.setTimeout((long) (Double.parseDouble(args[i+1])*1000));
+			}
+			if (args[i].equals("-repro")) {
+				batch.setReproducible(true);
+			}
+		}
+		batch.simulate();
 		System.out.println("Simulation time; " + (System.currentTimeMillis()-stime));
 	}
 	
+	/**
+	 * Runs the validation cases, exits with status 1 if the candidate is out of tolerance
+	 */
+	private void runValidation() {
+		Validation validation = new Validation();
+		boolean record = false;
+		dae = true;
+		String name = "";
+		for (int i=0;i<args.length;i++) {
+			switch (args[i]) {
+				case "-record":	record = true;
+								break;
+				case "-ref":	validation.setReferenceFile(args[i+1]);
+								break;
+				case "-tol":	validation.readTolerances(args[i+1]);
+								break;
+				case "-ode":	dae = false;
+								name += " -ode";
+								break;
+				case "-fast":	fast = true;
+								name += " -fast";
+								break;
+				case "-petersen":	kernel = PetersenMatrix.read(args[i+1]).getKernel();
+								name += " -petersen " + args[i+1];
+								break;
+				case "-repro":	repro = true;
+								name += " -repro";
+								break;
+				case "-rtol":	tolerances = Tolerances.bsm2(Double.parseDouble(args[i+1]));
+								name += " -rtol " + args[i+1];
+								break;
+				case "-solver":	solver = solver(args[i+1]);
+								name += " -solver " + args[i+1];
+								break;
+				default:		break;
+			}
+		}
+		if (record) {
+			validation.record();
+			System.out.println("Reference trajectories recorded");
+			return;
+		}
+		boolean passed = validation.validate(name.isEmpty() ? "candidate" : name.trim(), new ModelSetup() {
+			public void configure(Model model) {
+				model.setDAE(dae);
+				model.setFastMath(fast);
+				model.setKernel(kernel);
+				model.setReproducible(repro);
+				if (tolerances != null) {
+					model.setTolerances(tolerances);
+				}
+				model.setIntegrator(solver);
+			}
+		});
+		System.out.println(validation.report());
+		System.out.println("Validation " + (passed ? "passed" : "failed"));
+		if (!passed) {
+			System.exit(1);
+		}
+	}
+	
 	private void checkArgs() {
 		if (args.length > 0) {
 			for (int i=0;i<args.length;i++) {
 				switch (args[i]) {
 					case "-cont":	modOut = true;
 									break;
+					case "-out":	output_file = args[i+1];
+									break;
 					case "-s":		start = Double.parseDouble(args[i+1]);
 									break;
 					case "-f":		finish = Double.parseDouble(args[i+1]);
@@ -230,7 +682,8 @@ public class Main {
 					case "-in":		if (steady) {	
 										influent.readVar(args[i+1]);
 									} else {
-										dynamicIn = new CSVReader(args[i+1], ",");
+										influent_file = args[i+1];
+										dynamicIn = new CSVReader(influent_file, ",");
 									}
 									break;
 					case "-init":	initial.readVar(args[i+1]);
@@ -241,6 +694,34 @@ public class Main {
 									break;
 					case "-ode":	dae = false;
 									break;
+					case "-fast":	fast = true;
+									break;
+					case "-rtol":	tolerances = Tolerances.bsm2(Double.parseDouble(args[i+1]));
+									break;
+					case "-solver":	solver = solver(args[i+1]);
+									break;
+					case "-jthreads":	jacobianThreads = Integer.parseInt(args[i+1]);
+									break;
+					case "-cache":		cache_dir = args[i+1];
+									break;
+					case "-cachesize":	cacheSize = Long.parseLong(args[i+1]);
+									break;
+					case "-incremental":	history_file = args[i+1];
+									break;
+					case "-snapshot":	snapshot = Double.parseDouble(args[i+1]);
+									break;
+					case "-interp":		interp = InfluentInput.mode(args[i+1]);
+									break;
+					case "-timeout":	timeout = (long) (Double.parseDouble(args[i+1])*1000);
+									break;
+					case "-petersen":	kernel = PetersenMatrix.read(args[i+1]).getKernel();
+									break;
+					case "-biop":	phosphorus = true;
+									break;
+					case "-repro":	repro = true;
+									break;
+					case "-manifest":	manifest_file = args[i+1];
+									break;
 					case "-event":	DiscreteEvent event = new DiscreteEvent(Integer.parseInt(args[i+1]),
 										Double.parseDouble(args[i+2]),
 										Boolean.parseBoolean(args[i+3]));
@@ -0,0 +1,90 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.modelaccess;
+
+/**
+ * Common event actions (dosing, feed and temperature changes)
+ * 
+ * @author liampetti
+ *
+ */
+public final class Actions {
+	
+	private Actions() {
+	}
+	
+	/**
+	 * Add an amount directly to a digester state, e.g. a cation dose to S_cat (24)
+	 */
+	public static EventAction dose(final int i, final double amount) {
+		return new EventAction() {
+			public void apply(double t, double[] x, double[] u) {
+				x[i] += amount;
+			}
+		};
+	}
+	
+	/**
+	 * Set a digester state to a new value
+	 */
+	public static EventAction setState(final int i, final double value) {
+		return new EventAction() {
+			public void apply(double t, double[] x, double[] u) {
+				x[i] = value;
+			}
+		};
+	}
+	
+	/**
+	 * Set an influent variable to a new value
+	 */
+	public static EventAction setInfluent(final int i, final double value) {
+		return new EventAction() {
+			public void apply(double t, double[] x, double[] u) {
+				u[i] = value;
+			}
+		};
+	}
+	
+	/**
+	 * Switch the flow rate Q_D (m3/d)
+	 */
+	public static EventAction setFlow(final double q) {
+		return new EventAction() {
+			public void apply(double t, double[] x, double[] u) {
+				u[35] = q;
+				x[35] = q; // Effluent flow rate = Influent flow rate
+			}
+		};
+	}
+	
+	/**
+	 * Change the digester temperature T_D (deg C)
+	 */
+	public static EventAction setTemperature(final double temp) {
+		return new EventAction() {
+			public void apply(double t, double[] x, double[] u) {
+				x[36] = temp;
+			}
+		};
+	}
+}
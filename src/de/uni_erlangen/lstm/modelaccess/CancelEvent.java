@@ -0,0 +1,68 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.modelaccess;
+
+import org.apache.commons.math3.ode.events.EventHandler;
+
+/**
+ * Stops the integration at the start of the step following a cancellation request.
+ * The switching function only depends on time so the stop can be located by the integrator like any other event.
+ * 
+ * @author liampetti
+ *
+ */
+class CancelEvent implements EventHandler {
+	private volatile double cancelAt;
+	
+	CancelEvent() {
+		cancelAt = Double.MAX_VALUE;
+	}
+	
+	/**
+	 * Request a stop at the given simulation time (the end of the last accepted step)
+	 */
+	void cancelAt(double t) {
+		cancelAt = t;
+	}
+	
+	double getCancelAt() {
+		return cancelAt;
+	}
+
+	@Override
+	public void init(double t0, double[] y0, double t) {
+	}
+
+	@Override
+	public double g(double t, double[] y) {
+		return t - cancelAt;
+	}
+
+	@Override
+	public Action eventOccurred(double t, double[] y, boolean increasing) {
+		return EventHandler.Action.STOP;
+	}
+
+	@Override
+	public void resetState(double t, double[] y) {
+	}
+}
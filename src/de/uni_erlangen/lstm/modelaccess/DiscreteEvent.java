@@ -82,6 +82,13 @@ public class DiscreteEvent implements EventHandler {
 	public double getTime() {
 		return t;
 	}
+	
+	/**
+	 * Time of the event restored from a cached run
+	 */
+	void setTime(double t) {
+		this.t = t;
+	}
 
 	@Override
 	public Action eventOccurred(double t, double[] y, boolean increasing) {
@@ -0,0 +1,40 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.modelaccess;
+
+/**
+ * Change applied to the running simulation when a scheduled or state event occurs
+ * 
+ * @author liampetti
+ *
+ */
+public interface EventAction {
+	
+	/**
+	 * Apply the action
+	 * 
+	 * @param t Event time
+	 * @param x Digester state (may be modified)
+	 * @param u Influent (may be modified)
+	 */
+	void apply(double t, double[] x, double[] u);
+}
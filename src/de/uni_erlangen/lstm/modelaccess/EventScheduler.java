@@ -0,0 +1,151 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.modelaccess;
+
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Orders the time events of a run in a priority queue. The model integrates up to the next event time,
+ * applies the due actions and continues from there.
+ * 
+ * Events in [start, end) of a run are applied, events at the end time belong to the next run.
+ * 
+ * @author liampetti
+ *
+ */
+class EventScheduler {
+	private static final double TIME_TOL = 1.0e-10; // Events closer than this (in days) occur together
+	
+	private PriorityQueue<Occurrence> queue;
+	private List<StateEvent> stateEvents;
+	private double[] u;
+	private double end;
+	private long seq;
+	
+	/**
+	 * @param timeEvents	Scheduled events
+	 * @param stateEvents	State events of the same run
+	 * @param start			Start of the run
+	 * @param end			End of the run
+	 * @param u				Influent used by the model (modified by the actions)
+	 */
+	EventScheduler(List<TimeEvent> timeEvents, List<StateEvent> stateEvents, double start, double end, double[] u) {
+		this.stateEvents = stateEvents;
+		this.u = u;
+		this.end = end;
+		queue = new PriorityQueue<Occurrence>();
+		for (TimeEvent event : timeEvents) {
+			// First occurrence not before the start of this run
+			int n = 0;
+			if (event.getPeriod() > 0 && event.getTime() < start-TIME_TOL) {
+				n = (int) Math.ceil((start-TIME_TOL-event.getTime())/event.getPeriod());
+			}
+			schedule(event, n);
+		}
+		while (!queue.isEmpty() && queue.peek().time < start-TIME_TOL) {
+			queue.poll();
+		}
+	}
+	
+	private void schedule(TimeEvent event, int n) {
+		double t = event.occurrence(n);
+		if (!Double.isNaN(t)) {
+			queue.add(new Occurrence(t, n, event, seq++));
+		}
+	}
+	
+	/**
+	 * Time to integrate to, the next event time or the end of the run
+	 */
+	double next() {
+		if (!queue.isEmpty() && queue.peek().time < end-TIME_TOL) {
+			return queue.peek().time;
+		}
+		return end;
+	}
+	
+	/**
+	 * Apply the actions of the state events that stopped the integration and all time events due at t
+	 * 
+	 * @return true if any action was applied
+	 */
+	boolean apply(double t, double[] x) {
+		double[] before = new double[stateEvents.size()];
+		for (int k=0;k<before.length;k++) {
+			before[k] = stateEvents.get(k).g(t, x);
+		}
+		boolean applied = false;
+		for (StateEvent event : stateEvents) {
+			if (event.isPending()) {
+				event.getAction().apply(t, x, u);
+				event.applied(t);
+				applied = true;
+			}
+		}
+		while (!queue.isEmpty() && queue.peek().time <= t+TIME_TOL && queue.peek().time < end-TIME_TOL) {
+			Occurrence o = queue.poll();
+			o.event.getAction().apply(t, x, u);
+			schedule(o.event, o.n+1);
+			applied = true;
+		}
+		// A jump across the target caused by these actions is also a crossing (checked once, no cascades)
+		if (applied) {
+			for (int k=0;k<before.length;k++) {
+				StateEvent event = stateEvents.get(k);
+				if (event.getTime() != t && event.crossed(before[k], event.g(t, x))) {
+					event.getAction().apply(t, x, u);
+					event.applied(t);
+				}
+			}
+		}
+		return applied;
+	}
+	
+	/**
+	 * One occurrence of a (repeating) time event
+	 */
+	private static class Occurrence implements Comparable<Occurrence> {
+		private double time;
+		private int n;
+		private TimeEvent event;
+		private long seq;
+		
+		Occurrence(double time, int n, TimeEvent event, long seq) {
+			this.time = time;
+			this.n = n;
+			this.event = event;
+			this.seq = seq;
+		}
+
+		@Override
+		public int compareTo(Occurrence o) {
+			if (time != o.time) {
+				return Double.compare(time, o.time);
+			}
+			if (event.getPriority() != o.event.getPriority()) {
+				return Integer.compare(event.getPriority(), o.event.getPriority());
+			}
+			return Long.compare(seq, o.seq);
+		}
+	}
+}
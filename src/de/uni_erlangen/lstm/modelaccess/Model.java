@@ -21,8 +21,17 @@
 
 package de.uni_erlangen.lstm.modelaccess;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 
 import org.apache.commons.math3.ode.FirstOrderIntegrator;
@@ -30,10 +39,18 @@ import org.apache.commons.math3.ode.nonstiff.AdamsBashforthIntegrator;
 import org.apache.commons.math3.ode.sampling.StepHandler;
 import org.apache.commons.math3.ode.sampling.StepInterpolator;
 
-import de.uni_erlangen.lstm.file.CSVWriter;
+import de.uni_erlangen.lstm.file.AsyncSink;
+import de.uni_erlangen.lstm.file.OutputSink;
+import de.uni_erlangen.lstm.file.OutputSinks;
 import de.uni_erlangen.lstm.models.adm1.DAEModel;
 import de.uni_erlangen.lstm.models.adm1.DigesterParameters;
+import de.uni_erlangen.lstm.models.adm1.InfluentInput;
 import de.uni_erlangen.lstm.models.adm1.StateVariables;
+import de.uni_erlangen.lstm.models.adm1.petersen.Kernel;
+import de.uni_erlangen.lstm.solver.ImexIntegrator;
+import de.uni_erlangen.lstm.solver.IntegratorState;
+import de.uni_erlangen.lstm.solver.SolverStatistics;
+import de.uni_erlangen.lstm.solver.SwitchingIntegrator;
 
 /**
  * Class for controlling the ADM1 model, can be run on a separate thread
@@ -52,12 +69,43 @@ public class Model implements Runnable {
 	private double start;
 	private double end; 
 	private List<DiscreteEvent> events;
-	private boolean finished;
-	private boolean onlineRecord; // Record model to CSV
+	private List<TimeEvent> timeEvents;
+	private List<StateEvent> stateEvents;
+	private double maxCheck; // Event handler settings
+	private double convergence;
+	private int maxIterations;
+	private volatile boolean finished;
+	private boolean onlineRecord; // Record model to the output sink
+	private OutputSink sink; // Output of the continuous model, null for a sink chosen by the output file name
+	private SimulationResult result; // Continuous model kept in memory, null if not recorded
 	private double resolution; // How often to sample data from continuous model
-	private double progress;
+	private volatile double progress;
+	private List<ProgressListener> listeners;
+	private volatile boolean cancelled;
+	private volatile boolean timedOut;
+	private volatile CancelEvent cancelEvent;
+	private long timeout; // Wall clock limit of a run (ms), zero for none
 	private boolean dae;
+	private boolean fastMath;
+	private Kernel kernel;
+	private boolean phosphorus;
 	private double fix_pH;
+	private boolean reproducible; // StrictMath, no tables, fingerprints of inputs and trajectory
+	private RunFingerprint fingerprint;
+	private Tolerances tolerances; // Integrator error control of each state
+	private int solver;
+	private int jacobianThreads; // Threads evaluating the coloured Jacobian of the implicit integrators
+	private SolverStatistics statistics; // Steps and time per regime of the switching integrator, over all runs
+	private IntegratorState integratorState; // Regime, step size and Jacobian carried by the integrators from run to run
+	private InfluentInput input; // Influent as a function of time, null for the influent set by setInfluent
+	
+	/**
+	 * Integrators: Adams-Bashforth (default), automatic switching between explicit and implicit, implicit only,
+	 * implicit for the fast subsystem and explicit for the rest
+	 */
+	public static final int ADAMS = 0, AUTO = 1, BDF = 2, IMEX = 3;
+	static final String[] SOLVERS = {"adams", "auto", "bdf", "imex"};
+	private static final double BREAKPOINT_TOL = 1.0e-10; // Breakpoints closer than this (in days) to the end are not split
 		
 	/**
 	 * Initialise model using custom parameters and outputs
@@ -74,14 +122,85 @@ public class Model implements Runnable {
 		fix_pH = -1.0;
 		this.onlineRecord = onlineRecord;
 		this.resolution = 0.01041666667; // 15 minutes in days as standard resolution
+		this.maxCheck = Double.POSITIVE_INFINITY;
+		this.convergence = 1.0e-20;
+		this.maxIterations = 100;
+		this.tolerances = new Tolerances(1.0e-10, 1.0e-10);
+		this.statistics = new SolverStatistics();
+		this.integratorState = new IntegratorState();
+		this.jacobianThreads = 1;
+		this.listeners = new CopyOnWriteArrayList<ProgressListener>();
 		u = influent.getVar(); // Influent
 		x = initial.getVar(); // Output (initial reactor conditions)
 		param = parameters.getParameters();	
 		init(start, end);
 	}
 
+	/**
+	 * Copy of the model at the end of its last run
+	 * 
+	 * @see #copy()
+	 */
+	private Model(Model model) {
+		output_file = model.output_file;
+		x = model.x.clone();
+		u = model.u.clone();
+		param = model.param.clone();
+		S_H_ion = model.S_H_ion;
+		start = model.start;
+		end = model.end;
+		events = new ArrayList<DiscreteEvent>();
+		for (DiscreteEvent event : model.events) {
+			DiscreteEvent copy = new DiscreteEvent(event.getI(), event.getTarget(), event.isDirIncrease());
+			copy.setTime(event.getTime());
+			events.add(copy);
+		}
+		timeEvents = new ArrayList<TimeEvent>(model.timeEvents);
+		stateEvents = new ArrayList<StateEvent>();
+		for (StateEvent event : model.stateEvents) {
+			stateEvents.add(event.copy());
+		}
+		maxCheck = model.maxCheck;
+		convergence = model.convergence;
+		maxIterations = model.maxIterations;
+		finished = model.finished;
+		resolution = model.resolution;
+		progress = model.progress;
+		listeners = new CopyOnWriteArrayList<ProgressListener>();
+		timeout = model.timeout;
+		dae = model.dae;
+		fastMath = model.fastMath;
+		kernel = model.kernel;
+		phosphorus = model.phosphorus;
+		fix_pH = model.fix_pH;
+		reproducible = model.reproducible;
+		fingerprint = reproducible ? new RunFingerprint() : null;
+		tolerances = model.tolerances;
+		solver = model.solver;
+		jacobianThreads = model.jacobianThreads;
+		statistics = model.statistics.copy();
+		integratorState = model.integratorState.copy();
+		input = model.input;
+	}
+	
+	/**
+	 * Snapshot in memory for what-if branches: a model at the point the last run ended (state, influent, parameters,
+	 * time, events) whose next runs continue as the next runs of this model would, including the step size, regime 
+	 * and Jacobian the integrators carry from one run to the next. The copy and this model can then be changed 
+	 * and run independently, also at the same time.
+	 * 
+	 * The copy does not record (no output sink, result or progress listeners), in reproducible mode it starts a new
+	 * fingerprint from the copied state. Time events, event actions, the tolerances and the kernel are shared.
+	 */
+	public Model copy() {
+		return new Model(this);
+	}
+	
 	public void init(double start, double end) {
 		this.events = new ArrayList<DiscreteEvent>();
+		this.timeEvents = new ArrayList<TimeEvent>();
+		this.stateEvents = new ArrayList<StateEvent>();
+		this.cancelled = false;
 		this.start = start;
 		this.end = end;
 		this.progress = start;
@@ -90,10 +209,7 @@ public class Model implements Runnable {
 		x[35] = u[35]; // Effluent flow rate = Influent flow rate
 		
 		// Initialise the S_H_ion
-		double factor = (1.0/param[0] - 1.0/param[1])/(100.0*0.083145);
-		double K_w = Math.pow(10,-param[2])*Math.exp(55900.0*factor); // T adjustment for K_w 
-		double phi = x[24]+(x[10]-x[31])-x[30]-(x[29]/64.0)-(x[28]/112.0)-(x[27]/160.0)-(x[26]/208.0)-x[25];
-		S_H_ion = (-phi*0.5)+0.5*Math.sqrt(phi*phi+(4.0*K_w)); // SH+	
+		S_H_ion = DAEModel.initialSH(x, param, reproducible);
 	}
 	
 	public void setTime(double start, double end) {
@@ -103,7 +219,13 @@ public class Model implements Runnable {
 	}
 	
 	public void setInfluent(StateVariables influent) {		
-		u = influent.getVar(); // Influent
+		for (int i=0;i<u.length;i++) {
+			if (influent.get(i) != u[i]) {
+				integratorState.discontinuity(); // The next run starts with a new step size estimate
+				break;
+			}
+		}
+		influent.copyTo(u); // Influent, copied into the model's own array without allocating
 		x[35] = u[35]; // Effluent flow rate = Influent flow rate
 	}
 	
@@ -119,10 +241,68 @@ public class Model implements Runnable {
 		this.dae = dae;
 	}
 	
+	/**
+	 * Use tabulated inhibition functions (fast math), off for validation runs
+	 */
+	public void setFastMath (boolean fastMath) {
+		this.fastMath = fastMath;
+	}
+	
+	/**
+	 * Process rates from a Petersen matrix kernel instead of the built-in model, null for the built-in model
+	 */
+	public void setKernel (Kernel kernel) {
+		this.kernel = kernel;
+	}
+	
+	/**
+	 * Influent as a function of time for the following runs instead of the constant influent of setInfluent, 
+	 * e.g. a whole influent file in one run. STEP and LINEAR inputs split the integration at their breakpoints 
+	 * (row times), LINEAR and CUBIC inputs are interpolated at every derivative. Null for the constant influent again.
+	 */
+	public void setInfluentInput(InfluentInput input) {
+		this.input = input;
+		integratorState.discontinuity();
+	}
+	
+	public InfluentInput getInfluentInput() {
+		return input;
+	}
+	
+	/**
+	 * Integrate the bio-P states and processes, when off (default) they keep their initial values
+	 */
+	public void setPhosphorus (boolean phosphorus) {
+		this.phosphorus = phosphorus;
+	}
+	
 	public void setpH (double ph) {
 		this.fix_pH = ph;
 	}
 	
+	/**
+	 * Reproducible mode, set before simulating: pow, exp and log10 are evaluated with StrictMath (also in the
+	 * Petersen matrix kernel), fast math is ignored and a fingerprint of the inputs and of every integrator
+	 * step is recorded. Runs with the same inputs give the same fingerprint on every platform and thread count.
+	 */
+	public void setReproducible (boolean reproducible) {
+		this.reproducible = reproducible;
+		fingerprint = reproducible ? new RunFingerprint() : null;
+		S_H_ion = DAEModel.initialSH(x, param, reproducible);
+	}
+	
+	public boolean isReproducible() {
+		return reproducible;
+	}
+	
+	/**
+	 * Fingerprint of the runs since reproducible mode was switched on, null when off.
+	 * Further inputs (e.g. influent files) can be added before the first run.
+	 */
+	public RunFingerprint getFingerprint() {
+		return fingerprint;
+	}
+	
 	public void addEvent (DiscreteEvent event) {
 		this.events.add(event);
 	}
@@ -131,27 +311,279 @@ public class Model implements Runnable {
 		this.events = events;
 	}
 	
+	/**
+	 * Add an action applied at a given time (e.g. dosing, feeding pulses, flow or temperature changes)
+	 */
+	public void addTimeEvent (TimeEvent event) {
+		this.timeEvents.add(event);
+	}
+	
+	/**
+	 * Add an action applied when a state variable crosses a target value
+	 */
+	public void addStateEvent (StateEvent event) {
+		this.stateEvents.add(event);
+	}
+	
+	public List<TimeEvent> getTimeEvents() {
+		return timeEvents;
+	}
+	
+	public List<StateEvent> getStateEvents() {
+		return stateEvents;
+	}
+	
+	/**
+	 * Integrator tolerances for each state, by default 1e-10 absolute and relative for all states.
+	 * Tolerances.bsm2 scales the absolute tolerances to the typical magnitude of each state.
+	 */
+	public void setTolerances(Tolerances tolerances) {
+		this.tolerances = tolerances;
+	}
+	
+	public Tolerances getTolerances() {
+		return tolerances;
+	}
+	
+	/**
+	 * ADAMS, AUTO (stiffness detection switches between Bogacki-Shampine and BDF2), BDF or 
+	 * IMEX (solubles, ions and gas phase implicit, particulates explicit, see DAEModel.getFast)
+	 */
+	public void setIntegrator(int solver) {
+		if (solver < ADAMS || solver > IMEX) {
+			throw new IllegalArgumentException("Unknown integrator: " + solver);
+		}
+		this.solver = solver;
+	}
+	
+	public int getIntegrator() {
+		return solver;
+	}
+	
+	/**
+	 * Threads evaluating the columns of the Jacobian in the AUTO, BDF and IMEX integrators (each on a copy of the model), 
+	 * the results do not depend on the number of threads
+	 */
+	public void setJacobianThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+		this.jacobianThreads = threads;
+	}
+	
+	public int getJacobianThreads() {
+		return jacobianThreads;
+	}
+	
+	/**
+	 * Steps, time and evaluations spent in each regime by the AUTO, BDF and IMEX integrators
+	 */
+	public SolverStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * Regime, step size and Jacobian the AUTO, BDF and IMEX integrators continue the next run with
+	 */
+	IntegratorState getIntegratorState() {
+		return integratorState;
+	}
+	
+	void setIntegratorState(IntegratorState integratorState) {
+		this.integratorState = integratorState;
+	}
+	
+	/**
+	 * Settings for all event handlers
+	 * 
+	 * @param maxCheck		Maximal time interval between switching function checks (use a finite value for state events that may cross and return within one step)
+	 * @param convergence	Convergence threshold in the event time search
+	 * @param maxIterations	Upper limit of the iteration count in the event time search
+	 */
+	public void setEventSettings(double maxCheck, double convergence, int maxIterations) {
+		this.maxCheck = maxCheck;
+		this.convergence = convergence;
+		this.maxIterations = maxIterations;
+	}
+	
 	public void setResolution(double res) {
 		this.resolution = res;
 	}
 	
+	public double getResolution() {
+		return resolution;
+	}
+	
+	/**
+	 * Output of the continuous model (online recording), opened and closed by each run. 
+	 * By default the format follows the extension of the output file (see OutputSinks).
+	 */
+	public void setOutputSink(OutputSink sink) {
+		this.sink = sink;
+	}
+	
+	/**
+	 * Records the continuous model in memory (same rows and resolution as the output sink, with or without
+	 * online recording). Runs append to the result, clear it to reuse the columns.
+	 * 
+	 * @param result	The result, null to stop recording
+	 */
+	public void setResult(SimulationResult result) {
+		this.result = result;
+	}
+	
+	public SimulationResult getResult() {
+		return result;
+	}
+	
+	/**
+	 * Listener notified after every accepted integration step (on the simulation thread)
+	 */
+	public void addProgressListener(ProgressListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeProgressListener(ProgressListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Stop runs that take longer than the given wall clock time
+	 * 
+	 * @param millis Time limit in milliseconds, zero for no limit
+	 */
+	public void setTimeout(long millis) {
+		this.timeout = millis;
+	}
+	
+	/**
+	 * Request the running simulation to stop, it ends at the last accepted step with 
+	 * getX() and getEnd() at that point. The request holds until init or simulateAsync is called.
+	 */
+	public void cancel() {
+		cancelled = true;
+		CancelEvent event = cancelEvent;
+		if (event != null) {
+			event.cancelAt(progress);
+		}
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * The last run was cancelled because it exceeded the timeout
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+	
+	/**
+	 * Run the model on a new thread
+	 * 
+	 * @return Completes with this model, or exceptionally with a CancellationException if the run was cancelled or timed out.
+	 * Cancelling the future cancels the simulation.
+	 */
+	public CompletableFuture<Model> simulateAsync() {
+		return simulateAsync(new Executor() {
+			public void execute(Runnable command) {
+				new Thread(command).start();
+			}
+		});
+	}
+	
+	/**
+	 * Run the model using the given executor
+	 * 
+	 * @see #simulateAsync()
+	 */
+	public CompletableFuture<Model> simulateAsync(Executor executor) {
+		cancelled = false;
+		final CompletableFuture<Model> future = new CompletableFuture<Model>();
+		future.whenComplete(new BiConsumer<Model, Throwable>() {
+			public void accept(Model model, Throwable e) {
+				if (future.isCancelled()) {
+					cancel();
+				}
+			}
+		});
+		executor.execute(new Runnable() {
+			public void run() {
+				if (future.isDone()) {
+					return;
+				}
+				try {
+					simulate();
+					if (cancelled) {
+						future.completeExceptionally(new CancellationException(timedOut ? "Simulation timed out" : "Simulation cancelled"));
+					} else {
+						future.complete(Model.this);
+					}
+				} catch (RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+	
 	/**
 	 * Run the model using set parameters
 	 */
 	public void simulate() {		
-		finished = false;		
+		finished = false;
+		timedOut = false;
+		if (cancelled) {
+			end = start;
+			finished = true;
+			return;
+		}
+		final long deadline = timeout > 0 ? System.nanoTime() + timeout*1000000L : 0;
+		
+		// influent values, digester parameters, S_H_ion, dae system
+		final DAEModel ode = new DAEModel(u, param, S_H_ion, dae, fix_pH);
+		ode.setFastMath(fastMath && !reproducible);
+		ode.setStrictMath(reproducible);
+		ode.setKernel(reproducible && kernel != null ? kernel.getMatrix().getKernel(true) : kernel);
+		ode.setPhosphorus(phosphorus);
+		if (input != null) {
+			influent(ode, start);
+			if (input.getMode() != InfluentInput.STEP) {
+				ode.setInput(input);
+			}
+		}
+		
 		/*
-		 * Integrator selection 
+		 * Integrator selection, tolerances of the integrated states only
 		 */
 		//FirstOrderIntegrator integrator = new HighamHall54Integrator(1.0e-8, 100.0, 1.0e-10, 1.0e-10);
 		//FirstOrderIntegrator integrator = new DormandPrince54Integrator(1.0e-12, 100.0, 1.0e-12, 1.0e-12);
 		//FirstOrderIntegrator integrator = new DormandPrince853Integrator(1.0e-8, 100.0, 1.0e-10, 1.0e-10);
 		//FirstOrderIntegrator integrator = new GraggBulirschStoerIntegrator(1.0e-8, 100.0, 1.0e-10, 1.0e-10);
-		FirstOrderIntegrator integrator = new AdamsBashforthIntegrator(2, 1.0e-14, 100.0, 1.0e-10, 1.0e-10);
 		//FirstOrderIntegrator integrator = new AdamsMoultonIntegrator(2, 1.0e-8, 100.0, 1.0e-10, 1.0e-10);
-		
-		// influent values, digester parameters, S_H_ion, dae system
-		final DAEModel ode = new DAEModel(u, param, S_H_ion, dae, fix_pH);
+		FirstOrderIntegrator integrator;
+		if (solver == IMEX) {
+			ImexIntegrator imex = new ImexIntegrator(1.0e-14, 100.0, 
+					tolerances.absolute(ode.getActive()), tolerances.relative(ode.getActive()), ode.getFast());
+			imex.setStatistics(statistics);
+			imex.setState(integratorState);
+			imex.setJacobianThreads(jacobianThreads);
+			integrator = imex;
+		} else if (solver != ADAMS) {
+			SwitchingIntegrator switching = new SwitchingIntegrator(1.0e-14, 100.0, 
+					tolerances.absolute(ode.getActive()), tolerances.relative(ode.getActive()));
+			switching.setMethod(solver == BDF ? SolverStatistics.STIFF : SwitchingIntegrator.AUTO);
+			switching.setStatistics(statistics);
+			switching.setState(integratorState);
+			switching.setJacobianThreads(jacobianThreads);
+			integrator = switching;
+		} else if (tolerances.isUniform()) {
+			integrator = new AdamsBashforthIntegrator(2, 1.0e-14, 100.0, tolerances.getAbsolute(0), tolerances.getRelative(0));
+		} else {
+			integrator = new AdamsBashforthIntegrator(2, 1.0e-14, 100.0, 
+					tolerances.absolute(ode.getActive()), tolerances.relative(ode.getActive()));
+		}
 		//FirstOrderDifferentialEquations ode = model; 
 		
 		// Records progress
@@ -160,19 +592,59 @@ public class Model implements Runnable {
 		    }
 		            
 		    public void handleStep(StepInterpolator interpolator, boolean isLast) {
-		    	progress = interpolator.getCurrentTime();		        
+		    	if (cancelled && interpolator.getPreviousTime() > cancelEvent.getCancelAt()) {
+		    		// Cancelled before the first step, the cancel event can not detect it
+		    		throw new CancellationException();
+		    	}
+		    	progress = interpolator.getCurrentTime();
+		    	for (ProgressListener listener : listeners) {
+		    		listener.progress(progress, start, end);
+		    	}
+		    	if (deadline != 0 && System.nanoTime() > deadline && !cancelled) {
+		    		timedOut = true;
+		    		cancel();
+		    	}
 		    }
 		};
 		integrator.addStepHandler(progHandler);
 		
+		// Inputs and accepted steps of reproducible runs
+		if (reproducible) {
+			fingerprint(ode);
+			final RunFingerprint print = fingerprint;
+			integrator.addStepHandler(new StepHandler() {
+			    public void init(double t0, double[] y0, double t) {
+			    }
+			            
+			    public void handleStep(StepInterpolator interpolator, boolean isLast) {
+			    	interpolator.setInterpolatedTime(interpolator.getCurrentTime());
+			    	print.addStep(interpolator.getCurrentTime(), interpolator.getInterpolatedState());
+			    }
+			});
+		}
+		
+		// Cancellation and timeouts stop the integrator at the next step
+		cancelEvent = new CancelEvent();
+		if (cancelled) {
+			cancelEvent.cancelAt(start);
+		}
+		integrator.addEventHandler(cancelEvent, maxCheck, convergence, maxIterations);
+		
 		/*
-		 * Continuous model recorded in CSV
+		 * Continuous model recorded to the output sink (rows are written on a background thread) and to the result
 		 */
+		OutputSink record = null;
 		if (onlineRecord) {
-			final CSVWriter writer = new CSVWriter();
+			record = new AsyncSink(sink != null ? sink : OutputSinks.forFile(output_file));
+			record.open(OutputSinks.columns("t", StateVariables.NAMES));
+		}
+		if (onlineRecord || result != null) {
+			final OutputSink writer = record;
+			final SimulationResult memory = result;
 			StepHandler stepHandler = new StepHandler() {
 				double prevT = 0.0;
 				double totCH4 = 0.0;
+				double[] timemodel = new double[0];
 				
 			    public void init(double t0, double[] y0, double t) {
 			    }
@@ -181,20 +653,25 @@ public class Model implements Runnable {
 			        double   t = interpolator.getCurrentTime();
 			        if (t-prevT > resolution) {
 			        	// Add time to the beginning of the array
-						double[] timemodel = new double[ode.getDimensions().length+1];
-						timemodel[0] = t;
-						
 						// We need to pull variables directly from the model if using DAE
-						for (int i=1;i<timemodel.length;i++) {
-							timemodel[i] = ode.getDimensions()[i-1];
+						double[] state = ode.getDimensions();
+						if (timemodel.length != state.length+1) {
+							timemodel = new double[state.length+1];
 						}
+						timemodel[0] = t;
+						System.arraycopy(state, 0, timemodel, 1, state.length);
 						
 						// Total methane calculations, add methane produced in timestep onto total
 						totCH4 = totCH4 + timemodel[38]*resolution;
 						timemodel[43] = totCH4;
 										
-						// Append
-			        	writer.WriteArray(output_file, timemodel, true);
+						// Append, the sink and the result copy the row
+						if (writer != null) {
+							writer.write(timemodel);
+						}
+						if (memory != null) {
+							memory.append(timemodel);
+						}
 			        	prevT = t;
 			        }
 			    }
@@ -202,22 +679,67 @@ public class Model implements Runnable {
 			integrator.addStepHandler(stepHandler);
 		}
 		
-		/*
-		 * Add event handlers for discrete events
-		 * maxCheck - maximal time interval between switching function checks (this interval prevents missing sign changes in case the integration steps becomes very large)
-    	 * conv - convergence threshold in the event time search
-    	 * maxIt - upper limit of the iteration count in the event time search
-		 */
-		if (events.size() > 0) {
-			for (DiscreteEvent event : events) {
-				double maxCheck = Double.POSITIVE_INFINITY;
-				double conv = 1.0e-20;
-				int maxIt = 100;
-				integrator.addEventHandler(event, maxCheck, conv, maxIt);
+		try {
+			/*
+			 * Add event handlers for discrete events
+			 * maxCheck - maximal time interval between switching function checks (this interval prevents missing sign changes in case the integration steps becomes very large)
+	    	 * conv - convergence threshold in the event time search
+	    	 * maxIt - upper limit of the iteration count in the event time search
+			 */
+			if (events.size() > 0) {
+				for (DiscreteEvent event : events) {
+					integrator.addEventHandler(ode.fullLayout(event), maxCheck, convergence, maxIterations);
+				}
+			}
+		
+			/*
+			 * Time and state events modify the state and influent, the integration is split at each event
+			 * so the multistep integrator restarts cleanly from the modified state. An influent input with
+			 * breakpoints splits it at the row times, where the next row of a STEP input is loaded. The implicit 
+			 * integrators estimate the first step after each jump again.
+			 */
+			double stop;
+			boolean breakpoints = input != null && input.hasBreakpoints();
+			if (timeEvents.size() > 0 || stateEvents.size() > 0 || breakpoints) {
+				for (StateEvent event : stateEvents) {
+					integrator.addEventHandler(ode.fullLayout(event), maxCheck, convergence, maxIterations);
+				}
+				EventScheduler scheduler = new EventScheduler(timeEvents, stateEvents, start, end, ode.getInfluent());
+				double t = start;
+				if (scheduler.apply(t, x)) {
+					integratorState.discontinuity();
+				}
+				while (t < end && !cancelled) {
+					double breakpoint = breakpoints ? input.nextBreakpoint(t) : Double.POSITIVE_INFINITY;
+					if (breakpoint > end-BREAKPOINT_TOL) {
+						breakpoint = Double.POSITIVE_INFINITY;
+					}
+					double next = Math.min(scheduler.next(), breakpoint);
+					t = integrate(integrator, ode, t, next);
+					boolean jump = t >= breakpoint;
+					if (jump) {
+						influent(ode, t);
+					}
+					boolean applied = scheduler.apply(t, x);
+					if (!applied && !jump && t < next) {
+						break; // Stopped by a discrete event or cancelled
+					}
+					if (applied || jump) {
+						integratorState.discontinuity();
+					}
+				}
+				stop = t;
+			} else {
+				stop = integrate(integrator, ode, start, end);
+			}
+			if (cancelled) {
+				end = stop;
+			}
+		} finally {
+			if (record != null) {
+				record.close();
 			}
 		}
-			
-		integrator.integrate(ode, start, x, end, x);
 
 		/*
 		 * Return the time that the discrete event occurred
@@ -230,12 +752,155 @@ public class Model implements Runnable {
 			}
 		}
 
+		if (cancelled) {
+			// A cancel before the first step leaves the model unevaluated, evaluate the state it stopped at
+			ode.computeAll(end, x, new double[x.length]);
+		}
 		// Pull all variables directly from model
 		x = ode.getDimensions();
+		if (reproducible) {
+			fingerprint.setFinal(end, x);
+		}
+		// Keep influent changes made by events and the influent input at the end
+		if (timeEvents.size() > 0 || stateEvents.size() > 0 || input != null) {
+			u = ode.getInfluent().clone();
+		}
 		
+		cancelEvent = null;
+		finished = true;
+	}
+	
+	/**
+	 * Loads the influent input at t into the model influent and the flow rate
+	 */
+	private void influent(DAEModel ode, double t) {
+		input.evaluate(t, ode.getInfluent());
+		x[35] = ode.getInfluent()[35]; // Effluent flow rate = Influent flow rate
+	}
+	
+	/**
+	 * Mode, times and rows of the influent input
+	 */
+	private void addInput(RunFingerprint print) {
+		print.addInput("input", new double[] {input.getMode(), input.getStart(), input.getStep()});
+		for (int k=0;k<input.size();k++) {
+			print.addInput("input", input.getRow(k).getVar());
+		}
+	}
+	
+	/**
+	 * Inputs of a run, the initial state, parameters and settings once, the time and influent of every run
+	 * (dynamic simulations run the model once per influent)
+	 */
+	private void fingerprint(DAEModel ode) {
+		if (fingerprint.getInputs().isEmpty()) {
+			fingerprint.addInput("initial", x);
+			fingerprint.addInput("parameters", param);
+			fingerprint.addInput("integrator", (solver == ADAMS ? "AdamsBashforth;2" : SOLVERS[solver]) + ";1.0E-14;100.0;" + tolerances + ";" 
+					+ maxCheck + ";" + convergence + ";" + maxIterations);
+			fingerprint.addInput("model", "dae=" + dae + ";pH=" + fix_pH + ";phosphorus=" + phosphorus 
+					+ ";states=" + Arrays.toString(ode.getActive()));
+			if (kernel != null) {
+				fingerprint.addInput("kernel", kernel.getSource());
+			}
+			for (DiscreteEvent event : events) {
+				fingerprint.addInput("events", event.getI() + ";" + event.getTarget() + ";" + event.isDirIncrease() + "\n");
+			}
+		}
+		fingerprint.addInput("time", new double[] {start, end});
+		fingerprint.addInput("influent", u);
+		if (input != null) {
+			addInput(fingerprint);
+		}
+	}
+	
+	/**
+	 * Hash of everything that determines the result of the next run: initial state, parameters, influent, 
+	 * time, integrator and model settings, Petersen matrix and discrete events (key of the ResultCache)
+	 */
+	public String getCacheKey() {
+		RunFingerprint key = new RunFingerprint();
+		key.addInput("initial", x);
+		key.addInput("parameters", param);
+		key.addInput("influent", u);
+		key.addInput("time", new double[] {start, end, S_H_ion});
+		key.addInput("integrator", SOLVERS[solver] + ";1.0E-14;100.0;" + tolerances + ";" 
+				+ maxCheck + ";" + convergence + ";" + maxIterations);
+		key.addInput("model", "dae=" + dae + ";pH=" + fix_pH + ";phosphorus=" + phosphorus + ";fast=" + fastMath);
+		if (kernel != null) {
+			key.addInput("kernel", kernel.getSource());
+		}
+		for (DiscreteEvent event : events) {
+			key.addInput("events", event.getI() + ";" + event.getTarget() + ";" + event.isDirIncrease() + "\n");
+		}
+		if (input != null) {
+			addInput(key);
+		}
+		if (solver != ADAMS) {
+			// The implicit integrators continue with the step size and Jacobian of the last run
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try {
+				DataOutputStream out = new DataOutputStream(bytes);
+				integratorState.write(out);
+				out.close();
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not hash the integrator state", e);
+			}
+			key.addInput("warm start", bytes.toByteArray());
+		}
+		return key.getInputHash();
+	}
+	
+	/**
+	 * False if the run can not be taken from a cache: the actions of time and state events are code and
+	 * can not be hashed, online recording writes files and reproducible runs hash the trajectory
+	 */
+	boolean isCacheable() {
+		return timeEvents.isEmpty() && stateEvents.isEmpty() && !onlineRecord && !reproducible;
+	}
+	
+	/**
+	 * Sets the outcome of a run from a cache
+	 * 
+	 * @param end			Time reached
+	 * @param x				Final state
+	 * @param eventTimes	Time of each discrete event
+	 */
+	void restore(double end, double[] x, double[] eventTimes) {
+		this.end = end;
+		this.x = x;
+		for (int i=0;i<events.size();i++) {
+			events.get(i).setTime(eventTimes[i]);
+		}
+		progress = end;
 		finished = true;
 	}
 	
+	/**
+	 * Discrete events of the model
+	 */
+	List<DiscreteEvent> getEvents() {
+		return events;
+	}
+	
+	/**
+	 * Integrate x from t0 to t1
+	 * 
+	 * @return Time reached (earlier if stopped by an event or cancelled)
+	 */
+	private double integrate(FirstOrderIntegrator integrator, DAEModel ode, double t0, double t1) {
+		double[] x0 = x.clone();
+		try {
+			return ode.integrate(integrator, t0, x, t1);
+		} catch (CancellationException e) {
+			// Cancelled before the cancel event could stop the integration, x may hold a trial step: 
+			// go back to the state at t0 so that state and time agree (evaluated again in simulate)
+			System.arraycopy(x0, 0, x, 0, x.length);
+			progress = t0;
+			return t0;
+		}
+	}
+	
 	public boolean isFinished() {
 		return finished;
 	}
@@ -0,0 +1,377 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.modelaccess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+import de.uni_erlangen.lstm.solver.IntegratorState;
+
+/**
+ * Content addressed cache of simulation results on local disk. The key is a hash of everything that determines 
+ * a run (Model.getCacheKey: initial state, parameters, influent, time, integrator and model settings, Petersen matrix,
+ * discrete events, the warm start of the implicit integrators), an entry holds the final state, the end time, 
+ * the discrete event times, the warm start after the run and optionally the trajectory (SimulationResult). Least recently used entries are removed when the files exceed the size limit, 
+ * the access order is kept in the file modification times so it survives restarts.
+ * 
+ * Runs with time or state events, online recording or in reproducible mode are not cached, nor are cancelled runs.
+ * The cache does not know the model code, clear it after changing the model. The implicit integrators carry their
+ * step size and Jacobian from one run of a model to the next (IntegratorState): a hit gives the model the state 
+ * of the cached run, so the following runs continue as after the run itself.
+ * 
+ * @author liampetti
+ *
+ */
+public class ResultCache {
+	public final static Logger LOGGER = Logger.getLogger(ResultCache.class.getName());
+	
+	private static final int VERSION = 2;
+	private static final String SUFFIX = ".result";
+	
+	private final File directory;
+	private final long maxBytes;
+	private final LinkedHashMap<String, Long> entries; // File size of each key, least recently used first
+	private long bytes;
+	private boolean trajectories;
+	private long hits, misses, bypassed, stored, evictions;
+	
+	/**
+	 * @param directory	Cache directory, created if missing, existing entries are used
+	 * @param maxBytes	Size limit of all entries
+	 */
+	public ResultCache(String directory, long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Cache size must be positive: " + maxBytes);
+		}
+		this.directory = new File(directory);
+		this.maxBytes = maxBytes;
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IllegalArgumentException("Can not create cache directory " + directory);
+		}
+		entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		File[] files = this.directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(SUFFIX);
+			}
+		});
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (File file : files) {
+			String name = file.getName();
+			entries.put(name.substring(0, name.length()-SUFFIX.length()), file.length());
+			bytes += file.length();
+		}
+		evict();
+	}
+	
+	/**
+	 * Store the trajectory of every run (resolution of the model), not only of models with a SimulationResult
+	 */
+	public void setTrajectories(boolean trajectories) {
+		this.trajectories = trajectories;
+	}
+	
+	/**
+	 * Runs the model or takes the result from the cache. On a hit the model has the final state, end time,
+	 * discrete event times and integrator warm start of the cached run, and its SimulationResult (if set) 
+	 * gets the cached trajectory.
+	 * 
+	 * @return True for a cache hit
+	 */
+	public boolean simulate(Model model) {
+		if (!model.isCacheable()) {
+			synchronized (this) {
+				bypassed++;
+			}
+			model.simulate();
+			return false;
+		}
+		String key = model.getCacheKey();
+		SimulationResult result = model.getResult();
+		if (read(key, model, result)) {
+			return true;
+		}
+		
+		// Miss, the trajectory is recorded if it is stored
+		SimulationResult trajectory = result;
+		if (trajectory == null && trajectories) {
+			trajectory = new SimulationResult();
+			model.setResult(trajectory);
+		}
+		int first = trajectory == null ? 0 : trajectory.size();
+		try {
+			model.simulate();
+		} finally {
+			if (result == null) {
+				model.setResult(null);
+			}
+		}
+		if (!model.isCancelled()) {
+			write(key, model, trajectory, first);
+		}
+		return false;
+	}
+	
+	/**
+	 * Reads an entry into the model
+	 * 
+	 * @return False if there is no entry, or no trajectory with the resolution of the model when it is needed
+	 */
+	private boolean read(String key, Model model, SimulationResult result) {
+		File file;
+		synchronized (this) {
+			if (entries.get(key) == null) {
+				misses++;
+				return false;
+			}
+			file = file(key);
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != VERSION) {
+				throw new IOException("Unknown cache entry version");
+			}
+			double end = in.readDouble();
+			double[] x = doubles(in, in.readInt());
+			double[] eventTimes = doubles(in, in.readInt());
+			IntegratorState state = in.readBoolean() ? IntegratorState.read(in) : null;
+			double resolution = in.readDouble();
+			int rows = in.readInt();
+			List<DiscreteEvent> events = model.getEvents();
+			if (eventTimes.length != events.size() || 
+					(result != null && (rows < 0 || resolution != model.getResolution()))) {
+				synchronized (this) {
+					misses++;
+				}
+				return false;
+			}
+			if (result != null) {
+				result.ensureCapacity(result.size()+rows);
+				double[] row = new double[StateVariables.SIZE+1];
+				for (int r=0;r<rows;r++) {
+					for (int i=0;i<row.length;i++) {
+						row[i] = in.readDouble();
+					}
+					result.append(row);
+				}
+			}
+			model.restore(end, x, eventTimes);
+			if (state != null) {
+				model.setIntegratorState(state);
+			}
+			file.setLastModified(System.currentTimeMillis());
+			synchronized (this) {
+				hits++;
+			}
+			return true;
+		} catch (IOException e) {
+			LOGGER.severe(e.toString());
+			synchronized (this) {
+				remove(key);
+				misses++;
+			}
+			return false;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					LOGGER.severe(e.toString());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Writes an entry to a temporary file and moves it in place
+	 * 
+	 * @param first	First row of the run in the trajectory
+	 */
+	private void write(String key, Model model, SimulationResult trajectory, int first) {
+		File tmp = null;
+		DataOutputStream out = null;
+		try {
+			tmp = File.createTempFile(key, ".tmp", directory);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(VERSION);
+			out.writeDouble(model.getEnd());
+			double[] x = model.getX();
+			out.writeInt(x.length);
+			for (double v : x) {
+				out.writeDouble(v);
+			}
+			List<DiscreteEvent> events = model.getEvents();
+			out.writeInt(events.size());
+			for (DiscreteEvent event : events) {
+				out.writeDouble(event.getTime());
+			}
+			out.writeBoolean(model.getIntegrator() != Model.ADAMS);
+			if (model.getIntegrator() != Model.ADAMS) {
+				model.getIntegratorState().write(out);
+			}
+			out.writeDouble(model.getResolution());
+			out.writeInt(trajectory == null ? -1 : trajectory.size()-first);
+			if (trajectory != null) {
+				double[] state = new double[StateVariables.SIZE];
+				for (int r=first;r<trajectory.size();r++) {
+					out.writeDouble(trajectory.getTime(r));
+					trajectory.getState(r, state);
+					for (double v : state) {
+						out.writeDouble(v);
+					}
+				}
+			}
+			out.close();
+			out = null;
+			File file = file(key);
+			synchronized (this) {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				tmp = null;
+				Long previous = entries.put(key, file.length());
+				bytes += file.length() - (previous == null ? 0 : previous);
+				stored++;
+				evict();
+			}
+		} catch (IOException e) {
+			LOGGER.severe(e.toString());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					LOGGER.severe(e.toString());
+				}
+			}
+			if (tmp != null && !tmp.delete()) {
+				LOGGER.warning("Could not delete " + tmp);
+			}
+		}
+	}
+	
+	/**
+	 * Removes least recently used entries until the size limit is met
+	 */
+	private synchronized void evict() {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> entry = it.next();
+			if (!file(entry.getKey()).delete()) {
+				LOGGER.warning("Could not delete cache entry " + entry.getKey());
+			}
+			bytes -= entry.getValue();
+			it.remove();
+			evictions++;
+		}
+	}
+	
+	private void remove(String key) {
+		Long size = entries.remove(key);
+		if (size != null) {
+			bytes -= size;
+			file(key).delete();
+		}
+	}
+	
+	/**
+	 * Removes all entries
+	 */
+	public synchronized void clear() {
+		for (String key : entries.keySet()) {
+			file(key).delete();
+		}
+		entries.clear();
+		bytes = 0;
+	}
+	
+	private File file(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+	
+	private static double[] doubles(DataInputStream in, int n) throws IOException {
+		double[] values = new double[n];
+		for (int i=0;i<n;i++) {
+			values[i] = in.readDouble();
+		}
+		return values;
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * Runs that could not be cached
+	 */
+	public synchronized long getBypassed() {
+		return bypassed;
+	}
+	
+	public synchronized long getStored() {
+		return stored;
+	}
+	
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Size of all entries in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "hits; " + hits + "; misses; " + misses + "; bypassed; " + bypassed + "; stored; " + stored 
+				+ "; evictions; " + evictions + "; entries; " + entries.size() + "; bytes; " + bytes;
+	}
+}
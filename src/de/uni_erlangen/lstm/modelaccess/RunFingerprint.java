@@ -0,0 +1,245 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+
+package de.uni_erlangen.lstm.modelaccess;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * SHA-256 fingerprints of a reproducible run: one hash per named input (parameters, initial state, influent,
+ * solver settings, input files), a hash over all inputs and a hash of the trajectory (time and integrated
+ * state of every accepted step). Doubles are hashed by their bits, two runs match only if they are bit for bit
+ * the same, so a parallel or optimised engine can be checked against the serial Model.simulate.
+ * 
+ * @author liampetti
+ *
+ */
+public class RunFingerprint {
+	public final static Logger LOGGER = Logger.getLogger(RunFingerprint.class.getName());
+	
+	private Map<String, MessageDigest> inputs;
+	private MessageDigest trajectory;
+	private byte[] bits;
+	private long steps;
+	private String inputHash, trajectoryHash, finalHash;
+	private double end;
+	
+	public RunFingerprint() {
+		inputs = new LinkedHashMap<String, MessageDigest>();
+		trajectory = digest();
+		bits = new byte[8];
+	}
+	
+	/**
+	 * Add values to the named input, inputs added more than once (e.g. the influent of each step) are chained
+	 */
+	public synchronized void addInput(String name, double[] values) {
+		MessageDigest md = input(name);
+		for (int i=0;i<values.length;i++) {
+			update(md, Double.doubleToLongBits(values[i]));
+		}
+	}
+	
+	public synchronized void addInput(String name, String value) {
+		input(name).update(value.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	public synchronized void addInput(String name, byte[] value) {
+		input(name).update(value);
+	}
+	
+	/**
+	 * Add the contents of a file to the named input
+	 */
+	public synchronized void addInputFile(String name, String filename) {
+		try {
+			input(name).update(Files.readAllBytes(Paths.get(filename)));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Can not read " + filename + " for the fingerprint", e);
+		}
+	}
+	
+	/**
+	 * Add an accepted integrator step to the trajectory
+	 */
+	public synchronized void addStep(double t, double[] y) {
+		if (trajectoryHash != null) {
+			throw new IllegalStateException("Trajectory hash already computed");
+		}
+		update(trajectory, Double.doubleToLongBits(t));
+		for (int i=0;i<y.length;i++) {
+			update(trajectory, Double.doubleToLongBits(y[i]));
+		}
+		steps++;
+	}
+	
+	/**
+	 * The state at the end of the run (all variables including the outputs)
+	 */
+	public synchronized void setFinal(double t, double[] x) {
+		end = t;
+		finalHash = hash(x);
+	}
+	
+	/**
+	 * Hash over the hashes of all inputs in the order they were first added, no inputs can be added afterwards
+	 */
+	public synchronized String getInputHash() {
+		if (inputHash == null) {
+			MessageDigest md = digest();
+			for (Map.Entry<String, String> entry : getInputs().entrySet()) {
+				md.update((entry.getKey() + "=" + entry.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+			inputHash = hex(md.digest());
+		}
+		return inputHash;
+	}
+	
+	/**
+	 * Hash of each input by name
+	 */
+	public synchronized Map<String, String> getInputs() {
+		Map<String, String> hashes = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, MessageDigest> entry : inputs.entrySet()) {
+			try {
+				hashes.put(entry.getKey(), hex(((MessageDigest) entry.getValue().clone()).digest()));
+			} catch (CloneNotSupportedException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return hashes;
+	}
+	
+	/**
+	 * Hash of all steps, no steps can be added afterwards
+	 */
+	public synchronized String getTrajectoryHash() {
+		if (trajectoryHash == null) {
+			trajectoryHash = hex(trajectory.digest());
+		}
+		return trajectoryHash;
+	}
+	
+	public synchronized String getFinalHash() {
+		return finalHash;
+	}
+	
+	public synchronized long getSteps() {
+		return steps;
+	}
+	
+	/**
+	 * Write the run manifest, one "key; value" line per entry
+	 */
+	public synchronized void write(String filename) {
+		BufferedWriter out = null;
+		try {
+			out = new BufferedWriter(new FileWriter(filename));
+			line(out, "java", System.getProperty("java.vendor") + " " + System.getProperty("java.version"));
+			line(out, "platform", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+			for (Map.Entry<String, String> entry : getInputs().entrySet()) {
+				line(out, "input " + entry.getKey(), entry.getValue());
+			}
+			line(out, "inputs", getInputHash());
+			line(out, "steps", Long.toString(steps));
+			line(out, "trajectory", getTrajectoryHash());
+			line(out, "end", Double.toString(end));
+			line(out, "final", finalHash);
+		} catch (IOException e) {
+			LOGGER.severe(e.toString());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					LOGGER.severe(e.toString());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Hash of an array of doubles by their bits
+	 */
+	public static String hash(double[] values) {
+		MessageDigest md = digest();
+		byte[] b = new byte[8];
+		for (int i=0;i<values.length;i++) {
+			long v = Double.doubleToLongBits(values[i]);
+			for (int k=0;k<8;k++) {
+				b[k] = (byte) (v >>> (56-8*k));
+			}
+			md.update(b);
+		}
+		return hex(md.digest());
+	}
+	
+	private MessageDigest input(String name) {
+		if (inputHash != null) {
+			throw new IllegalStateException("Input hash already computed");
+		}
+		MessageDigest md = inputs.get(name);
+		if (md == null) {
+			md = digest();
+			inputs.put(name, md);
+		}
+		return md;
+	}
+	
+	private void update(MessageDigest md, long v) {
+		for (int k=0;k<8;k++) {
+			bits[k] = (byte) (v >>> (56-8*k));
+		}
+		md.update(bits);
+	}
+	
+	private static void line(BufferedWriter out, String key, String value) throws IOException {
+		out.write(key + "; " + value);
+		out.newLine();
+	}
+	
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static String hex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length*2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+}
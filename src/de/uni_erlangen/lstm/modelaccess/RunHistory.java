@@ -0,0 +1,319 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.modelaccess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+import de.uni_erlangen.lstm.solver.IntegratorState;
+
+/**
+ * Influent row hashes, output rows and restart points of a dynamic simulation (one model run per influent row),
+ * stored in a file so the next simulation of a changed or extended influent only runs from the first changed row.
+ * 
+ * A restart point is the state before a row. With the Adams integrator every run starts from the state alone, 
+ * so every output row is one. The AUTO, BDF and IMEX integrators continue with the step size and Jacobian of 
+ * the previous run, their state is stored every given number of rows (with the influent of the row before, 
+ * a changed influent restarts the step size estimate). A simulation continued from a restart point 
+ * gives the same rows as a full simulation.
+ * 
+ * A stored history is only used by a model with the same initial state, parameters, time and settings
+ * (Model.getCacheKey before the first row).
+ * 
+ * @author liampetti
+ *
+ */
+public class RunHistory {
+	public final static Logger LOGGER = Logger.getLogger(RunHistory.class.getName());
+	
+	private static final int VERSION = 2;
+	
+	private String key;
+	private boolean adams; // Every row is a restart point
+	private int interval; // Rows between the stored integrator states
+	private long[] hashes; // Hash of the influent of each row
+	private double[][] rows; // Time and state after each row
+	private int size;
+	private int loaded; // Rows of the stored simulation
+	private TreeMap<Integer, byte[]> states; // Integrator state before the row
+	
+	/**
+	 * @param model		Model before the first row
+	 * @param interval	Rows between the stored integrator states (AUTO, BDF and IMEX)
+	 */
+	public RunHistory(Model model, int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("Interval must be at least 1: " + interval);
+		}
+		key = model.getCacheKey();
+		adams = model.getIntegrator() == Model.ADAMS;
+		this.interval = interval;
+		hashes = new long[1024];
+		rows = new double[1024][];
+		states = new TreeMap<Integer, byte[]>();
+	}
+	
+	/**
+	 * Reads the history of a previous simulation, ignored if the file does not exist or belongs to another setup
+	 * 
+	 * @return Number of rows available for reuse
+	 */
+	public int load(String filename) {
+		File file = new File(filename);
+		if (!file.isFile()) {
+			return 0;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != VERSION || !in.readUTF().equals(key) || in.readBoolean() != adams 
+					|| (in.readInt() != interval && !adams)) {
+				LOGGER.info("History " + filename + " is of another model setup, simulating all rows");
+				return 0;
+			}
+			int n = in.readInt();
+			grow(n);
+			for (int r=0;r<n;r++) {
+				hashes[r] = in.readLong();
+				rows[r] = new double[StateVariables.SIZE+1];
+				for (int i=0;i<rows[r].length;i++) {
+					rows[r][i] = in.readDouble();
+				}
+			}
+			int count = in.readInt();
+			for (int k=0;k<count;k++) {
+				int row = in.readInt();
+				byte[] state = new byte[in.readInt()];
+				in.readFully(state);
+				states.put(row, state);
+			}
+			size = n;
+			loaded = n;
+		} catch (IOException e) {
+			LOGGER.severe(e.toString());
+			size = 0;
+			loaded = 0;
+			states.clear();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					LOGGER.severe(e.toString());
+				}
+			}
+		}
+		return loaded;
+	}
+	
+	/**
+	 * Rows read by load
+	 */
+	public int getLoaded() {
+		return loaded;
+	}
+	
+	/**
+	 * Rows of the history, the reused rows followed by those recorded
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * True if the stored row had the same influent
+	 */
+	public boolean matches(int row, double[] influent) {
+		return row < size && hashes[row] == hash(influent);
+	}
+	
+	/**
+	 * Stored time and state after the row
+	 */
+	public double[] getRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IllegalArgumentException("Row " + row + " not in the history of " + size + " rows");
+		}
+		return rows[row];
+	}
+	
+	/**
+	 * A simulation can continue from the state before the row
+	 */
+	public boolean isRestartPoint(int row) {
+		return row == 0 || (row <= size && (adams || states.containsKey(row)));
+	}
+	
+	/**
+	 * Last restart point not after the row
+	 */
+	public int restartPoint(int row) {
+		if (adams) {
+			return Math.min(row, size);
+		}
+		Integer point = states.floorKey(Math.min(row, size));
+		return point == null ? 0 : point;
+	}
+	
+	/**
+	 * Continues the model from the last restart point not after the row, the later rows are removed
+	 * 
+	 * @return The row to simulate next
+	 */
+	public int restore(int row, Model model) {
+		int point = restartPoint(row);
+		truncate(point);
+		if (point > 0) {
+			model.setX(Arrays.copyOfRange(rows[point-1], 1, StateVariables.SIZE+1));
+			if (!adams) {
+				try {
+					DataInputStream in = new DataInputStream(new ByteArrayInputStream(states.get(point)));
+					double[] influent = new double[StateVariables.SIZE];
+					for (int i=0;i<influent.length;i++) {
+						influent[i] = in.readDouble();
+					}
+					model.setInfluent(StateVariables.wrap(influent, 0));
+					model.setIntegratorState(IntegratorState.read(in));
+				} catch (IOException e) {
+					throw new IllegalStateException("Could not restore the integrator", e);
+				}
+			}
+		}
+		return point;
+	}
+	
+	/**
+	 * Removes the rows from the given one on
+	 */
+	public void truncate(int row) {
+		size = Math.min(size, row);
+		states.tailMap(size, false).clear();
+	}
+	
+	/**
+	 * Adds the row just simulated, the integrator state is stored at every interval
+	 * 
+	 * @param influent	Influent of the row
+	 * @param t			Time of the output row
+	 * @param model		Model after the run
+	 */
+	public void record(double[] influent, double t, Model model) {
+		grow(size+1);
+		hashes[size] = hash(influent);
+		double[] row = new double[StateVariables.SIZE+1];
+		row[0] = t;
+		System.arraycopy(model.getX(), 0, row, 1, StateVariables.SIZE);
+		rows[size] = row;
+		size++;
+		if (!adams && size%interval == 0) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try {
+				DataOutputStream out = new DataOutputStream(bytes);
+				for (int i=0;i<StateVariables.SIZE;i++) {
+					out.writeDouble(model.getU()[i]);
+				}
+				model.getIntegratorState().write(out);
+				out.close();
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not store the integrator", e);
+			}
+			states.put(size, bytes.toByteArray());
+		}
+	}
+	
+	/**
+	 * Writes the history to a temporary file and moves it in place
+	 */
+	public void save(String filename) {
+		File file = new File(filename).getAbsoluteFile();
+		File tmp = null;
+		DataOutputStream out = null;
+		try {
+			tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(VERSION);
+			out.writeUTF(key);
+			out.writeBoolean(adams);
+			out.writeInt(interval);
+			out.writeInt(size);
+			for (int r=0;r<size;r++) {
+				out.writeLong(hashes[r]);
+				for (double v : rows[r]) {
+					out.writeDouble(v);
+				}
+			}
+			out.writeInt(states.size());
+			for (Map.Entry<Integer, byte[]> state : states.entrySet()) {
+				out.writeInt(state.getKey());
+				out.writeInt(state.getValue().length);
+				out.write(state.getValue());
+			}
+			out.close();
+			out = null;
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			tmp = null;
+		} catch (IOException e) {
+			LOGGER.severe(e.toString());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					LOGGER.severe(e.toString());
+				}
+			}
+			if (tmp != null && !tmp.delete()) {
+				LOGGER.warning("Could not delete " + tmp);
+			}
+		}
+	}
+	
+	private void grow(int n) {
+		if (n > hashes.length) {
+			int capacity = Math.max(n, 2*hashes.length);
+			hashes = Arrays.copyOf(hashes, capacity);
+			rows = Arrays.copyOf(rows, capacity);
+		}
+	}
+	
+	/**
+	 * First 64 bits of the SHA-256 hash of the values
+	 */
+	private static long hash(double[] values) {
+		return Long.parseUnsignedLong(RunFingerprint.hash(values).substring(0, 16), 16);
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.modelaccess;
+
+import java.util.Arrays;
+
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * Trajectory of a model kept in memory, one primitive array per column: the time and the state variables
+ * (StateVariables layout and names, TOT_GAS_CH4 accumulated as in the output file). The rows recorded by
+ * Model.simulate are the rows of the output sink. Appends copy into preallocated columns and only allocate when 
+ * the capacity is exceeded (it doubles), so a result reused with clear() records without allocation.
+ * 
+ * Not synchronized, read the result after the simulation finished.
+ * 
+ * @author liampetti
+ *
+ */
+public class SimulationResult {
+	
+	private double[] time;
+	private double[][] columns; // Values of each state variable
+	private int size;
+	
+	/**
+	 * @param capacity	Rows before the columns grow
+	 */
+	public SimulationResult(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+		}
+		time = new double[capacity];
+		columns = new double[StateVariables.SIZE][capacity];
+	}
+	
+	public SimulationResult() {
+		this(1024);
+	}
+	
+	/**
+	 * Adds one row, the time followed by the state variables (as written to the output sink)
+	 */
+	public void append(double[] row) {
+		if (row.length < StateVariables.SIZE+1) {
+			throw new IllegalArgumentException("Row of " + row.length + " values, expected time and " + StateVariables.SIZE + " variables");
+		}
+		if (size == time.length) {
+			grow(2*size);
+		}
+		time[size] = row[0];
+		for (int i=0;i<columns.length;i++) {
+			columns[i][size] = row[i+1];
+		}
+		size++;
+	}
+	
+	/**
+	 * Adds one row
+	 * 
+	 * @param t		Time
+	 * @param x		State variables
+	 */
+	public void append(double t, double[] x) {
+		if (x.length < StateVariables.SIZE) {
+			throw new IllegalArgumentException(x.length + " variables, expected " + StateVariables.SIZE);
+		}
+		if (size == time.length) {
+			grow(2*size);
+		}
+		time[size] = t;
+		for (int i=0;i<columns.length;i++) {
+			columns[i][size] = x[i];
+		}
+		size++;
+	}
+	
+	/**
+	 * Removes all rows, the capacity is kept
+	 */
+	public void clear() {
+		size = 0;
+	}
+	
+	/**
+	 * Grows the columns to at least the given number of rows
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > time.length) {
+			grow(capacity);
+		}
+	}
+	
+	private void grow(int capacity) {
+		time = Arrays.copyOf(time, capacity);
+		for (int i=0;i<columns.length;i++) {
+			columns[i] = Arrays.copyOf(columns[i], capacity);
+		}
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public int getCapacity() {
+		return time.length;
+	}
+	
+	/**
+	 * Index of a variable in the StateVariables layout
+	 */
+	public static int indexOf(String name) {
+		int i = Arrays.asList(StateVariables.NAMES).indexOf(name);
+		if (i < 0) {
+			throw new IllegalArgumentException("Unknown variable: " + name);
+		}
+		return i;
+	}
+	
+	/**
+	 * Times of all rows (a copy)
+	 */
+	public double[] getTime() {
+		return Arrays.copyOf(time, size);
+	}
+	
+	public double getTime(int row) {
+		check(row);
+		return time[row];
+	}
+	
+	/**
+	 * Values of a variable in all rows (a copy)
+	 * 
+	 * @param name	Name in StateVariables.NAMES, e.g. "S_AC"
+	 */
+	public double[] getColumn(String name) {
+		return getColumn(indexOf(name));
+	}
+	
+	public double[] getColumn(int variable) {
+		return Arrays.copyOf(columns[variable], size);
+	}
+	
+	/**
+	 * Value of a variable in one row
+	 */
+	public double get(int row, String name) {
+		return get(row, indexOf(name));
+	}
+	
+	public double get(int row, int variable) {
+		check(row);
+		return columns[variable][row];
+	}
+	
+	/**
+	 * Copies the state variables of one row into dest
+	 */
+	public void getState(int row, double[] dest) {
+		check(row);
+		for (int i=0;i<columns.length;i++) {
+			dest[i] = columns[i][row];
+		}
+	}
+	
+	/**
+	 * State variables of the last row
+	 */
+	public StateVariables getLast() {
+		if (size == 0) {
+			throw new IllegalStateException("No rows");
+		}
+		double[] x = new double[StateVariables.SIZE];
+		getState(size-1, x);
+		StateVariables last = new StateVariables();
+		last.setVar(x);
+		return last;
+	}
+	
+	private void check(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+		}
+	}
+}
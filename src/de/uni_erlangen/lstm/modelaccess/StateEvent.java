@@ -0,0 +1,159 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.modelaccess;
+
+import java.util.logging.Logger;
+
+import org.apache.commons.math3.ode.events.EventHandler;
+
+/**
+ * Applies an action when a digester state crosses a target value (e.g. dosing when S_cat falls too low).
+ * Unlike DiscreteEvent the simulation continues with the modified state.
+ * 
+ * @author liampetti
+ *
+ */
+public class StateEvent implements EventHandler {
+	public final static Logger LOGGER = Logger.getLogger(StateEvent.class.getName());
+	
+	public static final int RISING = 1;
+	public static final int FALLING = -1;
+	public static final int BOTH = 0;
+	
+	private int i;
+	private double target;
+	private int direction;
+	private boolean once;
+	private EventAction action;
+	private boolean pending;
+	private int count;
+	private double time;
+	
+	/**
+	 * @param i			State variable
+	 * @param target	The target value for the given variable
+	 * @param direction	RISING, FALLING or BOTH
+	 * @param action	Action to apply
+	 */
+	public StateEvent(int i, double target, int direction, EventAction action) {
+		this.i = i;
+		this.target = target;
+		this.direction = direction;
+		this.action = action;
+		this.time = Double.NaN;
+	}
+	
+	/**
+	 * Only apply the action on the first crossing
+	 */
+	public void setOnce(boolean once) {
+		this.once = once;
+	}
+	
+	public int getI() {
+		return i;
+	}
+	
+	public double getTarget() {
+		return target;
+	}
+	
+	public EventAction getAction() {
+		return action;
+	}
+	
+	/**
+	 * Number of times the action was applied
+	 */
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * Time the action was last applied, NaN if never
+	 */
+	public double getTime() {
+		return time;
+	}
+	
+	/**
+	 * The integration stopped for this event, the action still has to be applied
+	 */
+	boolean isPending() {
+		return pending;
+	}
+	
+	/**
+	 * Whether a jump of the state (caused by another action) crossed the target in the event direction
+	 */
+	boolean crossed(double before, double after) {
+		if ((before > 0) == (after > 0) || (once && count > 0)) {
+			return false;
+		}
+		boolean rising = after > before;
+		return direction == BOTH || (direction == RISING) == rising;
+	}
+	
+	/**
+	 * Same event with the same count and time, sharing the action
+	 */
+	StateEvent copy() {
+		StateEvent copy = new StateEvent(i, target, direction, action);
+		copy.once = once;
+		copy.count = count;
+		copy.time = time;
+		return copy;
+	}
+	
+	void applied(double t) {
+		pending = false;
+		count++;
+		time = t;
+	}
+
+	@Override
+	public void init(double t0, double[] y0, double t) {
+		pending = false;
+	}
+
+	@Override
+	public double g(double t, double[] y) {
+		return y[i] - target;
+	}
+
+	/**
+	 * Stops the integration, the action is applied by the model before continuing 
+	 * (the multistep integrator has to restart after any change of state)
+	 */
+	@Override
+	public Action eventOccurred(double t, double[] y, boolean increasing) {
+		if ((direction == RISING && !increasing) || (direction == FALLING && increasing) || (once && count > 0)) {
+			return EventHandler.Action.CONTINUE;
+		}
+		pending = true;
+		return EventHandler.Action.STOP;
+	}
+
+	@Override
+	public void resetState(double t, double[] y) {
+	}
+}
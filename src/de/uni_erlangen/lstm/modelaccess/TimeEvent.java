@@ -0,0 +1,101 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.modelaccess;
+
+/**
+ * Action scheduled at a fixed time, optionally repeated (e.g. feeding pulses)
+ * 
+ * @author liampetti
+ *
+ */
+public class TimeEvent {
+	private double time;
+	private double period;
+	private int repeats;
+	private int priority;
+	private EventAction action;
+	
+	/**
+	 * Single event
+	 * 
+	 * @param time		Event time (in days)
+	 * @param action	Action to apply
+	 */
+	public TimeEvent(double time, EventAction action) {
+		this(time, 0.0, 1, action);
+	}
+	
+	/**
+	 * Repeating event
+	 * 
+	 * @param time		First event time (in days)
+	 * @param period	Time between events (in days)
+	 * @param repeats	Number of events, zero or negative repeats until the end of the simulation
+	 * @param action	Action to apply
+	 */
+	public TimeEvent(double time, double period, int repeats, EventAction action) {
+		if (repeats != 1 && period <= 0) {
+			throw new IllegalArgumentException("Repeating events need a positive period");
+		}
+		this.time = time;
+		this.period = period;
+		this.repeats = repeats;
+		this.action = action;
+	}
+	
+	public double getTime() {
+		return time;
+	}
+	
+	public double getPeriod() {
+		return period;
+	}
+	
+	public int getRepeats() {
+		return repeats;
+	}
+	
+	/**
+	 * Events at the same time are applied in order of priority (lowest first)
+	 */
+	public int getPriority() {
+		return priority;
+	}
+	
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+	
+	public EventAction getAction() {
+		return action;
+	}
+	
+	/**
+	 * Time of the given occurrence, NaN if there is none
+	 */
+	double occurrence(int n) {
+		if (repeats > 0 && n >= repeats) {
+			return Double.NaN;
+		}
+		return time + n*period;
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+
+package de.uni_erlangen.lstm.modelaccess;
+
+import java.util.Arrays;
+
+import de.uni_erlangen.lstm.models.adm1.BSM2Defaults;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * Absolute and relative integrator tolerances for each state (StateVariables layout), the error of
+ * state i is controlled to abs[i] + rel[i]*|x[i]|. Only the integrated states are passed to the integrator,
+ * states solved algebraically or held constant are never part of the error control.
+ * 
+ * @author liampetti
+ *
+ */
+public class Tolerances {
+	
+	private double[] abs;
+	private double[] rel;
+	
+	/**
+	 * Same tolerances for all states
+	 */
+	public Tolerances(double abs, double rel) {
+		this.abs = new double[StateVariables.SIZE];
+		this.rel = new double[StateVariables.SIZE];
+		Arrays.fill(this.abs, abs);
+		Arrays.fill(this.rel, rel);
+	}
+	
+	/**
+	 * Absolute tolerances scaled to typical magnitudes, abs[i] = rel*max(|typical[i]|, floor)
+	 * 
+	 * @param rel		Relative tolerance of all states
+	 * @param typical	Typical value of each state
+	 * @param floor		Smallest magnitude used for scaling (states that are typically zero)
+	 */
+	public static Tolerances scaled(double rel, double[] typical, double floor) {
+		Tolerances tol = new Tolerances(0.0, rel);
+		for (int i=0;i<tol.abs.length && i<typical.length;i++) {
+			tol.abs[i] = rel*Math.max(Math.abs(typical[i]), floor);
+		}
+		return tol;
+	}
+	
+	/**
+	 * Tolerances scaled to the BSM2 initial digester state (S_h2 about 1e-7 up to X_I about 25)
+	 */
+	public static Tolerances bsm2(double rel) {
+		return scaled(rel, new BSM2Defaults().DigesterInit(), 1.0e-7);
+	}
+	
+	public void set(int i, double abs, double rel) {
+		this.abs[i] = abs;
+		this.rel[i] = rel;
+	}
+	
+	/**
+	 * Exclude a state from the error control, e.g. the ion states of the ODE model which follow 
+	 * their fast equilibria (an infinite tolerance accepts any error)
+	 */
+	public void exclude(int i) {
+		abs[i] = Double.POSITIVE_INFINITY;
+		rel[i] = 0.0;
+	}
+	
+	public double getAbsolute(int i) {
+		return abs[i];
+	}
+	
+	public double getRelative(int i) {
+		return rel[i];
+	}
+	
+	/**
+	 * True if all states share the same tolerances (scalar error control)
+	 */
+	public boolean isUniform() {
+		for (int i=1;i<abs.length;i++) {
+			if (abs[i] != abs[0] || rel[i] != rel[0]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Absolute tolerances of the integrated states
+	 * 
+	 * @param active Index in the StateVariables layout of each integrated state
+	 */
+	public double[] absolute(int[] active) {
+		double[] a = new double[active.length];
+		for (int k=0;k<active.length;k++) {
+			a[k] = abs[active[k]];
+		}
+		return a;
+	}
+	
+	/**
+	 * Relative tolerances of the integrated states
+	 */
+	public double[] relative(int[] active) {
+		double[] r = new double[active.length];
+		for (int k=0;k<active.length;k++) {
+			r[k] = rel[active[k]];
+		}
+		return r;
+	}
+	
+	@Override
+	public String toString() {
+		return "abs=" + Arrays.toString(abs) + ";rel=" + Arrays.toString(rel);
+	}
+}
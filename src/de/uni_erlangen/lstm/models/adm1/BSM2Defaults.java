@@ -80,7 +80,7 @@ public class BSM2Defaults {
 		// Bio P Reactions ----->
 		S_IP = 0.0; 		// 46. 		(47) Inorganic phosphorus (ADM1) (kmole P/m3)
 		X_PHA = 0.0; 		// 47. 		(48) Polyhydroxyalkanoates (kg COD/m3)[g COD/L]
-		X_PP = 0.0; 		// 48. 		(49) Polyphosphates (kg COD/m3)[g COD/L]
+		X_PP = 0.0; 		// 48. 		(49) Polyphosphates (kmole P/m3)
 		X_PAO = 0.0; 		// 49. 		(50) Phosphorus accumulating organisms (kg COD/m3)[g COD/L]
 		// <---- Bio P Reactions		
 		
@@ -151,7 +151,7 @@ public class BSM2Defaults {
 		// Bio P Reactions ----->
 		S_IP = 0.0; // 46. Inorganic phosphorus (ADM1) (kmole P/m3)
 		X_PHA = 0.0; // 47. Polyhydroxyalkanoates (kg COD/m3)[g COD/L]
-		X_PP = 0.0; // 48. Polyphosphates (kg COD/m3)[g COD/L]
+		X_PP = 0.0; // 48. Polyphosphates (kmole P/m3)
 		X_PAO = 0.0; // 49. Phosphorus accumulating organisms (kg COD/m3)[g COD/L]
 		// <---- Bio P Reactions	
 		
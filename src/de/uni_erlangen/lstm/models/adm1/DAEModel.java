@@ -21,11 +21,19 @@
 
 package de.uni_erlangen.lstm.models.adm1;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
 import java.util.logging.Logger;
 
 import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.exception.MaxCountExceededException;
-import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
+import org.apache.commons.math3.ode.FirstOrderIntegrator;
+import org.apache.commons.math3.ode.events.EventHandler;
+
+import de.uni_erlangen.lstm.models.adm1.petersen.Kernel;
+import de.uni_erlangen.lstm.solver.CopyableEquations;
 
 
 /**
@@ -40,7 +48,7 @@ import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
  * @author liampetti
  *
  */
-public class DAEModel implements FirstOrderDifferentialEquations {
+public class DAEModel implements CopyableEquations {
 	public final static Logger LOGGER = Logger.getLogger(DAEModel.class.getName());
 	
 	private boolean shDAE;
@@ -51,21 +59,44 @@ public class DAEModel implements FirstOrderDifferentialEquations {
 	private double proc14, proc15, proc16, proc17, proc18, proc19;
 	private double proc21, proc22, proc23;
 	private double procT8, procT9, procT10;
+	private double procP20, procP21, procP22, procP23, procP24, procP25, procP26; // Bio-P processes
 	private double I_pH_aa, I_pH_ac, I_pH_h2, I_IN_lim, I_h2_fa, I_h2_c4, I_h2_pro, I_nh3;
 	private double reac1, reac2, reac3, reac4, reac5, reac6, reac7, reac8, reac9, reac10, reac11, reac12;
 	private double reac14, reac15, reac16, reac17, reac18, reac19, reac20, reac21, reac22, reac23, reac24, reac25;
 	private double reac26, reac27;
 	private double stoich2, stoich3, stoich4, stoich5, stoich6, stoich7, stoich8, stoich9, stoich10, stoich11, stoich12, stoich13;
+	private double stoichP20, stoichP21, stoichP22, stoichP23, stoichP26;
 	private double p_gas_h2o, P_gas, p_gas_h2, p_gas_ch4, p_gas_co2, q_gas;
 	private double pHLim_aa, pHLim_ac, pHLim_h2, n_aa, n_ac, n_h2;
+	private double pHLimN_aa, pHLimN_ac, pHLimN_h2, nh3LimN; // Constant powers of the inhibition functions
 	private double K_w, K_a_va, K_a_bu, K_a_pro, K_a_ac, K_a_co2, K_a_IN, K_H_co2, K_H_ch4, K_H_h2;
 
 	private double[] inhib;
 	private double[] param;
 	private double[] u; // influent
+	private InfluentInput input; // Interpolated influent evaluated at each time, null for a constant influent
 	private double[] xtemp;
 	private double factor, R, P_atm;
 	private double fix_pH;
+	private boolean phosphorus; // Bio-P states and processes
+	
+	// Only the differential states are integrated, the others are solved or held constant
+	private int[] active; // Index in the full layout of each integrated state
+	private double[] full, dfull; // Full layout buffers for the integrator
+	private boolean evaluated; // Outputs can be computed from the last evaluation
+	
+	// Fast math mode, tabulated inhibition functions
+	private boolean fastMath;
+	private boolean strictMath; // StrictMath for reproducible runs
+	private InhibitionTable tab_aa, tab_ac, tab_h2, tab_nh3;
+	private static final int MAX_TABLES = 64;
+	private static final Map<String, InhibitionTable> tables = new HashMap<String, InhibitionTable>();
+	
+	// Petersen matrix kernel replacing the built-in process rates
+	private Kernel kernel;
+	private int[] kernelStates;
+	private int trH2, trCh4, trCo2;
+	private double[] coef, rate, reac, part, env;
 	
 	/** 
 	 * Initiates the model using the defined parameters and pre-calculates the stoichiometry parameter values for use in the water phase
@@ -120,24 +151,469 @@ public class DAEModel implements FirstOrderDifferentialEquations {
 		stoich12 = (1.0-param[90])*param[89]+param[90]*param[78];
 		// stoich13 = -C_bac+C_xc
 		stoich13 = -param[78]+param[56];
+		// stoichP20 = -C_va+C_PHA, P21 to P23 for butyrate, propionate and acetate
+		stoichP20 = -param[81]+param[134];
+		stoichP21 = -param[73]+param[134];
+		stoichP22 = -param[75]+param[134];
+		stoichP23 = -param[77]+param[134];
+		// stoichP26 = -C_PHA+f_va_PHA*C_va+f_bu_PHA*C_bu+f_pro_PHA*C_pro+f_ac_PHA*C_ac
+		stoichP26 = -param[134]+param[130]*param[81]+param[131]*param[73]+param[132]*param[75]+param[133]*param[77];
 		
-		// pH Inhibition
-		pHLim_aa = Math.pow(10,(-(param[13] + param[14])/2.0));
-		pHLim_ac = Math.pow(10,(-(param[15] + param[16])/2.0));
-		pHLim_h2 = Math.pow(10,(-(param[17] + param[18])/2.0));
+		limits();
+		
+		full = new double[xtemp.length];
+		dfull = new double[xtemp.length];
+		activate();
+	}
+	
+	/**
+	 * A model with the same influent, parameters and settings, and the current start values of the algebraic 
+	 * solutions (S_H_ion, S_h2), for evaluations on another thread
+	 */
+	@Override
+	public DAEModel copy() {
+		DAEModel copy = new DAEModel(u, param, S_H_ion, sh2DAE, fix_pH);
+		copy.setStrictMath(strictMath);
+		copy.fastMath = fastMath;
+		copy.tab_aa = tab_aa;
+		copy.tab_ac = tab_ac;
+		copy.tab_h2 = tab_h2;
+		copy.tab_nh3 = tab_nh3;
+		copy.setPhosphorus(phosphorus);
+		copy.setKernel(kernel);
+		copy.input = input;
+		System.arraycopy(full, 0, copy.full, 0, full.length);
+		return copy;
+	}
+	
+	/**
+	 * Only the start values of the algebraic solutions: S_H_ion, and S_h2 and the ion states in the full layout buffer
+	 */
+	@Override
+	public void reset(CopyableEquations source) {
+		DAEModel model = (DAEModel) source;
+		S_H_ion = model.S_H_ion;
+		System.arraycopy(model.full, 0, full, 0, full.length);
+	}
+	
+	/**
+	 * Selects the states with differential equations for the current configuration: 
+	 * not the algebraic S_h2 and ion states of the DAE system, the unused composites, 
+	 * the flow and temperature (only changed by events) and the outputs
+	 */
+	private void activate() {
+		boolean[] on = new boolean[StateVariables.SIZE];
+		if (kernel == null) {
+			for (int i=StateVariables.S_SU;i<=StateVariables.S_AN;i++) {
+				on[i] = true;
+			}
+			on[StateVariables.X_XC] = false; // Decay products are mapped directly onto the composite fractions
+			on[StateVariables.X_XCH] = on[StateVariables.X_XPR] = on[StateVariables.X_XLI] = true;
+		} else {
+			for (int s : kernelStates) {
+				on[s] = true;
+			}
+			on[StateVariables.S_CAT] = on[StateVariables.S_AN] = true;
+		}
+		on[StateVariables.S_H2] &= !sh2DAE;
+		for (int i=StateVariables.S_HVA;i<=StateVariables.S_NH3;i++) {
+			on[i] = !shDAE && fix_pH < 0;
+		}
+		on[StateVariables.S_GAS_H2] = on[StateVariables.S_GAS_CH4] = on[StateVariables.S_GAS_CO2] = true;
+		for (int i=StateVariables.S_IP;i<=StateVariables.X_PAO;i++) {
+			on[i] |= phosphorus;
+		}
+		int n = 0;
+		for (int i=0;i<on.length;i++) {
+			if (on[i]) n++;
+		}
+		active = new int[n];
+		n = 0;
+		for (int i=0;i<on.length;i++) {
+			if (on[i]) active[n++] = i;
+		}
+	}
+	
+	/**
+	 * Index in the full StateVariables layout of each integrated state
+	 */
+	public int[] getActive() {
+		return active.clone();
+	}
+	
+	/**
+	 * Positions in the active states of the fast subsystem for implicit-explicit integration: the soluble components, 
+	 * the ion states and the gas phase. Acid-base reactions and the uptake of S_h2 act within seconds, gas transfer 
+	 * and the uptake of the other solubles within minutes, the particulate components and the biomass change over days.
+	 */
+	public int[] getFast() {
+		int n = 0;
+		int[] fast = new int[active.length];
+		for (int k=0;k<active.length;k++) {
+			int i = active[k];
+			if (i <= StateVariables.S_I || (i >= StateVariables.S_HVA && i <= StateVariables.S_GAS_CO2) 
+					|| i == StateVariables.S_IP) {
+				fast[n++] = k;
+			}
+		}
+		return Arrays.copyOf(fast, n);
+	}
+	
+	// Limits of the pH inhibition and the ammonia inhibition Hill function
+	private void limits() {
+		pHLim_aa = pow(10,(-(param[13] + param[14])/2.0));
+		pHLim_ac = pow(10,(-(param[15] + param[16])/2.0));
+		pHLim_h2 = pow(10,(-(param[17] + param[18])/2.0));
 		n_aa = 3.0/(param[13]-param[14]);
 		n_ac = 3.0/(param[15]-param[16]);
 		n_h2 = 3.0/(param[17]-param[18]);
+		pHLimN_aa = pow(pHLim_aa, n_aa);
+		pHLimN_ac = pow(pHLim_ac, n_ac);
+		pHLimN_h2 = pow(pHLim_h2, n_h2);
+		nh3LimN = pow(param[116], param[119]);
+	}
+	
+	/**
+	 * Evaluate pow, exp and log10 with StrictMath, the results are then bit for bit the same on every JVM and platform
+	 * (Math may use intrinsics that differ in the last bit). Used for reproducible runs together with fast math off.
+	 * 
+	 * @param strict Use StrictMath
+	 */
+	public void setStrictMath(boolean strict) {
+		strictMath = strict;
+		limits();
+	}
+	
+	public boolean isStrictMath() {
+		return strictMath;
+	}
+	
+	private double pow(double a, double b) {
+		return pow(a, b, strictMath);
+	}
+	
+	private double exp(double a) {
+		return strictMath ? StrictMath.exp(a) : Math.exp(a);
+	}
+	
+	private static double pow(double a, double b, boolean strict) {
+		return strict ? StrictMath.pow(a, b) : Math.pow(a, b);
+	}
+	
+	/**
+	 * Switch the fast math mode (tabulated inhibition functions) on or off
+	 * 
+	 * @param fast Use tables
+	 */
+	public void setFastMath(boolean fast) {
+		setFastMath(fast, 1.0e-9);
+	}
+	
+	/**
+	 * Switch the fast math mode (tabulated inhibition functions) on or off, 
+	 * tables are built for the current parameter set
+	 * 
+	 * @param fast 	Use tables
+	 * @param tol	Sampled max absolute error of the inhibition functions (see InhibitionTable)
+	 */
+	public void setFastMath(boolean fast, double tol) {
+		fastMath = fast;
+		if (fast) {
+			// pH 1 to 14
+			tab_aa = tablePH(pHLimN_aa, n_aa, tol);
+			tab_ac = tablePH(pHLimN_ac, n_ac, tol);
+			tab_h2 = tablePH(pHLimN_h2, n_h2, tol);
+			// Free ammonia up to 1 kmole N/m3
+			final double b = param[118], k = param[117], h = param[119], limN = nh3LimN;
+			String key = "nh3;" + b + ";" + k + ";" + h + ";" + limN + ";" + tol;
+			tab_nh3 = table(key, nh3 -> inhibitionNH3(nh3, b, k, h, limN, false), 1.0e-10, 1.0, tol);
+		}
+	}
+	
+	private static InhibitionTable tablePH(final double limN, final double n, double tol) {
+		String key = "ph;" + limN + ";" + n + ";" + tol;
+		return table(key, sh -> inhibitionPH(sh, limN, n, false), 1.0e-14, 0.1, tol);
+	}
+	
+	/**
+	 * Tables are shared by all models with the same parameters, a new model is created for every 
+	 * simulation (e.g. each step of a dynamic run) and building the tables dominates short runs
+	 */
+	private static synchronized InhibitionTable table(String key, DoubleUnaryOperator exact, double xmin, double xmax, double tol) {
+		InhibitionTable table = tables.get(key);
+		if (table == null) {
+			if (tables.size() >= MAX_TABLES) {
+				tables.clear(); // Parameter sweeps, keep the cache bounded
+			}
+			table = new InhibitionTable(exact, xmin, xmax, tol);
+			tables.put(key, table);
+		}
+		return table;
+	}
+	
+	/**
+	 * Replaces the built-in process rates and reactions by a kernel generated from a Petersen matrix, 
+	 * null for the built-in model. The coefficients are evaluated for the current parameters.
+	 * 
+	 * @param kernel The kernel, the matrix must define the processes tr_h2, tr_ch4 and tr_co2 (gas transfer)
+	 */
+	public void setKernel(Kernel kernel) {
+		this.kernel = kernel;
+		if (kernel != null) {
+			trH2 = transfer(kernel, "tr_h2");
+			trCh4 = transfer(kernel, "tr_ch4");
+			trCo2 = transfer(kernel, "tr_co2");
+			kernelStates = kernel.getStates();
+			coef = new double[kernel.getCoefficientCount()];
+			kernel.coefficients(param, coef);
+			rate = new double[kernel.getProcessCount()];
+			reac = new double[StateVariables.SIZE];
+			part = new double[2];
+			env = new double[Kernel.ENV_SIZE];
+		}
+		activate();
+	}
+	
+	private static int transfer(Kernel kernel, String process) {
+		int j = kernel.indexOf(process);
+		if (j < 0) {
+			throw new IllegalArgumentException("Petersen matrix " + kernel.getMatrix().getName() + " has no process " + process);
+		}
+		return j;
+	}
+	
+	public Kernel getKernel() {
+		return kernel;
+	}
+	
+	/**
+	 * Switch the bio-P states (S_IP, X_PHA, X_PP, X_PAO) and processes on or off. When off the 
+	 * dimension of the model ends before S_IP and the phosphorus states keep their values.
+	 * A Petersen matrix with phosphorus columns always integrates them.
+	 * 
+	 * @param phosphorus Integrate the bio-P states
+	 */
+	public void setPhosphorus(boolean phosphorus) {
+		this.phosphorus = phosphorus;
+		activate();
+	}
+	
+	public boolean isPhosphorus() {
+		return phosphorus;
+	}
+	
+	/**
+	 * Integrates the model from t0 to t1 in the full StateVariables layout, only the active states 
+	 * are integrated. The model is evaluated once more at the end so that the algebraic 
+	 * variables and outputs (getDimensions) belong to the final state.
+	 * 
+	 * @return Time reached (earlier if stopped by an event)
+	 */
+	public double integrate(FirstOrderIntegrator integrator, double t0, double[] x, double t1) {
+		System.arraycopy(x, 0, full, 0, Math.min(x.length, full.length));
+		double[] y = compact(x);
+		double t;
+		try {
+			t = integrator.integrate(this, t0, y, t1, y);
+		} finally {
+			expand(y, x);
+		}
+		computeAll(t, x, dfull);
+		return t;
+	}
+	
+	/**
+	 * The active states of a full layout state
+	 */
+	public double[] compact(double[] x) {
+		double[] y = new double[active.length];
+		for (int k=0;k<active.length;k++) {
+			y[k] = x[active[k]];
+		}
+		return y;
+	}
+	
+	/**
+	 * Writes the active states into a full layout state
+	 */
+	public void expand(double[] y, double[] x) {
+		for (int k=0;k<active.length;k++) {
+			x[active[k]] = y[k];
+		}
+	}
+	
+	/**
+	 * Event handler on the full layout for an integrator of the active states, the model is evaluated 
+	 * at each event check so that switching functions of algebraic variables and outputs (pH) are 
+	 * functions of the integrated states
+	 */
+	public EventHandler fullLayout(final EventHandler handler) {
+		final double[] x = new double[xtemp.length];
+		final double[] dx = new double[xtemp.length];
+		return new EventHandler() {
+			private double[] state(double t, double[] y) {
+				System.arraycopy(full, 0, x, 0, x.length);
+				expand(y, x);
+				computeAll(t, x, dx);
+				System.arraycopy(getDimensions(), 0, x, 0, x.length);
+				return x;
+			}
+			
+			public void init(double t0, double[] y0, double t) {
+				handler.init(t0, state(t0, y0), t);
+			}
+			
+			public double g(double t, double[] y) {
+				return handler.g(t, state(t, y));
+			}
+			
+			public Action eventOccurred(double t, double[] y, boolean increasing) {
+				return handler.eventOccurred(t, state(t, y), increasing);
+			}
+			
+			public void resetState(double t, double[] y) {
+				handler.resetState(t, state(t, y));
+				// Keeps changes of the states that are not integrated (flow, temperature)
+				System.arraycopy(x, 0, full, 0, x.length);
+				for (int k=0;k<active.length;k++) {
+					y[k] = x[active[k]];
+				}
+			}
+		};
+	}
+	
+	public boolean isFastMath() {
+		return fastMath;
+	}
+	
+	/**
+	 * Largest error of the inhibition tables against the exact functions
+	 */
+	public double getFastMathError() {
+		if (!fastMath) {
+			return 0.0;
+		}
+		return Math.max(Math.max(tab_aa.getMaxError(), tab_ac.getMaxError()), 
+				Math.max(tab_h2.getMaxError(), tab_nh3.getMaxError()));
+	}
+	
+	/**
+	 * The inhibition tables of fast math mode (pH of aa, ac and h2 uptake, free ammonia), null entries without fast math
+	 */
+	InhibitionTable[] getTables() {
+		return new InhibitionTable[] {tab_aa, tab_ac, tab_h2, tab_nh3};
+	}
+	
+	/**
+	 * The exact function of a table of getTables at x (S_H_ion or S_nh3)
+	 */
+	double exactInhibition(int table, double x) {
+		switch (table) {
+			case 0:		return inhibitionPH(x, pHLimN_aa, n_aa, strictMath);
+			case 1:		return inhibitionPH(x, pHLimN_ac, n_ac, strictMath);
+			case 2:		return inhibitionPH(x, pHLimN_h2, n_h2, strictMath);
+			case 3:		return inhibitionNH3(x);
+			default:	throw new IllegalArgumentException("No inhibition table " + table);
+		}
+	}
+	
+	// pHLim^n/(S_H_ion^n+pHLim^n)
+	private static double inhibitionPH(double sh, double limN, double n, boolean strict) {
+		return limN/(pow(sh, n, strict)+limN);
+	}
+	
+	// b*(1.0-(S_nh3^h/(K*S_nh3^h+S_nh3_lim^h)))
+	private double inhibitionNH3(double nh3) {
+		return inhibitionNH3(nh3, param[118], param[117], param[119], nh3LimN, strictMath);
+	}
+	
+	private static double inhibitionNH3(double nh3, double b, double k, double h, double limN, boolean strict) {
+		double nh3N = pow(nh3, h, strict);
+		return b*(1.0-(nh3N/(k*nh3N+limN)));
 	}
 	
 	// Function for retrieving the current variables from the model
-	public double[] getDimensions() {		
+	public double[] getDimensions() {
+		if (evaluated) {
+			outputs();
+		}
 		return xtemp;
 	}
 	
+	/**
+	 * The influent used by the model, changes are applied to the following derivatives
+	 */
+	public double[] getInfluent() {
+		return u;
+	}
+	
+	/**
+	 * Replaces the influent values without rebuilding the model
+	 * 
+	 * @param influent The new influent
+	 */
+	public void setInfluent(double[] influent) {
+		for (int i=0;i<influent.length && i<u.length;i++) {
+			u[i] = influent[i];
+		}
+	}
+	
+	/**
+	 * Influent interpolated in time (LINEAR or CUBIC), evaluated with the flow rate at every derivative,
+	 * null for the constant influent. A STEP input is loaded by the model at each breakpoint instead.
+	 */
+	public void setInput(InfluentInput input) {
+		this.input = input;
+	}
+	
+	/**
+	 * Initial estimate of S_H_ion from the charge balance of the given reactor state
+	 * 
+	 * @param x The digester state
+	 * @param param The digester parameters
+	 * @return S_H_ion
+	 */
+	public static double initialSH(double[] x, double[] param) {
+		return initialSH(x, param, false);
+	}
+	
+	/**
+	 * Initial estimate of S_H_ion, with StrictMath for reproducible runs
+	 */
+	public static double initialSH(double[] x, double[] param, boolean strict) {
+		double factor = (1.0/param[0] - 1.0/param[1])/(100.0*0.083145);
+		double K_w = pow(10,-param[2], strict)*(strict ? StrictMath.exp(55900.0*factor) : Math.exp(55900.0*factor)); // T adjustment for K_w 
+		double phi = x[24]+(x[10]-x[31])-x[30]-(x[29]/64.0)-(x[28]/112.0)-(x[27]/160.0)-(x[26]/208.0)-x[25];
+		return (-phi*0.5)+0.5*Math.sqrt(phi*phi+(4.0*K_w)); // SH+
+	}
+	
+	/**
+	 * Derivatives of the active states (see getActive), used by the integrator
+	 */
 	@Override
-	public void computeDerivatives(double t, double[] x, double[] dx)
-			throws MaxCountExceededException, DimensionMismatchException {	
+	public void computeDerivatives(double t, double[] y, double[] dy)
+			throws MaxCountExceededException, DimensionMismatchException {
+		for (int k=0;k<active.length;k++) {
+			full[active[k]] = y[k];
+		}
+		computeAll(t, full, dfull);
+		for (int k=0;k<active.length;k++) {
+			dy[k] = dfull[active[k]];
+		}
+	}
+	
+	/**
+	 * Derivatives in the full StateVariables layout, entries of the states that are not active are not written
+	 * 
+	 * @param x	The full state, variables that are solved algebraically are start values
+	 * @param dx	Derivatives
+	 */
+	public void computeAll(double t, double[] x, double[] dx) {
+		evaluated = true;
+		if (input != null) {
+			input.evaluate(t, u);
+			x[35] = u[35]; // Effluent flow rate = Influent flow rate
+		}
 		for (int i=0;i<x.length;i++) {
 			if (x[i]<0 || Double.isNaN(x[i])) {
 				xtemp[i] = 0.0;
@@ -148,23 +624,23 @@ public class DAEModel implements FirstOrderDifferentialEquations {
 		
 		// Adjustments for acid-base equations
 		factor = (1.0/(param[0]) - 1.0/(273.15+xtemp[36]))/(100.0*R);
-		K_w = Math.pow(10,-param[2])*Math.exp(55900.0*factor); // T adjustment for K_w 
-		K_a_co2 = Math.pow(10,-param[7])*Math.exp(7646.0*factor); // T adjustment for K_a_co2 
-		K_a_IN = Math.pow(10,-param[8])*Math.exp(51965.0*factor); // T adjustment for K_a_IN 		
-		K_H_h2 = param[9]*Math.exp(-4180.0*factor);     // T adjustment for K_H_h2
-		K_H_ch4 = param[10]*Math.exp(-14240.0*factor);  // T adjustment for K_H_ch4
-		K_H_co2 = param[11]*Math.exp(-19410.0*factor);  // T adjustment for K_H_co2
-		p_gas_h2o = param[12]*Math.exp(5290.0*(1.0/(param[0]) - 1.0/(273.15+xtemp[36])));  // T adjustment for water vapour saturation pressure	
+		K_w = pow(10,-param[2])*exp(55900.0*factor); // T adjustment for K_w 
+		K_a_co2 = pow(10,-param[7])*exp(7646.0*factor); // T adjustment for K_a_co2 
+		K_a_IN = pow(10,-param[8])*exp(51965.0*factor); // T adjustment for K_a_IN 		
+		K_H_h2 = param[9]*exp(-4180.0*factor);     // T adjustment for K_H_h2
+		K_H_ch4 = param[10]*exp(-14240.0*factor);  // T adjustment for K_H_ch4
+		K_H_co2 = param[11]*exp(-19410.0*factor);  // T adjustment for K_H_co2
+		p_gas_h2o = param[12]*exp(5290.0*(1.0/(param[0]) - 1.0/(273.15+xtemp[36])));  // T adjustment for water vapour saturation pressure	
 			
-		K_a_va = Math.pow(10,-param[3]);
-		K_a_bu = Math.pow(10,-param[4]);
-		K_a_pro = Math.pow(10,-param[5]);
-		K_a_ac = Math.pow(10,-param[6]);
+		K_a_va = pow(10,-param[3]);
+		K_a_bu = pow(10,-param[4]);
+		K_a_pro = pow(10,-param[5]);
+		K_a_ac = pow(10,-param[6]);
 		
 		if (fix_pH >= 0) {
 			// S_H_ion based on set pH
 			shDAE = false;
-			S_H_ion = Math.pow(10, -fix_pH);
+			S_H_ion = pow(10, -fix_pH);
 			
 			// Run the DAE functions
 			runDAE();
@@ -188,9 +664,15 @@ public class DAEModel implements FirstOrderDifferentialEquations {
 		P_gas = p_gas_h2 + p_gas_ch4 + p_gas_co2 + p_gas_h2o;
 				
 		// pH Inhibition
-		I_pH_aa = Math.pow(pHLim_aa,n_aa)/(Math.pow(S_H_ion,n_aa)+Math.pow(pHLim_aa ,n_aa));
-		I_pH_ac = Math.pow(pHLim_ac,n_ac)/(Math.pow(S_H_ion,n_ac)+Math.pow(pHLim_ac ,n_ac));
-		I_pH_h2 = Math.pow(pHLim_h2,n_h2)/(Math.pow(S_H_ion,n_h2)+Math.pow(pHLim_h2 ,n_h2));
+		if (fastMath) {
+			I_pH_aa = tab_aa.value(S_H_ion);
+			I_pH_ac = tab_ac.value(S_H_ion);
+			I_pH_h2 = tab_h2.value(S_H_ion);
+		} else {
+			I_pH_aa = inhibitionPH(S_H_ion, pHLimN_aa, n_aa, strictMath);
+			I_pH_ac = inhibitionPH(S_H_ion, pHLimN_ac, n_ac, strictMath);
+			I_pH_h2 = inhibitionPH(S_H_ion, pHLimN_h2, n_h2, strictMath);
+		}
 		
 		I_IN_lim = 1.0/(1.0+param[19]/xtemp[10]); // 1.0/(1.0+K_S_IN/S_IN)
 		I_h2_fa = 1.0/(1.0+xtemp[7]/param[20]); // 1.0/(1.0+S_h2/K_Ih2_fa)
@@ -198,7 +680,17 @@ public class DAEModel implements FirstOrderDifferentialEquations {
 		I_h2_pro = 1.0/(1.0+xtemp[7]/param[22]); // 1.0/(1.0+S_h2/K_Ih2_pro)
 		//I_nh3 = 1.0/(1.0+xtemp[31]/param[23]); // 1.0/(1.0+S_nh3/K_I_nh3) // * BSM2 *
 		// b*(1.0-(S_nh3/(K*S_nh3+S_nh3_lim))) *** Modified ADM1 (Disintegration and Hydrolysis) - Ammonia Inhibition Hill Function ***
-		I_nh3 = param[118]*(1.0-(Math.pow(xtemp[31], param[119])/(param[117]*Math.pow(xtemp[31], param[119])+Math.pow(param[116], param[119]))));
+		if (fastMath) {
+			I_nh3 = tab_nh3.value(xtemp[31]);
+		} else {
+			I_nh3 = inhibitionNH3(xtemp[31]);
+		}
+		
+		if (kernel != null) {
+			kernelReactions(x, dx);
+			phaseEquations(dx);
+			return;
+		}
 		
 		// Inhibitors
 		inhib[0] = I_pH_aa*I_IN_lim; // Inhibition Equation 5 & 6
@@ -241,17 +733,17 @@ public class DAEModel implements FirstOrderDifferentialEquations {
 		// No proc1 or proc20, no composite materials
 		//proc1 = param[100]*(xtemp[40]/(param[101]*xtemp[12]+xtemp[40]))*xtemp[12]; 	// k_m_xc*(X_c/(K_s_xc*X_xc+X_c))*X_xc
 		//proc1 = 0.0; // *** Modified :direct mapping from biomass decay
-		proc2 = param[103]*(xtemp[13]/(param[104]*xtemp[41]+xtemp[13]))*xtemp[41];	// k_m_ch*(X_ch/(K_s_ch*X_xch+X_ch))*X_xch
-		proc3 = param[106]*(xtemp[14]/(param[107]*xtemp[42]+xtemp[14]))*xtemp[42];	// k_m_pr*(X_pr/(K_s_pr*X_xpr+X_pr))*X_xpr
-		proc4 = param[109]*(xtemp[15]/(param[110]*xtemp[43]+xtemp[15]))*xtemp[43];	// k_m_li*(X_li/(K_s_li*X_xli+X_li))*X_xli
+		proc2 = param[103]*(xtemp[13]/(param[104]*xtemp[43]+xtemp[13]))*xtemp[43];	// k_m_ch*(X_ch/(K_s_ch*X_xch+X_ch))*X_xch
+		proc3 = param[106]*(xtemp[14]/(param[107]*xtemp[44]+xtemp[14]))*xtemp[44];	// k_m_pr*(X_pr/(K_s_pr*X_xpr+X_pr))*X_xpr
+		proc4 = param[109]*(xtemp[15]/(param[110]*xtemp[45]+xtemp[15]))*xtemp[45];	// k_m_li*(X_li/(K_s_li*X_xli+X_li))*X_xli
 		//proc20 = param[102]*xtemp[12];	// k_dec_xc*X_xc // *** Modified :direct mapping from biomass decay
-		proc21 = param[105]*xtemp[41];	// k_dec_ch*X_xch, Decay of X_xch 
-		proc22 = param[108]*xtemp[42];	// k_dec_pr*X_xpr, Decay of X_xpr 
-		proc23 = param[111]*xtemp[43];	// k_dec_li*X_xli, Decay of X_xli 
+		proc21 = param[105]*xtemp[43];	// k_dec_ch*X_xch, Decay of X_xch 
+		proc22 = param[108]*xtemp[44];	// k_dec_pr*X_xpr, Decay of X_xpr 
+		proc23 = param[111]*xtemp[45];	// k_dec_li*X_xli, Decay of X_xli 
 
 		// Gas transfer rates *** Modified ADM1 (Disintegration and Hydrolysis) - Liquid/Gas Transfers ***
-		procT8 = param[55]*Math.pow((param[120]/param[122]), 0.5)*(xtemp[7]-16.0*K_H_h2*p_gas_h2); // kLa*(S_h2-16.0*K_H_h2*p_gas_h2)
-		procT9 = param[55]*Math.pow((param[121]/param[122]), 0.5)*(xtemp[8]-64.0*K_H_ch4*p_gas_ch4); // kLa*(S_ch4-64.0*K_H_ch4*p_gas_ch4)
+		procT8 = param[55]*pow((param[120]/param[122]), 0.5)*(xtemp[7]-16.0*K_H_h2*p_gas_h2); // kLa*(S_h2-16.0*K_H_h2*p_gas_h2)
+		procT9 = param[55]*pow((param[121]/param[122]), 0.5)*(xtemp[8]-64.0*K_H_ch4*p_gas_ch4); // kLa*(S_ch4-64.0*K_H_ch4*p_gas_ch4)
 		procT10 = param[55]*((xtemp[9]-xtemp[30])-K_H_co2*p_gas_co2); // kLa*((S_IC-S_hco3)-K_H_co2*p_gas_co2)
 		
 		// Reactions
@@ -369,6 +861,66 @@ public class DAEModel implements FirstOrderDifferentialEquations {
 		dx[24] = (x[35]/param[98])*(u[24]-xtemp[24]); // Scat+
 		dx[25] = (x[35]/param[98])*(u[25]-xtemp[25]); // San-
 		
+		phaseEquations(dx);
+		
+		//  *** Modified ADM1 (Disintegration and Hydrolysis) ***
+		//dx[42] = (x[35]/param[98])*(u[40]-xtemp[40])+reac28; // Xc // *** Modified :direct mapping from biomass decay
+		dx[43] = (x[35]/param[98])*(u[43]-xtemp[43])+reac25; // Xxch
+		dx[44] = (x[35]/param[98])*(u[44]-xtemp[44])+reac26; // Xxpr
+		dx[45] = (x[35]/param[98])*(u[45]-xtemp[45])+reac27; // Xxli	
+		
+		// *** Bio P Reactions ***
+		if (phosphorus) {
+			phosphorusReactions(x, dx);
+		}
+	}
+	
+	/**
+	 * PHA storage by PAO and lysis of PAO, poly-phosphate and PHA according to the BSM2-P extension of the ADM1:
+	 * 
+	 * Solon, Kimberly, Xavier Flores-Alsina, Christian Kazadi Mbamba, et al. 
+	 * "Plant-wide modelling of phosphorus transformations in wastewater treatment systems: Impacts of control and operational strategies".
+	 * Water Research 113 (April 2017): 97-110. doi:10.1016/j.watres.2017.02.007.
+	 * 
+	 * Phosphate is not part of the charge balance (the counter ions of poly-phosphate are not modelled)
+	 * and only the PAO carry phosphorus in their biomass.
+	 */
+	private void phosphorusReactions(double[] x, double[] dx) {
+		// q_PHA*(X_PP/X_PAO)/(K_PP+X_PP/X_PAO)*X_PAO, written without the ratio so empty PAO give zero rates
+		double pao = param[123]*xtemp[48]/(param[125]*xtemp[49]+xtemp[48]+eps)*xtemp[49];
+		double vfa = xtemp[3]+xtemp[4]+xtemp[5]+xtemp[6]+eps;
+		procP20 = pao*xtemp[3]/(param[124]+xtemp[3])*xtemp[3]/vfa; // *(S_va/(K_A+S_va))*(S_va/(S_va+S_bu+S_pro+S_ac)), Storage of S_va in X_PHA
+		procP21 = pao*xtemp[4]/(param[124]+xtemp[4])*xtemp[4]/vfa; // Storage of S_bu in X_PHA
+		procP22 = pao*xtemp[5]/(param[124]+xtemp[5])*xtemp[5]/vfa; // Storage of S_pro in X_PHA
+		procP23 = pao*xtemp[6]/(param[124]+xtemp[6])*xtemp[6]/vfa; // Storage of S_ac in X_PHA
+		procP24 = param[127]*xtemp[49]; // b_PAO*X_PAO, Lysis of X_PAO
+		procP25 = param[128]*xtemp[48]; // b_PP*X_PP, Lysis of X_PP
+		procP26 = param[129]*xtemp[47]; // b_PHA*X_PHA, Lysis of X_PHA
+		double storage = procP20+procP21+procP22+procP23;
+		
+		dx[3] += param[130]*procP26-procP20; // Sva
+		dx[4] += param[131]*procP26-procP21; // Sbu
+		dx[5] += param[132]*procP26-procP22; // Spro
+		dx[6] += param[133]*procP26-procP23; // Sac
+		dx[9] += -stoichP20*procP20-stoichP21*procP21-stoichP22*procP22-stoichP23*procP23-stoich13*procP24-stoichP26*procP26; // SIC
+		dx[10] += (param[96]-param[93])*procP24; // SIN
+		// Lysed PAO mapped directly onto the composite fractions, as the decay of the other biomass
+		dx[11] += param[57]*procP24; // SI
+		dx[13] += param[59]*procP24; // Xch
+		dx[14] += param[61]*procP24; // Xpr
+		dx[15] += param[63]*procP24; // Xli
+		dx[23] += param[65]*procP24; // XI
+		
+		dx[46] = (x[35]/param[98])*(u[46]-xtemp[46])+param[126]*storage+param[135]*procP24+procP25; // S_IP
+		dx[47] = (x[35]/param[98])*(u[47]-xtemp[47])+storage-procP26; // X_PHA
+		dx[48] = (x[35]/param[98])*(u[48]-xtemp[48])-param[126]*storage-procP25; // X_PP
+		dx[49] = (x[35]/param[98])*(u[49]-xtemp[49])-procP24; // X_PAO
+	}
+	
+	/**
+	 * Ion, gas phase and output equations, the same for the built-in and the kernel reactions
+	 */
+	private void phaseEquations(double[] dx) {
 		// Acid-base process rates for ODE
 		//k_A_Bva*(S_hva*(K_A_va+S_H_ion)-K_a_va*S_va)
 		if (!shDAE  && fix_pH < 0) {
@@ -384,11 +936,17 @@ public class DAEModel implements FirstOrderDifferentialEquations {
 		dx[33] = -xtemp[33]*q_gas/param[99]+procT9*param[98]/param[99]; 	// Sgas,ch4
 		dx[34] = -xtemp[34]*q_gas/param[99]+procT10*param[98]/param[99]; 	// Sgas,co2
 
+	}
+	
+	/**
+	 * Algebraic outputs of the last evaluation, not needed by the derivatives
+	 */
+	private void outputs() {
 		// Gas flows
 		xtemp[37] = q_gas*(p_gas_ch4/P_gas);
 		xtemp[38] = q_gas;
 				
-		xtemp[39] = -Math.log10(S_H_ion); // pH
+		xtemp[39] = -(strictMath ? StrictMath.log10(S_H_ion) : Math.log10(S_H_ion)); // pH
 		
 		// SCO2 = SIC - SHCO3
 		xtemp[40] = xtemp[9]-xtemp[30]; // SCO2
@@ -397,37 +955,87 @@ public class DAEModel implements FirstOrderDifferentialEquations {
 		
 		// Holder for total methane volume
 		xtemp[42] = 0.0;
-
-		//  *** Modified ADM1 (Disintegration and Hydrolysis) ***
-		//dx[42] = (x[35]/param[98])*(u[40]-xtemp[40])+reac28; // Xc // *** Modified :direct mapping from biomass decay
-		dx[43] = (x[35]/param[98])*(u[41]-xtemp[41])+reac25; // Xxch
-		dx[44] = (x[35]/param[98])*(u[42]-xtemp[42])+reac26; // Xxpr
-		dx[45] = (x[35]/param[98])*(u[43]-xtemp[43])+reac27; // Xxli	
+	}
+	
+	/**
+	 * Process rates and liquid phase equations from the Petersen matrix kernel
+	 */
+	private void kernelReactions(double[] x, double[] dx) {
+		environment();
+		kernel.rates(xtemp, param, env, coef, rate);
+		kernel.reactions(coef, rate, reac);
+		procT8 = rate[trH2];
+		procT9 = rate[trCh4];
+		procT10 = rate[trCo2];
 		
-		// *** Bio P Reactions ***
-		// P Removal Equations
-		/*
-		reac28 = -stoich1_p*proc1-stoich2_p*proc2-stoich3_p*proc3-stoich4_p*proc4-stoich5_p*proc5- stoich6_p*proc6-
-				stoich7_p*proc7-stoich8_p*proc8-stoich9_p*proc9-stoich10_p*proc10-stoich11_p*proc11-stoich12_p*proc12-
-				stoich13_p*proc13-stoich13_p*proc14-stoich13_p*proc15-stoich13_p*proc16-stoich13_p*proc17-stoich13_p*proc18-
-				stoich13_p*proc19-stoich14_p*proc20-stoich15_p*proc21-stoich16_p*proc22-stoich17_p*proc23-stoich18_p*proc24-
-				stoich19_p*proc25-stoich20_p*proc26-stoich21_p*proc27-stoich22_p*proc28-stoich23_p*proc29-stoich24_p*proc30-
-				stoich25_p*proc31-stoich26_p*proc32-stoich27_p*proc33-stoich28_p*proc34-stoich29_p*proc35-stoich30_p*proc36-
-				stoich31_p*proc37-stoich32_p*proc38-stoich33_p*proc39;
-		reac29 = -proc26 + proc20 + proc21 + proc22 + proc23;                               // XPHA
-		reac30 = -proc25 - YPO4*proc20 - YPO4*proc21 - YPO4*proc22 - YPO4*proc23;           // XPP
-		reac31 = -proc24;                                                                   // XPAO
-		*/
-		/*
-		//1.0/V_liq*(u[24]*(u[26]-x[42])) + reac25 - 2*P_acp*proc52 - 3*P_hap*proc53 - P_cap*proc54- 3*P_ocp*proc55 - P_struv*proc56 - P_newb*proc57 - P_kstruv*proc59 + P_fepo4*proc61 - P_alpo4*proc62 -  2.0*P_fe3po42*proc63;
-		dx[46] = 0; // S_IP
-		//1.0/V_liq*(u[24]*(u[27]-x[43])) + reac26;
-		dx[47] = 0; // X_PHA
-		//1.0/V_liq*(u[24]*(u[28]-x[44])) + reac27; 
-		dx[48] = 0; // X_PP
-		//1.0/V_liq*(u[24]*(u[29]-x[45])) + reac28;
-		dx[49] = 0; // X_PAO	
-		*/
+		q_gas = param[97]*(P_gas-P_atm);
+		if (q_gas < 0)
+		   q_gas = 0.0;
+		
+		dx[24] = (x[35]/param[98])*(u[24]-xtemp[24]); // Scat+
+		dx[25] = (x[35]/param[98])*(u[25]-xtemp[25]); // San-
+		// Bio-P states without a column in the matrix are only diluted
+		for (int s=StateVariables.S_IP;s<=StateVariables.X_PAO && phosphorus;s++) {
+			dx[s] = (x[35]/param[98])*(u[s]-xtemp[s]);
+		}
+		for (int i=0;i<kernelStates.length;i++) {
+			int s = kernelStates[i];
+			if (s != 7 || !sh2DAE) {
+				dx[s] = (x[35]/param[98])*(u[s]-xtemp[s])+reac[s];
+			}
+		}
+	}
+	
+	private void environment() {
+		env[Kernel.I_PH_AA] = I_pH_aa;
+		env[Kernel.I_PH_AC] = I_pH_ac;
+		env[Kernel.I_PH_H2] = I_pH_h2;
+		env[Kernel.I_NH3] = I_nh3;
+		env[Kernel.K_H_H2] = K_H_h2;
+		env[Kernel.K_H_CH4] = K_H_ch4;
+		env[Kernel.K_H_CO2] = K_H_co2;
+		env[Kernel.P_GAS_H2] = p_gas_h2;
+		env[Kernel.P_GAS_CH4] = p_gas_ch4;
+		env[Kernel.P_GAS_CO2] = p_gas_co2;
+		env[Kernel.S_H_ION] = S_H_ion;
+		env[Kernel.EPS] = eps;
+	}
+	
+	/**
+	 * SH2 Equation with the kernel reaction term of S_h2 and its derivative
+	 */
+	private void kernelSh2(double prevS_H_ion, double TOL, double maxSteps) {
+		double sh2Delta = 1.0;
+		double sh2GradEqu = 1.0;
+		int j = 1;
+		
+		// Gas phase and the remaining inhibitions do not change within the loop
+		if (fastMath) {
+			I_pH_ac = tab_ac.value(prevS_H_ion);
+			I_nh3 = tab_nh3.value(xtemp[31]);
+		} else {
+			I_pH_ac = inhibitionPH(prevS_H_ion, pHLimN_ac, n_ac, strictMath);
+			I_nh3 = inhibitionNH3(xtemp[31]);
+		}
+		p_gas_h2 = xtemp[32]*R*(273.15+xtemp[36])/16.0;
+		p_gas_ch4 = xtemp[33]*R*(273.15+xtemp[36])/64.0;
+		p_gas_co2 = xtemp[34]*R*(273.15+xtemp[36]);
+		environment();
+		
+		while ( (sh2Delta > TOL || sh2Delta < -TOL) && (j <= maxSteps) ) {
+			kernel.partial(7, xtemp, param, env, coef, part);
+			
+			sh2Delta = (xtemp[35]/param[98])*(u[7]-xtemp[7])+part[0];
+			sh2GradEqu = -1/param[98]*xtemp[35]+part[1];
+			
+			xtemp[7] = xtemp[7]-sh2Delta/sh2GradEqu;
+			
+			if (xtemp[7] <= 0) {
+	            xtemp[7] = TOL;
+	        }
+			
+			j++;
+		}
 	}
 	
 	public void runDAE() {			
@@ -478,11 +1086,22 @@ public class DAEModel implements FirstOrderDifferentialEquations {
 
 		// SH2 Equation
 		if (sh2DAE) {
+			// pH inhibition does not change within the loop
+			if (fastMath) {
+				I_pH_aa = tab_aa.value(prevS_H_ion);
+				I_pH_h2 = tab_h2.value(prevS_H_ion);
+			} else {
+				I_pH_aa = inhibitionPH(prevS_H_ion, pHLimN_aa, n_aa, strictMath);
+				I_pH_h2 = inhibitionPH(prevS_H_ion, pHLimN_h2, n_h2, strictMath);
+			}
+			
+			if (kernel != null) {
+				kernelSh2(prevS_H_ion, TOL, maxSteps);
+				return;
+			}
+			
 			while ( (sh2Delta > TOL || sh2Delta < -TOL) && (j <= maxSteps) ) {
 				// Calculate ahead within loop	
-				I_pH_aa = Math.pow(pHLim_aa,n_aa)/(Math.pow(prevS_H_ion,n_aa)+Math.pow(pHLim_aa ,n_aa));
-				I_pH_h2 = Math.pow(pHLim_h2,n_h2)/(Math.pow(prevS_H_ion,n_h2)+Math.pow(pHLim_h2 ,n_h2));
-				
 				I_IN_lim = 1.0/(1.0+param[19]/xtemp[10]); // 1.0/(1.0+K_S_IN/S_IN)
 				I_h2_fa = 1.0/(1.0+xtemp[7]/param[20]); // 1.0/(1.0+S_h2/K_Ih2_fa)
 				I_h2_c4 = 1.0/(1.0+xtemp[7]/param[21]); // 1.0/(1.0+S_h2/K_Ih2_c4)
@@ -538,6 +1157,6 @@ public class DAEModel implements FirstOrderDifferentialEquations {
 
 	@Override
 	public int getDimension() {
-		return 50;
+		return active.length;
 	}
 }
@@ -42,141 +42,143 @@ public class DigesterParameters {
 	public final static Logger LOGGER = Logger.getLogger(DigesterParameters.class.getName());
 	
 	/*
-	 * Digestor Parameters
+	 * Index of each parameter in the array (see the constructor for descriptions)
 	 */
-	private double f_sI_xc, f_xI_xc, f_ch_xc, f_pr_xc, f_li_xc, N_xc, N_I, N_aa, C_xc, C_sI, C_ch;
-	private double C_pr, C_li, C_xI, C_su, C_aa, f_fa_li, C_fa, f_h2_su, f_bu_su, f_pro_su, f_ac_su;
-	private double N_bac, C_bu, C_pro, C_ac, C_bac, Y_su, f_h2_aa, f_va_aa, f_bu_aa, f_pro_aa, f_ac_aa;
-	private double C_va, Y_aa, Y_fa, Y_c4, Y_pro, C_ch4, Y_ac, Y_h2;
-	private double k_dis, k_hyd_ch, k_hyd_pr, k_hyd_li, K_S_IN, k_m_su, K_S_su, pH_UL_aa, pH_LL_aa;
-	private double k_m_aa, K_S_aa, k_m_fa, K_S_fa, K_Ih2_fa, k_m_c4, K_S_c4, K_Ih2_c4, k_m_pro, K_S_pro;
-	private double K_Ih2_pro, k_m_ac, K_S_ac, K_I_nh3, pH_UL_ac, pH_LL_ac, k_m_h2, K_S_h2, pH_UL_h2, pH_LL_h2;
-	private double k_dec_Xsu, k_dec_Xaa, k_dec_Xfa, k_dec_Xc4, k_dec_Xpro, k_dec_Xac, k_dec_Xh2;
-	private double T_base, T_op, pK_w_base, pK_a_va_base, pK_a_bu_base, pK_a_pro_base, pK_a_ac_base, pK_a_co2_base, pK_a_IN_base;
-	private double k_A_Bva, k_A_Bbu, k_A_Bpro, k_A_Bac, k_A_Bco2, k_A_BIN;
-	private double k_P, kLco2, K_H_h2o_base, K_H_co2_base, K_H_ch4_base, K_H_h2_base;
-	// Modified ADM1 parameters (Disintegration and Hydrolysis)
-	private double k_m_xc, K_s_xc, k_dec_xc, k_m_ch, K_s_ch, k_dec_ch, k_m_pr, K_s_pr, k_dec_pr, k_m_li, K_s_li, k_dec_li, Y_xc, Y_ch, Y_pr, Y_li;
-	// Modified ADM1 Hill function for ammonia inhibiton
-	private double S_nh3_lim, K_nh3, b_nh3, h_nh3;
-	// Modified ADM1 Gas Diffusivity
-	private double D_h2, D_ch4, D_co2;
+	public static final int T_BASE = 0, T_OP = 1, PK_W_BASE = 2, PK_A_VA_BASE = 3, PK_A_BU_BASE = 4, PK_A_PRO_BASE = 5, PK_A_AC_BASE = 6, PK_A_CO2_BASE = 7;
+	public static final int PK_A_IN_BASE = 8, K_H_H2_BASE = 9, K_H_CH4_BASE = 10, K_H_CO2_BASE = 11, K_H_H2O_BASE = 12, PH_UL_AA = 13, PH_LL_AA = 14, PH_UL_AC = 15;
+	public static final int PH_LL_AC = 16, PH_UL_H2 = 17, PH_LL_H2 = 18, K_S_IN = 19, K_IH2_FA = 20, K_IH2_C4 = 21, K_IH2_PRO = 22, K_I_NH3 = 23;
+	public static final int K_DIS = 24, K_HYD_CH = 25, K_HYD_PR = 26, K_HYD_LI = 27, K_M_SU = 28, K_S_SU = 29, K_M_AA = 30, K_S_AA = 31;
+	public static final int K_M_FA = 32, K_S_FA = 33, K_M_C4 = 34, K_S_C4 = 35, K_M_PRO = 36, K_S_PRO = 37, K_M_AC = 38, K_S_AC = 39;
+	public static final int K_M_H2 = 40, K_S_H2 = 41, K_DEC_XSU = 42, K_DEC_XAA = 43, K_DEC_XFA = 44, K_DEC_XC4 = 45, K_DEC_XPRO = 46, K_DEC_XAC = 47;
+	public static final int K_DEC_XH2 = 48, K_A_BVA = 49, K_A_BBU = 50, K_A_BPRO = 51, K_A_BAC = 52, K_A_BCO2 = 53, K_A_BIN = 54, KLCO2 = 55;
+	public static final int C_XC = 56, F_SI_XC = 57, C_SI = 58, F_CH_XC = 59, C_CH = 60, F_PR_XC = 61, C_PR = 62, F_LI_XC = 63;
+	public static final int C_LI = 64, F_XI_XC = 65, C_XI = 66, C_SU = 67, C_AA = 68, F_FA_LI = 69, C_FA = 70, Y_SU = 71;
+	public static final int F_BU_SU = 72, C_BU = 73, F_PRO_SU = 74, C_PRO = 75, F_AC_SU = 76, C_AC = 77, C_BAC = 78, Y_AA = 79;
+	public static final int F_VA_AA = 80, C_VA = 81, F_BU_AA = 82, F_PRO_AA = 83, F_AC_AA = 84, Y_FA = 85, Y_C4 = 86, Y_PRO = 87;
+	public static final int Y_AC = 88, C_CH4 = 89, Y_H2 = 90, F_H2_SU = 91, F_H2_AA = 92, N_XC = 93, N_I = 94, N_AA = 95;
+	public static final int N_BAC = 96, K_P = 97, V_LIQ = 98, V_GAS = 99, K_M_XC = 100, K_S_XC = 101, K_DEC_XC = 102, K_M_CH = 103;
+	public static final int K_S_CH = 104, K_DEC_CH = 105, K_M_PR = 106, K_S_PR = 107, K_DEC_PR = 108, K_M_LI = 109, K_S_LI = 110, K_DEC_LI = 111;
+	public static final int Y_XC = 112, Y_CH = 113, Y_PR = 114, Y_LI = 115, S_NH3_LIM = 116, K_NH3 = 117, B_NH3 = 118, H_NH3 = 119;
+	public static final int D_H2 = 120, D_CH4 = 121, D_CO2 = 122, Q_PHA = 123, K_A = 124, K_PP = 125, Y_PO4 = 126, B_PAO = 127;
+	public static final int B_PP = 128, B_PHA = 129, F_VA_PHA = 130, F_BU_PHA = 131, F_PRO_PHA = 132, F_AC_PHA = 133, C_PHA = 134, P_BAC = 135;
+	public static final int SIZE = 136;
 	
-	private double V_liq, V_gas;
+	private double[] p; // Backing array
 	
 	/** 
 	 * Default settings according to what you would typically find for sludge digesters
 	 */
 	public DigesterParameters () {
+		p = new double[SIZE];
 		/*
 		 * Fixed Digester Parameters
 		 */
-		T_base=298.15;    		// 0.  Base temp: 25 degC = 298.15 K (273.15 + 25)
-		T_op=308.15;      		// 1.  Operational temperature of AD and interfaces, 35 degC, should be an input - NOT USED
-		pK_w_base=14.0; 		// 2.  Log10 of acid-base equilibrium coefficient
-		pK_a_va_base=4.86;		// 3.  Log10 of acid-base equilibrium coefficient valerate
-		pK_a_bu_base=4.82;		// 4.  Log10 of acid-base equilibrium coefficient butyrate
-		pK_a_pro_base=4.88;		// 5.  Log10 of acid-base equilibrium coefficient propionate
-		pK_a_ac_base=4.76;		// 6.  Log10 of acid-base equilibrium coefficient acetate
-		pK_a_co2_base=6.35;		// 7.  Log10 of acid-base equilibrium coefficient carbon dioxide
-		pK_a_IN_base=9.25;		// 8.  Log10 of acid-base equilibrium coefficient inorganic nitrogen
-		K_H_h2_base=7.8e-4;		// 9.  Henry's law coefficient - hydrogen
-		K_H_ch4_base=0.0014;	// 10. Henry's law coefficient - methane
-		K_H_co2_base=0.035;		// 11. Henry's law coefficient - carbon dioxide
-		K_H_h2o_base=0.0313; 	// 12. Henry's law coefficient - water
-		pH_UL_aa=5.5;			// 13. Amino acids pH inhibition upper limit
-		pH_LL_aa=4.0;			// 14. Amino acids pH inhibition lower limit
-		pH_UL_ac=7.0;			// 15. Acetate pH inhibition upper limit
-		pH_LL_ac=6.0;			// 16. Acetate pH inhibition lower limit
-		pH_UL_h2=6.0;			// 17. Hydrogen pH inhibition upper limit
-		pH_LL_h2=5.0;			// 18. Hydrogen pH inhibition lower limit
-		K_S_IN=1.0e-4;			// 19. Half saturation value inorganic nitrogen
-		K_Ih2_fa=5.0e-6;		// 20. 50% inhibitory concentration long chain fatty acids
-		K_Ih2_c4=1.0e-5;		// 21. 50% inhibitory concentration valerate and butyrate
-		K_Ih2_pro=3.5e-6;		// 22. 50% inhibitory concentration propionate
-		K_I_nh3=0.0018;			// 23. Half saturation value ammonia
+		p[T_BASE]=298.15;    		// 0.  Base temp: 25 degC = 298.15 K (273.15 + 25)
+		p[T_OP]=308.15;      		// 1.  Operational temperature of AD and interfaces, 35 degC, should be an input - NOT USED
+		p[PK_W_BASE]=14.0; 		// 2.  Log10 of acid-base equilibrium coefficient
+		p[PK_A_VA_BASE]=4.86;		// 3.  Log10 of acid-base equilibrium coefficient valerate
+		p[PK_A_BU_BASE]=4.82;		// 4.  Log10 of acid-base equilibrium coefficient butyrate
+		p[PK_A_PRO_BASE]=4.88;		// 5.  Log10 of acid-base equilibrium coefficient propionate
+		p[PK_A_AC_BASE]=4.76;		// 6.  Log10 of acid-base equilibrium coefficient acetate
+		p[PK_A_CO2_BASE]=6.35;		// 7.  Log10 of acid-base equilibrium coefficient carbon dioxide
+		p[PK_A_IN_BASE]=9.25;		// 8.  Log10 of acid-base equilibrium coefficient inorganic nitrogen
+		p[K_H_H2_BASE]=7.8e-4;		// 9.  Henry's law coefficient - hydrogen
+		p[K_H_CH4_BASE]=0.0014;	// 10. Henry's law coefficient - methane
+		p[K_H_CO2_BASE]=0.035;		// 11. Henry's law coefficient - carbon dioxide
+		p[K_H_H2O_BASE]=0.0313; 	// 12. Henry's law coefficient - water
+		p[PH_UL_AA]=5.5;			// 13. Amino acids pH inhibition upper limit
+		p[PH_LL_AA]=4.0;			// 14. Amino acids pH inhibition lower limit
+		p[PH_UL_AC]=7.0;			// 15. Acetate pH inhibition upper limit
+		p[PH_LL_AC]=6.0;			// 16. Acetate pH inhibition lower limit
+		p[PH_UL_H2]=6.0;			// 17. Hydrogen pH inhibition upper limit
+		p[PH_LL_H2]=5.0;			// 18. Hydrogen pH inhibition lower limit
+		p[K_S_IN]=1.0e-4;			// 19. Half saturation value inorganic nitrogen
+		p[K_IH2_FA]=5.0e-6;		// 20. 50% inhibitory concentration long chain fatty acids
+		p[K_IH2_C4]=1.0e-5;		// 21. 50% inhibitory concentration valerate and butyrate
+		p[K_IH2_PRO]=3.5e-6;		// 22. 50% inhibitory concentration propionate
+		p[K_I_NH3]=0.0018;			// 23. Half saturation value ammonia
 		
 		// NOT USED --->
-		k_dis=0.5;				// 24. First order disintegration rate
-		k_hyd_ch=10.0;			// 25. First order hydrolysis parameter carbohydrates
-		k_hyd_pr=10.0;			// 26. First order hydrolysis parameter proteins
-		k_hyd_li=10.0;			// 27. First order hydrolysis parameter lipids
+		p[K_DIS]=0.5;				// 24. First order disintegration rate
+		p[K_HYD_CH]=10.0;			// 25. First order hydrolysis parameter carbohydrates
+		p[K_HYD_PR]=10.0;			// 26. First order hydrolysis parameter proteins
+		p[K_HYD_LI]=10.0;			// 27. First order hydrolysis parameter lipids
 		// <--- NOT USED
 		
-		k_m_su=30.0;			// 28. Monod maximum specific uptake rate monosaccharides
-		K_S_su=0.5;				// 29. Half saturation value monosaccharides
-		k_m_aa=50.0;			// 30. Monod maximum specific uptake rate amino acids
-		K_S_aa=0.3;				// 31. Half saturation value amino acids
-		k_m_fa=6.0;				// 32. Monod maximum specific uptake rate long chain fatty acids
-		K_S_fa=0.4;				// 33. Half saturation value long chain fatty acids
-		k_m_c4=20.0;			// 34. Monod maximum specific uptake rate valerate and butyrate
-		K_S_c4=0.2;				// 35. Half saturation value valerate and butyrate
-		k_m_pro=13.0;			// 36. Monod maximum specific uptake rate propionate
-		K_S_pro=0.1;			// 37. Half saturation value propionate
-		k_m_ac=8.0;				// 38. Monod maximum specific uptake rate acetate
-		K_S_ac=0.15;			// 39. Half saturation value acetate
-		k_m_h2=35.0;			// 40. Monod maximum specific uptake rate hydrogen
-		K_S_h2=7.0e-6;			// 41. Half saturation value hydrogen
-		k_dec_Xsu=0.02;			// 42. First order decay rate particulates monosaccharides
-		k_dec_Xaa=0.02;			// 43. First order decay rate particulates amino acids
-		k_dec_Xfa=0.02;			// 44. First order decay rate particulates long chain fatty acids
-		k_dec_Xc4=0.02;			// 45. First order decay rate particulates valerate and butyrate
-		k_dec_Xpro=0.02;		// 46. First order decay rate particulates propionate
-		k_dec_Xac=0.02;			// 47. First order decay rate particulates acetate
-		k_dec_Xh2=0.02;			// 48. First order decay rate insoluble hydrogen
-		k_A_Bva=1.0e10;			// 49. Acid base kinetic parameter valerate
-		k_A_Bbu=1.0e10;			// 50. Acid base kinetic parameter butyrate
-		k_A_Bpro=1.0e10;		// 51. Acid base kinetic parameter propionate
-		k_A_Bac=1.0e10;			// 52. Acid base kinetic parameter acetate
-		k_A_Bco2=1.0e10;		// 53. Acid base kinetic parameter carbon dioxide
-		k_A_BIN=1.0e10;			// 54. Acid base kinetic parameter inorganic nitrogen
-		kLco2=200.0;			// 55. Gas-liquid transfer coefficient carbon dioxide gas
-		C_xc=0.02786;			// 56. Carbon content of composite material
-		f_sI_xc=0.1;			// 57. Yield (catabolism only) of soluble inerts on composite material
-		C_sI=0.03;				// 58. Carbon content of soluble inerts
-		f_ch_xc=0.2;			// 59. Yield (catabolism only) of carbohydrates on composite material
-		C_ch=0.0313;			// 60. Carbon content of carbohydrates
-		f_pr_xc=0.2;			// 61. Yield (catabolism only) of proteins on composite material
-		C_pr=0.03;				// 62. Carbon content of proteins
-		f_li_xc=0.3;			// 63. Yield (catabolism only) of lipids on composite material
-		C_li=0.022;				// 64. Carbon content of lipids
-		f_xI_xc=0.2;			// 65. Yield (catabolism only) of particulate inerts on composite material
-		C_xI=0.03;				// 66. Carbon content of particulate inerts
-		C_su=0.0313;			// 67. Carbon content of monosaccharides
-		C_aa=0.03;				// 68. Carbon content of amino acids
-		f_fa_li=0.95;			// 69. Yield (catabolism only) of long chain fatty acids on lipids
-		C_fa=0.0217;			// 70. Carbon content of long chain fatty acids
-		Y_su=0.1;				// 71. Yield of biomass on monosaccharides
-		f_bu_su=0.13;			// 72. Yield (catabolism only) of butyrate on monosaccharides
-		C_bu=0.025;				// 73. Carbon content of butyrate
-		f_pro_su=0.27;			// 74. Yield (catabolism only) of propionate on monosaccharides
-		C_pro=0.0268;			// 75. Carbon content of butyrate
-		f_ac_su=0.41;			// 76. Yield (catabolism only) of acetate on monosaccharides
-		C_ac=0.0313;			// 77. Carbon content of acetate
-		f_ac_su=0.41;			// 76. Yield (catabolism only) of acetate on monosaccharides
-		C_ac=0.0313;			// 77. Carbon content of acetate
-		C_bac=0.0313;			// 78. Carbon content of base acetate
-		Y_aa=0.08;				// 79. Yield of biomass on amino acids
-		f_va_aa=0.23;			// 80. Yield (catabolism only) of valerate on amino acids
-		C_va=0.024;				// 81. Carbon content of valerate
-		f_bu_aa=0.26;			// 82. Yield (catabolism only) of butyrate on amino acids
-		f_pro_aa=0.05;			// 83. Yield (catabolism only) of propionate on amino acids
-		f_ac_aa=0.40;			// 84. Yield (catabolism only) of acetate on amino acids
-		Y_fa=0.06;				// 85. Yield of biomass on long chain fatty acids
-		Y_c4=0.06;				// 86. Yield of biomass on valerate and butyrate
-		Y_pro=0.04;				// 87. Yield of biomass on propionate
-		Y_ac=0.05;				// 88. Yield of biomass on acetate
-		C_ch4=0.0156;			// 89. Carbon content of methane
-		Y_h2=0.06;				// 90. Yield of biomass on hydrogen
-		f_h2_su=0.19;			// 91. Yield (catabolism only) of hydrogen on monosaccharides
-		f_h2_aa=0.06;			// 92. Yield (catabolism only) of hydrogen on amino acids
-		N_xc=0.0;				// 93. Nitrogen component of composite material *** NOT USED ***
-		N_I=0.0042857143;		// 94. Nitrogen component of inorganic material
-		N_aa=0.007;				// 95. Nitrogen component of amino acids
-		N_bac=0.0057142857;		// 96. Nitrogen component of base acetate
-		k_P=5.0e4;				// 97. Pipe resistance coefficient (m3 d-1 bar-1)
-		V_liq=3400.0; 			// 98. Size of AD liquid portion in m3
-		V_gas=300.0; 			// 99. Size of AD gas portion in m3
+		p[K_M_SU]=30.0;			// 28. Monod maximum specific uptake rate monosaccharides
+		p[K_S_SU]=0.5;				// 29. Half saturation value monosaccharides
+		p[K_M_AA]=50.0;			// 30. Monod maximum specific uptake rate amino acids
+		p[K_S_AA]=0.3;				// 31. Half saturation value amino acids
+		p[K_M_FA]=6.0;				// 32. Monod maximum specific uptake rate long chain fatty acids
+		p[K_S_FA]=0.4;				// 33. Half saturation value long chain fatty acids
+		p[K_M_C4]=20.0;			// 34. Monod maximum specific uptake rate valerate and butyrate
+		p[K_S_C4]=0.2;				// 35. Half saturation value valerate and butyrate
+		p[K_M_PRO]=13.0;			// 36. Monod maximum specific uptake rate propionate
+		p[K_S_PRO]=0.1;			// 37. Half saturation value propionate
+		p[K_M_AC]=8.0;				// 38. Monod maximum specific uptake rate acetate
+		p[K_S_AC]=0.15;			// 39. Half saturation value acetate
+		p[K_M_H2]=35.0;			// 40. Monod maximum specific uptake rate hydrogen
+		p[K_S_H2]=7.0e-6;			// 41. Half saturation value hydrogen
+		p[K_DEC_XSU]=0.02;			// 42. First order decay rate particulates monosaccharides
+		p[K_DEC_XAA]=0.02;			// 43. First order decay rate particulates amino acids
+		p[K_DEC_XFA]=0.02;			// 44. First order decay rate particulates long chain fatty acids
+		p[K_DEC_XC4]=0.02;			// 45. First order decay rate particulates valerate and butyrate
+		p[K_DEC_XPRO]=0.02;		// 46. First order decay rate particulates propionate
+		p[K_DEC_XAC]=0.02;			// 47. First order decay rate particulates acetate
+		p[K_DEC_XH2]=0.02;			// 48. First order decay rate insoluble hydrogen
+		p[K_A_BVA]=1.0e10;			// 49. Acid base kinetic parameter valerate
+		p[K_A_BBU]=1.0e10;			// 50. Acid base kinetic parameter butyrate
+		p[K_A_BPRO]=1.0e10;		// 51. Acid base kinetic parameter propionate
+		p[K_A_BAC]=1.0e10;			// 52. Acid base kinetic parameter acetate
+		p[K_A_BCO2]=1.0e10;		// 53. Acid base kinetic parameter carbon dioxide
+		p[K_A_BIN]=1.0e10;			// 54. Acid base kinetic parameter inorganic nitrogen
+		p[KLCO2]=200.0;			// 55. Gas-liquid transfer coefficient carbon dioxide gas
+		p[C_XC]=0.02786;			// 56. Carbon content of composite material
+		p[F_SI_XC]=0.1;			// 57. Yield (catabolism only) of soluble inerts on composite material
+		p[C_SI]=0.03;				// 58. Carbon content of soluble inerts
+		p[F_CH_XC]=0.2;			// 59. Yield (catabolism only) of carbohydrates on composite material
+		p[C_CH]=0.0313;			// 60. Carbon content of carbohydrates
+		p[F_PR_XC]=0.2;			// 61. Yield (catabolism only) of proteins on composite material
+		p[C_PR]=0.03;				// 62. Carbon content of proteins
+		p[F_LI_XC]=0.3;			// 63. Yield (catabolism only) of lipids on composite material
+		p[C_LI]=0.022;				// 64. Carbon content of lipids
+		p[F_XI_XC]=0.2;			// 65. Yield (catabolism only) of particulate inerts on composite material
+		p[C_XI]=0.03;				// 66. Carbon content of particulate inerts
+		p[C_SU]=0.0313;			// 67. Carbon content of monosaccharides
+		p[C_AA]=0.03;				// 68. Carbon content of amino acids
+		p[F_FA_LI]=0.95;			// 69. Yield (catabolism only) of long chain fatty acids on lipids
+		p[C_FA]=0.0217;			// 70. Carbon content of long chain fatty acids
+		p[Y_SU]=0.1;				// 71. Yield of biomass on monosaccharides
+		p[F_BU_SU]=0.13;			// 72. Yield (catabolism only) of butyrate on monosaccharides
+		p[C_BU]=0.025;				// 73. Carbon content of butyrate
+		p[F_PRO_SU]=0.27;			// 74. Yield (catabolism only) of propionate on monosaccharides
+		p[C_PRO]=0.0268;			// 75. Carbon content of butyrate
+		p[F_AC_SU]=0.41;			// 76. Yield (catabolism only) of acetate on monosaccharides
+		p[C_AC]=0.0313;			// 77. Carbon content of acetate
+		p[F_AC_SU]=0.41;			// 76. Yield (catabolism only) of acetate on monosaccharides
+		p[C_AC]=0.0313;			// 77. Carbon content of acetate
+		p[C_BAC]=0.0313;			// 78. Carbon content of base acetate
+		p[Y_AA]=0.08;				// 79. Yield of biomass on amino acids
+		p[F_VA_AA]=0.23;			// 80. Yield (catabolism only) of valerate on amino acids
+		p[C_VA]=0.024;				// 81. Carbon content of valerate
+		p[F_BU_AA]=0.26;			// 82. Yield (catabolism only) of butyrate on amino acids
+		p[F_PRO_AA]=0.05;			// 83. Yield (catabolism only) of propionate on amino acids
+		p[F_AC_AA]=0.40;			// 84. Yield (catabolism only) of acetate on amino acids
+		p[Y_FA]=0.06;				// 85. Yield of biomass on long chain fatty acids
+		p[Y_C4]=0.06;				// 86. Yield of biomass on valerate and butyrate
+		p[Y_PRO]=0.04;				// 87. Yield of biomass on propionate
+		p[Y_AC]=0.05;				// 88. Yield of biomass on acetate
+		p[C_CH4]=0.0156;			// 89. Carbon content of methane
+		p[Y_H2]=0.06;				// 90. Yield of biomass on hydrogen
+		p[F_H2_SU]=0.19;			// 91. Yield (catabolism only) of hydrogen on monosaccharides
+		p[F_H2_AA]=0.06;			// 92. Yield (catabolism only) of hydrogen on amino acids
+		p[N_XC]=0.0;				// 93. Nitrogen component of composite material *** NOT USED ***
+		p[N_I]=0.0042857143;		// 94. Nitrogen component of inorganic material
+		p[N_AA]=0.007;				// 95. Nitrogen component of amino acids
+		p[N_BAC]=0.0057142857;		// 96. Nitrogen component of base acetate
+		p[K_P]=5.0e4;				// 97. Pipe resistance coefficient (m3 d-1 bar-1)
+		p[V_LIQ]=3400.0; 			// 98. Size of AD liquid portion in m3
+		p[V_GAS]=300.0; 			// 99. Size of AD gas portion in m3
 		/**
 		 * Modified ADM1 additional parameters for disintegration and hydrolysis according to:
 		 * 
@@ -187,38 +189,52 @@ public class DigesterParameters {
 		 * Default Values
 		 */
 		// NOT USED --->
-		k_m_xc=1.75; 			// 100. Maximum specific uptake rate composite
-		K_s_xc=0.3;				// 101. Half saturation value composite
-		k_dec_xc=0.01;			// 102. Decay rate composite
+		p[K_M_XC]=1.75; 			// 100. Maximum specific uptake rate composite
+		p[K_S_XC]=0.3;				// 101. Half saturation value composite
+		p[K_DEC_XC]=0.01;			// 102. Decay rate composite
 		// <--- NOT USED
 		
-		k_m_ch=10.0;			// 103. Maximum specific uptake rate carbohydrates
-		K_s_ch=0.5;				// 104. Half saturation value carbohydrates
-		k_dec_ch=0.01;			// 105. Decay rate carbohydrates
-		k_m_pr=10.0;			// 106. Maximum specific uptake rate proteins
-		K_s_pr=0.5;				// 107. Half saturation value proteins
-		k_dec_pr=0.01;			// 108. Decay rate proteins
-		k_m_li=10.0;			// 109. Maximum specific uptake rate lipids
-		K_s_li=0.5;				// 110. Half saturation value lipids
-		k_dec_li=0.01;			// 111. Decay rate lipids
+		p[K_M_CH]=10.0;			// 103. Maximum specific uptake rate carbohydrates
+		p[K_S_CH]=0.5;				// 104. Half saturation value carbohydrates
+		p[K_DEC_CH]=0.01;			// 105. Decay rate carbohydrates
+		p[K_M_PR]=10.0;			// 106. Maximum specific uptake rate proteins
+		p[K_S_PR]=0.5;				// 107. Half saturation value proteins
+		p[K_DEC_PR]=0.01;			// 108. Decay rate proteins
+		p[K_M_LI]=10.0;			// 109. Maximum specific uptake rate lipids
+		p[K_S_LI]=0.5;				// 110. Half saturation value lipids
+		p[K_DEC_LI]=0.01;			// 111. Decay rate lipids
 		
 		// NOT USED --->
-		Y_xc=0.4;				// 112. Yield of biomass on composites
+		p[Y_XC]=0.4;				// 112. Yield of biomass on composites
 		// <--- NOT USED
 		
-		Y_ch=0.1;				// 113. Yield of biomass on carbohydrates
-		Y_pr=0.1;				// 114. Yield of biomass on proteins
-		Y_li=0.1;				// 115. Yield of biomass on lipids
+		p[Y_CH]=0.1;				// 113. Yield of biomass on carbohydrates
+		p[Y_PR]=0.1;				// 114. Yield of biomass on proteins
+		p[Y_LI]=0.1;				// 115. Yield of biomass on lipids
 		
 		// Ammonia inhibition
-		S_nh3_lim=4.5e-3;		// 116. Mean free ammonia threshold concentration (kmole N/m3)
-		K_nh3=1.0;				// 117. Ammonia inhibition tuning parameter
-		b_nh3=1.0;				// 118. Maximum value for ammonia inhibition
-		h_nh3=1.0;				// 119. Hill coefficient for ammonia inhibition function drop
+		p[S_NH3_LIM]=4.5e-3;		// 116. Mean free ammonia threshold concentration (kmole N/m3)
+		p[K_NH3]=1.0;				// 117. Ammonia inhibition tuning parameter
+		p[B_NH3]=1.0;				// 118. Maximum value for ammonia inhibition
+		p[H_NH3]=1.0;				// 119. Hill coefficient for ammonia inhibition function drop
 		// Gas Diffusivity {Cussler, E. L. (1997). Diffusion: Mass Transfer in Fluid Systems (2nd ed.). New York: Cambridge University Press. ISBN 0-521-45078-0.}
-		D_h2=3.9e-4;			// 120. Diffusivity of hydrogen gas (m2/d)
-		D_ch4=1.3e-4;			// 121. Diffusivity of methane gas (m2/d)
-		D_co2=1.7e-4;			// 122. Diffusivity of carbon dioxide gas (m2/d)		
+		p[D_H2]=3.9e-4;			// 120. Diffusivity of hydrogen gas (m2/d)
+		p[D_CH4]=1.3e-4;			// 121. Diffusivity of methane gas (m2/d)
+		p[D_CO2]=1.7e-4;			// 122. Diffusivity of carbon dioxide gas (m2/d)		
+		// Bio-P (PAO, PHA and polyphosphate processes of the BSM2-P ADM1), only used with the phosphorus states switched on
+		p[Q_PHA]=3.0;				// 123. Rate constant for storage of PHA
+		p[K_A]=0.004;				// 124. Half saturation value volatile fatty acids for storage of PHA (kg COD/m3)
+		p[K_PP]=3.2e-4;			// 125. Half saturation value poly-phosphate (kmole P/kg COD)
+		p[Y_PO4]=0.0129;			// 126. Poly-phosphate requirement (S_IP released) for PHA storage (kmole P/kg COD)
+		p[B_PAO]=0.2;				// 127. Lysis rate phosphorus accumulating organisms
+		p[B_PP]=0.2;				// 128. Lysis rate poly-phosphate
+		p[B_PHA]=0.2;				// 129. Lysis rate polyhydroxyalkanoates
+		p[F_VA_PHA]=0.1;			// 130. Yield of valerate on PHA
+		p[F_BU_PHA]=0.1;			// 131. Yield of butyrate on PHA
+		p[F_PRO_PHA]=0.4;			// 132. Yield of propionate on PHA
+		p[F_AC_PHA]=0.4;			// 133. Yield of acetate on PHA
+		p[C_PHA]=0.025;			// 134. Carbon content of PHA
+		p[P_BAC]=6.45e-4;			// 135. Phosphorus content of biomass (kmole P/kg COD)
 	}
 	
 	/**
@@ -249,156 +265,34 @@ public class DigesterParameters {
 	}
 	
 	/**
-	 * Retrieves the parameters as an array
+	 * Retrieves a copy of the parameters as an array
 	 */
 	public double[] getParameters() {
-		return new double[] {
-				T_base, T_op, pK_w_base,
-				pK_a_va_base, pK_a_bu_base, pK_a_pro_base, pK_a_ac_base, pK_a_co2_base, pK_a_IN_base, K_H_h2_base,
-				K_H_ch4_base, K_H_co2_base, K_H_h2o_base, pH_UL_aa, pH_LL_aa, pH_UL_ac, pH_LL_ac, pH_UL_h2,
-				pH_LL_h2, K_S_IN, K_Ih2_fa, K_Ih2_c4, K_Ih2_pro, K_I_nh3, k_dis, k_hyd_ch, k_hyd_pr, k_hyd_li,
-				k_m_su, K_S_su, k_m_aa, K_S_aa, k_m_fa, K_S_fa, k_m_c4, K_S_c4, k_m_pro, K_S_pro, k_m_ac, K_S_ac, 
-				k_m_h2, K_S_h2, k_dec_Xsu, k_dec_Xaa, k_dec_Xfa, k_dec_Xc4, k_dec_Xpro, k_dec_Xac, k_dec_Xh2,
-				k_A_Bva, k_A_Bbu, k_A_Bpro, k_A_Bac, k_A_Bco2, k_A_BIN, kLco2, C_xc, f_sI_xc, C_sI, f_ch_xc, C_ch, 
-				f_pr_xc, C_pr, f_li_xc, C_li, f_xI_xc, C_xI, C_su, C_aa, f_fa_li, C_fa, Y_su, f_bu_su, C_bu,
-				f_pro_su, C_pro, f_ac_su, C_ac, C_bac, Y_aa, f_va_aa, C_va, f_bu_aa, f_pro_aa, f_ac_aa, Y_fa,
-				Y_c4, Y_pro, Y_ac, C_ch4, Y_h2, f_h2_su, f_h2_aa, N_xc, N_I, N_aa, N_bac, k_P, V_liq, V_gas,
-				// Modified ADM1
-				k_m_xc, K_s_xc, k_dec_xc, k_m_ch, K_s_ch, k_dec_ch, k_m_pr, K_s_pr, k_dec_pr, k_m_li, K_s_li, k_dec_li, Y_xc, Y_ch, Y_pr, Y_li,
-				// Ammonia inhibition
-				S_nh3_lim, K_nh3, b_nh3, h_nh3,
-				// Gas Diffusivity
-				D_h2, D_ch4, D_co2
-				};
+		double[] param = new double[SIZE];
+		System.arraycopy(p, 0, param, 0, SIZE);
+		return param;
 	}
 	
 	/**
-	 * Sets the parameters from an array
+	 * Sets the parameters from an array, shorter arrays (files written before the bio-P parameters) 
+	 * keep the defaults of the remaining parameters
 	 */
 	public void setParameters(double[] param) {
-		T_base=param[0];
-		T_op=param[1];
-		pK_w_base=param[2];
-		pK_a_va_base=param[3];
-		pK_a_bu_base=param[4];
-		pK_a_pro_base=param[5];
-		pK_a_ac_base=param[6];
-		pK_a_co2_base=param[7];
-		pK_a_IN_base=param[8];
-		K_H_h2_base=param[9];
-		K_H_ch4_base=param[10];
-		K_H_co2_base=param[11];
-		K_H_h2o_base=param[12];
-		pH_UL_aa=param[13];
-		pH_LL_aa=param[14];
-		pH_UL_ac=param[15];
-		pH_LL_ac=param[16];
-		pH_UL_h2=param[17];
-		pH_LL_h2=param[18];
-		K_S_IN=param[19];
-		K_Ih2_fa=param[20];
-		K_Ih2_c4=param[21];
-		K_Ih2_pro=param[22];
-		K_I_nh3=param[23];
-		k_dis=param[24];
-		k_hyd_ch=param[25];
-		k_hyd_pr=param[26];
-		k_hyd_li=param[27];
-		k_m_su=param[28];
-		K_S_su=param[29];
-		k_m_aa=param[30];
-		K_S_aa=param[31];
-		k_m_fa=param[32];
-		K_S_fa=param[33];
-		k_m_c4=param[34];
-		K_S_c4=param[35];
-		k_m_pro=param[36];
-		K_S_pro=param[37];
-		k_m_ac=param[38];
-		K_S_ac=param[39];
-		k_m_h2=param[40];
-		K_S_h2=param[41];
-		k_dec_Xsu=param[42];
-		k_dec_Xaa=param[43];
-		k_dec_Xfa=param[44];
-		k_dec_Xc4=param[45];
-		k_dec_Xpro=param[46];
-		k_dec_Xac=param[47];
-		k_dec_Xh2=param[48];
-		k_A_Bva=param[49];
-		k_A_Bbu=param[50];
-		k_A_Bpro=param[51];
-		k_A_Bac=param[52];
-		k_A_Bco2=param[53];
-		k_A_BIN=param[54];
-		kLco2=param[55];
-		C_xc=param[56];
-		f_sI_xc=param[57];
-		C_sI=param[58];
-		f_ch_xc=param[59];
-		C_ch=param[60];
-		f_pr_xc=param[61];
-		C_pr=param[62];
-		f_li_xc=param[63];
-		C_li=param[64];
-		f_xI_xc=param[65];
-		C_xI=param[66];
-		C_su=param[67];
-		C_aa=param[68];
-		f_fa_li=param[69];
-		C_fa=param[70];
-		Y_su=param[71];
-		f_bu_su=param[72];
-		C_bu=param[73];
-		f_pro_su=param[74];
-		C_pro=param[75];
-		f_ac_su=param[76];
-		C_ac=param[77];
-		C_bac=param[78];
-		Y_aa=param[79];
-		f_va_aa=param[80];
-		C_va=param[81];
-		f_bu_aa=param[82];
-		f_pro_aa=param[83];
-		f_ac_aa=param[84];
-		Y_fa=param[85];
-		Y_c4=param[86];
-		Y_pro=param[87];
-		Y_ac=param[88];
-		C_ch4=param[89];
-		Y_h2=param[90];
-		f_h2_su=param[91];
-		f_h2_aa=param[92];
-		N_xc=param[93];
-		N_I=param[94];
-		N_aa=param[95];
-		N_bac=param[96];
-		k_P=param[97];
-		V_liq=param[98];
-		V_gas=param[99];
-		// Modified ADM1
-		k_m_xc=param[100];
-		K_s_xc=param[101];
-		k_dec_xc=param[102];
-		k_m_ch=param[103];
-		K_s_ch=param[104];
-		k_dec_ch=param[105];
-		k_m_pr=param[106];
-		K_s_pr=param[107];
-		k_dec_pr=param[108];
-		k_m_li=param[109];
-		K_s_li=param[110];
-		k_dec_li=param[111];
-		Y_xc=param[112];
-		Y_ch=param[113];
-		Y_pr=param[114];
-		Y_li=param[115];
-		S_nh3_lim=param[116];
-		K_nh3=param[117];
-		b_nh3=param[118];
-		h_nh3=param[119];
-		D_h2=param[120];
-		D_ch4=param[121];
-		D_co2=param[122];
+		System.arraycopy(param, 0, p, 0, Math.min(param.length, SIZE));
+	}
+	
+	/**
+	 * The backing array (no copy)
+	 */
+	public double[] getArray() {
+		return p;
+	}
+	
+	public double get(int i) {
+		return p[i];
+	}
+	
+	public void set(int i, double value) {
+		p[i] = value;
 	}
 }
@@ -0,0 +1,219 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.models.adm1;
+
+import java.util.logging.Logger;
+
+/**
+ * Influent as a function of time, from rows at a fixed time step (row k from start + k*step).
+ * 
+ * STEP holds each row until the next one, as the dynamic simulations do with one run per row. LINEAR and CUBIC
+ * interpolate between the row times, CUBIC is the monotone cubic Hermite interpolation of Fritsch and Carlson 
+ * (no overshoot between rows). After the last row its values are held.
+ * 
+ * The STEP influent jumps at the row times and the slope of the LINEAR influent does: these are breakpoints 
+ * the integration stops at, so the integrators restart cleanly instead of rejecting steps across them. 
+ * The CUBIC influent is smooth and has none.
+ * 
+ * @author liampetti
+ *
+ */
+public final class InfluentInput {
+	public final static Logger LOGGER = Logger.getLogger(InfluentInput.class.getName());
+	
+	public static final int STEP = 0, LINEAR = 1, CUBIC = 2;
+	public static final String[] MODES = {"step", "linear", "cubic"};
+	private static final double ROW_TOL = 1.0e-6; // Times this close (in rows) to a row time belong to that row
+	
+	private final double start;
+	private final double step;
+	private final int mode;
+	private final int size;
+	private final double[] data; // Rows in the StateVariables layout, one after the other
+	private final double[] slopes; // Slopes per row of the cubic interpolation at each row time
+	
+	/**
+	 * @param start	Time of the first row
+	 * @param step	Time between the rows
+	 * @param rows	Influent rows (any layout read by StateVariables.setVar)
+	 * @param mode	STEP, LINEAR or CUBIC
+	 */
+	public InfluentInput(double start, double step, double[][] rows, int mode) {
+		if (step <= 0.0) {
+			throw new IllegalArgumentException("Time step must be positive: " + step);
+		}
+		if (rows.length == 0) {
+			throw new IllegalArgumentException("No influent rows");
+		}
+		if (mode < STEP || mode > CUBIC) {
+			throw new IllegalArgumentException("Unknown interpolation mode: " + mode);
+		}
+		this.start = start;
+		this.step = step;
+		this.mode = mode;
+		size = rows.length;
+		data = new double[size*StateVariables.SIZE];
+		StateVariables view = StateVariables.wrap(data, 0);
+		for (int k=0;k<size;k++) {
+			view.point(data, k*StateVariables.SIZE);
+			view.setVar(rows[k]);
+		}
+		slopes = mode == CUBIC ? monotoneSlopes() : null;
+	}
+	
+	/**
+	 * Mode from its name (step, linear or cubic)
+	 */
+	public static int mode(String name) {
+		for (int m=0;m<MODES.length;m++) {
+			if (MODES[m].equalsIgnoreCase(name)) {
+				return m;
+			}
+		}
+		throw new IllegalArgumentException("Unknown interpolation mode: " + name);
+	}
+	
+	public int getMode() {
+		return mode;
+	}
+	
+	public double getStart() {
+		return start;
+	}
+	
+	public double getStep() {
+		return step;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Values of a row in the StateVariables layout (no copy)
+	 */
+	public StateVariables getRow(int row) {
+		return StateVariables.wrap(data, row*StateVariables.SIZE);
+	}
+	
+	/**
+	 * True if the influent or its slope jumps at the row times (STEP and LINEAR)
+	 */
+	public boolean hasBreakpoints() {
+		return mode != CUBIC;
+	}
+	
+	/**
+	 * First row time after t, infinity if there is none or the input has no breakpoints
+	 */
+	public double nextBreakpoint(double t) {
+		if (!hasBreakpoints()) {
+			return Double.POSITIVE_INFINITY;
+		}
+		int row = row(t)+1;
+		return row < size ? start + row*step : Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * Influent at time t, from the row time on the values of the new row
+	 * 
+	 * @param u	Influent in the StateVariables layout
+	 */
+	public void evaluate(double t, double[] u) {
+		double s = (t-start)/step;
+		int k = row(t);
+		int base = k*StateVariables.SIZE;
+		if (mode == STEP || k == size-1 || s <= 0.0) {
+			System.arraycopy(data, base, u, 0, StateVariables.SIZE);
+			return;
+		}
+		double theta = Math.min(Math.max(s-k, 0.0), 1.0);
+		int next = base+StateVariables.SIZE;
+		if (mode == LINEAR) {
+			for (int i=0;i<StateVariables.SIZE;i++) {
+				u[i] = data[base+i] + theta*(data[next+i]-data[base+i]);
+			}
+		} else {
+			// Cubic Hermite basis on the unit interval
+			double t2 = theta*theta;
+			double t3 = t2*theta;
+			double h00 = 2.0*t3 - 3.0*t2 + 1.0;
+			double h10 = t3 - 2.0*t2 + theta;
+			double h01 = -2.0*t3 + 3.0*t2;
+			double h11 = t3 - t2;
+			for (int i=0;i<StateVariables.SIZE;i++) {
+				u[i] = h00*data[base+i] + h10*slopes[base+i] + h01*data[next+i] + h11*slopes[next+i];
+			}
+		}
+	}
+	
+	/**
+	 * Row in effect at time t (the last row whose time is not after t)
+	 */
+	private int row(double t) {
+		double s = (t-start)/step;
+		int k = (int) Math.floor(s + ROW_TOL);
+		return Math.min(Math.max(k, 0), size-1);
+	}
+	
+	/**
+	 * Fritsch-Carlson slopes: the mean of the neighbouring secants, zero at local extrema, 
+	 * limited so the interpolation is monotone between rows
+	 */
+	private double[] monotoneSlopes() {
+		int n = StateVariables.SIZE;
+		double[] m = new double[data.length];
+		if (size < 2) {
+			return m;
+		}
+		for (int i=0;i<n;i++) {
+			for (int k=0;k<size;k++) {
+				double left = k > 0 ? data[k*n+i] - data[(k-1)*n+i] : Double.NaN;
+				double right = k < size-1 ? data[(k+1)*n+i] - data[k*n+i] : Double.NaN;
+				if (k == 0) {
+					m[i] = right;
+				} else if (k == size-1) {
+					m[k*n+i] = left;
+				} else if (left*right > 0.0) {
+					m[k*n+i] = 0.5*(left+right);
+				}
+			}
+			for (int k=0;k<size-1;k++) {
+				double secant = data[(k+1)*n+i] - data[k*n+i];
+				if (secant == 0.0) {
+					m[k*n+i] = 0.0;
+					m[(k+1)*n+i] = 0.0;
+					continue;
+				}
+				double a = m[k*n+i]/secant;
+				double b = m[(k+1)*n+i]/secant;
+				double r = a*a + b*b;
+				if (r > 9.0) {
+					double tau = 3.0/Math.sqrt(r);
+					m[k*n+i] = tau*a*secant;
+					m[(k+1)*n+i] = tau*b*secant;
+				}
+			}
+		}
+		return m;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.models.adm1;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Lookup table for the inhibition functions of one parameter set (fast math mode).
+ * 
+ * The table is indexed directly by the bits of the argument: the exponent and the leading 
+ * mantissa bits give a geometric grid with 2^k segments per octave, so no logarithm or power 
+ * is evaluated on lookup. Each segment is a cubic Hermite polynomial. The resolution k is 
+ * increased until the sampled max error, the largest error against the exact function at CHECKS 
+ * points inside each segment, is below the tolerance. This is an estimate and not a bound: 
+ * between the sample points the error can be larger. Arguments outside the table range use 
+ * the exact function.
+ * 
+ * @author liampetti
+ *
+ */
+public class InhibitionTable {
+	private static final int MIN_BITS = 2;
+	private static final int MAX_BITS = 14;
+	private static final int CHECKS = 8; // Error samples per segment
+	
+	private DoubleUnaryOperator exact;
+	private double xmin;
+	private double xmax;
+	private int shift;
+	private long base;
+	private long mask;
+	private double scale;
+	private double[] table; // Values and slopes at both ends of each segment
+	private double maxError;
+	
+	/**
+	 * Builds the table
+	 * 
+	 * @param exact	The exact function
+	 * @param xmin	Lower end of the table (positive)
+	 * @param xmax	Upper end of the table
+	 * @param tol	Sampled max absolute error
+	 */
+	public InhibitionTable(DoubleUnaryOperator exact, double xmin, double xmax, double tol) {
+		this.exact = exact;
+		for (int bits=MIN_BITS;bits<=MAX_BITS;bits++) {
+			build(xmin, xmax, bits);
+			maxError = measure();
+			if (maxError <= tol) {
+				break;
+			}
+		}
+		if (maxError > tol) {
+			throw new IllegalArgumentException("Inhibition table can not reach tolerance " + tol + " (sampled max error " + maxError + ")");
+		}
+	}
+	
+	private void build(double lo, double hi, int bits) {
+		shift = 52-bits;
+		mask = (1L << shift)-1;
+		scale = 1.0/(mask+1);
+		base = Double.doubleToRawLongBits(lo) >>> shift;
+		long top = (Double.doubleToRawLongBits(hi) >>> shift)+1;
+		xmin = Double.longBitsToDouble(base << shift);
+		xmax = Double.longBitsToDouble(top << shift);
+		int n = (int) (top-base);
+		table = new double[4*n];
+		for (int i=0;i<n;i++) {
+			double x0 = grid(i);
+			double x1 = grid(i+1);
+			// Hermite slopes per unit of the segment
+			table[4*i] = exact.applyAsDouble(x0);
+			table[4*i+1] = slope(x0)*(x1-x0);
+			table[4*i+2] = exact.applyAsDouble(x1);
+			table[4*i+3] = slope(x1)*(x1-x0);
+		}
+	}
+	
+	private double slope(double x) {
+		double h = x*1.0e-5;
+		return (exact.applyAsDouble(x+h)-exact.applyAsDouble(x-h))/(2.0*h);
+	}
+	
+	private double grid(int i) {
+		return Double.longBitsToDouble((base+i) << shift);
+	}
+	
+	private double measure() {
+		double max = 0.0;
+		int n = table.length/4;
+		for (int i=0;i<n;i++) {
+			double x0 = grid(i);
+			double x1 = grid(i+1);
+			for (int c=1;c<=CHECKS;c++) {
+				double x = x0+(x1-x0)*c/(CHECKS+1.0);
+				max = Math.max(max, Math.abs(value(x)-exact.applyAsDouble(x)));
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * Evaluates the function
+	 */
+	public double value(double x) {
+		if (!(x >= xmin && x < xmax)) {
+			return exact.applyAsDouble(x);
+		}
+		long bits = Double.doubleToRawLongBits(x);
+		int i = 4*(int) ((bits >>> shift)-base);
+		double t = (bits & mask)*scale;
+		double p0 = table[i];
+		double m0 = table[i+1];
+		double p1 = table[i+2];
+		double m1 = table[i+3];
+		double t2 = t*t;
+		double t3 = t2*t;
+		return (2*t3-3*t2+1)*p0+(t3-2*t2+t)*m0+(-2*t3+3*t2)*p1+(t3-t2)*m1;
+	}
+	
+	/**
+	 * Sampled max error: the largest error against the exact function at the sample points
+	 */
+	public double getMaxError() {
+		return maxError;
+	}
+	
+	/**
+	 * Number of table segments
+	 */
+	public int getSize() {
+		return table.length/4;
+	}
+}
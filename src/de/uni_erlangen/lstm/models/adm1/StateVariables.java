@@ -42,13 +42,87 @@ public class StateVariables {
 	public final static Logger LOGGER = Logger.getLogger(StateVariables.class.getName());
 	
 	/*
-	 * Digestor Influent
-	 */	
-	private double S_su, S_aa, S_fa, S_va, S_bu, S_pro, S_ac, S_h2, S_ch4, S_IC, S_IN, S_I, S_IP = 0.0;
-	private double X_xc, X_xch, X_xpr, X_xli, tot_gas_ch4, X_ch, X_pr, X_li, X_su, X_aa, X_fa, X_c4, X_pro, X_ac, X_h2, X_I, X_PHA, X_PP, X_PAO = 0.0;
-	private double S_cat, S_an, S_hva, S_hbu, S_hpro, S_hac, S_hco3, S_nh3, S_gas_h2, S_gas_ch4, S_gas_co2 = 0.0;
-	private double Q_D, T_D, gas_ch4, gas_vol, ph = 0.0;
-	private double S_co2, S_nh4 = 0.0;
+	 * Index of each variable in the array
+	 */
+	public static final int S_SU = 0, S_AA = 1, S_FA = 2, S_VA = 3, S_BU = 4, S_PRO = 5, S_AC = 6, S_H2 = 7, S_CH4 = 8, S_IC = 9, S_IN = 10, S_I = 11;
+	public static final int X_XC = 12, X_CH = 13, X_PR = 14, X_LI = 15, X_SU = 16, X_AA = 17, X_FA = 18, X_C4 = 19, X_PRO = 20, X_AC = 21, X_H2 = 22, X_I = 23;
+	public static final int S_CAT = 24, S_AN = 25, S_HVA = 26, S_HBU = 27, S_HPRO = 28, S_HAC = 29, S_HCO3 = 30, S_NH3 = 31, S_GAS_H2 = 32, S_GAS_CH4 = 33, S_GAS_CO2 = 34;
+	public static final int Q_D = 35, T_D = 36, GAS_CH4 = 37, GAS_VOL = 38, PH = 39, S_CO2 = 40, S_NH4 = 41;
+	public static final int TOT_GAS_CH4 = 42, X_XCH = 43, X_XPR = 44, X_XLI = 45, S_IP = 46, X_PHA = 47, X_PP = 48, X_PAO = 49;
+	public static final int SIZE = 50;
+	
+	/*
+	 * Name of each variable (column headers of the output files)
+	 */
+	public static final String[] NAMES = {"S_SU", "S_AA", "S_FA", "S_VA", "S_BU", "S_PRO", "S_AC", "S_H2", "S_CH4", "S_IC", "S_IN", "S_I",
+		"X_XC", "X_CH", "X_PR", "X_LI", "X_SU", "X_AA", "X_FA", "X_C4", "X_PRO", "X_AC", "X_H2", "X_I",
+		"S_CAT", "S_AN", "S_HVA", "S_HBU", "S_HPRO", "S_HAC", "S_HCO3", "S_NH3", "S_GAS_H2", "S_GAS_CH4", "S_GAS_CO2",
+		"Q_D", "T_D", "GAS_CH4", "GAS_VOL", "PH", "S_CO2", "S_NH4",
+		"TOT_GAS_CH4", "X_XCH", "X_XPR", "X_XLI", "S_IP", "X_PHA", "X_PP", "X_PAO"};
+	
+	private double[] x; // Backing array, may be shared (flyweight)
+	private int offset; // Position of the first variable in the backing array
+	
+	public StateVariables() {
+		x = new double[SIZE];
+	}
+	
+	/**
+	 * Flyweight view of the variables stored in a larger array (e.g. one row of an influent matrix),
+	 * changes are written through to the array
+	 * 
+	 * @param data		Array holding the variables
+	 * @param offset	Index of the first variable
+	 */
+	public static StateVariables wrap(double[] data, int offset) {
+		StateVariables vars = new StateVariables(null);
+		vars.point(data, offset);
+		return vars;
+	}
+	
+	private StateVariables(double[] data) {
+		x = data;
+	}
+	
+	/**
+	 * Points this view at another position, e.g. the next row of an influent matrix (no copy)
+	 * 
+	 * @param data		Array holding the variables
+	 * @param offset	Index of the first variable
+	 */
+	public void point(double[] data, int offset) {
+		if (offset < 0 || offset+SIZE > data.length) {
+			throw new IllegalArgumentException("No " + SIZE + " variables at offset " + offset);
+		}
+		this.x = data;
+		this.offset = offset;
+	}
+	
+	/**
+	 * The backing array (no copy), variables start at getOffset()
+	 */
+	public double[] getArray() {
+		return x;
+	}
+	
+	public int getOffset() {
+		return offset;
+	}
+	
+	public double get(int i) {
+		return x[offset+i];
+	}
+	
+	public void set(int i, double value) {
+		x[offset+i] = value;
+	}
+	
+	/**
+	 * Copies the variables into an existing array
+	 */
+	public void copyTo(double[] dest) {
+		System.arraycopy(x, offset, dest, 0, SIZE);
+	}
 	
 	/**
 	 * Read the outputs from a given CSV file
@@ -79,90 +153,28 @@ public class StateVariables {
 	}
 	
 	/**
-	 * Retrieves the outputs as an array
+	 * Retrieves a copy of the outputs as an array
 	 */
 	public double[] getVar() {
-		return new double[] { S_su, S_aa, S_fa, S_va, S_bu, S_pro, S_ac, S_h2, S_ch4,
-			S_IC, S_IN, S_I, X_xc, X_ch, X_pr, X_li, X_su, X_aa, X_fa, X_c4, X_pro, X_ac,
-			X_h2, X_I, S_cat, S_an, S_hva, S_hbu, S_hpro, S_hac, S_hco3, S_nh3, S_gas_h2, S_gas_ch4,
-			S_gas_co2, Q_D, T_D, gas_ch4, gas_vol, ph, S_co2, S_nh4,
-			tot_gas_ch4, X_xch, X_xpr, X_xli, S_IP, X_PHA, X_PP, X_PAO 
-			};
+		double[] var = new double[SIZE];
+		copyTo(var);
+		return var;
 	}
 	
 	/**
 	 * Sets the outputs from an array
 	 */
-	public void setVar(double[] x) {
-		S_su=x[0];
-		S_aa=x[1];
-		S_fa=x[2];
-		S_va=x[3];
-		S_bu=x[4];
-		S_pro=x[5];
-		S_ac=x[6];
-		S_h2=x[7];
-		S_ch4=x[8];
-		S_IC=x[9];
-		S_IN=x[10];
-		S_I=x[11];
-		X_xc=x[12]; 
-		X_ch=x[13];
-		X_pr=x[14];
-		X_li=x[15];
-		X_su=x[16];
-		X_aa=x[17];
-		X_fa=x[18];
-		X_c4=x[19];
-		X_pro=x[20];
-		X_ac=x[21];
-		X_h2=x[22];
-		X_I=x[23]; 
-		S_cat=x[24];
-		S_an=x[25];
+	public void setVar(double[] var) {
 		// CSV file generated by Matlab implementation does not describe all variables
-		if (x.length < 43) {
-			Q_D=x[26];
-			T_D=x[27];
-			S_hva=0.0;
-			S_hbu=0.0;
-			S_hpro=0.0;
-			S_hac=0.0;
-			S_hco3=0.0;
-			S_nh3=0.0;
-			S_gas_h2=0.0;
-			S_gas_ch4=0.0;
-			S_gas_co2=0.0;
-			gas_ch4=0.0;
-			gas_vol=0.0;
-			ph=0.0;
-			S_co2=0.0;
-			S_nh4=0.0;
+		if (var.length < 43) {
+			System.arraycopy(var, 0, x, offset, S_HVA);
+			for (int i=S_HVA;i<=S_NH4;i++) {
+				x[offset+i] = 0.0;
+			}
+			x[offset+Q_D] = var[26];
+			x[offset+T_D] = var[27];
 		} else {
-			S_hva=x[26];
-			S_hbu=x[27];
-			S_hpro=x[28];
-			S_hac=x[29];
-			S_hco3=x[30];
-			S_nh3=x[31];
-			S_gas_h2=x[32];
-			S_gas_ch4=x[33];
-			S_gas_co2=x[34];
-			Q_D=x[35];
-			T_D=x[36];
-			gas_ch4=x[37];
-			gas_vol=x[38];
-			ph=x[39];
-			S_co2=x[40];
-			S_nh4=x[41];
-			tot_gas_ch4=x[42];
-			X_xch=x[43];
-			X_xpr=x[44];
-			X_xli=x[45];
-			S_IP=x[46];
-			X_PHA=x[47];
-			X_PP=x[48];
-			X_PAO=x[49];
+			System.arraycopy(var, 0, x, offset, SIZE);
 		}
 	}
 	
@@ -170,402 +182,402 @@ public class StateVariables {
 	 * Getters and Setters for all individual variables
 	 */
 	public double getS_su() {
-		return S_su;
+		return x[offset+S_SU];
 	}
 
 	public void setS_su(double s_su) {
-		S_su = s_su;
+		x[offset+S_SU] = s_su;
 	}
 
 	public double getS_aa() {
-		return S_aa;
+		return x[offset+S_AA];
 	}
 
 	public void setS_aa(double s_aa) {
-		S_aa = s_aa;
+		x[offset+S_AA] = s_aa;
 	}
 
 	public double getS_fa() {
-		return S_fa;
+		return x[offset+S_FA];
 	}
 
 	public void setS_fa(double s_fa) {
-		S_fa = s_fa;
+		x[offset+S_FA] = s_fa;
 	}
 
 	public double getS_va() {
-		return S_va;
+		return x[offset+S_VA];
 	}
 
 	public void setS_va(double s_va) {
-		S_va = s_va;
+		x[offset+S_VA] = s_va;
 	}
 
 	public double getS_bu() {
-		return S_bu;
+		return x[offset+S_BU];
 	}
 
 	public void setS_bu(double s_bu) {
-		S_bu = s_bu;
+		x[offset+S_BU] = s_bu;
 	}
 
 	public double getS_pro() {
-		return S_pro;
+		return x[offset+S_PRO];
 	}
 
 	public void setS_pro(double s_pro) {
-		S_pro = s_pro;
+		x[offset+S_PRO] = s_pro;
 	}
 
 	public double getS_ac() {
-		return S_ac;
+		return x[offset+S_AC];
 	}
 
 	public void setS_ac(double s_ac) {
-		S_ac = s_ac;
+		x[offset+S_AC] = s_ac;
 	}
 
 	public double getS_h2() {
-		return S_h2;
+		return x[offset+S_H2];
 	}
 
 	public void setS_h2(double s_h2) {
-		S_h2 = s_h2;
+		x[offset+S_H2] = s_h2;
 	}
 
 	public double getS_ch4() {
-		return S_ch4;
+		return x[offset+S_CH4];
 	}
 
 	public void setS_ch4(double s_ch4) {
-		S_ch4 = s_ch4;
+		x[offset+S_CH4] = s_ch4;
 	}
 
 	public double getS_IC() {
-		return S_IC;
+		return x[offset+S_IC];
 	}
 
 	public void setS_IC(double s_IC) {
-		S_IC = s_IC;
+		x[offset+S_IC] = s_IC;
 	}
 
 	public double getS_IN() {
-		return S_IN;
+		return x[offset+S_IN];
 	}
 
 	public void setS_IN(double s_IN) {
-		S_IN = s_IN;
+		x[offset+S_IN] = s_IN;
 	}
 
 	public double getS_I() {
-		return S_I;
+		return x[offset+S_I];
 	}
 
 	public void setS_I(double s_I) {
-		S_I = s_I;
+		x[offset+S_I] = s_I;
 	}
 
 	public double getX_xc() {
-		return X_xc;
+		return x[offset+X_XC];
 	}
 
 	public void setX_xc(double x_xc) {
-		X_xc = x_xc;
+		x[offset+X_XC] = x_xc;
 	}
 
 	public double getX_ch() {
-		return X_ch;
+		return x[offset+X_CH];
 	}
 
 	public void setX_ch(double x_ch) {
-		X_ch = x_ch;
+		x[offset+X_CH] = x_ch;
 	}
 
 	public double getX_pr() {
-		return X_pr;
+		return x[offset+X_PR];
 	}
 
 	public void setX_pr(double x_pr) {
-		X_pr = x_pr;
+		x[offset+X_PR] = x_pr;
 	}
 
 	public double getX_li() {
-		return X_li;
+		return x[offset+X_LI];
 	}
 
 	public void setX_li(double x_li) {
-		X_li = x_li;
+		x[offset+X_LI] = x_li;
 	}
 
 	public double getX_su() {
-		return X_su;
+		return x[offset+X_SU];
 	}
 
 	public void setX_su(double x_su) {
-		X_su = x_su;
+		x[offset+X_SU] = x_su;
 	}
 
 	public double getX_aa() {
-		return X_aa;
+		return x[offset+X_AA];
 	}
 
 	public void setX_aa(double x_aa) {
-		X_aa = x_aa;
+		x[offset+X_AA] = x_aa;
 	}
 
 	public double getX_fa() {
-		return X_fa;
+		return x[offset+X_FA];
 	}
 
 	public void setX_fa(double x_fa) {
-		X_fa = x_fa;
+		x[offset+X_FA] = x_fa;
 	}
 
 	public double getX_c4() {
-		return X_c4;
+		return x[offset+X_C4];
 	}
 
 	public void setX_c4(double x_c4) {
-		X_c4 = x_c4;
+		x[offset+X_C4] = x_c4;
 	}
 
 	public double getX_pro() {
-		return X_pro;
+		return x[offset+X_PRO];
 	}
 
 	public void setX_pro(double x_pro) {
-		X_pro = x_pro;
+		x[offset+X_PRO] = x_pro;
 	}
 
 	public double getX_ac() {
-		return X_ac;
+		return x[offset+X_AC];
 	}
 
 	public void setX_ac(double x_ac) {
-		X_ac = x_ac;
+		x[offset+X_AC] = x_ac;
 	}
 
 	public double getX_h2() {
-		return X_h2;
+		return x[offset+X_H2];
 	}
 
 	public void setX_h2(double x_h2) {
-		X_h2 = x_h2;
+		x[offset+X_H2] = x_h2;
 	}
 
 	public double getX_I() {
-		return X_I;
+		return x[offset+X_I];
 	}
 
 	public void setX_I(double x_I) {
-		X_I = x_I;
+		x[offset+X_I] = x_I;
 	}
 
 	public double getS_cat() {
-		return S_cat;
+		return x[offset+S_CAT];
 	}
 
 	public void setS_cat(double s_cat) {
-		S_cat = s_cat;
+		x[offset+S_CAT] = s_cat;
 	}
 
 	public double getS_an() {
-		return S_an;
+		return x[offset+S_AN];
 	}
 
 	public void setS_an(double s_an) {
-		S_an = s_an;
+		x[offset+S_AN] = s_an;
 	}
 
 	public double getS_hva() {
-		return S_hva;
+		return x[offset+S_HVA];
 	}
 
 	public void setS_hva(double s_hva) {
-		S_hva = s_hva;
+		x[offset+S_HVA] = s_hva;
 	}
 
 	public double getS_hbu() {
-		return S_hbu;
+		return x[offset+S_HBU];
 	}
 
 	public void setS_hbu(double s_hbu) {
-		S_hbu = s_hbu;
+		x[offset+S_HBU] = s_hbu;
 	}
 
 	public double getS_hpro() {
-		return S_hpro;
+		return x[offset+S_HPRO];
 	}
 
 	public void setS_hpro(double s_hpro) {
-		S_hpro = s_hpro;
+		x[offset+S_HPRO] = s_hpro;
 	}
 
 	public double getS_hac() {
-		return S_hac;
+		return x[offset+S_HAC];
 	}
 
 	public void setS_hac(double s_hac) {
-		S_hac = s_hac;
+		x[offset+S_HAC] = s_hac;
 	}
 
 	public double getS_hco3() {
-		return S_hco3;
+		return x[offset+S_HCO3];
 	}
 
 	public void setS_hco3(double s_hco3) {
-		S_hco3 = s_hco3;
+		x[offset+S_HCO3] = s_hco3;
 	}
 
 	public double getS_nh3() {
-		return S_nh3;
+		return x[offset+S_NH3];
 	}
 
 	public void setS_nh3(double s_nh3) {
-		S_nh3 = s_nh3;
+		x[offset+S_NH3] = s_nh3;
 	}
 
 	public double getS_gas_h2() {
-		return S_gas_h2;
+		return x[offset+S_GAS_H2];
 	}
 
 	public void setS_gas_h2(double s_gas_h2) {
-		S_gas_h2 = s_gas_h2;
+		x[offset+S_GAS_H2] = s_gas_h2;
 	}
 
 	public double getS_gas_ch4() {
-		return S_gas_ch4;
+		return x[offset+S_GAS_CH4];
 	}
 
 	public void setS_gas_ch4(double s_gas_ch4) {
-		S_gas_ch4 = s_gas_ch4;
+		x[offset+S_GAS_CH4] = s_gas_ch4;
 	}
 
 	public double getS_gas_co2() {
-		return S_gas_co2;
+		return x[offset+S_GAS_CO2];
 	}
 
 	public void setS_gas_co2(double s_gas_co2) {
-		S_gas_co2 = s_gas_co2;
+		x[offset+S_GAS_CO2] = s_gas_co2;
 	}
 
 	public double getS_IP() {
-		return S_IP;
+		return x[offset+S_IP];
 	}
 
 	public void setS_IP(double s_IP) {
-		S_IP = s_IP;
+		x[offset+S_IP] = s_IP;
 	}
 
 	public double getX_xch() {
-		return X_xch;
+		return x[offset+X_XCH];
 	}
 
 	public void setX_xch(double x_xch) {
-		X_xch = x_xch;
+		x[offset+X_XCH] = x_xch;
 	}
 
 	public double getX_xpr() {
-		return X_xpr;
+		return x[offset+X_XPR];
 	}
 
 	public void setX_xpr(double x_xpr) {
-		X_xpr = x_xpr;
+		x[offset+X_XPR] = x_xpr;
 	}
 
 	public double getX_xli() {
-		return X_xli;
+		return x[offset+X_XLI];
 	}
 
 	public void setX_xli(double x_xli) {
-		X_xli = x_xli;
+		x[offset+X_XLI] = x_xli;
 	}
 
 	public double getX_c() {
-		return tot_gas_ch4;
+		return x[offset+TOT_GAS_CH4];
 	}
 
 	public void setX_c(double x_c) {
-		tot_gas_ch4 = x_c;
+		x[offset+TOT_GAS_CH4] = x_c;
 	}
 
 	public double getX_PHA() {
-		return X_PHA;
+		return x[offset+X_PHA];
 	}
 
 	public void setX_PHA(double x_PHA) {
-		X_PHA = x_PHA;
+		x[offset+X_PHA] = x_PHA;
 	}
 
 	public double getX_PP() {
-		return X_PP;
+		return x[offset+X_PP];
 	}
 
 	public void setX_PP(double x_PP) {
-		X_PP = x_PP;
+		x[offset+X_PP] = x_PP;
 	}
 
 	public double getX_PAO() {
-		return X_PAO;
+		return x[offset+X_PAO];
 	}
 
 	public void setX_PAO(double x_PAO) {
-		X_PAO = x_PAO;
+		x[offset+X_PAO] = x_PAO;
 	}
 
 	public double getQ_D() {
-		return Q_D;
+		return x[offset+Q_D];
 	}
 
 	public void setQ_D(double q_D) {
-		Q_D = q_D;
+		x[offset+Q_D] = q_D;
 	}
 
 	public double getT_D() {
-		return T_D;
+		return x[offset+T_D];
 	}
 
 	public void setT_D(double t_D) {
-		T_D = t_D;
+		x[offset+T_D] = t_D;
 	}
 
 	public double getGas_ch4() {
-		return gas_ch4;
+		return x[offset+GAS_CH4];
 	}
 
 	public void setGas_ch4(double gas_ch4) {
-		this.gas_ch4 = gas_ch4;
+		x[offset+GAS_CH4] = gas_ch4;
 	}
 
 	public double getGas_vol() {
-		return gas_vol;
+		return x[offset+GAS_VOL];
 	}
 
 	public void setGas_vol(double gas_vol) {
-		this.gas_vol = gas_vol;
+		x[offset+GAS_VOL] = gas_vol;
 	}
 
 	public double getPh() {
-		return ph;
+		return x[offset+PH];
 	}
 
 	public void setPh(double ph) {
-		this.ph = ph;
+		x[offset+PH] = ph;
 	}
 
 	public double getS_co2() {
-		return S_co2;
+		return x[offset+S_CO2];
 	}
 
 	public void setS_co2(double s_co2) {
-		S_co2 = s_co2;
+		x[offset+S_CO2] = s_co2;
 	}
 
 	public double getS_nh4() {
-		return S_nh4;
+		return x[offset+S_NH4];
 	}
 
 	public void setS_nh4(double s_nh4) {
-		S_nh4 = s_nh4;
+		x[offset+S_NH4] = s_nh4;
 	}
 }
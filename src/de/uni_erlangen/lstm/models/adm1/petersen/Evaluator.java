@@ -0,0 +1,58 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.models.adm1.petersen;
+
+/**
+ * Implemented by the classes generated from a Petersen matrix (and by the interpreter fallback).
+ * Implementations are stateless and can be shared between threads.
+ *
+ * x: state, p: digester parameters, e: environment values (see Kernel), c: coefficients, r: process rates,
+ * reac: reaction terms indexed by state
+ *
+ * @author liampetti
+ *
+ */
+public interface Evaluator {
+
+	/**
+	 * Stoichiometric coefficients that depend on the parameters, once per parameter set
+	 */
+	public void coefficients(double[] p, double[] c);
+
+	public void rates(double[] x, double[] p, double[] e, double[] c, double[] r);
+
+	/**
+	 * Sum of the stoichiometric coefficients times the process rates for every state of the matrix
+	 */
+	public void reactions(double[] c, double[] r, double[] reac);
+
+	/**
+	 * Reaction term of a single state and its derivative with respect to that state (out[0], out[1]),
+	 * only the processes of this state are evaluated
+	 */
+	public void partial(int state, double[] x, double[] p, double[] e, double[] c, double[] out);
+
+	/**
+	 * d reac[i] / d x[k], only the structurally non zero entries are written
+	 */
+	public void jacobian(double[] x, double[] p, double[] e, double[] c, double[][] jac);
+}
@@ -0,0 +1,426 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.models.adm1.petersen;
+
+import java.util.Set;
+
+/**
+ * Expression tree of a rate or stoichiometric coefficient of the Petersen matrix.
+ *
+ * Parsed expressions are kept exactly as written (no reordering), so the generated code
+ * rounds the same way as the equivalent hand written Java. Only the symbolic derivatives
+ * are simplified.
+ *
+ * @author liampetti
+ *
+ */
+abstract class Expression {
+	// Variable kinds, COEF are parameter only values evaluated once per parameter set
+	static final int STATE = 0, PARAM = 1, ENV = 2, AUX = 3, DAUX = 4, COEF = 5;
+
+	static final Expression ZERO = new Constant(0.0);
+	static final Expression ONE = new Constant(1.0);
+
+	/**
+	 * Values of the variables during interpreted evaluation
+	 */
+	static final class Frame {
+		double[] x, p, e, c, aux, daux;
+		boolean strict; // StrictMath, as the generated class of a strict kernel
+	}
+
+	/**
+	 * Derivatives of the auxiliary expressions, resolved by the matrix
+	 */
+	interface AuxDerivatives {
+		/**
+		 * @return Reference to d aux / d x[state] or ZERO when the expression does not depend on the state
+		 */
+		Expression of(int aux, int state);
+	}
+
+	abstract double eval(Frame f);
+
+	/**
+	 * Partial derivative with respect to x[state], environment values are held constant
+	 */
+	abstract Expression derivative(int state, AuxDerivatives aux);
+
+	/**
+	 * Appends the Java source of the expression
+	 */
+	abstract void java(StringBuilder sb);
+
+	/**
+	 * Collects the indices of all variables of the given kind
+	 */
+	abstract void references(int kind, Set<Integer> refs);
+
+	/**
+	 * Replaces the largest parameter only sub expressions by coefficients
+	 */
+	abstract Expression hoist(Coefficients coefficients);
+
+	/**
+	 * Slots for the parameter only values, resolved by the matrix
+	 */
+	interface Coefficients {
+		Expression slot(Expression expression);
+	}
+
+	boolean isConstant() {
+		return false;
+	}
+
+	// Depends on parameters and numbers only
+	boolean isParameterOnly() {
+		Set<Integer> refs = new java.util.TreeSet<Integer>();
+		references(STATE, refs);
+		references(ENV, refs);
+		references(AUX, refs);
+		references(DAUX, refs);
+		return refs.isEmpty();
+	}
+
+	// Hoists this (compound) expression or its children
+	Expression hoisted(Coefficients coefficients) {
+		if (isParameterOnly()) {
+			return coefficients.slot(this);
+		}
+		return hoistChildren(coefficients);
+	}
+
+	Expression hoistChildren(Coefficients coefficients) {
+		return this;
+	}
+
+	String java() {
+		StringBuilder sb = new StringBuilder();
+		java(sb);
+		return sb.toString();
+	}
+
+	static Expression constant(double value) {
+		return new Constant(value);
+	}
+
+	static Expression variable(int kind, int index, String name) {
+		return new Variable(kind, index, name);
+	}
+
+	// Simplifying constructors for the derivatives
+	static Expression add(Expression a, Expression b) {
+		if (isZero(a)) return b;
+		if (isZero(b)) return a;
+		if (a.isConstant() && b.isConstant()) return constant(value(a) + value(b));
+		return new Binary('+', a, b);
+	}
+
+	static Expression sub(Expression a, Expression b) {
+		if (isZero(b)) return a;
+		if (isZero(a)) return neg(b);
+		if (a.isConstant() && b.isConstant()) return constant(value(a) - value(b));
+		return new Binary('-', a, b);
+	}
+
+	static Expression mul(Expression a, Expression b) {
+		if (isZero(a) || isZero(b)) return ZERO;
+		if (isOne(a)) return b;
+		if (isOne(b)) return a;
+		if (a.isConstant() && b.isConstant()) return constant(value(a) * value(b));
+		return new Binary('*', a, b);
+	}
+
+	static Expression div(Expression a, Expression b) {
+		if (isZero(a)) return ZERO;
+		if (isOne(b)) return a;
+		if (a.isConstant() && b.isConstant()) return constant(value(a) / value(b));
+		return new Binary('/', a, b);
+	}
+
+	static Expression neg(Expression a) {
+		if (a.isConstant()) return constant(-value(a));
+		if (a instanceof Negate) return ((Negate) a).a;
+		return new Negate(a);
+	}
+
+	static Expression call(String function, Expression... args) {
+		return new Call(function, args);
+	}
+
+	static boolean isZero(Expression a) {
+		return a.isConstant() && value(a) == 0.0;
+	}
+
+	static boolean isOne(Expression a) {
+		return a.isConstant() && value(a) == 1.0;
+	}
+
+	static double value(Expression a) {
+		return ((Constant) a).value;
+	}
+
+	static final class Constant extends Expression {
+		final double value;
+
+		Constant(double value) {
+			this.value = value;
+		}
+
+		double eval(Frame f) {
+			return value;
+		}
+
+		Expression derivative(int state, AuxDerivatives aux) {
+			return ZERO;
+		}
+
+		void java(StringBuilder sb) {
+			if (value < 0 || (value == 0.0 && 1.0/value < 0)) {
+				sb.append('(').append(Double.toString(value)).append(')');
+			} else {
+				sb.append(Double.toString(value));
+			}
+		}
+
+		void references(int kind, Set<Integer> refs) {
+		}
+
+		Expression hoist(Coefficients coefficients) {
+			return this;
+		}
+
+		boolean isConstant() {
+			return true;
+		}
+	}
+
+	static final class Variable extends Expression {
+		final int kind;
+		final int index;
+		final String name;
+
+		Variable(int kind, int index, String name) {
+			this.kind = kind;
+			this.index = index;
+			this.name = name;
+		}
+
+		double eval(Frame f) {
+			switch (kind) {
+				case STATE:	return f.x[index];
+				case PARAM:	return f.p[index];
+				case ENV:	return f.e[index];
+				case AUX:	return f.aux[index];
+				case COEF:	return f.c[index];
+				default:	return f.daux[index];
+			}
+		}
+
+		Expression derivative(int state, AuxDerivatives aux) {
+			switch (kind) {
+				case STATE:	return index == state ? ONE : ZERO;
+				case AUX:	return aux.of(index, state);
+				default:	return ZERO;
+			}
+		}
+
+		void java(StringBuilder sb) {
+			switch (kind) {
+				case STATE:	sb.append("x[").append(index).append(']'); break;
+				case PARAM:	sb.append("p[").append(index).append(']'); break;
+				case ENV:	sb.append("e[").append(index).append(']'); break;
+				case AUX:	sb.append('a').append(index); break;
+				case COEF:	sb.append("c[").append(index).append(']'); break;
+				default:	sb.append("da").append(index); break;
+			}
+		}
+
+		void references(int kind, Set<Integer> refs) {
+			if (this.kind == kind) {
+				refs.add(index);
+			}
+		}
+
+		Expression hoist(Coefficients coefficients) {
+			return this;
+		}
+	}
+
+	static final class Negate extends Expression {
+		final Expression a;
+
+		Negate(Expression a) {
+			this.a = a;
+		}
+
+		double eval(Frame f) {
+			return -a.eval(f);
+		}
+
+		Expression derivative(int state, AuxDerivatives aux) {
+			return neg(a.derivative(state, aux));
+		}
+
+		void java(StringBuilder sb) {
+			sb.append("(-");
+			a.java(sb);
+			sb.append(')');
+		}
+
+		void references(int kind, Set<Integer> refs) {
+			a.references(kind, refs);
+		}
+
+		Expression hoist(Coefficients coefficients) {
+			return hoisted(coefficients);
+		}
+
+		Expression hoistChildren(Coefficients coefficients) {
+			return new Negate(a.hoist(coefficients));
+		}
+	}
+
+	static final class Binary extends Expression {
+		final char op;
+		final Expression a, b;
+
+		Binary(char op, Expression a, Expression b) {
+			this.op = op;
+			this.a = a;
+			this.b = b;
+		}
+
+		double eval(Frame f) {
+			switch (op) {
+				case '+':	return a.eval(f) + b.eval(f);
+				case '-':	return a.eval(f) - b.eval(f);
+				case '*':	return a.eval(f) * b.eval(f);
+				default:	return a.eval(f) / b.eval(f);
+			}
+		}
+
+		Expression derivative(int state, AuxDerivatives aux) {
+			Expression da = a.derivative(state, aux);
+			Expression db = b.derivative(state, aux);
+			switch (op) {
+				case '+':	return add(da, db);
+				case '-':	return sub(da, db);
+				case '*':	return add(mul(da, b), mul(a, db));
+				default:	// (a/b)' = a'/b - a*b'/(b*b)
+					return sub(div(da, b), div(mul(a, db), mul(b, b)));
+			}
+		}
+
+		void java(StringBuilder sb) {
+			sb.append('(');
+			a.java(sb);
+			sb.append(op);
+			b.java(sb);
+			sb.append(')');
+		}
+
+		void references(int kind, Set<Integer> refs) {
+			a.references(kind, refs);
+			b.references(kind, refs);
+		}
+
+		Expression hoist(Coefficients coefficients) {
+			return hoisted(coefficients);
+		}
+
+		Expression hoistChildren(Coefficients coefficients) {
+			return new Binary(op, a.hoist(coefficients), b.hoist(coefficients));
+		}
+	}
+
+	static final class Call extends Expression {
+		final String function;
+		final Expression[] args;
+
+		Call(String function, Expression[] args) {
+			this.function = function;
+			this.args = args;
+		}
+
+		double eval(Frame f) {
+			double v = args[0].eval(f);
+			switch (function) {
+				case "exp":		return f.strict ? StrictMath.exp(v) : Math.exp(v);
+				case "log":		return f.strict ? StrictMath.log(v) : Math.log(v);
+				case "log10":	return f.strict ? StrictMath.log10(v) : Math.log10(v);
+				case "sqrt":	return Math.sqrt(v);
+				default:		return f.strict ? StrictMath.pow(v, args[1].eval(f)) : Math.pow(v, args[1].eval(f));
+			}
+		}
+
+		Expression derivative(int state, AuxDerivatives aux) {
+			Expression a = args[0];
+			Expression da = a.derivative(state, aux);
+			switch (function) {
+				case "exp":		return mul(this, da);
+				case "log":		return div(da, a);
+				case "log10":	return div(da, mul(a, constant(Math.log(10.0))));
+				case "sqrt":	return div(da, mul(constant(2.0), this));
+				default:
+					Expression b = args[1];
+					Expression db = b.derivative(state, aux);
+					if (isZero(db)) {
+						// b*a^(b-1)*a'
+						Expression power = b.isConstant() ? constant(value(b) - 1.0) : sub(b, ONE);
+						return mul(mul(b, call("pow", a, power)), da);
+					}
+					// a^b*(b'*ln(a)+b*a'/a)
+					return mul(this, add(mul(db, call("log", a)), div(mul(b, da), a)));
+			}
+		}
+
+		void java(StringBuilder sb) {
+			sb.append("Math.").append(function).append('(');
+			for (int i=0;i<args.length;i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				args[i].java(sb);
+			}
+			sb.append(')');
+		}
+
+		void references(int kind, Set<Integer> refs) {
+			for (Expression arg : args) {
+				arg.references(kind, refs);
+			}
+		}
+
+		Expression hoist(Coefficients coefficients) {
+			return hoisted(coefficients);
+		}
+
+		Expression hoistChildren(Coefficients coefficients) {
+			Expression[] hoisted = new Expression[args.length];
+			for (int i=0;i<args.length;i++) {
+				hoisted[i] = args[i].hoist(coefficients);
+			}
+			return new Call(function, hoisted);
+		}
+	}
+}
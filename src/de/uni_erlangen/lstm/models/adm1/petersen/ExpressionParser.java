@@ -0,0 +1,191 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.models.adm1.petersen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursive descent parser for the matrix expressions: numbers, names, + - * / with the
+ * usual precedence, parentheses and the functions exp, log, log10, sqrt and pow
+ *
+ * @author liampetti
+ *
+ */
+class ExpressionParser {
+
+	/**
+	 * Maps a name of the matrix file to a variable
+	 */
+	interface Symbols {
+		Expression resolve(String name);
+	}
+
+	private final String text;
+	private final Symbols symbols;
+	private int pos;
+
+	private ExpressionParser(String text, Symbols symbols) {
+		this.text = text;
+		this.symbols = symbols;
+	}
+
+	static Expression parse(String text, Symbols symbols) {
+		ExpressionParser parser = new ExpressionParser(text, symbols);
+		Expression expression = parser.expression();
+		parser.skip();
+		if (parser.pos < text.length()) {
+			throw parser.error("Unexpected '" + text.charAt(parser.pos) + "'");
+		}
+		return expression;
+	}
+
+	private Expression expression() {
+		Expression a = term();
+		while (true) {
+			if (accept('+')) {
+				a = new Expression.Binary('+', a, term());
+			} else if (accept('-')) {
+				a = new Expression.Binary('-', a, term());
+			} else {
+				return a;
+			}
+		}
+	}
+
+	private Expression term() {
+		Expression a = unary();
+		while (true) {
+			if (accept('*')) {
+				a = new Expression.Binary('*', a, unary());
+			} else if (accept('/')) {
+				a = new Expression.Binary('/', a, unary());
+			} else {
+				return a;
+			}
+		}
+	}
+
+	private Expression unary() {
+		if (accept('-')) {
+			Expression a = unary();
+			return a.isConstant() ? Expression.constant(-Expression.value(a)) : new Expression.Negate(a);
+		}
+		if (accept('+')) {
+			return unary();
+		}
+		return primary();
+	}
+
+	private Expression primary() {
+		skip();
+		if (accept('(')) {
+			Expression a = expression();
+			expect(')');
+			return a;
+		}
+		if (pos >= text.length()) {
+			throw error("Unexpected end");
+		}
+		char c = text.charAt(pos);
+		if (Character.isDigit(c) || c == '.') {
+			return number();
+		}
+		if (Character.isLetter(c) || c == '_') {
+			int begin = pos;
+			while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_')) {
+				pos++;
+			}
+			String name = text.substring(begin, pos);
+			if (accept('(')) {
+				return function(name);
+			}
+			return symbols.resolve(name);
+		}
+		throw error("Unexpected '" + c + "'");
+	}
+
+	private Expression function(String name) {
+		List<Expression> args = new ArrayList<Expression>();
+		args.add(expression());
+		while (accept(',')) {
+			args.add(expression());
+		}
+		expect(')');
+		int arity;
+		switch (name) {
+			case "exp": case "log": case "log10": case "sqrt":	arity = 1; break;
+			case "pow":	arity = 2; break;
+			default:	throw error("Unknown function " + name);
+		}
+		if (args.size() != arity) {
+			throw error(name + " takes " + arity + " argument(s)");
+		}
+		return Expression.call(name, args.toArray(new Expression[arity]));
+	}
+
+	private Expression number() {
+		int begin = pos;
+		while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.')) {
+			pos++;
+		}
+		if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+			pos++;
+			if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+				pos++;
+			}
+			while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+				pos++;
+			}
+		}
+		try {
+			return Expression.constant(Double.parseDouble(text.substring(begin, pos)));
+		} catch (NumberFormatException e) {
+			throw error("Bad number " + text.substring(begin, pos));
+		}
+	}
+
+	private void skip() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private boolean accept(char c) {
+		skip();
+		if (pos < text.length() && text.charAt(pos) == c) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(char c) {
+		if (!accept(c)) {
+			throw error("Expected '" + c + "'");
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + pos + " of \"" + text + "\"");
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.models.adm1.petersen;
+
+/**
+ * Evaluates the expression trees of a Petersen matrix directly, same results as the generated class
+ * but much slower. Used when no Java compiler is available at runtime.
+ *
+ * @author liampetti
+ *
+ */
+final class Interpreter implements Evaluator {
+	private final PetersenMatrix matrix;
+	private final int[] states;
+	private final boolean strict;
+
+	Interpreter(PetersenMatrix matrix, boolean strict) {
+		this.matrix = matrix;
+		this.states = matrix.getStates();
+		this.strict = strict;
+	}
+
+	public void coefficients(double[] p, double[] c) {
+		Expression.Frame f = new Expression.Frame();
+		f.p = p;
+		f.c = c;
+		f.strict = strict;
+		for (int n=0;n<matrix.coefficients.size();n++) {
+			c[n] = matrix.coefficients.get(n).eval(f);
+		}
+	}
+
+	public void rates(double[] x, double[] p, double[] e, double[] c, double[] r) {
+		Expression.Frame f = frame(x, p, e, c, false);
+		for (int j=0;j<matrix.rates.size();j++) {
+			r[j] = matrix.rates.get(j).eval(f);
+		}
+	}
+
+	public void reactions(double[] c, double[] r, double[] reac) {
+		for (int i=0;i<states.length;i++) {
+			reac[states[i]] = sum(matrix.terms[i], c, r);
+		}
+	}
+
+	public void partial(int state, double[] x, double[] p, double[] e, double[] c, double[] out) {
+		int column = -1;
+		for (int i=0;i<states.length;i++) {
+			if (states[i] == state) {
+				column = i;
+			}
+		}
+		if (column < 0) {
+			throw new IllegalArgumentException("Not a state of the matrix: " + state);
+		}
+		Expression.Frame f = frame(x, p, e, c, true);
+		double[] r = new double[matrix.rates.size()];
+		for (PetersenMatrix.Term term : matrix.terms[column]) {
+			r[term.process] = matrix.rates.get(term.process).eval(f);
+		}
+		out[0] = sum(matrix.terms[column], c, r);
+		out[1] = 0.0;
+		for (PetersenMatrix.Entry entry : matrix.jacobian) {
+			if (entry.row == state && entry.col == state) {
+				out[1] = sum(entry.terms, c, derivatives(f));
+			}
+		}
+	}
+
+	public void jacobian(double[] x, double[] p, double[] e, double[] c, double[][] jac) {
+		double[] dr = derivatives(frame(x, p, e, c, true));
+		for (PetersenMatrix.Entry entry : matrix.jacobian) {
+			jac[entry.row][entry.col] = sum(entry.terms, c, dr);
+		}
+	}
+
+	private Expression.Frame frame(double[] x, double[] p, double[] e, double[] c, boolean derivatives) {
+		Expression.Frame f = new Expression.Frame();
+		f.x = x;
+		f.p = p;
+		f.e = e;
+		f.c = c;
+		f.strict = strict;
+		f.aux = new double[matrix.aux.size()];
+		f.daux = new double[matrix.auxDerivatives.size()];
+		for (int a=0;a<f.aux.length;a++) {
+			f.aux[a] = matrix.aux.get(a).eval(f);
+			if (derivatives) {
+				for (int slot=0;slot<f.daux.length;slot++) {
+					PetersenMatrix.Derivative d = matrix.auxDerivatives.get(slot);
+					if (d.owner == a) {
+						f.daux[slot] = d.expression.eval(f);
+					}
+				}
+			}
+		}
+		return f;
+	}
+
+	private double[] derivatives(Expression.Frame f) {
+		double[] dr = new double[matrix.rateDerivatives.size()];
+		for (int d=0;d<dr.length;d++) {
+			dr[d] = matrix.rateDerivatives.get(d).expression.eval(f);
+		}
+		return dr;
+	}
+
+	// Same order of operations as the generated code
+	private static double sum(PetersenMatrix.Term[] terms, double[] c, double[] values) {
+		double sum = 0.0;
+		for (int t=0;t<terms.length;t++) {
+			PetersenMatrix.Term term = terms[t];
+			double value = values[term.derivative < 0 ? term.process : term.derivative];
+			double product;
+			if (term.slot >= 0) {
+				product = c[term.slot]*value;
+			} else if (term.value == 1.0 || term.value == -1.0) {
+				product = term.value == 1.0 ? value : -value;
+			} else {
+				product = term.value*value;
+			}
+			sum = t == 0 ? product : sum + product;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.models.adm1.petersen;
+
+import java.util.logging.Logger;
+
+/**
+ * Process rates, reaction terms and their Jacobian for one Petersen matrix,
+ * backed by a generated class or by the interpreter when no compiler is available.
+ *
+ * Values that come from the algebraic part of the model (pH, gas phase, tabulated inhibitions)
+ * are passed in the environment array and are constants for the Jacobian.
+ *
+ * @author liampetti
+ *
+ */
+public final class Kernel {
+	public final static Logger LOGGER = Logger.getLogger(Kernel.class.getName());
+
+	// Environment values, names as used in the matrix files
+	public static final int I_PH_AA = 0, I_PH_AC = 1, I_PH_H2 = 2, I_NH3 = 3, K_H_H2 = 4, K_H_CH4 = 5, K_H_CO2 = 6;
+	public static final int P_GAS_H2 = 7, P_GAS_CH4 = 8, P_GAS_CO2 = 9, S_H_ION = 10, EPS = 11;
+	public static final int ENV_SIZE = 12;
+	static final String[] ENV_NAMES = {"I_PH_AA", "I_PH_AC", "I_PH_H2", "I_NH3", "K_H_H2", "K_H_CH4", "K_H_CO2",
+		"P_GAS_H2", "P_GAS_CH4", "P_GAS_CO2", "S_H_ION", "EPS"};
+
+	private final PetersenMatrix matrix;
+	private final Evaluator evaluator;
+	private final String source;
+	private final boolean strict;
+
+	Kernel(PetersenMatrix matrix, Evaluator evaluator, String source, boolean strict) {
+		this.matrix = matrix;
+		this.evaluator = evaluator;
+		this.source = source;
+		this.strict = strict;
+	}
+
+	/**
+	 * True when the kernel runs generated bytecode, false for the interpreter
+	 */
+	public boolean isCompiled() {
+		return !(evaluator instanceof Interpreter);
+	}
+
+	/**
+	 * True when the kernel evaluates functions with StrictMath
+	 */
+	public boolean isStrict() {
+		return strict;
+	}
+
+	/**
+	 * Java source of the generated class
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	public PetersenMatrix getMatrix() {
+		return matrix;
+	}
+
+	public int getProcessCount() {
+		return matrix.getProcessCount();
+	}
+
+	/**
+	 * Index of the named process in the rates array, -1 if the matrix has no such process
+	 */
+	public int indexOf(String process) {
+		return matrix.indexOf(process);
+	}
+
+	/**
+	 * The states with reaction terms (matrix columns)
+	 */
+	public int[] getStates() {
+		return matrix.getStates();
+	}
+
+	public int getCoefficientCount() {
+		return matrix.getCoefficientCount();
+	}
+
+	/**
+	 * Non zero entries of the Jacobian, column indices k for each state i
+	 */
+	public int[][] getJacobianPattern() {
+		return matrix.getJacobianPattern();
+	}
+
+	public void coefficients(double[] p, double[] c) {
+		evaluator.coefficients(p, c);
+	}
+
+	public void rates(double[] x, double[] p, double[] e, double[] c, double[] r) {
+		evaluator.rates(x, p, e, c, r);
+	}
+
+	public void reactions(double[] c, double[] r, double[] reac) {
+		evaluator.reactions(c, r, reac);
+	}
+
+	/**
+	 * Reaction term of one state and its derivative with respect to the state, for algebraic states
+	 * 
+	 * @param state	The state (a matrix column)
+	 * @param out	Reaction term and derivative
+	 */
+	public void partial(int state, double[] x, double[] p, double[] e, double[] c, double[] out) {
+		evaluator.partial(state, x, p, e, c, out);
+	}
+
+	public void jacobian(double[] x, double[] p, double[] e, double[] c, double[][] jac) {
+		evaluator.jacobian(x, p, e, c, jac);
+	}
+}
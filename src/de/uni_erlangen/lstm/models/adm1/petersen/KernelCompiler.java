@@ -0,0 +1,322 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.models.adm1.petersen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates a specialised, branch free Evaluator class for a Petersen matrix and compiles it
+ * in memory. Falls back to the interpreter when no system compiler is available (JRE only).
+ *
+ * @author liampetti
+ *
+ */
+final class KernelCompiler {
+	public final static Logger LOGGER = Logger.getLogger(KernelCompiler.class.getName());
+
+	private static final String PACKAGE = KernelCompiler.class.getPackage().getName();
+	private static final String CLASS = "Generated";
+
+	// Generated classes by source, matrices read from the same file share one class
+	private static final Map<String, Evaluator> compiled = new HashMap<String, Evaluator>();
+
+	private KernelCompiler() {
+	}
+
+	/**
+	 * @param strict Call StrictMath instead of Math in the generated class (reproducible runs)
+	 */
+	static synchronized Kernel compile(PetersenMatrix matrix, boolean strict) {
+		String source = source(matrix);
+		if (strict) {
+			source = source.replace("Math.", "StrictMath.");
+		}
+		Evaluator evaluator = compiled.get(source);
+		if (evaluator == null) {
+			evaluator = load(source);
+			if (evaluator == null) {
+				LOGGER.warning("No Java compiler available, interpreting " + matrix.getName());
+				return new Kernel(matrix, new Interpreter(matrix, strict), source, strict);
+			}
+			compiled.put(source, evaluator);
+		}
+		return new Kernel(matrix, evaluator, source, strict);
+	}
+
+	/**
+	 * Java source of the evaluator class
+	 */
+	static String source(PetersenMatrix matrix) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("package ").append(PACKAGE).append(";\n\n");
+		sb.append("// Generated from ").append(matrix.getName()).append('\n');
+		sb.append("public final class ").append(CLASS).append(" implements Evaluator {\n");
+
+		sb.append("\tpublic void coefficients(double[] p, double[] c) {\n");
+		for (int n=0;n<matrix.coefficients.size();n++) {
+			sb.append("\t\tc[").append(n).append("] = ").append(matrix.coefficients.get(n).java()).append(";\n");
+		}
+		sb.append("\t}\n\n");
+
+		sb.append("\tpublic void rates(double[] x, double[] p, double[] e, double[] c, double[] r) {\n");
+		aux(matrix, all(matrix.aux.size()), new boolean[0], sb, "\t\t");
+		for (int j=0;j<matrix.rates.size();j++) {
+			sb.append("\t\tr[").append(j).append("] = ").append(matrix.rates.get(j).java()).append("; // ")
+				.append(matrix.processes.get(j)).append('\n');
+		}
+		sb.append("\t}\n\n");
+
+		sb.append("\tpublic void reactions(double[] c, double[] r, double[] reac) {\n");
+		int[] states = matrix.getStates();
+		for (int i=0;i<states.length;i++) {
+			sb.append("\t\treac[").append(states[i]).append("] = ");
+			sum(matrix.terms[i], "r[", "]", sb);
+			sb.append(";\n");
+		}
+		sb.append("\t}\n\n");
+
+		sb.append("\tpublic void partial(int state, double[] x, double[] p, double[] e, double[] c, double[] out) {\n");
+		sb.append("\t\tswitch (state) {\n");
+		for (int i=0;i<states.length;i++) {
+			partial(matrix, i, sb);
+		}
+		sb.append("\t\t\tdefault:\n");
+		sb.append("\t\t\t\tthrow new IllegalArgumentException(\"Not a state of the matrix: \" + state);\n");
+		sb.append("\t\t}\n");
+		sb.append("\t}\n\n");
+
+		sb.append("\tpublic void jacobian(double[] x, double[] p, double[] e, double[] c, double[][] jac) {\n");
+		aux(matrix, all(matrix.aux.size()), all(matrix.auxDerivatives.size()), sb, "\t\t");
+		for (int d=0;d<matrix.rateDerivatives.size();d++) {
+			sb.append("\t\tfinal double dr").append(d).append(" = ").append(matrix.rateDerivatives.get(d).expression.java()).append(";\n");
+		}
+		for (PetersenMatrix.Entry entry : matrix.jacobian) {
+			sb.append("\t\tjac[").append(entry.row).append("][").append(entry.col).append("] = ");
+			sum(entry.terms, "dr", "", sb);
+			sb.append(";\n");
+		}
+		sb.append("\t}\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	// One case of the partial method, only the values this state needs
+	private static void partial(PetersenMatrix matrix, int column, StringBuilder sb) {
+		int state = matrix.getStates()[column];
+		PetersenMatrix.Term[] diagonal = new PetersenMatrix.Term[0];
+		for (PetersenMatrix.Entry entry : matrix.jacobian) {
+			if (entry.row == state && entry.col == state) {
+				diagonal = entry.terms;
+			}
+		}
+		Set<Integer> processes = new TreeSet<Integer>();
+		Set<Integer> derivatives = new TreeSet<Integer>();
+		Set<Integer> auxRefs = new TreeSet<Integer>();
+		Set<Integer> dauxRefs = new TreeSet<Integer>();
+		for (PetersenMatrix.Term term : matrix.terms[column]) {
+			processes.add(term.process);
+			matrix.rates.get(term.process).references(Expression.AUX, auxRefs);
+		}
+		for (PetersenMatrix.Term term : diagonal) {
+			derivatives.add(term.derivative);
+			matrix.rateDerivatives.get(term.derivative).expression.references(Expression.AUX, auxRefs);
+			matrix.rateDerivatives.get(term.derivative).expression.references(Expression.DAUX, dauxRefs);
+		}
+		// Everything the needed auxiliary values depend on, later expressions only use earlier ones
+		boolean[] auxNeeded = new boolean[matrix.aux.size()];
+		boolean[] dauxNeeded = new boolean[matrix.auxDerivatives.size()];
+		for (int slot=dauxNeeded.length-1;slot>=0;slot--) {
+			if (dauxRefs.contains(slot)) {
+				dauxNeeded[slot] = true;
+				matrix.auxDerivatives.get(slot).expression.references(Expression.AUX, auxRefs);
+				matrix.auxDerivatives.get(slot).expression.references(Expression.DAUX, dauxRefs);
+			}
+		}
+		for (int a=auxNeeded.length-1;a>=0;a--) {
+			if (auxRefs.contains(a)) {
+				auxNeeded[a] = true;
+				matrix.aux.get(a).references(Expression.AUX, auxRefs);
+			}
+		}
+
+		sb.append("\t\t\tcase ").append(state).append(": {\n");
+		aux(matrix, auxNeeded, dauxNeeded, sb, "\t\t\t\t");
+		for (int j : processes) {
+			sb.append("\t\t\t\tfinal double r").append(j).append(" = ").append(matrix.rates.get(j).java()).append(";\n");
+		}
+		for (int d : derivatives) {
+			sb.append("\t\t\t\tfinal double dr").append(d).append(" = ").append(matrix.rateDerivatives.get(d).expression.java()).append(";\n");
+		}
+		sb.append("\t\t\t\tout[0] = ");
+		sum(matrix.terms[column], "r", "", sb);
+		sb.append(";\n");
+		sb.append("\t\t\t\tout[1] = ");
+		sum(diagonal, "dr", "", sb);
+		sb.append(";\n");
+		sb.append("\t\t\t\treturn;\n");
+		sb.append("\t\t\t}\n");
+	}
+
+	private static boolean[] all(int n) {
+		boolean[] all = new boolean[n];
+		Arrays.fill(all, true);
+		return all;
+	}
+
+	// Auxiliary values (and their derivatives) as locals
+	private static void aux(PetersenMatrix matrix, boolean[] auxNeeded, boolean[] dauxNeeded, StringBuilder sb, String indent) {
+		for (int a=0;a<matrix.aux.size();a++) {
+			if (auxNeeded[a]) {
+				sb.append(indent).append("final double a").append(a).append(" = ").append(matrix.aux.get(a).java()).append("; // ")
+					.append(matrix.auxNames.get(a)).append('\n');
+			}
+			for (int slot=0;slot<dauxNeeded.length;slot++) {
+				PetersenMatrix.Derivative d = matrix.auxDerivatives.get(slot);
+				if (dauxNeeded[slot] && d.owner == a) {
+					sb.append(indent).append("final double da").append(slot).append(" = ").append(d.expression.java()).append(";\n");
+				}
+			}
+		}
+	}
+
+	// Coefficient times rate (or rate derivative) terms in matrix order
+	private static void sum(PetersenMatrix.Term[] terms, String prefix, String suffix, StringBuilder sb) {
+		if (terms.length == 0) {
+			sb.append("0.0");
+			return;
+		}
+		for (int t=0;t<terms.length;t++) {
+			PetersenMatrix.Term term = terms[t];
+			String factor = prefix + (term.derivative < 0 ? term.process : term.derivative) + suffix;
+			if (term.slot < 0 && term.value == -1.0) {
+				sb.append('-').append(factor);
+				continue;
+			}
+			if (t > 0) {
+				sb.append('+');
+			}
+			if (term.slot >= 0) {
+				sb.append("c[").append(term.slot).append("]*").append(factor);
+			} else if (term.value == 1.0) {
+				sb.append(factor);
+			} else {
+				Expression.constant(term.value).java(sb);
+				sb.append('*').append(factor);
+			}
+		}
+	}
+
+	/**
+	 * Compiles the source in memory and instantiates the class, null when there is no compiler
+	 */
+	private static Evaluator load(String source) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			return null;
+		}
+		final String name = PACKAGE + "." + CLASS;
+		final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+		StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+		JavaFileManager manager = new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, final String className, JavaFileObject.Kind kind, FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						ByteArrayOutputStream out = new ByteArrayOutputStream();
+						classes.put(className, out);
+						return out;
+					}
+				};
+			}
+		};
+		final String code = source;
+		JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + name.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return code;
+			}
+		};
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		List<String> options = new ArrayList<String>(Arrays.asList("-g:none", "-nowarn", "-classpath", classpath()));
+		long begin = System.currentTimeMillis();
+		if (!compiler.getTask(null, manager, diagnostics, options, null, Arrays.asList(file)).call()) {
+			StringBuilder message = new StringBuilder("Compiling the Petersen matrix kernel failed:");
+			for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+				message.append('\n').append(diagnostic.getMessage(null));
+			}
+			throw new IllegalStateException(message.toString());
+		}
+		ClassLoader loader = new ClassLoader(Evaluator.class.getClassLoader()) {
+			@Override
+			protected Class<?> findClass(String className) throws ClassNotFoundException {
+				ByteArrayOutputStream out = classes.get(className);
+				if (out == null) {
+					throw new ClassNotFoundException(className);
+				}
+				byte[] bytes = out.toByteArray();
+				return defineClass(className, bytes, 0, bytes.length);
+			}
+		};
+		try {
+			Evaluator evaluator = (Evaluator) loader.loadClass(name).getDeclaredConstructor().newInstance();
+			LOGGER.info("Compiled Petersen matrix kernel in " + (System.currentTimeMillis()-begin) + " ms");
+			return evaluator;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Loading the Petersen matrix kernel failed", e);
+		}
+	}
+
+	// Class path of the running program plus the location of this package
+	private static String classpath() {
+		String path = System.getProperty("java.class.path");
+		try {
+			File location = new File(Evaluator.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			path = location.getPath() + File.pathSeparator + path;
+		} catch (Exception e) {
+			LOGGER.fine(e.toString());
+		}
+		return path;
+	}
+}
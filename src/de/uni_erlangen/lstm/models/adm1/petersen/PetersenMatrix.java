@@ -0,0 +1,471 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.models.adm1.petersen;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import de.uni_erlangen.lstm.file.CSVReader;
+import de.uni_erlangen.lstm.models.adm1.DigesterParameters;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * Biochemical model defined as a Petersen matrix in a ';' separated file:
+ *
+ * 	# comment
+ * 	aux;I_IN_LIM;1.0/(1.0+K_S_IN/S_IN)
+ * 	process;rate;S_SU;S_IC;X_SU
+ * 	upt_su;K_M_SU*S_SU/(K_S_SU+S_SU)*X_SU*I_PH_AA*I_IN_LIM;-1;-(...);Y_SU
+ *
+ * Names are the constants of StateVariables (states), DigesterParameters (parameters) and
+ * Kernel (environment values), case is ignored. Auxiliary expressions can use everything
+ * defined before them, rates can use all names, coefficients only parameters and numbers.
+ * Empty cells are zero. The matrix columns must be liquid phase states.
+ *
+ * @author liampetti
+ *
+ */
+public class PetersenMatrix {
+	public final static Logger LOGGER = Logger.getLogger(PetersenMatrix.class.getName());
+
+	private static final Map<String, Integer> STATE_NAMES = constants(StateVariables.class);
+	private static final Map<String, Integer> PARAMETER_NAMES = constants(DigesterParameters.class);
+
+	/**
+	 * Coefficient times process rate (or times a rate derivative in the Jacobian),
+	 * the coefficient is c[slot] or the constant value when slot is -1
+	 */
+	static final class Term {
+		final int process;
+		final int slot;
+		final double value;
+		final int derivative;
+
+		Term(int process, int slot, double value, int derivative) {
+			this.process = process;
+			this.slot = slot;
+			this.value = value;
+			this.derivative = derivative;
+		}
+	}
+
+	/**
+	 * Derivative of an auxiliary expression or a rate (owner) with respect to a state
+	 */
+	static final class Derivative {
+		final int owner;
+		final int state;
+		final Expression expression;
+
+		Derivative(int owner, int state, Expression expression) {
+			this.owner = owner;
+			this.state = state;
+			this.expression = expression;
+		}
+	}
+
+	/**
+	 * Non zero entry of the Jacobian
+	 */
+	static final class Entry {
+		final int row;
+		final int col;
+		final Term[] terms;
+
+		Entry(int row, int col, Term[] terms) {
+			this.row = row;
+			this.col = col;
+			this.terms = terms;
+		}
+	}
+
+	private final String name;
+	private final Map<String, Integer> auxIndex;
+	final List<String> auxNames;
+	final List<Expression> aux;
+	final List<String> processes;
+	final List<Expression> rates;
+	private final List<Expression[]> stoichiometry;
+	private int[] states;
+
+	// Evaluation plan, built once the matrix is complete
+	final List<Expression> coefficients;
+	Term[][] terms; // By column
+	final List<Derivative> auxDerivatives; // Index is the slot
+	final List<Derivative> rateDerivatives;
+	final List<Entry> jacobian;
+	private int[][] pattern;
+
+	private Kernel kernel, strictKernel;
+
+	private PetersenMatrix(String name) {
+		this.name = name;
+		auxIndex = new HashMap<String, Integer>();
+		auxNames = new ArrayList<String>();
+		aux = new ArrayList<Expression>();
+		processes = new ArrayList<String>();
+		rates = new ArrayList<Expression>();
+		stoichiometry = new ArrayList<Expression[]>();
+		coefficients = new ArrayList<Expression>();
+		auxDerivatives = new ArrayList<Derivative>();
+		rateDerivatives = new ArrayList<Derivative>();
+		jacobian = new ArrayList<Entry>();
+	}
+
+	/**
+	 * Reads the matrix file
+	 *
+	 * @param filename The matrix file
+	 */
+	public static PetersenMatrix read(String filename) {
+		if (!new File(filename).isFile()) {
+			throw new IllegalArgumentException("Petersen matrix file not found: " + filename);
+		}
+		CSVReader reader = new CSVReader(filename, ";");
+		List<String[]> lines = new ArrayList<String[]>();
+		while (!reader.finished()) {
+			lines.add(reader.getNextString());
+		}
+		return parse(filename, lines);
+	}
+
+	/**
+	 * @param name 	Name used in messages
+	 * @param lines	Cells of each line
+	 */
+	public static PetersenMatrix parse(String name, List<String[]> lines) {
+		PetersenMatrix matrix = new PetersenMatrix(name);
+		boolean header = false;
+		for (String[] line : lines) {
+			if (line.length == 0 || line[0].trim().isEmpty() || line[0].trim().startsWith("#")) {
+				continue;
+			}
+			if (line[0].trim().equalsIgnoreCase("aux")) {
+				if (line.length < 3) {
+					throw new IllegalArgumentException("Auxiliary expression needs a name and a value in " + name);
+				}
+				matrix.addAux(line[1].trim(), line[2]);
+			} else if (!header) {
+				matrix.setColumns(line);
+				header = true;
+			} else {
+				matrix.addProcess(line);
+			}
+		}
+		if (!header) {
+			throw new IllegalArgumentException("No matrix header (process;rate;states...) in " + name);
+		}
+		matrix.build();
+		LOGGER.info("Petersen matrix " + name + ": " + matrix.processes.size() + " processes, " + matrix.states.length + " states");
+		return matrix;
+	}
+
+	private void addAux(String auxName, String value) {
+		String key = auxName.toUpperCase();
+		if (STATE_NAMES.containsKey(key) || PARAMETER_NAMES.containsKey(key) || env(key) >= 0 || auxIndex.containsKey(key)) {
+			throw new IllegalArgumentException("Name " + auxName + " already defined in " + name);
+		}
+		aux.add(ExpressionParser.parse(value, symbols()));
+		auxIndex.put(key, auxNames.size());
+		auxNames.add(key);
+	}
+
+	private void setColumns(String[] header) {
+		if (header.length < 2 || !header[0].trim().equalsIgnoreCase("process") || !header[1].trim().equalsIgnoreCase("rate")) {
+			throw new IllegalArgumentException("Matrix header must start with process;rate in " + name);
+		}
+		states = new int[header.length-2];
+		for (int i=0;i<states.length;i++) {
+			Integer state = STATE_NAMES.get(header[i+2].trim().toUpperCase());
+			if (state == null) {
+				throw new IllegalArgumentException("Unknown state " + header[i+2] + " in " + name);
+			}
+			if (state > StateVariables.S_AN && state < StateVariables.X_XCH) {
+				throw new IllegalArgumentException("State " + header[i+2] + " is not a liquid phase state in " + name);
+			}
+			for (int j=0;j<i;j++) {
+				if (states[j] == state) {
+					throw new IllegalArgumentException("Duplicate column " + header[i+2] + " in " + name);
+				}
+			}
+			states[i] = state;
+		}
+	}
+
+	private void addProcess(String[] line) {
+		String process = line[0].trim();
+		if (processes.contains(process)) {
+			throw new IllegalArgumentException("Duplicate process " + process + " in " + name);
+		}
+		if (line.length < 2 || line[1].trim().isEmpty()) {
+			throw new IllegalArgumentException("Process " + process + " has no rate in " + name);
+		}
+		if (line.length > states.length+2) {
+			throw new IllegalArgumentException("Process " + process + " has more cells than the header in " + name);
+		}
+		Expression[] row = new Expression[states.length];
+		for (int i=0;i<row.length && i+2<line.length;i++) {
+			if (!line[i+2].trim().isEmpty()) {
+				Expression coefficient = ExpressionParser.parse(line[i+2], symbols());
+				Set<Integer> refs = new TreeSet<Integer>();
+				coefficient.references(Expression.STATE, refs);
+				coefficient.references(Expression.ENV, refs);
+				coefficient.references(Expression.AUX, refs);
+				if (!refs.isEmpty()) {
+					throw new IllegalArgumentException("Coefficients may only use parameters and numbers: " + process + " in " + name);
+				}
+				if (!Expression.isZero(coefficient)) {
+					row[i] = coefficient;
+				}
+			}
+		}
+		rates.add(ExpressionParser.parse(line[1], symbols()));
+		processes.add(process);
+		stoichiometry.add(row);
+	}
+
+	private ExpressionParser.Symbols symbols() {
+		return new ExpressionParser.Symbols() {
+			public Expression resolve(String symbol) {
+				String key = symbol.toUpperCase();
+				if (STATE_NAMES.containsKey(key)) {
+					int state = STATE_NAMES.get(key);
+					// Outputs are computed after the reactions and are not valid inside a rate
+					if (state >= StateVariables.GAS_CH4 && state <= StateVariables.TOT_GAS_CH4) {
+						throw new IllegalArgumentException(symbol + " is a model output, not a state, in " + name);
+					}
+					return Expression.variable(Expression.STATE, STATE_NAMES.get(key), key);
+				}
+				if (PARAMETER_NAMES.containsKey(key)) {
+					return Expression.variable(Expression.PARAM, PARAMETER_NAMES.get(key), key);
+				}
+				if (env(key) >= 0) {
+					return Expression.variable(Expression.ENV, env(key), key);
+				}
+				if (auxIndex.containsKey(key)) {
+					return Expression.variable(Expression.AUX, auxIndex.get(key), key);
+				}
+				throw new IllegalArgumentException("Unknown name " + symbol + " in " + name);
+			}
+		};
+	}
+
+	/**
+	 * Coefficient slots, reaction terms and the symbolic derivatives
+	 */
+	private void build() {
+		// Parameter dependent coefficients, identical expressions share a slot
+		final Map<String, Integer> slots = new HashMap<String, Integer>();
+		Expression.Coefficients hoisting = new Expression.Coefficients() {
+			public Expression slot(Expression expression) {
+				return Expression.variable(Expression.COEF, PetersenMatrix.this.slot(expression, slots), null);
+			}
+		};
+		for (int a=0;a<aux.size();a++) {
+			aux.set(a, aux.get(a).hoist(hoisting));
+		}
+		for (int j=0;j<rates.size();j++) {
+			rates.set(j, rates.get(j).hoist(hoisting));
+		}
+		terms = new Term[states.length][];
+		for (int i=0;i<states.length;i++) {
+			List<Term> column = new ArrayList<Term>();
+			for (int j=0;j<processes.size();j++) {
+				Expression coefficient = stoichiometry.get(j)[i];
+				if (coefficient != null) {
+					column.add(term(j, coefficient, -1, slots));
+				}
+			}
+			terms[i] = column.toArray(new Term[column.size()]);
+		}
+
+		// Auxiliary derivatives, each one can use those of the expressions before it
+		final Map<Integer, Integer> auxSlots = new HashMap<Integer, Integer>();
+		Expression.AuxDerivatives resolver = new Expression.AuxDerivatives() {
+			public Expression of(int a, int state) {
+				Integer slot = auxSlots.get(a*StateVariables.SIZE + state);
+				return slot == null ? Expression.ZERO : Expression.variable(Expression.DAUX, slot, auxNames.get(a));
+			}
+		};
+		List<Set<Integer>> auxStates = new ArrayList<Set<Integer>>();
+		for (int a=0;a<aux.size();a++) {
+			Set<Integer> deps = dependencies(aux.get(a), auxStates);
+			auxStates.add(deps);
+			for (int k : deps) {
+				Expression d = aux.get(a).derivative(k, resolver);
+				if (!Expression.isZero(d)) {
+					auxSlots.put(a*StateVariables.SIZE + k, auxDerivatives.size());
+					auxDerivatives.add(new Derivative(a, k, d.hoist(hoisting)));
+				}
+			}
+		}
+		for (int j=0;j<rates.size();j++) {
+			for (int k : dependencies(rates.get(j), auxStates)) {
+				Expression d = rates.get(j).derivative(k, resolver);
+				if (!Expression.isZero(d)) {
+					rateDerivatives.add(new Derivative(j, k, d.hoist(hoisting)));
+				}
+			}
+		}
+
+		// Jacobian entries of each column state
+		pattern = new int[StateVariables.SIZE][0];
+		for (int i=0;i<states.length;i++) {
+			Map<Integer, List<Term>> row = new TreeMap<Integer, List<Term>>();
+			for (int d=0;d<rateDerivatives.size();d++) {
+				Derivative derivative = rateDerivatives.get(d);
+				Expression coefficient = stoichiometry.get(derivative.owner)[i];
+				if (coefficient != null) {
+					if (!row.containsKey(derivative.state)) {
+						row.put(derivative.state, new ArrayList<Term>());
+					}
+					row.get(derivative.state).add(term(derivative.owner, coefficient, d, slots));
+				}
+			}
+			pattern[states[i]] = new int[row.size()];
+			int n = 0;
+			for (Map.Entry<Integer, List<Term>> entry : row.entrySet()) {
+				jacobian.add(new Entry(states[i], entry.getKey(), entry.getValue().toArray(new Term[entry.getValue().size()])));
+				pattern[states[i]][n++] = entry.getKey();
+			}
+		}
+	}
+
+	private Term term(int process, Expression coefficient, int derivative, Map<String, Integer> slots) {
+		if (coefficient.isConstant()) {
+			return new Term(process, -1, Expression.value(coefficient), derivative);
+		}
+		return new Term(process, slot(coefficient, slots), 0.0, derivative);
+	}
+	
+	private int slot(Expression coefficient, Map<String, Integer> slots) {
+		String key = coefficient.java();
+		Integer slot = slots.get(key);
+		if (slot == null) {
+			slot = coefficients.size();
+			slots.put(key, slot);
+			coefficients.add(coefficient);
+		}
+		return slot;
+	}
+
+	// States an expression depends on, directly or through auxiliary expressions
+	private static Set<Integer> dependencies(Expression expression, List<Set<Integer>> auxStates) {
+		Set<Integer> deps = new TreeSet<Integer>();
+		expression.references(Expression.STATE, deps);
+		Set<Integer> used = new TreeSet<Integer>();
+		expression.references(Expression.AUX, used);
+		for (int a : used) {
+			deps.addAll(auxStates.get(a));
+		}
+		return deps;
+	}
+
+	private static int env(String key) {
+		for (int i=0;i<Kernel.ENV_NAMES.length;i++) {
+			if (Kernel.ENV_NAMES[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static Map<String, Integer> constants(Class<?> type) {
+		Map<String, Integer> names = new LinkedHashMap<String, Integer>();
+		for (Field field : type.getFields()) {
+			int modifiers = field.getModifiers();
+			if (Modifier.isStatic(modifiers) && field.getType() == int.class && !field.getName().equals("SIZE")) {
+				try {
+					names.put(field.getName(), field.getInt(null));
+				} catch (IllegalAccessException e) {
+					LOGGER.warning(e.toString());
+				}
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * The compiled kernel, generated on first use
+	 */
+	public synchronized Kernel getKernel() {
+		if (kernel == null) {
+			kernel = KernelCompiler.compile(this, false);
+		}
+		return kernel;
+	}
+
+	/**
+	 * The compiled kernel, strict calls StrictMath for results that are the same on every platform
+	 */
+	public synchronized Kernel getKernel(boolean strict) {
+		if (!strict) {
+			return getKernel();
+		}
+		if (strictKernel == null) {
+			strictKernel = KernelCompiler.compile(this, true);
+		}
+		return strictKernel;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getProcessCount() {
+		return processes.size();
+	}
+
+	public String getProcess(int j) {
+		return processes.get(j);
+	}
+
+	public int indexOf(String process) {
+		return processes.indexOf(process);
+	}
+
+	public int[] getStates() {
+		return states.clone();
+	}
+
+	public int getCoefficientCount() {
+		return coefficients.size();
+	}
+
+	public int[][] getJacobianPattern() {
+		int[][] copy = new int[pattern.length][];
+		for (int i=0;i<pattern.length;i++) {
+			copy[i] = pattern[i].clone();
+		}
+		return copy;
+	}
+}
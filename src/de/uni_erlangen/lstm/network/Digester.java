@@ -0,0 +1,84 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.network;
+
+import de.uni_erlangen.lstm.models.adm1.DigesterParameters;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * A single CSTR digester within the plant network
+ * 
+ * @author liampetti
+ *
+ */
+public class Digester extends Unit {
+	private DigesterParameters parameters;
+	private double[] x;
+	
+	public Digester(String name, DigesterParameters parameters, StateVariables initial) {
+		super(name);
+		this.parameters = parameters;
+		x = initial.getVar();
+	}
+	
+	public DigesterParameters getParameters() {
+		return parameters;
+	}
+	
+	/**
+	 * Current reactor state (50 variables)
+	 */
+	public double[] getX() {
+		return x;
+	}
+	
+	public void setX(double[] x) {
+		this.x = x;
+	}
+	
+	/**
+	 * Effluent composition of the given reactor state, only the liquid phase leaves the digester
+	 * 
+	 * @param x Reactor state
+	 * @return A new influent array for the downstream unit
+	 */
+	public static double[] effluent(double[] x) {
+		double[] e = new double[x.length];
+		effluent(x, e);
+		return e;
+	}
+	
+	/**
+	 * Effluent composition of the given reactor state written to an existing array
+	 */
+	public static void effluent(double[] x, double[] e) {
+		System.arraycopy(x, 0, e, 0, x.length);
+		// Gas phase stays in the head space
+		e[32] = 0.0;
+		e[33] = 0.0;
+		e[34] = 0.0;
+		// Gas flows, pH and derived outputs are not transported
+		for (int i=37;i<=42;i++) {
+			e[i] = 0.0;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.network;
+
+import org.apache.commons.math3.ode.FirstOrderIntegrator;
+
+import de.uni_erlangen.lstm.models.adm1.DAEModel;
+
+/**
+ * Advances a single digester of the network over one sync interval (co-simulation).
+ * The integrated state is kept between intervals so that only the influent changes at a sync point.
+ * 
+ * @author liampetti
+ *
+ */
+class DigesterRunner implements Runnable {
+	private Digester digester;
+	private DAEModel ode;
+	private FirstOrderIntegrator integrator;
+	private double[] y;
+	private double t0;
+	private double t1;
+	
+	DigesterRunner(Digester digester, double[] influent, boolean dae, FirstOrderIntegrator integrator) {
+		this.digester = digester;
+		double[] param = digester.getParameters().getParameters();
+		y = digester.getX().clone();
+		ode = new DAEModel(influent, param, DAEModel.initialSH(y, param), dae, -1.0);
+		this.integrator = integrator;
+	}
+	
+	void setInterval(double t0, double t1, double[] influent) {
+		this.t0 = t0;
+		this.t1 = t1;
+		ode.setInfluent(influent);
+		y[35] = influent[35]; // Effluent flow rate = Influent flow rate
+	}
+
+	@Override
+	public void run() {
+		// Evaluates once more at the end point so the algebraic variables match the final state
+		ode.integrate(integrator, t0, y, t1);
+		digester.setX(ode.getDimensions().clone());
+	}
+}
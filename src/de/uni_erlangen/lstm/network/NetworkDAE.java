@@ -0,0 +1,151 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.network;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.exception.MaxCountExceededException;
+import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
+
+import de.uni_erlangen.lstm.models.adm1.DAEModel;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * Coupled system of all digesters in a plant network.
+ * The state vector holds the integrated states of each digester (DAEModel.getActive) one after the other,
+ * the influent of every digester is recomputed from the upstream states on each evaluation.
+ * 
+ * @author liampetti
+ *
+ */
+class NetworkDAE implements FirstOrderDifferentialEquations {
+	private PlantNetwork network;
+	private List<Digester> digesters;
+	private int[] index; // Unit index of each digester
+	private DAEModel[] models;
+	private int[][] active; // Integrated states of each digester
+	private int[] offset; // Position of each digester in the state vector
+	private int dimension;
+	private boolean[] evaluated;
+	private double[][] xs; // Full layout state of each digester
+	private double[][] dxs;
+	private double[][] eff; // Effluent of each digester (by unit index)
+	private double[][] effBuffers;
+	private double[][] comp, compBuffers; // Mixer and splitter compositions
+	private boolean[] visiting;
+	private double[] mix;
+	private boolean dae;
+	
+	NetworkDAE(PlantNetwork network, List<Digester> digesters, boolean dae) {
+		this.network = network;
+		this.digesters = digesters;
+		this.dae = dae;
+		int n = digesters.size();
+		int units = network.getUnits().size();
+		index = new int[n];
+		models = new DAEModel[n];
+		active = new int[n][];
+		offset = new int[n];
+		evaluated = new boolean[n];
+		xs = new double[n][];
+		dxs = new double[n][StateVariables.SIZE];
+		eff = new double[units][];
+		effBuffers = new double[units][];
+		comp = new double[units][];
+		compBuffers = new double[units][];
+		visiting = new boolean[units];
+		mix = new double[StateVariables.SIZE];
+		for (int d=0;d<n;d++) {
+			index[d] = network.indexOf(digesters.get(d));
+			effBuffers[index[d]] = new double[StateVariables.SIZE];
+			Digester.effluent(digesters.get(d).getX(), effBuffers[index[d]]);
+			eff[index[d]] = effBuffers[index[d]];
+			xs[d] = digesters.get(d).getX().clone();
+		}
+		for (int d=0;d<n;d++) {
+			double[] param = digesters.get(d).getParameters().getParameters();
+			double[] u = network.inlet(index[d], eff, comp, compBuffers, visiting, mix);
+			Arrays.fill(comp, null);
+			models[d] = new DAEModel(u, param, DAEModel.initialSH(digesters.get(d).getX(), param), dae, -1.0);
+			active[d] = models[d].getActive();
+			offset[d] = dimension;
+			dimension += active[d].length;
+		}
+	}
+	
+	/**
+	 * Stacked initial state of all digesters
+	 */
+	double[] getState() {
+		double[] y = new double[getDimension()];
+		for (int d=0;d<digesters.size();d++) {
+			double[] x = digesters.get(d).getX();
+			for (int k=0;k<active[d].length;k++) {
+				y[offset[d]+k] = x[active[d][k]];
+			}
+		}
+		return y;
+	}
+	
+	/**
+	 * Stores the final state in each digester, including the algebraic variables
+	 */
+	void setState(double t, double[] y) {
+		computeDerivatives(t, y, new double[getDimension()]);
+		for (int d=0;d<digesters.size();d++) {
+			digesters.get(d).setX(models[d].getDimensions().clone());
+		}
+	}
+
+	@Override
+	public int getDimension() {
+		return dimension;
+	}
+
+	@Override
+	public void computeDerivatives(double t, double[] y, double[] dy)
+			throws MaxCountExceededException, DimensionMismatchException {
+		double[] flows = network.getFlows();
+		for (int d=0;d<models.length;d++) {
+			for (int k=0;k<active[d].length;k++) {
+				xs[d][active[d][k]] = y[offset[d]+k];
+			}
+			xs[d][35] = flows[index[d]];
+			Digester.effluent(xs[d], effBuffers[index[d]]);
+			// S_h2 is algebraic in the DAE system, take it from the last solution
+			if (dae && evaluated[d]) {
+				effBuffers[index[d]][7] = models[d].getDimensions()[7];
+			}
+		}
+		Arrays.fill(comp, null);
+		for (int d=0;d<models.length;d++) {
+			models[d].setInfluent(network.inlet(index[d], eff, comp, compBuffers, visiting, mix));
+			models[d].computeAll(t, xs[d], dxs[d]);
+			evaluated[d] = true;
+			for (int k=0;k<active[d].length;k++) {
+				dy[offset[d]+k] = dxs[d][active[d][k]];
+			}
+		}
+	}
+}
@@ -0,0 +1,442 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.linear.SingularMatrixException;
+import org.apache.commons.math3.ode.FirstOrderIntegrator;
+import org.apache.commons.math3.ode.nonstiff.AdamsBashforthIntegrator;
+import org.apache.commons.math3.ode.sampling.StepHandler;
+import org.apache.commons.math3.ode.sampling.StepInterpolator;
+
+import de.uni_erlangen.lstm.modelaccess.Model;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+import de.uni_erlangen.lstm.solver.SolverStatistics;
+import de.uni_erlangen.lstm.solver.SwitchingIntegrator;
+
+/**
+ * Plant wide simulation of several digesters connected in series, parallel or with recycle loops.
+ * 
+ * Two solution strategies are available:
+ * - Co-simulation (default): every digester is advanced by its own integrator over one sync interval,
+ *   independent digesters run on separate threads and exchange effluents at the sync points.
+ * - Coupled: all digesters are stacked into one system of equations and solved by a single integrator.
+ * 
+ * Flows are set by the sources and split fractions and are solved from the steady flow balance 
+ * at the start of each simulation (or each sync interval in co-simulation).
+ * 
+ * @author liampetti
+ *
+ */
+public class PlantNetwork implements Runnable {
+	public final static Logger LOGGER = Logger.getLogger(PlantNetwork.class.getName());
+	
+	private List<Unit> units;
+	private List<Connection> connections;
+	private double[] flows; // Total inflow of each unit
+	private double start;
+	private double end;
+	private double sync; // Co-simulation exchange interval (in days)
+	private int threads;
+	private boolean dae;
+	private boolean coupled;
+	private int solver; // Model.ADAMS, AUTO or BDF
+	private volatile double progress;
+	private volatile boolean finished;
+	
+	public PlantNetwork() {
+		units = new ArrayList<Unit>();
+		connections = new ArrayList<Connection>();
+		sync = 0.01041666667; // 15 minutes in days
+		threads = Runtime.getRuntime().availableProcessors();
+		dae = true;
+		coupled = false;
+		solver = Model.ADAMS;
+	}
+	
+	/**
+	 * Adds a unit to the network
+	 * 
+	 * @return The added unit (for chaining)
+	 */
+	public <T extends Unit> T add(T unit) {
+		if (units.contains(unit)) {
+			throw new IllegalArgumentException("Unit already in network: " + unit.getName());
+		}
+		units.add(unit);
+		return unit;
+	}
+	
+	public void connect(Unit from, Unit to) {
+		connect(from, 0, to);
+	}
+	
+	/**
+	 * Connect the given outlet of one unit to the inlet of another unit
+	 * 
+	 * @param from		Upstream unit
+	 * @param outlet	Outlet number of the upstream unit
+	 * @param to		Downstream unit
+	 */
+	public void connect(Unit from, int outlet, Unit to) {
+		if (!units.contains(from) || !units.contains(to)) {
+			throw new IllegalArgumentException("Units must be added to the network before connecting them");
+		}
+		if (to instanceof Source) {
+			throw new IllegalArgumentException("Sources can not receive streams: " + to.getName());
+		}
+		if (outlet < 0 || outlet >= from.getOutlets()) {
+			throw new IllegalArgumentException("Unit " + from.getName() + " has no outlet " + outlet);
+		}
+		for (Connection c : connections) {
+			if (c.getFrom() == from && c.getOutlet() == outlet) {
+				throw new IllegalArgumentException("Outlet " + outlet + " of " + from.getName() + " is already connected");
+			}
+		}
+		connections.add(new Connection(from, outlet, to));
+	}
+	
+	public List<Unit> getUnits() {
+		return units;
+	}
+	
+	public List<Connection> getConnections() {
+		return connections;
+	}
+	
+	public List<Digester> getDigesters() {
+		List<Digester> digesters = new ArrayList<Digester>();
+		for (Unit u : units) {
+			if (u instanceof Digester) {
+				digesters.add((Digester) u);
+			}
+		}
+		return digesters;
+	}
+	
+	public void setTime(double start, double end) {
+		this.start = start;
+		this.end = end;
+		this.progress = start;
+	}
+	
+	public void setDAE(boolean dae) {
+		this.dae = dae;
+	}
+	
+	/**
+	 * Solve all digesters as one coupled system instead of co-simulation
+	 */
+	public void setCoupled(boolean coupled) {
+		this.coupled = coupled;
+	}
+	
+	/**
+	 * Integrator of the digesters (co-simulation) or of the coupled system, as Model.setIntegrator: 
+	 * Model.ADAMS (default), Model.AUTO or Model.BDF. The coupled system of a network with short 
+	 * retention times is stiff and needs AUTO or BDF.
+	 */
+	public void setIntegrator(int solver) {
+		if (solver != Model.ADAMS && solver != Model.AUTO && solver != Model.BDF) {
+			throw new IllegalArgumentException("Networks support the adams, auto and bdf integrators: " + solver);
+		}
+		this.solver = solver;
+	}
+	
+	public int getIntegrator() {
+		return solver;
+	}
+	
+	/**
+	 * A new integrator of the selected kind, the implicit ones keep their step size and Jacobian between runs
+	 */
+	FirstOrderIntegrator integrator() {
+		if (solver == Model.ADAMS) {
+			return new AdamsBashforthIntegrator(2, 1.0e-14, 100.0, 1.0e-10, 1.0e-10);
+		}
+		SwitchingIntegrator switching = new SwitchingIntegrator(1.0e-14, 100.0, 1.0e-10, 1.0e-10);
+		switching.setMethod(solver == Model.BDF ? SolverStatistics.STIFF : SwitchingIntegrator.AUTO);
+		return switching;
+	}
+	
+	public void setSyncInterval(double sync) {
+		this.sync = sync;
+	}
+	
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	public double getProgress() {
+		return progress;
+	}
+	
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	/**
+	 * Total inflow of the given unit (m3/d) from the last flow balance
+	 */
+	public double getFlow(Unit unit) {
+		if (flows == null) {
+			solveFlows();
+		}
+		return flows[units.indexOf(unit)];
+	}
+	
+	/**
+	 * Current stream leaving the given outlet of a unit, e.g. the plant effluent
+	 */
+	public double[] getStream(Unit unit, int outlet) {
+		solveFlows();
+		double[][] comp = new double[units.size()][];
+		double[] s = composition(units.indexOf(unit), effluents(), comp, new boolean[units.size()]).clone();
+		s[35] = flows[units.indexOf(unit)]*unit.getFraction(outlet);
+		return s;
+	}
+	
+	/**
+	 * Current mixed inlet stream of a unit
+	 */
+	public double[] getInlet(Unit unit) {
+		solveFlows();
+		return inlet(units.indexOf(unit), effluents(), new double[units.size()][], new boolean[units.size()]);
+	}
+	
+	/**
+	 * Solves the steady flow balance Q_to = sum(fraction*Q_from) for all units
+	 */
+	void solveFlows() {
+		int n = units.size();
+		RealMatrix a = new Array2DRowRealMatrix(n, n);
+		RealVector b = new ArrayRealVector(n);
+		for (int i=0;i<n;i++) {
+			a.setEntry(i, i, 1.0);
+			if (units.get(i) instanceof Source) {
+				b.setEntry(i, ((Source) units.get(i)).getFlow());
+			}
+		}
+		for (Connection c : connections) {
+			int from = units.indexOf(c.getFrom());
+			int to = units.indexOf(c.getTo());
+			a.addToEntry(to, from, -c.getFrom().getFraction(c.getOutlet()));
+		}
+		try {
+			flows = new LUDecomposition(a).getSolver().solve(b).toArray();
+		} catch (SingularMatrixException e) {
+			throw new IllegalStateException("Network contains a closed recycle loop without outflow");
+		}
+	}
+	
+	/**
+	 * Effluent of each digester from its current state
+	 */
+	private double[][] effluents() {
+		double[][] eff = new double[units.size()][];
+		for (int i=0;i<units.size();i++) {
+			if (units.get(i) instanceof Digester) {
+				eff[i] = Digester.effluent(((Digester) units.get(i)).getX());
+			}
+		}
+		return eff;
+	}
+	
+	/**
+	 * Flow weighted mixture of all streams entering a unit
+	 * 
+	 * @param i			Unit index
+	 * @param eff		Effluent of each digester (by unit index)
+	 * @param comp		Composition cache for mixers and splitters
+	 * @param visiting	Guard against recycle loops without a digester
+	 */
+	double[] inlet(int i, double[][] eff, double[][] comp, boolean[] visiting) {
+		return inlet(i, eff, comp, new double[units.size()][], visiting, new double[StateVariables.SIZE]);
+	}
+	
+	/**
+	 * Flow weighted mixture written to a given array, without allocating when the buffers are reused
+	 * 
+	 * @param comp		Composition cache for mixers and splitters, null entries are computed
+	 * @param buffers	Arrays the compositions of mixers and splitters are written to, allocated where null
+	 * @param mix		The mixture (overwritten)
+	 */
+	double[] inlet(int i, double[][] eff, double[][] comp, double[][] buffers, boolean[] visiting, double[] mix) {
+		Arrays.fill(mix, 0.0);
+		double q = 0.0;
+		for (Connection c : connections) {
+			if (c.getTo() != units.get(i)) {
+				continue;
+			}
+			int from = units.indexOf(c.getFrom());
+			double qf = flows[from]*c.getFrom().getFraction(c.getOutlet());
+			double[] cf = composition(from, eff, comp, buffers, visiting);
+			for (int k=0;k<mix.length && k<cf.length;k++) {
+				mix[k] += qf*cf[k];
+			}
+			q += qf;
+		}
+		if (q > 0) {
+			for (int k=0;k<mix.length;k++) {
+				mix[k] = mix[k]/q;
+			}
+		}
+		mix[35] = flows[i];
+		return mix;
+	}
+	
+	/**
+	 * Composition leaving a unit
+	 */
+	double[] composition(int i, double[][] eff, double[][] comp, boolean[] visiting) {
+		return composition(i, eff, comp, new double[units.size()][], visiting);
+	}
+	
+	private double[] composition(int i, double[][] eff, double[][] comp, double[][] buffers, boolean[] visiting) {
+		Unit unit = units.get(i);
+		if (unit instanceof Source) {
+			return ((Source) unit).getInfluent();
+		} else if (unit instanceof Digester) {
+			return eff[i];
+		}
+		if (comp[i] == null) {
+			if (visiting[i]) {
+				throw new IllegalStateException("Recycle loop without a digester at " + unit.getName());
+			}
+			visiting[i] = true;
+			if (buffers[i] == null) {
+				buffers[i] = new double[StateVariables.SIZE];
+			}
+			comp[i] = inlet(i, eff, comp, buffers, visiting, buffers[i]);
+			visiting[i] = false;
+		}
+		return comp[i];
+	}
+	
+	int indexOf(Unit unit) {
+		return units.indexOf(unit);
+	}
+	
+	double[] getFlows() {
+		return flows;
+	}
+	
+	/**
+	 * Run the network using the set time frame
+	 */
+	public void simulate() {
+		finished = false;
+		if (coupled) {
+			simulateCoupled();
+		} else {
+			coSimulate();
+		}
+		finished = true;
+	}
+	
+	/**
+	 * Each digester is advanced over one sync interval by its own model, 
+	 * inlet streams are updated from the upstream effluents at every sync point
+	 */
+	private void coSimulate() {
+		List<Digester> digesters = getDigesters();
+		DigesterRunner[] runners = new DigesterRunner[digesters.size()];
+		solveFlows();
+		for (int d=0;d<runners.length;d++) {
+			runners[d] = new DigesterRunner(digesters.get(d), getInlet(digesters.get(d)), dae, integrator());
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, runners.length)));
+		try {
+			double t = start;
+			while (t < end) {
+				double next = Math.min(t+sync, end);
+				solveFlows();
+				double[][] eff = effluents();
+				double[][] comp = new double[units.size()][];
+				List<Future<?>> tasks = new ArrayList<Future<?>>();
+				for (int d=0;d<runners.length;d++) {
+					runners[d].setInterval(t, next, inlet(indexOf(digesters.get(d)), eff, comp, new boolean[units.size()]));
+					tasks.add(pool.submit(runners[d]));
+				}
+				for (Future<?> task : tasks) {
+					task.get();
+				}
+				t = next;
+				progress = t;
+			}
+		} catch (InterruptedException e) {
+			LOGGER.severe(e.toString());
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Digester simulation failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * All digesters are solved together as one system of equations
+	 */
+	private void simulateCoupled() {
+		solveFlows();
+		final NetworkDAE ode = new NetworkDAE(this, getDigesters(), dae);
+		FirstOrderIntegrator integrator = integrator();
+		
+		// Records progress
+		integrator.addStepHandler(new StepHandler() {
+		    public void init(double t0, double[] y0, double t) {
+		    }
+		            
+		    public void handleStep(StepInterpolator interpolator, boolean isLast) {
+		    	progress = interpolator.getCurrentTime();		        
+		    }
+		});
+		
+		double[] y = ode.getState();
+		integrator.integrate(ode, start, y, end, y);
+		ode.setState(end, y);
+	}
+	
+	/**
+	 * Allows the network to run on a separate thread
+	 * 
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		simulate();
+	}
+}
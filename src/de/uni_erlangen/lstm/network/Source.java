@@ -0,0 +1,51 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.network;
+
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * Plant influent, the flow rate of the network is set by its sources (Q_D)
+ * 
+ * @author liampetti
+ *
+ */
+public class Source extends Unit {
+	private double[] u;
+	
+	public Source(String name, StateVariables influent) {
+		super(name);
+		setInfluent(influent);
+	}
+	
+	public void setInfluent(StateVariables influent) {
+		u = influent.getVar();
+	}
+	
+	public double[] getInfluent() {
+		return u;
+	}
+	
+	public double getFlow() {
+		return u[35];
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.network;
+
+/**
+ * Divides one stream into several streams of identical composition
+ * 
+ * @author liampetti
+ *
+ */
+public class Splitter extends Unit {
+	private double[] fractions;
+	
+	/**
+	 * @param name			Unit name
+	 * @param fractions		Flow fraction for each outlet, must sum to one
+	 */
+	public Splitter(String name, double... fractions) {
+		super(name);
+		setFractions(fractions);
+	}
+	
+	public void setFractions(double... fractions) {
+		double sum = 0.0;
+		for (double f : fractions) {
+			if (f < 0) {
+				throw new IllegalArgumentException("Negative split fraction for " + getName());
+			}
+			sum += f;
+		}
+		if (Math.abs(sum-1.0) > 1.0e-9) {
+			throw new IllegalArgumentException("Split fractions of " + getName() + " do not sum to one: " + sum);
+		}
+		this.fractions = fractions.clone();
+	}
+	
+	@Override
+	public int getOutlets() {
+		return fractions.length;
+	}
+	
+	@Override
+	public double getFraction(int outlet) {
+		return fractions[outlet];
+	}
+}
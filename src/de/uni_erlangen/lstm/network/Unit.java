@@ -0,0 +1,63 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.network;
+
+/**
+ * A single process unit of a plant network (source, digester, mixer or splitter)
+ * Every unit mixes all of its inlet streams (flow weighted) and passes the result 
+ * on through one or more outlets.
+ * 
+ * @author liampetti
+ *
+ */
+public abstract class Unit {
+	private String name;
+	
+	public Unit(String name) {
+		this.name = name;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * Number of outlets of this unit
+	 */
+	public int getOutlets() {
+		return 1;
+	}
+	
+	/**
+	 * Fraction of the unit flow leaving through the given outlet
+	 * 
+	 * @param outlet	Outlet number
+	 */
+	public double getFraction(int outlet) {
+		return 1.0;
+	}
+	
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,412 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.solver;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.ode.AbstractIntegrator;
+import org.apache.commons.math3.ode.ExpandableStatefulODE;
+
+/**
+ * Common part of the integrators with variable step BDF2 (BDF1 after a restart): modified Newton iteration
+ * for the implicit states with a finite difference Jacobian (coloured if possible), sparse or dense LU decomposition 
+ * of the iteration matrix, weighted norms and the first step after a start or a discontinuity.
+ * The implicit states are a subset of the states, null for all states. A run with more than one Jacobian thread 
+ * holds one executor for all its Jacobians and shuts it down at its end.
+ * 
+ * @author liampetti
+ *
+ */
+abstract class BDFIntegrator extends AbstractIntegrator {
+	static final double SAFETY = 0.9;
+	static final int NEWTON_ITERATIONS = 4;
+	
+	final double minStep;
+	final double maxStep;
+	private final double scalAbs, scalRel;
+	private final double[] vecAbs, vecRel;
+	private final int[] states; // Indices of the implicit states, null for all states
+	SolverStatistics stats;
+	IntegratorState state;
+	
+	// Current step start, previous step start and their derivatives
+	double[] y, f, yPrev, yNew, fNew;
+	// Work arrays
+	double[] c, pred, err, g, yJac, gJac, delta;
+	double[][] jac; // d f[states[a]] / d y[states[b]]
+	SparseJacobian sparse; // Coloured Jacobian, null for equations with secondary equations
+	private int threads;
+	private ExecutorService executor; // Jacobian threads of the current run, null for one thread
+	boolean jacCurrent; // Jacobian evaluated at the current step start
+	private DecompositionSolver lu; // Dense decomposition, null if the sparse one is used
+	boolean factored;
+	private double luGammaH;
+	int order; // BDF order of the next step
+	double hPrev;
+	
+	/**
+	 * @param vecAbs	Absolute tolerance of each state, null for the scalar tolerances
+	 * @param vecRel	Relative tolerance of each state, null for the scalar tolerances
+	 * @param states	Indices of the implicit states, null for all states
+	 */
+	BDFIntegrator(String name, double minStep, double maxStep, double scalAbs, double scalRel, 
+			double[] vecAbs, double[] vecRel, int[] states) {
+		super(name);
+		this.minStep = minStep;
+		this.maxStep = maxStep;
+		this.scalAbs = scalAbs;
+		this.scalRel = scalRel;
+		this.vecAbs = vecAbs;
+		this.vecRel = vecRel;
+		this.states = states;
+		threads = 1;
+		stats = new SolverStatistics();
+		state = new IntegratorState();
+	}
+	
+	/**
+	 * Threads evaluating the colours of the Jacobian, 1 by default
+	 */
+	public void setJacobianThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+	}
+	
+	public SolverStatistics getStatistics() {
+		return stats;
+	}
+	
+	@Override
+	public void integrate(ExpandableStatefulODE equations, double t) {
+		try {
+			advance(equations, t);
+		} finally {
+			release();
+		}
+	}
+	
+	/**
+	 * Integration of the run from the state of the equations to t
+	 */
+	abstract void advance(ExpandableStatefulODE equations, double t);
+	
+	/**
+	 * State carried from run to run (regime, step size, Jacobian, pattern), a new state by default
+	 */
+	public void setState(IntegratorState state) {
+		this.state = state;
+	}
+	
+	public IntegratorState getState() {
+		return state;
+	}
+	
+	/**
+	 * The Jacobian of the last run is reused if it has the size of the implicit subsystem, 
+	 * equations without secondary equations get a coloured Jacobian
+	 */
+	void prepareJacobian(ExpandableStatefulODE equations) {
+		int m = delta.length;
+		jac = state.jacobian != null && state.jacobian.length == m ? state.jacobian : null;
+		sparse = null;
+		if (equations.getSecondaryMappers().length == 0) {
+			int[] subset = states;
+			if (subset == null) {
+				subset = new int[m];
+				for (int i=0;i<m;i++) {
+					subset[i] = i;
+				}
+			}
+			if (state.sparse == null || !state.sparse.matches(subset, subset)) {
+				state.sparse = new SparseJacobian(subset, subset);
+			}
+			sparse = state.sparse;
+			sparse.setThreads(threads);
+			if (threads > 1) {
+				executor = Executors.newFixedThreadPool(threads-1);
+				sparse.setExecutor(executor);
+			}
+		}
+		jacCurrent = false;
+		factored = false;
+	}
+	
+	/**
+	 * Implicit states of yNew = c + gh*f(t0+h, yNew), a failed iteration is repeated with a new Jacobian 
+	 * (and a new pattern of the coloured Jacobian)
+	 * 
+	 * @return False if the iteration fails with a current Jacobian, the step has to be reduced
+	 */
+	boolean corrector(double t0, double h, double gh) {
+		if (jac == null) {
+			jacobian(t0);
+		}
+		boolean detected = false;
+		while (!newton(t0 + h, gh)) {
+			if (jacCurrent) {
+				// The coloured Jacobian may lack entries that vanished where the pattern was detected
+				if (sparse == null || detected || !sparse.redetect()) {
+					return false;
+				}
+				detected = true;
+			}
+			jacobian(t0);
+		}
+		return true;
+	}
+	
+	/**
+	 * Modified Newton iteration for the implicit states, starting from the predictor, the other states are fixed
+	 */
+	private boolean newton(double t, double gh) {
+		int m = delta.length;
+		if (!factored || Math.abs(gh/luGammaH - 1.0) > 0.3) {
+			// The iteration matrix is kept while gamma*h changes by less than 30%
+			factored = factor(gh);
+			luGammaH = gh;
+			stats.factorizations++;
+			if (!factored) {
+				return false;
+			}
+		}
+		for (int a=0;a<m;a++) {
+			int i = state(a);
+			yNew[i] = pred[i];
+		}
+		double previous = 0.0;
+		for (int it=0;it<NEWTON_ITERATIONS;it++) {
+			evaluate(t, yNew, g);
+			for (int a=0;a<m;a++) {
+				int i = state(a);
+				delta[a] = c[i] + gh*g[i] - yNew[i];
+			}
+			solve(delta);
+			double sum = 0.0;
+			for (int a=0;a<m;a++) {
+				int i = state(a);
+				yNew[i] += delta[a];
+				double r = delta[a]/tolerance(i, Math.abs(yNew[i]));
+				sum += r*r;
+			}
+			double norm = Math.sqrt(sum/m);
+			if (Double.isNaN(norm)) {
+				return false;
+			}
+			if (norm <= 0.01) {
+				return true;
+			}
+			if (it > 0) {
+				double rate = norm/previous;
+				if (rate >= 0.9) {
+					return false;
+				}
+				if (rate/(1.0-rate)*norm <= 0.05) {
+					return true;
+				}
+			}
+			previous = norm;
+		}
+		return false;
+	}
+	
+	/**
+	 * LU decomposition of I - gh*J, sparse with the pattern of the coloured Jacobian (symbolic analysis once per pattern),
+	 * dense without a pattern or if a sparse pivot is too small
+	 */
+	private boolean factor(double gh) {
+		if (sparse != null && sparse.isDetected()) {
+			if (state.lu == null || !state.lu.matches(sparse.getPattern())) {
+				state.lu = new SparseLU(sparse.getPattern());
+			}
+			if (state.lu.factor(jac, gh)) {
+				lu = null;
+				return true;
+			}
+		}
+		int m = jac.length;
+		Array2DRowRealMatrix mat = new Array2DRowRealMatrix(m, m);
+		for (int a=0;a<m;a++) {
+			for (int b=0;b<m;b++) {
+				mat.setEntry(a, b, (a == b ? 1.0 : 0.0) - gh*jac[a][b]);
+			}
+		}
+		lu = new LUDecomposition(mat).getSolver();
+		return lu.isNonSingular();
+	}
+	
+	/**
+	 * Solves with the last decomposition in place
+	 */
+	private void solve(double[] b) {
+		if (lu == null) {
+			state.lu.solve(b);
+			return;
+		}
+		RealVector d = lu.solve(new ArrayRealVector(b, false));
+		for (int i=0;i<b.length;i++) {
+			b[i] = d.getEntry(i);
+		}
+	}
+	
+	/**
+	 * Forward difference Jacobian of the implicit states at the current step start, coloured if possible
+	 */
+	void jacobian(double t0) {
+		int m = delta.length;
+		if (jac == null) {
+			jac = new double[m][m];
+		}
+		if (sparse != null) {
+			counted(sparse.compute(getExpandable().getPrimary(), t0, y, jac));
+		} else {
+			evaluate(t0, y, g);
+			System.arraycopy(y, 0, yJac, 0, y.length);
+			for (int b=0;b<m;b++) {
+				int k = state(b);
+				double d = 1.5e-8*Math.max(Math.abs(y[k]), 1.0e-6);
+				yJac[k] = y[k] + d;
+				evaluate(t0, yJac, gJac);
+				for (int a=0;a<m;a++) {
+					jac[a][b] = (gJac[state(a)]-g[state(a)])/d;
+				}
+				yJac[k] = y[k];
+			}
+		}
+		jacCurrent = true;
+		factored = false;
+		stats.jacobians++;
+	}
+	
+	/**
+	 * Keeps the step size and Jacobian of the run in the state and the pattern sizes in the statistics
+	 */
+	void finish(int regime, double step) {
+		state.regime = regime;
+		state.step = step;
+		state.jacobian = jac;
+		if (sparse != null && sparse.isDetected()) {
+			stats.colours = sparse.getColours();
+		}
+		if (state.lu != null) {
+			stats.nonZeros = state.lu.getNonZeros();
+		}
+	}
+	
+	/**
+	 * Shuts the Jacobian threads of the run down, also after a failed run
+	 */
+	private void release() {
+		if (sparse != null) {
+			sparse.release();
+		}
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+	
+	/**
+	 * First step after a discontinuity: local error of the first order step (h^2/2 times the second derivative) 
+	 * at the tolerance, the second derivative by a forward difference over a small fraction of the step h
+	 */
+	double restartStep(double t0, double t, double h) {
+		int n = y.length;
+		double probe = 0.01*Math.min(h, t-t0);
+		for (int i=0;i<n;i++) {
+			yNew[i] = y[i] + probe*f[i];
+		}
+		evaluate(t0 + probe, yNew, fNew);
+		for (int i=0;i<n;i++) {
+			fNew[i] = (fNew[i]-f[i])/probe;
+		}
+		double d2 = norm(fNew, y, y);
+		return d2 > 0.0 ? Math.max(Math.sqrt(2.0/d2), minStep) : h;
+	}
+	
+	double initialStep(double t0, double t) {
+		double d0 = norm(y, y, y);
+		double d1 = norm(f, y, y);
+		double h = d0 < 1.0e-5 || d1 < 1.0e-5 ? 1.0e-6 : 0.01*d0/d1;
+		return Math.min(Math.max(h, minStep), t-t0);
+	}
+	
+	/**
+	 * Weighted root mean square norm, each value scaled by the tolerance of its state
+	 */
+	double norm(double[] v, double[] ya, double[] yb) {
+		double sum = 0.0;
+		for (int i=0;i<v.length;i++) {
+			double r = v[i]/tolerance(i, Math.max(Math.abs(ya[i]), Math.abs(yb[i])));
+			sum += r*r;
+		}
+		return Math.sqrt(sum/v.length);
+	}
+	
+	double tolerance(int i, double magnitude) {
+		return vecAbs == null ? scalAbs + scalRel*magnitude : vecAbs[i] + vecRel[i]*magnitude;
+	}
+	
+	void evaluate(double t, double[] x, double[] dx) {
+		computeDerivatives(t, x, dx);
+		counted(1);
+	}
+	
+	/**
+	 * Adds right hand side evaluations to the statistics
+	 */
+	void counted(int evaluations) {
+		stats.evaluations += evaluations;
+	}
+	
+	/**
+	 * Arrays of the common part for n states
+	 */
+	void allocate(int n) {
+		if (vecAbs != null && vecAbs.length != n) {
+			throw new IllegalArgumentException("Tolerances for " + vecAbs.length + " states, the model has " + n);
+		}
+		y = new double[n];
+		f = new double[n];
+		yPrev = new double[n];
+		yNew = new double[n];
+		fNew = new double[n];
+		c = new double[n];
+		pred = new double[n];
+		err = new double[n];
+		g = new double[n];
+		yJac = new double[n];
+		gJac = new double[n];
+		delta = new double[states != null ? states.length : n];
+	}
+	
+	private int state(int a) {
+		return states != null ? states[a] : a;
+	}
+}
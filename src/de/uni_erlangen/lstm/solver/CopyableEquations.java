@@ -0,0 +1,45 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.solver;
+
+import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
+
+/**
+ * Equations that keep state between evaluations (e.g. start values of algebraic solutions) and can be copied,
+ * so that evaluations run in parallel on one copy per thread
+ * 
+ * @author liampetti
+ *
+ */
+public interface CopyableEquations extends FirstOrderDifferentialEquations {
+	
+	/**
+	 * Independent equations with the same settings and the current state
+	 */
+	public CopyableEquations copy();
+	
+	/**
+	 * Sets the state kept between evaluations to that of the given equations (of which this is a copy), 
+	 * so that a copy can be used for many evaluations
+	 */
+	public void reset(CopyableEquations source);
+}
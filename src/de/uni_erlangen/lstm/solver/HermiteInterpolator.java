@@ -0,0 +1,118 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.solver;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import org.apache.commons.math3.ode.EquationsMapper;
+import org.apache.commons.math3.ode.sampling.AbstractStepInterpolator;
+import org.apache.commons.math3.ode.sampling.StepInterpolator;
+
+/**
+ * Cubic Hermite interpolation between the states and derivatives at both ends of a step,
+ * used by step handlers and event detection of the integrators in this package
+ * 
+ * @author liampetti
+ *
+ */
+class HermiteInterpolator extends AbstractStepInterpolator {
+	private static final long serialVersionUID = 20260301L;
+	private double[] y0, f0, y1, f1;
+	
+	public HermiteInterpolator() {
+		super();
+	}
+	
+	HermiteInterpolator(HermiteInterpolator interpolator) {
+		super(interpolator);
+		if (interpolator.y0 != null) {
+			y0 = interpolator.y0.clone();
+			f0 = interpolator.f0.clone();
+			y1 = interpolator.y1.clone();
+			f1 = interpolator.f1.clone();
+		}
+	}
+	
+	void init(double[] y, EquationsMapper primary, EquationsMapper[] secondary) {
+		reinitialize(y, true, primary, secondary);
+		y0 = new double[y.length];
+		f0 = new double[y.length];
+		y1 = new double[y.length];
+		f1 = new double[y.length];
+	}
+	
+	/**
+	 * States and derivatives at the start and end of the step
+	 */
+	void store(double[] ya, double[] fa, double[] yb, double[] fb) {
+		System.arraycopy(ya, 0, y0, 0, y0.length);
+		System.arraycopy(fa, 0, f0, 0, f0.length);
+		System.arraycopy(yb, 0, y1, 0, y1.length);
+		System.arraycopy(fb, 0, f1, 0, f1.length);
+	}
+	
+	@Override
+	protected StepInterpolator doCopy() {
+		return new HermiteInterpolator(this);
+	}
+	
+	@Override
+	protected void computeInterpolatedStateAndDerivatives(double theta, double oneMinusThetaH) {
+		double t = theta;
+		double h00 = (1.0+2.0*t)*(1.0-t)*(1.0-t);
+		double h10 = t*(1.0-t)*(1.0-t);
+		double h01 = t*t*(3.0-2.0*t);
+		double h11 = t*t*(t-1.0);
+		double d00 = 6.0*t*t-6.0*t;
+		double d10 = 3.0*t*t-4.0*t+1.0;
+		double d11 = 3.0*t*t-2.0*t;
+		for (int i=0;i<y0.length;i++) {
+			interpolatedState[i] = h00*y0[i] + h10*h*f0[i] + h01*y1[i] + h11*h*f1[i];
+			if (h != 0.0) {
+				interpolatedDerivatives[i] = d00*(y0[i]-y1[i])/h + d10*f0[i] + d11*f1[i];
+			} else {
+				interpolatedDerivatives[i] = f1[i];
+			}
+		}
+	}
+	
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		writeBaseExternal(out);
+		out.writeObject(y0);
+		out.writeObject(f0);
+		out.writeObject(y1);
+		out.writeObject(f1);
+	}
+	
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		double t = readBaseExternal(in);
+		y0 = (double[]) in.readObject();
+		f0 = (double[]) in.readObject();
+		y1 = (double[]) in.readObject();
+		f1 = (double[]) in.readObject();
+		setInterpolatedTime(t);
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.solver;
+
+import java.util.logging.Logger;
+
+import org.apache.commons.math3.ode.ExpandableStatefulODE;
+
+/**
+ * Implicit-explicit integrator for systems with a small fast subsystem: variable step BDF2 (BDF1 after a restart)
+ * for the fast states and the same formula with the derivative extrapolated from the last two steps for the 
+ * slow states (semi-implicit BDF2). The slow states are computed first, the fast states follow from a modified Newton 
+ * iteration with the Jacobian of the fast subsystem only (fast derivatives by fast states, one evaluation per fast state). 
+ * The step size is limited by the accuracy and by the stability of the slow states, not by the fast ones.
+ * 
+ * The error is estimated from the difference to the predictor, for the slow states with the implicit formula 
+ * evaluated with their derivative at the end of the step. Events and step handlers work as for the commons-math 
+ * integrators, the dense output is a cubic Hermite interpolation.
+ * 
+ * @author liampetti
+ *
+ */
+public class ImexIntegrator extends BDFIntegrator {
+	public final static Logger LOGGER = Logger.getLogger(ImexIntegrator.class.getName());
+	
+	private final boolean[] implicit;
+	private double[] fPrev; // Derivative at the previous step start
+	
+	/**
+	 * @param minStep	Smallest step (the run fails below)
+	 * @param maxStep	Largest step
+	 * @param absTol	Absolute tolerance of each state
+	 * @param relTol	Relative tolerance of each state
+	 * @param fast		Indices of the states integrated implicitly
+	 */
+	public ImexIntegrator(double minStep, double maxStep, double[] absTol, double[] relTol, int[] fast) {
+		super("IMEX BDF2", minStep, maxStep, 0.0, 0.0, absTol.clone(), relTol.clone(), fast.clone());
+		implicit = new boolean[absTol.length];
+		for (int i : fast) {
+			if (i < 0 || i >= absTol.length) {
+				throw new IllegalArgumentException("Fast state " + i + " out of range");
+			}
+			implicit[i] = true;
+		}
+	}
+	
+	/**
+	 * Statistics to add to
+	 */
+	public void setStatistics(SolverStatistics stats) {
+		this.stats = stats;
+	}
+	
+	@Override
+	void advance(ExpandableStatefulODE equations, double t) {
+		sanityChecks(equations, t);
+		setEquations(equations);
+		double t0 = equations.getTime();
+		if (t < t0) {
+			throw new IllegalArgumentException("Only forward integration is supported");
+		}
+		int n = equations.getTotalDimension();
+		allocate(n);
+		fPrev = new double[n];
+		System.arraycopy(equations.getCompleteState(), 0, y, 0, n);
+		stepStart = t0;
+		evaluate(t0, y, f);
+		
+		HermiteInterpolator interpolator = new HermiteInterpolator();
+		interpolator.init(new double[n], equations.getPrimaryMapper(), equations.getSecondaryMappers());
+		interpolator.storeTime(t0);
+		initIntegration(t0, y, t);
+		
+		double h = state.step > 0.0 ? state.step : initialStep(t0, t);
+		if (state.discontinuity && state.step > 0.0) {
+			// The step of the last run is too long after a jump of the inputs
+			h = Math.min(h, restartStep(t0, t, h));
+		}
+		state.discontinuity = false;
+		double proposed = h;
+		double wanted = h; // Step before shortening it to the end time, for the next run
+		order = 1;
+		prepareJacobian(equations);
+		isLastStep = false;
+		while (!isLastStep) {
+			interpolator.shift();
+			long begin = System.nanoTime();
+			
+			// Step with error control
+			double e;
+			while (true) {
+				h = Math.min(Math.max(h, minStep), maxStep);
+				wanted = h;
+				if (stepStart + h*(1.0+1.0e-8) >= t) {
+					h = t - stepStart;
+				}
+				e = step(stepStart, h);
+				if (e <= 1.0) {
+					break;
+				}
+				stats.rejected[SolverStatistics.IMEX]++;
+				h = Double.isInfinite(e) || Double.isNaN(e) ? 0.25*h : h*Math.max(0.2, SAFETY*Math.pow(e, -1.0/(order+1)));
+				if (h < minStep) {
+					throw new IllegalStateException("Step size " + h + " below the minimum at t = " + stepStart);
+				}
+			}
+			double hUsed = h;
+			
+			// Accept the step, events and step handlers
+			interpolator.store(y, f, yNew, fNew);
+			interpolator.storeTime(stepStart + hUsed);
+			System.arraycopy(y, 0, yPrev, 0, n);
+			System.arraycopy(f, 0, fPrev, 0, n);
+			System.arraycopy(yNew, 0, y, 0, n);
+			System.arraycopy(fNew, 0, f, 0, n);
+			double previous = stepStart;
+			stats.wall[SolverStatistics.IMEX] += System.nanoTime()-begin;
+			stepStart = acceptStep(interpolator, y, f, t);
+			stats.steps[SolverStatistics.IMEX]++;
+			stats.time[SolverStatistics.IMEX] += stepStart-previous;
+			jacCurrent = false;
+			if (resetOccurred) {
+				// An event changed the state, restart the multistep history
+				resetOccurred = false;
+				order = 1;
+			} else {
+				hPrev = hUsed;
+				order = 2;
+			}
+			proposed = hUsed*Math.min(2.0, Math.max(0.2, e == 0.0 ? 2.0 : SAFETY*Math.pow(e, -1.0/3.0)));
+			h = proposed;
+		}
+		finish(SolverStatistics.IMEX, Math.max(proposed, wanted));
+		equations.setTime(stepStart);
+		equations.setCompleteState(y);
+	}
+	
+	/**
+	 * One IMEX step from the current state, a failed Newton iteration with a fresh Jacobian 
+	 * returns infinity so the step is reduced
+	 * 
+	 * @return Scaled error
+	 */
+	private double step(double t0, double h) {
+		int n = y.length;
+		double a1 = 1.0, a2 = 0.0, gamma = 1.0, w = 0.0;
+		if (order == 2) {
+			w = h/hPrev;
+			a1 = (1.0+w)*(1.0+w)/(1.0+2.0*w);
+			a2 = -w*w/(1.0+2.0*w);
+			gamma = (1.0+w)/(1.0+2.0*w);
+		}
+		for (int i=0;i<n;i++) {
+			c[i] = a1*y[i] + a2*yPrev[i];
+			pred[i] = y[i] + h*f[i];
+			if (order == 2) {
+				pred[i] += h*h*(yPrev[i]-y[i]+f[i]*hPrev)/(hPrev*hPrev);
+			}
+			if (!implicit[i]) {
+				// Derivative extrapolated to the end of the step, the fast states start from the predictor
+				yNew[i] = c[i] + gamma*h*(order == 2 ? (1.0+w)*f[i] - w*fPrev[i] : f[i]);
+			}
+		}
+		if (!corrector(t0, h, gamma*h)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		// Derivatives of the slow states for the extrapolation, the fast states take the derivative of the BDF formula 
+		// (the evaluated derivative amplifies the Newton error by the stiffness)
+		evaluate(t0 + h, yNew, fNew);
+		for (int i=0;i<n;i++) {
+			if (implicit[i]) {
+				fNew[i] = (yNew[i]-c[i])/(gamma*h);
+				err[i] = yNew[i]-pred[i];
+			} else {
+				// The slow states follow the predictor except for the extrapolated derivative (exactly at first order), 
+				// their error is estimated for the implicit formula with the evaluated derivative instead
+				double extrapolated = order == 2 ? (1.0+w)*f[i] - w*fPrev[i] : f[i];
+				err[i] = yNew[i] + gamma*h*(fNew[i]-extrapolated) - pred[i];
+			}
+		}
+		return (order == 2 ? 0.4 : 0.5)*norm(err, y, yNew);
+	}
+}
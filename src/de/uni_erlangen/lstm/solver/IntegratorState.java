@@ -0,0 +1,131 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.solver;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * What the integrators in this package carry from one run of a model to the next: the regime, step size 
+ * and Jacobian of the last run, the pattern and colouring of the Jacobian and the LU analysis of its pattern. 
+ * Dynamic simulations (one run per influent step) thus do not detect the stiffness, the Jacobian pattern or 
+ * evaluate the Jacobian again in every run. The state is owned by the model and changes the numerics of its 
+ * next run, unlike the SolverStatistics.
+ * 
+ * @author liampetti
+ *
+ */
+public class IntegratorState {
+	int regime = -1; // Regime at the end of the last run, -1 before the first run
+	double step; // Step size at the end of the last run
+	double[][] jacobian; // Newton Jacobian of the last run, reused until the iteration fails to converge
+	SparseJacobian sparse; // Pattern and colouring of the Jacobian, detected in the first run
+	SparseLU lu; // Symbolic analysis of the iteration matrix for the pattern of the Jacobian
+	boolean discontinuity; // The inputs jumped since the last run
+	
+	/**
+	 * Independent copy, the next run from the copy starts as the next run from this state would
+	 */
+	public IntegratorState copy() {
+		IntegratorState copy = new IntegratorState();
+		copy.regime = regime;
+		copy.step = step;
+		if (jacobian != null) {
+			copy.jacobian = new double[jacobian.length][];
+			for (int i=0;i<jacobian.length;i++) {
+				copy.jacobian[i] = jacobian[i].clone();
+			}
+		}
+		copy.sparse = sparse == null ? null : sparse.copy();
+		copy.lu = lu == null ? null : lu.copy();
+		copy.discontinuity = discontinuity;
+		return copy;
+	}
+	
+	/**
+	 * Writes the state (regime, step size, Jacobian and its pattern, pending discontinuity), 
+	 * the LU analysis is repeated from the pattern when read
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(regime);
+		out.writeDouble(step);
+		out.writeInt(jacobian == null ? -1 : jacobian.length);
+		if (jacobian != null) {
+			for (double[] row : jacobian) {
+				out.writeInt(row.length);
+				for (double v : row) {
+					out.writeDouble(v);
+				}
+			}
+		}
+		out.writeBoolean(sparse != null);
+		if (sparse != null) {
+			sparse.write(out);
+		}
+		out.writeBoolean(discontinuity);
+	}
+	
+	/**
+	 * Reads a state written by write
+	 */
+	public static IntegratorState read(DataInput in) throws IOException {
+		IntegratorState state = new IntegratorState();
+		state.regime = in.readInt();
+		state.step = in.readDouble();
+		int n = in.readInt();
+		if (n >= 0) {
+			state.jacobian = new double[n][];
+			for (int i=0;i<n;i++) {
+				state.jacobian[i] = new double[in.readInt()];
+				for (int k=0;k<state.jacobian[i].length;k++) {
+					state.jacobian[i][k] = in.readDouble();
+				}
+			}
+		}
+		state.sparse = in.readBoolean() ? SparseJacobian.read(in) : null;
+		state.discontinuity = in.readBoolean();
+		return state;
+	}
+	
+	/**
+	 * The inputs change at the start of the next run (e.g. at an influent breakpoint): the implicit integrators 
+	 * estimate the first step again instead of continuing with the step size of the last run
+	 */
+	public void discontinuity() {
+		discontinuity = true;
+	}
+	
+	/**
+	 * Regime at the end of the last run (SolverStatistics.NONSTIFF, STIFF or IMEX), -1 before the first run
+	 */
+	public int getRegime() {
+		return regime;
+	}
+	
+	/**
+	 * Step size at the end of the last run, 0 before the first run
+	 */
+	public double getStep() {
+		return step;
+	}
+}
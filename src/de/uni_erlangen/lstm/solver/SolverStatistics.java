@@ -0,0 +1,146 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.solver;
+
+/**
+ * Work done by the integrators in this package, accumulated over all runs of a model.
+ * Steps, simulated time and wall clock time are counted separately for the non-stiff (explicit),
+ * the stiff (implicit) and the implicit-explicit regime. The counts only report, what the integrators carry from 
+ * run to run is in the IntegratorState.
+ * 
+ * @author liampetti
+ *
+ */
+public class SolverStatistics {
+	public static final int NONSTIFF = 0;
+	public static final int STIFF = 1;
+	public static final int IMEX = 2;
+	static final String[] REGIMES = {"non-stiff", "stiff", "imex"};
+	
+	long[] steps = new long[3];
+	long[] rejected = new long[3];
+	double[] time = new double[3];
+	long[] wall = new long[3];
+	long evaluations;
+	long jacobians;
+	long factorizations;
+	long switches;
+	int colours; // Evaluations per coloured Jacobian of the last run, 0 without a pattern
+	int nonZeros; // Non zeros of the sparse LU of the last run, 0 without
+	
+	/**
+	 * Copy of the counts
+	 */
+	public SolverStatistics copy() {
+		SolverStatistics copy = new SolverStatistics();
+		copy.steps = steps.clone();
+		copy.rejected = rejected.clone();
+		copy.time = time.clone();
+		copy.wall = wall.clone();
+		copy.evaluations = evaluations;
+		copy.jacobians = jacobians;
+		copy.factorizations = factorizations;
+		copy.switches = switches;
+		copy.colours = colours;
+		copy.nonZeros = nonZeros;
+		return copy;
+	}
+	
+	/**
+	 * Accepted steps in the given regime
+	 */
+	public long getSteps(int regime) {
+		return steps[regime];
+	}
+	
+	public long getRejected(int regime) {
+		return rejected[regime];
+	}
+	
+	/**
+	 * Simulated time (days) in the given regime
+	 */
+	public double getTime(int regime) {
+		return time[regime];
+	}
+	
+	/**
+	 * Wall clock time (ms) in the given regime
+	 */
+	public double getWallTime(int regime) {
+		return wall[regime]/1.0e6;
+	}
+	
+	/**
+	 * Right hand side evaluations, including those for Jacobians
+	 */
+	public long getEvaluations() {
+		return evaluations;
+	}
+	
+	public long getJacobians() {
+		return jacobians;
+	}
+	
+	public long getFactorizations() {
+		return factorizations;
+	}
+	
+	/**
+	 * Number of changes between the regimes
+	 */
+	public long getSwitches() {
+		return switches;
+	}
+	
+	/**
+	 * Evaluations per Jacobian of the coloured finite differences, 0 before the first Jacobian
+	 */
+	public int getColours() {
+		return colours;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int r=0;r<REGIMES.length;r++) {
+			if (steps[r] == 0 && rejected[r] == 0) {
+				continue;
+			}
+			sb.append(REGIMES[r]).append("; steps; ").append(steps[r])
+				.append("; rejected; ").append(rejected[r])
+				.append("; time (d); ").append(String.format("%.4f", time[r]))
+				.append("; wall (ms); ").append(String.format("%.1f", getWallTime(r))).append('\n');
+		}
+		sb.append("evaluations; ").append(evaluations)
+			.append("; jacobians; ").append(jacobians)
+			.append("; factorizations; ").append(factorizations)
+			.append("; switches; ").append(switches);
+		if (colours > 0) {
+			sb.append("; jacobian colours; ").append(colours);
+		}
+		if (nonZeros > 0) {
+			sb.append("; lu non zeros; ").append(nonZeros);
+		}
+		return sb.toString();
+	}
+}
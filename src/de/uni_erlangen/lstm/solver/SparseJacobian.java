@@ -0,0 +1,468 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.solver;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
+
+/**
+ * Forward difference Jacobian exploiting the sparsity of the equations. The pattern is detected by perturbing
+ * each column at two states, then the columns are coloured so that columns of one colour share no row 
+ * (greedy colouring, largest columns first). Dependencies can vanish at the detection state (e.g. no uptake at
+ * the initial pH of the ODE model), so the pattern can be detected again at a later state and grows by the new entries.
+ * One evaluation perturbs all columns of a colour at once, 
+ * so a Jacobian costs one evaluation per colour (plus one at the unperturbed state) instead of one per column.
+ * 
+ * Equations with state between evaluations (CopyableEquations, e.g. the start values and the lagged pH of the algebraic 
+ * solutions of the DAE model) are copied once per thread and every evaluation resets its copy to the state of the equations, 
+ * otherwise the differences would contain the changes of the state between the evaluations. With more than one thread and an 
+ * executor the colours are then evaluated in parallel, equations that can not be copied are evaluated on the calling thread.
+ * 
+ * @author liampetti
+ *
+ */
+public class SparseJacobian {
+	public final static Logger LOGGER = Logger.getLogger(SparseJacobian.class.getName());
+	
+	private static final double PROBE = 1.0e-6; // Relative perturbation for the pattern detection
+	
+	private final int[] rows; // Rows of the Jacobian, positions in the state vector
+	private final int[] cols; // Columns of the Jacobian
+	private int[][] pattern; // Non zero rows (indices into rows) of each column
+	private int[][] groups; // Columns of each colour
+	private boolean stale; // Detect again with the next Jacobian
+	private int skip; // Requests to ignore after detections without new entries
+	private int backoff;
+	private int threads;
+	
+	// Held for the run of an integrator, not copied or written
+	private ExecutorService executor; // Threads for the stripes after the first, null to evaluate on the calling thread
+	private FirstOrderDifferentialEquations source; // Equations the copies are of
+	private CopyableEquations[] copies; // One copy of the source per thread
+	
+	/**
+	 * @param rows	Positions in the state vector of the derivatives
+	 * @param cols	Positions in the state vector of the states
+	 */
+	public SparseJacobian(int[] rows, int[] cols) {
+		this.rows = rows.clone();
+		this.cols = cols.clone();
+		threads = 1;
+	}
+	
+	/**
+	 * Full Jacobian of n states
+	 */
+	public SparseJacobian(int n) {
+		this(range(n), range(n));
+	}
+	
+	/**
+	 * Writes the rows, columns, pattern and detection state (see read)
+	 */
+	void write(DataOutput out) throws IOException {
+		ints(out, rows);
+		ints(out, cols);
+		out.writeBoolean(pattern != null);
+		if (pattern != null) {
+			for (int[] column : pattern) {
+				ints(out, column);
+			}
+		}
+		out.writeBoolean(stale);
+		out.writeInt(skip);
+		out.writeInt(backoff);
+	}
+	
+	/**
+	 * Jacobian as written, coloured again from the pattern
+	 */
+	static SparseJacobian read(DataInput in) throws IOException {
+		SparseJacobian jacobian = new SparseJacobian(ints(in), ints(in));
+		if (in.readBoolean()) {
+			jacobian.pattern = new int[jacobian.cols.length][];
+			for (int b=0;b<jacobian.pattern.length;b++) {
+				jacobian.pattern[b] = ints(in);
+			}
+			jacobian.colour();
+		}
+		jacobian.stale = in.readBoolean();
+		jacobian.skip = in.readInt();
+		jacobian.backoff = in.readInt();
+		return jacobian;
+	}
+	
+	private static void ints(DataOutput out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int v : values) {
+			out.writeInt(v);
+		}
+	}
+	
+	private static int[] ints(DataInput in) throws IOException {
+		int[] values = new int[in.readInt()];
+		for (int i=0;i<values.length;i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+	
+	/**
+	 * Copy with the same pattern, colouring and detection state, for use on another thread
+	 */
+	public SparseJacobian copy() {
+		SparseJacobian copy = new SparseJacobian(rows, cols);
+		copy.pattern = pattern;
+		copy.groups = groups;
+		copy.stale = stale;
+		copy.skip = skip;
+		copy.backoff = backoff;
+		copy.threads = threads;
+		return copy;
+	}
+	
+	/**
+	 * Number of threads evaluating the colours, 1 by default
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+		}
+		this.threads = threads;
+	}
+	
+	public int getThreads() {
+		return threads;
+	}
+	
+	/**
+	 * Executor with at least threads-1 threads for the colours, held by the caller (e.g. for the run of an integrator), 
+	 * null to evaluate all colours on the calling thread
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * Drops the executor and the copies of the equations, at the end of a run
+	 */
+	public void release() {
+		executor = null;
+		source = null;
+		copies = null;
+	}
+	
+	/**
+	 * True once the pattern is detected (by the first Jacobian)
+	 */
+	public boolean isDetected() {
+		return pattern != null;
+	}
+	
+	/**
+	 * Evaluations per Jacobian, 0 before the detection
+	 */
+	public int getColours() {
+		return groups == null ? 0 : groups.length;
+	}
+	
+	public int getNonZeros() {
+		int nnz = 0;
+		if (pattern != null) {
+			for (int[] column : pattern) {
+				nnz += column.length;
+			}
+		}
+		return nnz;
+	}
+	
+	/**
+	 * The next Jacobian detects the pattern again and adds the new entries, 
+	 * for a Newton iteration failing with a current Jacobian
+	 * 
+	 * @return False if the request is ignored, after a detection without new entries the next 1, 2, 4, ... requests are
+	 */
+	public boolean redetect() {
+		if (skip > 0) {
+			skip--;
+			return false;
+		}
+		stale = true;
+		return true;
+	}
+	
+	/**
+	 * True for a Jacobian of the given rows and columns
+	 */
+	boolean matches(int[] rows, int[] cols) {
+		return Arrays.equals(this.rows, rows) && Arrays.equals(this.cols, cols);
+	}
+	
+	/**
+	 * Non zero rows (indices into the rows) of each column
+	 */
+	public int[][] getPattern() {
+		return pattern;
+	}
+	
+	/**
+	 * Columns of each colour
+	 */
+	int[][] getColouring() {
+		return groups;
+	}
+	
+	/**
+	 * Forward difference Jacobian jac[a][b] = d f[rows[a]] / d y[cols[b]], entries outside the pattern are zero.
+	 * The first call (and the first after redetect) detects the pattern (two evaluations per column).
+	 * 
+	 * @return Number of evaluations
+	 */
+	public int compute(FirstOrderDifferentialEquations equations, final double t, final double[] y, final double[][] jac) {
+		final FirstOrderDifferentialEquations[] workers = workers(equations);
+		final double[] f0 = new double[y.length];
+		derivatives(workers[0], equations, t, y, f0);
+		int evaluations = 1;
+		if (pattern == null || stale) {
+			evaluations += detect(workers[0], equations, t, y, f0);
+			stale = false;
+		}
+		for (double[] row : jac) {
+			Arrays.fill(row, 0.0);
+		}
+		int n = Math.min(workers.length, groups.length);
+		if (n <= 1) {
+			evaluate(workers[0], equations, t, y, f0, jac, 0, 1);
+			return evaluations + groups.length;
+		}
+		
+		// Colours striped over the threads, the calling thread takes the first stripe
+		final FirstOrderDifferentialEquations origin = equations;
+		try {
+			List<Future<?>> tasks = new ArrayList<Future<?>>();
+			for (int k=1;k<n;k++) {
+				final int stripe = k;
+				final int stripes = n;
+				tasks.add(executor.submit(new Runnable() {
+					public void run() {
+						evaluate(workers[stripe], origin, t, y, f0, jac, stripe, stripes);
+					}
+				}));
+			}
+			evaluate(workers[0], equations, t, y, f0, jac, 0, n);
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Jacobian interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Jacobian evaluation failed", e.getCause());
+		}
+		return evaluations + groups.length;
+	}
+	
+	/**
+	 * Equations evaluated by each thread: the copies of copyable equations (made once for the given equations), 
+	 * otherwise only the equations themselves on the calling thread
+	 */
+	private FirstOrderDifferentialEquations[] workers(FirstOrderDifferentialEquations equations) {
+		if (!(equations instanceof CopyableEquations)) {
+			return new FirstOrderDifferentialEquations[] {equations};
+		}
+		int n = executor == null ? 1 : threads;
+		if (source != equations || copies == null || copies.length != n) {
+			copies = new CopyableEquations[n];
+			for (int k=0;k<n;k++) {
+				copies[k] = ((CopyableEquations) equations).copy();
+			}
+			source = equations;
+		}
+		return copies;
+	}
+	
+	/**
+	 * Colours stripe, stripe+stripes, ... of the Jacobian
+	 */
+	private void evaluate(FirstOrderDifferentialEquations equations, FirstOrderDifferentialEquations origin, 
+			double t, double[] y, double[] f, double[][] jac, int stripe, int stripes) {
+		double[] yp = y.clone();
+		double[] g = new double[f.length];
+		double[] delta = new double[cols.length];
+		for (int c=stripe;c<groups.length;c+=stripes) {
+			for (int b : groups[c]) {
+				int k = cols[b];
+				delta[b] = 1.5e-8*Math.max(Math.abs(y[k]), 1.0e-6);
+				yp[k] = y[k] + delta[b];
+			}
+			derivatives(equations, origin, t, yp, g);
+			for (int b : groups[c]) {
+				for (int a : pattern[b]) {
+					jac[a][b] = (g[rows[a]]-f[rows[a]])/delta[b];
+				}
+				yp[cols[b]] = y[cols[b]];
+			}
+		}
+	}
+	
+	/**
+	 * Pattern of each column from perturbations at y and at a second state with all values increased by 1%
+	 * (a derivative can be zero at one state by chance), diagonal entries and the entries of an earlier detection 
+	 * are always included. Then the colouring.
+	 * 
+	 * @return Number of evaluations
+	 */
+	private int detect(FirstOrderDifferentialEquations equations, FirstOrderDifferentialEquations origin, 
+			double t, double[] y, double[] f) {
+		int n = y.length;
+		int previous = getNonZeros();
+		boolean[][] nonzero = new boolean[cols.length][rows.length];
+		if (pattern != null) {
+			for (int b=0;b<cols.length;b++) {
+				for (int a : pattern[b]) {
+					nonzero[b][a] = true;
+				}
+			}
+		}
+		double[] y2 = new double[n];
+		double[] f2 = new double[n];
+		for (int i=0;i<n;i++) {
+			y2[i] = y[i] + 0.01*Math.max(Math.abs(y[i]), 1.0e-6);
+		}
+		derivatives(equations, origin, t, y2, f2);
+		int evaluations = 1;
+		double[] yp = new double[n];
+		double[] g = new double[n];
+		for (double[][] base : new double[][][] {{y, f}, {y2, f2}}) {
+			for (int b=0;b<cols.length;b++) {
+				int k = cols[b];
+				System.arraycopy(base[0], 0, yp, 0, n);
+				yp[k] += PROBE*Math.max(Math.abs(base[0][k]), 1.0e-6);
+				derivatives(equations, origin, t, yp, g);
+				evaluations++;
+				for (int a=0;a<rows.length;a++) {
+					double diff = g[rows[a]]-base[1][rows[a]];
+					// Changes of the order of the rounding error are not dependencies
+					if (Math.abs(diff) > 1.0e-12*Math.abs(base[1][rows[a]]) || rows[a] == k) {
+						nonzero[b][a] = true;
+					}
+				}
+			}
+		}
+		pattern = new int[cols.length][];
+		for (int b=0;b<cols.length;b++) {
+			int[] column = new int[rows.length];
+			int m = 0;
+			for (int a=0;a<rows.length;a++) {
+				if (nonzero[b][a]) {
+					column[m++] = a;
+				}
+			}
+			pattern[b] = Arrays.copyOf(column, m);
+		}
+		if (previous > 0 && getNonZeros() == previous) {
+			skip = backoff;
+			backoff = Math.max(2*backoff, 1);
+		}
+		colour();
+		LOGGER.fine("Jacobian " + rows.length + "x" + cols.length + ", " + getNonZeros() + " non zeros, " + groups.length + " colours");
+		return evaluations;
+	}
+	
+	/**
+	 * Evaluation of the equations of a thread, a copy is reset to the state of the original equations first, 
+	 * so every evaluation starts from the same state
+	 */
+	private static void derivatives(FirstOrderDifferentialEquations equations, FirstOrderDifferentialEquations origin, 
+			double t, double[] y, double[] dy) {
+		if (equations != origin) {
+			((CopyableEquations) equations).reset((CopyableEquations) origin);
+		}
+		equations.computeDerivatives(t, y, dy);
+	}
+	
+	/**
+	 * Greedy colouring of the columns, largest columns first, columns of one colour share no row
+	 */
+	private void colour() {
+		Integer[] order = new Integer[cols.length];
+		for (int b=0;b<order.length;b++) {
+			order[b] = b;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return pattern[b].length - pattern[a].length;
+			}
+		});
+		List<boolean[]> used = new ArrayList<boolean[]>(); // Rows covered by each colour
+		List<List<Integer>> members = new ArrayList<List<Integer>>();
+		for (int b : order) {
+			int c = 0;
+			while (c < used.size() && !free(used.get(c), pattern[b])) {
+				c++;
+			}
+			if (c == used.size()) {
+				used.add(new boolean[rows.length]);
+				members.add(new ArrayList<Integer>());
+			}
+			for (int a : pattern[b]) {
+				used.get(c)[a] = true;
+			}
+			members.get(c).add(b);
+		}
+		groups = new int[members.size()][];
+		for (int c=0;c<groups.length;c++) {
+			groups[c] = new int[members.get(c).size()];
+			for (int m=0;m<groups[c].length;m++) {
+				groups[c][m] = members.get(c).get(m);
+			}
+		}
+	}
+	
+	private static boolean free(boolean[] used, int[] column) {
+		for (int a : column) {
+			if (used[a]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static int[] range(int n) {
+		int[] r = new int[n];
+		for (int i=0;i<n;i++) {
+			r[i] = i;
+		}
+		return r;
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.solver;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.logging.Logger;
+
+/**
+ * Sparse LU decomposition for matrices with a fixed pattern, e.g. the Newton iteration matrix I - gh*J of the implicit 
+ * integrators. The symbolic analysis runs once per pattern: a minimum degree ordering of the symmetric pattern 
+ * (A + A^T) and the pattern of the factors including the fill, stored row-wise (CSR) in pivot order. 
+ * A numeric factorization then only eliminates on the stored positions, and solves work in place without allocation.
+ * 
+ * The pivots are the diagonal entries in the fixed order (no pivoting), a factorization with a pivot below 1e-10 times
+ * the largest entry of its row fails and the caller falls back to a dense LU with partial pivoting.
+ * Not thread safe, the factors and the work array belong to one integrator.
+ * 
+ * @author liampetti
+ *
+ */
+public class SparseLU {
+	public final static Logger LOGGER = Logger.getLogger(SparseLU.class.getName());
+	
+	private static final double PIVOT = 1.0e-10; // Smallest pivot relative to the largest entry of its row
+	
+	private final int n;
+	private final int[][] pattern; // Non zero rows of each column, as analysed
+	private final int[] perm; // Original index of each pivot
+	private final int[] rowPtr, colIdx; // Factors in pivot order, columns sorted in each row
+	private final int[] diag; // Position of the diagonal in each row
+	private final double[] x; // L (unit diagonal, below) and U (diagonal and above)
+	private final int[] map; // Position of each column in the current row
+	private final double[] w; // Work array of the solves
+	private boolean factored;
+	
+	/**
+	 * Symbolic analysis of an n x n pattern, n = pattern.length
+	 * 
+	 * @param pattern	Non zero rows of each column (see SparseJacobian.getPattern), the diagonal is always included
+	 */
+	public SparseLU(int[][] pattern) {
+		n = pattern.length;
+		this.pattern = new int[n][];
+		for (int b=0;b<n;b++) {
+			this.pattern[b] = pattern[b].clone();
+		}
+		
+		// Symmetric graph of the pattern
+		BitSet[] adj = new BitSet[n];
+		for (int i=0;i<n;i++) {
+			adj[i] = new BitSet(n);
+		}
+		for (int b=0;b<n;b++) {
+			for (int a : pattern[b]) {
+				if (a < 0 || a >= n) {
+					throw new IllegalArgumentException("Row " + a + " out of range in column " + b);
+				}
+				if (a != b) {
+					adj[a].set(b);
+					adj[b].set(a);
+				}
+			}
+		}
+		
+		// Minimum degree ordering, the neighbours of a node when it is eliminated are its column of L and row of U
+		perm = new int[n];
+		int[] order = new int[n];
+		BitSet[] structure = new BitSet[n];
+		boolean[] done = new boolean[n];
+		for (int k=0;k<n;k++) {
+			int p = -1;
+			for (int i=0;i<n;i++) {
+				if (!done[i] && (p < 0 || adj[i].cardinality() < adj[p].cardinality())) {
+					p = i;
+				}
+			}
+			perm[k] = p;
+			order[p] = k;
+			done[p] = true;
+			structure[p] = (BitSet) adj[p].clone();
+			for (int u=structure[p].nextSetBit(0);u>=0;u=structure[p].nextSetBit(u+1)) {
+				adj[u].or(structure[p]);
+				adj[u].clear(u);
+				adj[u].clear(p);
+			}
+		}
+		
+		// Rows of the factors in pivot order
+		BitSet[] rows = new BitSet[n];
+		for (int i=0;i<n;i++) {
+			rows[i] = new BitSet(n);
+			rows[i].set(i);
+		}
+		for (int p=0;p<n;p++) {
+			for (int u=structure[p].nextSetBit(0);u>=0;u=structure[p].nextSetBit(u+1)) {
+				rows[order[p]].set(order[u]);
+				rows[order[u]].set(order[p]);
+			}
+		}
+		rowPtr = new int[n+1];
+		for (int i=0;i<n;i++) {
+			rowPtr[i+1] = rowPtr[i] + rows[i].cardinality();
+		}
+		colIdx = new int[rowPtr[n]];
+		diag = new int[n];
+		for (int i=0;i<n;i++) {
+			int q = rowPtr[i];
+			for (int j=rows[i].nextSetBit(0);j>=0;j=rows[i].nextSetBit(j+1)) {
+				if (j == i) {
+					diag[i] = q;
+				}
+				colIdx[q++] = j;
+			}
+		}
+		x = new double[rowPtr[n]];
+		map = new int[n];
+		w = new double[n];
+		LOGGER.fine("Sparse LU " + n + "x" + n + ", " + getNonZeros() + " non zeros in the factors");
+	}
+	
+	/**
+	 * Same analysis and factors with its own work arrays
+	 */
+	private SparseLU(SparseLU lu) {
+		n = lu.n;
+		pattern = lu.pattern;
+		perm = lu.perm;
+		rowPtr = lu.rowPtr;
+		colIdx = lu.colIdx;
+		diag = lu.diag;
+		x = lu.x.clone();
+		map = new int[n];
+		w = new double[n];
+		factored = lu.factored;
+	}
+	
+	/**
+	 * Copy sharing the symbolic analysis, for use on another thread
+	 */
+	public SparseLU copy() {
+		return new SparseLU(this);
+	}
+	
+	public int getDimension() {
+		return n;
+	}
+	
+	/**
+	 * Entries of L and U including the fill
+	 */
+	public int getNonZeros() {
+		return rowPtr[n];
+	}
+	
+	/**
+	 * True if the analysis is for the given pattern
+	 */
+	public boolean matches(int[][] pattern) {
+		return Arrays.deepEquals(this.pattern, pattern);
+	}
+	
+	/**
+	 * Numeric factorization of the matrix a, read at the positions of the factors only
+	 * 
+	 * @return False if a pivot is too small
+	 */
+	public boolean factor(double[][] a) {
+		return factor(a, 1.0, false);
+	}
+	
+	/**
+	 * Numeric factorization of I - gh*jac (Newton iteration matrix of the implicit methods)
+	 * 
+	 * @return False if a pivot is too small
+	 */
+	public boolean factor(double[][] jac, double gh) {
+		return factor(jac, -gh, true);
+	}
+	
+	private boolean factor(double[][] a, double scale, boolean identity) {
+		factored = false;
+		for (int i=0;i<n;i++) {
+			// Scatter the row
+			double[] row = a[perm[i]];
+			double max = 0.0;
+			for (int q=rowPtr[i];q<rowPtr[i+1];q++) {
+				int j = colIdx[q];
+				map[j] = q;
+				x[q] = scale*row[perm[j]];
+				if (identity && j == i) {
+					x[q] += 1.0;
+				}
+				max = Math.max(max, Math.abs(x[q]));
+			}
+			// Eliminate with the rows above, the fill of the analysis contains every updated position
+			for (int q=rowPtr[i];q<diag[i];q++) {
+				int k = colIdx[q];
+				double l = x[q]/x[diag[k]];
+				x[q] = l;
+				if (l != 0.0) {
+					for (int r=diag[k]+1;r<rowPtr[k+1];r++) {
+						x[map[colIdx[r]]] -= l*x[r];
+					}
+				}
+			}
+			double pivot = x[diag[i]];
+			if (!(Math.abs(pivot) > PIVOT*max)) {
+				return false;
+			}
+		}
+		factored = true;
+		return true;
+	}
+	
+	/**
+	 * Solves A*x = b in place with the last factorization
+	 */
+	public void solve(double[] b) {
+		if (!factored) {
+			throw new IllegalStateException("No factorization");
+		}
+		for (int k=0;k<n;k++) {
+			w[k] = b[perm[k]];
+		}
+		for (int i=0;i<n;i++) {
+			double s = w[i];
+			for (int q=rowPtr[i];q<diag[i];q++) {
+				s -= x[q]*w[colIdx[q]];
+			}
+			w[i] = s;
+		}
+		for (int i=n-1;i>=0;i--) {
+			double s = w[i];
+			for (int q=diag[i]+1;q<rowPtr[i+1];q++) {
+				s -= x[q]*w[colIdx[q]];
+			}
+			w[i] = s/x[diag[i]];
+		}
+		for (int k=0;k<n;k++) {
+			b[perm[k]] = w[k];
+		}
+	}
+}
@@ -0,0 +1,395 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.solver;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import org.apache.commons.math3.ode.ExpandableStatefulODE;
+
+/**
+ * Integrator switching automatically between an explicit method for non-stiff phases and an implicit
+ * method for stiff phases (in the spirit of LSODA):
+ * 
+ * Non-stiff: Bogacki-Shampine 3(2), embedded error estimate, first same as last. When the step size stops growing
+ * without rejections, the dominant eigenvalue is estimated by a power iteration with directional differences of 
+ * the right hand side. A step at the stability boundary (h*rho) means the step is limited by stability, not accuracy, 
+ * and the integrator switches to the stiff method.
+ * 
+ * Stiff: variable step BDF2 (BDF1 after a restart) with a modified Newton iteration, finite difference Jacobian
+ * reused until the iteration fails to converge. The error is estimated from the difference to the predictor.
+ * Every few steps the spectral radius of the Jacobian gives the step the explicit method could take, 
+ * the integrator switches back when that is cheaper than the implicit steps (evaluations per simulated time).
+ * 
+ * Events and step handlers work as for the commons-math integrators, the dense output is a cubic Hermite interpolation.
+ * 
+ * @author liampetti
+ *
+ */
+public class SwitchingIntegrator extends BDFIntegrator {
+	public final static Logger LOGGER = Logger.getLogger(SwitchingIntegrator.class.getName());
+	
+	/**
+	 * Method selection: switch automatically, or stay in SolverStatistics.NONSTIFF or SolverStatistics.STIFF
+	 */
+	public static final int AUTO = -1;
+	
+	private static final double STABILITY = 2.5; // Real stability boundary of Bogacki-Shampine (h*rho)
+	private static final int STIFF_CHECK = 50; // Explicit steps between stiffness checks
+	private static final int POWER_ITERATIONS = 8; // Right hand side evaluations of a stiffness check
+	private static final int CHECK_INTERVAL = 10; // Stiff steps between checks for switching back
+	
+	private int method;
+	
+	// Work arrays of the explicit method and the stiffness detection
+	private double[] k2, k3, stage, col;
+	private double hLast; // Step size at the last stiffness check
+	private long rejectedLast;
+	private int sinceCheck;
+	private long stiffEvaluations;
+	private double stiffTime;
+	private int regime;
+	
+	/**
+	 * @param minStep	Smallest step (the run fails below)
+	 * @param maxStep	Largest step
+	 * @param absTol	Absolute tolerance of each state
+	 * @param relTol	Relative tolerance of each state
+	 */
+	public SwitchingIntegrator(double minStep, double maxStep, double[] absTol, double[] relTol) {
+		this(minStep, maxStep, 0.0, 0.0, absTol.clone(), relTol.clone());
+	}
+	
+	public SwitchingIntegrator(double minStep, double maxStep, double absTol, double relTol) {
+		this(minStep, maxStep, absTol, relTol, null, null);
+	}
+	
+	private SwitchingIntegrator(double minStep, double maxStep, double scalAbs, double scalRel, double[] vecAbs, double[] vecRel) {
+		super("Bogacki-Shampine/BDF2", minStep, maxStep, scalAbs, scalRel, vecAbs, vecRel, null);
+		method = AUTO;
+	}
+	
+	/**
+	 * AUTO (default), or a fixed method SolverStatistics.NONSTIFF or SolverStatistics.STIFF
+	 */
+	public void setMethod(int method) {
+		this.method = method;
+	}
+	
+	/**
+	 * Statistics to add to
+	 */
+	public void setStatistics(SolverStatistics stats) {
+		this.stats = stats;
+	}
+	
+	@Override
+	void advance(ExpandableStatefulODE equations, double t) {
+		sanityChecks(equations, t);
+		setEquations(equations);
+		double t0 = equations.getTime();
+		if (t < t0) {
+			throw new IllegalArgumentException("Only forward integration is supported");
+		}
+		int n = equations.getTotalDimension();
+		allocate(n);
+		k2 = new double[n];
+		k3 = new double[n];
+		stage = new double[n];
+		col = new double[n];
+		System.arraycopy(equations.getCompleteState(), 0, y, 0, n);
+		stepStart = t0;
+		regime = method != AUTO ? method : (state.regime == SolverStatistics.STIFF ? state.regime : SolverStatistics.NONSTIFF);
+		evaluate(t0, y, f);
+		
+		HermiteInterpolator interpolator = new HermiteInterpolator();
+		interpolator.init(new double[n], equations.getPrimaryMapper(), equations.getSecondaryMappers());
+		interpolator.storeTime(t0);
+		initIntegration(t0, y, t);
+		
+		double h = state.step > 0.0 ? state.step : initialStep(t0, t);
+		if (state.discontinuity && state.step > 0.0 && regime == SolverStatistics.STIFF) {
+			// The step of the last run is too long after a jump of the inputs
+			h = Math.min(h, restartStep(t0, t, h));
+		}
+		state.discontinuity = false;
+		double proposed = h;
+		double wanted = h; // Step before shortening it to the end time, for the next run
+		order = 1;
+		prepareJacobian(equations);
+		sinceCheck = 0;
+		hLast = 0.0;
+		rejectedLast = stats.rejected[regime];
+		stiffEvaluations = 0;
+		stiffTime = 0.0;
+		isLastStep = false;
+		while (!isLastStep) {
+			interpolator.shift();
+			long begin = System.nanoTime();
+			
+			// Step with error control
+			double e;
+			while (true) {
+				h = Math.min(Math.max(h, minStep), maxStep);
+				wanted = h;
+				if (stepStart + h*(1.0+1.0e-8) >= t) {
+					h = t - stepStart;
+				}
+				e = regime == SolverStatistics.STIFF ? implicitStep(stepStart, h) : explicitStep(stepStart, h);
+				if (e <= 1.0) {
+					break;
+				}
+				stats.rejected[regime]++;
+				h = Double.isInfinite(e) || Double.isNaN(e) ? 0.25*h : h*Math.max(0.2, SAFETY*Math.pow(e, -1.0/(regime == SolverStatistics.STIFF ? order+1 : 3)));
+				if (h < minStep) {
+					throw new IllegalStateException("Step size " + h + " below the minimum at t = " + stepStart);
+				}
+			}
+			double hUsed = h;
+			
+			// Accept the step, events and step handlers
+			interpolator.store(y, f, yNew, fNew);
+			interpolator.storeTime(stepStart + hUsed);
+			System.arraycopy(y, 0, yPrev, 0, n);
+			System.arraycopy(yNew, 0, y, 0, n);
+			System.arraycopy(fNew, 0, f, 0, n);
+			double previous = stepStart;
+			stats.wall[regime] += System.nanoTime()-begin;
+			stepStart = acceptStep(interpolator, y, f, t);
+			stats.steps[regime]++;
+			stats.time[regime] += stepStart-previous;
+			if (regime == SolverStatistics.STIFF) {
+				stiffTime += stepStart-previous;
+			}
+			jacCurrent = false;
+			if (resetOccurred) {
+				// An event changed the state, restart the multistep history
+				resetOccurred = false;
+				order = 1;
+			} else {
+				hPrev = hUsed;
+				order = 2;
+			}
+			
+			// Next step size and regime
+			if (regime == SolverStatistics.STIFF) {
+				proposed = hUsed*Math.min(2.0, Math.max(0.2, e == 0.0 ? 2.0 : SAFETY*Math.pow(e, -1.0/3.0)));
+			} else {
+				proposed = hUsed*Math.min(5.0, Math.max(0.2, e == 0.0 ? 5.0 : SAFETY*Math.pow(e, -1.0/3.0)));
+			}
+			if (method == AUTO && !isLastStep) {
+				proposed = switchRegime(stepStart, hUsed, proposed);
+			}
+			h = proposed;
+		}
+		finish(regime, Math.max(proposed, wanted));
+		equations.setTime(stepStart);
+		equations.setCompleteState(y);
+	}
+	
+	/**
+	 * Bogacki-Shampine 3(2) step from the current state
+	 * 
+	 * @return Scaled error
+	 */
+	private double explicitStep(double t0, double h) {
+		int n = y.length;
+		for (int i=0;i<n;i++) {
+			stage[i] = y[i] + 0.5*h*f[i];
+		}
+		evaluate(t0 + 0.5*h, stage, k2);
+		for (int i=0;i<n;i++) {
+			stage[i] = y[i] + 0.75*h*k2[i];
+		}
+		evaluate(t0 + 0.75*h, stage, k3);
+		for (int i=0;i<n;i++) {
+			yNew[i] = y[i] + h*(2.0/9.0*f[i] + 1.0/3.0*k2[i] + 4.0/9.0*k3[i]);
+		}
+		evaluate(t0 + h, yNew, fNew);
+		for (int i=0;i<n;i++) {
+			err[i] = h*(-5.0/72.0*f[i] + 1.0/12.0*k2[i] + 1.0/9.0*k3[i] - 1.0/8.0*fNew[i]);
+		}
+		return norm(err, y, yNew);
+	}
+	
+	/**
+	 * BDF step (order 1 or 2) from the current state, a failed Newton iteration with a fresh Jacobian 
+	 * returns infinity so the step is reduced
+	 * 
+	 * @return Scaled error
+	 */
+	private double implicitStep(double t0, double h) {
+		int n = y.length;
+		double a1 = 1.0, a2 = 0.0, gamma = 1.0;
+		if (order == 2) {
+			double w = h/hPrev;
+			a1 = (1.0+w)*(1.0+w)/(1.0+2.0*w);
+			a2 = -w*w/(1.0+2.0*w);
+			gamma = (1.0+w)/(1.0+2.0*w);
+		}
+		for (int i=0;i<n;i++) {
+			c[i] = a1*y[i] + a2*yPrev[i];
+			pred[i] = y[i] + h*f[i];
+			if (order == 2) {
+				pred[i] += h*h*(yPrev[i]-y[i]+f[i]*hPrev)/(hPrev*hPrev);
+			}
+		}
+		if (!corrector(t0, h, gamma*h)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		for (int i=0;i<n;i++) {
+			fNew[i] = (yNew[i]-c[i])/(gamma*h);
+			err[i] = yNew[i]-pred[i];
+		}
+		return (order == 2 ? 0.4 : 0.5)*norm(err, y, yNew);
+	}
+	
+	/**
+	 * Stiffness detection and switching between the methods
+	 * 
+	 * @return Step size of the next step
+	 */
+	private double switchRegime(double t, double h, double proposed) {
+		if (regime == SolverStatistics.NONSTIFF) {
+			if (++sinceCheck < STIFF_CHECK) {
+				return proposed;
+			}
+			sinceCheck = 0;
+			// Only a step that stopped growing can be limited by stability
+			boolean plateau = h < 1.5*hLast && stats.rejected[regime] == rejectedLast;
+			hLast = h;
+			rejectedLast = stats.rejected[regime];
+			if (plateau && h*dominantEigenvalue(t) > 0.8*STABILITY) {
+				regime = SolverStatistics.STIFF;
+				stats.switches++;
+				stiffEvaluations = 0;
+				stiffTime = 0.0;
+				jac = null;
+				return 2.0*h;
+			}
+			return proposed;
+		}
+		if (++sinceCheck < CHECK_INTERVAL || jac == null || stiffTime <= 0.0) {
+			return proposed;
+		}
+		sinceCheck = 0;
+		// Step of the explicit method within its stability region, 3 evaluations per step
+		double radius = spectralRadius();
+		double hExplicit = radius > 0.0 ? 0.8*STABILITY/radius : maxStep;
+		double explicitCost = 3.0/Math.min(hExplicit, maxStep);
+		double stiffCost = stiffEvaluations/stiffTime;
+		stiffEvaluations = 0;
+		stiffTime = 0.0;
+		if (explicitCost < 0.5*stiffCost) {
+			regime = SolverStatistics.NONSTIFF;
+			stats.switches++;
+			hLast = 0.0;
+			rejectedLast = stats.rejected[regime];
+			evaluate(t, y, f); // First same as last needs the true derivative
+			return Math.min(proposed, hExplicit);
+		}
+		return proposed;
+	}
+	
+	/**
+	 * Largest eigenvalue magnitude of the Jacobian at the current step start by power iteration with directional 
+	 * differences of the right hand side. The states are scaled by their tolerances (the eigenvalues do not change), 
+	 * the error of the last step is the starting direction.
+	 */
+	private double dominantEigenvalue(double t) {
+		int n = y.length;
+		double eps = Double.POSITIVE_INFINITY;
+		for (int i=0;i<n;i++) {
+			double tol = tolerance(i, Math.abs(y[i]));
+			eps = Math.min(eps, 1.0e-7*(Math.abs(y[i])+tol)/tol);
+			col[i] = err[i]/tol;
+		}
+		double radius = 0.0;
+		double length = length(col);
+		if (length == 0.0) {
+			Arrays.fill(col, 1.0);
+			length = Math.sqrt(n);
+		}
+		for (int it=0;it<POWER_ITERATIONS;it++) {
+			for (int i=0;i<n;i++) {
+				col[i] /= length;
+				yJac[i] = y[i] + eps*tolerance(i, Math.abs(y[i]))*col[i];
+			}
+			evaluate(t, yJac, g);
+			for (int i=0;i<n;i++) {
+				col[i] = (g[i]-f[i])/(eps*tolerance(i, Math.abs(y[i])));
+			}
+			length = length(col);
+			radius = length;
+			if (length == 0.0) {
+				break;
+			}
+		}
+		return radius;
+	}
+	
+	private static double length(double[] v) {
+		double sum = 0.0;
+		for (int i=0;i<v.length;i++) {
+			sum += v[i]*v[i];
+		}
+		return Math.sqrt(sum);
+	}
+	
+	/**
+	 * Largest eigenvalue magnitude of the Jacobian by power iteration
+	 */
+	private double spectralRadius() {
+		int n = y.length;
+		double[] v = new double[n];
+		double[] w = new double[n];
+		Arrays.fill(v, 1.0/Math.sqrt(n));
+		double radius = 0.0;
+		for (int it=0;it<20;it++) {
+			double sum = 0.0;
+			for (int i=0;i<n;i++) {
+				double s = 0.0;
+				for (int k=0;k<n;k++) {
+					s += jac[i][k]*v[k];
+				}
+				w[i] = s;
+				sum += s*s;
+			}
+			radius = Math.sqrt(sum);
+			if (radius == 0.0) {
+				return 0.0;
+			}
+			for (int i=0;i<n;i++) {
+				v[i] = w[i]/radius;
+			}
+		}
+		return radius;
+	}
+	
+	@Override
+	void counted(int evaluations) {
+		super.counted(evaluations);
+		if (regime == SolverStatistics.STIFF) {
+			stiffEvaluations += evaluations;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.surrogate;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.CholeskyDecomposition;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.NonPositiveDefiniteMatrixException;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * Gaussian process regression with a squared exponential kernel.
+ * Inputs are scaled to the unit box and outputs are standardised, the kernel length scale 
+ * is chosen by the closed form leave-one-out error.
+ * 
+ * Prediction only needs the training inputs and the weights (alpha), one query 
+ * costs O(n*(d+m)) for n samples, d inputs and m outputs.
+ * 
+ * @author liampetti
+ *
+ */
+public class GaussianProcess {
+	private static final double[] LENGTHS = {0.05, 0.1, 0.2, 0.35, 0.5, 0.75, 1.0, 1.5, 2.0, 3.0};
+	private static final double NUGGET = 1.0e-8;
+	
+	private double[][] xs; // Scaled training inputs
+	private double[][] alpha; // Weights [sample][output]
+	private double[] lower;
+	private double[] upper;
+	private double[] mean;
+	private double[] std;
+	private double length;
+	private double[] k; // Workspace
+	private double[] xn; // Workspace
+	
+	/**
+	 * Fit the process to the given samples
+	 * 
+	 * @param x	Inputs [sample][input]
+	 * @param y Outputs [sample][output]
+	 */
+	public void fit(double[][] x, double[][] y) {
+		int n = x.length;
+		int d = x[0].length;
+		int m = y[0].length;
+		
+		// Scale inputs to the unit box
+		lower = new double[d];
+		upper = new double[d];
+		for (int j=0;j<d;j++) {
+			lower[j] = Double.POSITIVE_INFINITY;
+			upper[j] = Double.NEGATIVE_INFINITY;
+			for (int i=0;i<n;i++) {
+				lower[j] = Math.min(lower[j], x[i][j]);
+				upper[j] = Math.max(upper[j], x[i][j]);
+			}
+		}
+		xs = new double[n][d];
+		for (int i=0;i<n;i++) {
+			scale(x[i], xs[i]);
+		}
+		
+		// Standardise outputs
+		mean = new double[m];
+		std = new double[m];
+		for (int j=0;j<m;j++) {
+			for (int i=0;i<n;i++) {
+				mean[j] += y[i][j]/n;
+			}
+			for (int i=0;i<n;i++) {
+				std[j] += (y[i][j]-mean[j])*(y[i][j]-mean[j])/n;
+			}
+			std[j] = std[j] > 0 ? Math.sqrt(std[j]) : 1.0;
+		}
+		RealMatrix ys = new Array2DRowRealMatrix(n, m);
+		for (int i=0;i<n;i++) {
+			for (int j=0;j<m;j++) {
+				ys.setEntry(i, j, (y[i][j]-mean[j])/std[j]);
+			}
+		}
+		
+		// Select the length scale with the smallest leave-one-out error
+		double best = Double.POSITIVE_INFINITY;
+		for (double l : LENGTHS) {
+			RealMatrix kern = kernel(l);
+			DecompositionSolver solver;
+			try {
+				solver = new CholeskyDecomposition(kern, 1.0e-12, 1.0e-14).getSolver();
+			} catch (NonPositiveDefiniteMatrixException e) {
+				continue;
+			}
+			RealMatrix inv = solver.getInverse();
+			RealMatrix a = inv.multiply(ys);
+			double loo = 0.0;
+			for (int i=0;i<n;i++) {
+				for (int j=0;j<m;j++) {
+					double r = a.getEntry(i, j)/inv.getEntry(i, i);
+					loo += r*r;
+				}
+			}
+			if (loo < best) {
+				best = loo;
+				length = l;
+				alpha = a.getData();
+			}
+		}
+		if (alpha == null) {
+			throw new IllegalStateException("Gaussian process kernel is not positive definite for any length scale");
+		}
+		k = new double[n];
+		xn = new double[d];
+	}
+	
+	private RealMatrix kernel(double l) {
+		int n = xs.length;
+		RealMatrix kern = new Array2DRowRealMatrix(n, n);
+		for (int i=0;i<n;i++) {
+			for (int j=i;j<n;j++) {
+				double v = rbf(xs[i], xs[j], l);
+				kern.setEntry(i, j, v);
+				kern.setEntry(j, i, v);
+			}
+			kern.addToEntry(i, i, NUGGET);
+		}
+		return kern;
+	}
+	
+	private static double rbf(double[] a, double[] b, double l) {
+		double d2 = 0.0;
+		for (int j=0;j<a.length;j++) {
+			d2 += (a[j]-b[j])*(a[j]-b[j]);
+		}
+		return Math.exp(-0.5*d2/(l*l));
+	}
+	
+	private void scale(double[] x, double[] out) {
+		for (int j=0;j<out.length;j++) {
+			double range = upper[j]-lower[j];
+			out[j] = range > 0 ? (x[j]-lower[j])/range : 0.0;
+		}
+	}
+	
+	/**
+	 * Predicts the mean outputs for one input, no allocation.
+	 * Uses internal workspace, one instance should not be shared between threads.
+	 * 
+	 * @param x		Inputs
+	 * @param out	Outputs (filled)
+	 */
+	public void predict(double[] x, double[] out) {
+		scale(x, xn);
+		for (int i=0;i<xs.length;i++) {
+			k[i] = rbf(xn, xs[i], length);
+		}
+		for (int j=0;j<mean.length;j++) {
+			double s = 0.0;
+			for (int i=0;i<xs.length;i++) {
+				s += k[i]*alpha[i][j];
+			}
+			out[j] = mean[j]+std[j]*s;
+		}
+	}
+	
+	public double getLength() {
+		return length;
+	}
+	
+	public int getSamples() {
+		return xs.length;
+	}
+}
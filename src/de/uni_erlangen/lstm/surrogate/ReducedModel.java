@@ -0,0 +1,242 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.surrogate;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.exception.MaxCountExceededException;
+import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
+import org.apache.commons.math3.ode.FirstOrderIntegrator;
+import org.apache.commons.math3.ode.nonstiff.AdamsBashforthIntegrator;
+
+import de.uni_erlangen.lstm.models.adm1.DAEModel;
+import de.uni_erlangen.lstm.models.adm1.DigesterParameters;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * Quasi-steady-state reduction of the digester model.
+ * The ion states and S_h2 are solved algebraically (DAE) and the gas phase is assumed to be 
+ * in quasi-steady state, so that only the slow biochemical states are integrated.
+ * Mirrors the Model interface.
+ * 
+ * @author liampetti
+ *
+ */
+public class ReducedModel implements Runnable {
+	// Slow (integrated) states: soluble and particulate matter, cations/anions and hydrolytic biomass
+	private static final int[] SLOW = {0, 1, 2, 3, 4, 5, 6, 8, 9, 10, 11, 13, 14, 15, 16, 17, 18, 19, 20, 
+		21, 22, 23, 24, 25, 43, 44, 45};
+	// Gas phase states solved in quasi-steady state
+	private static final int[] GAS = {32, 33, 34};
+	
+	private double[] x;
+	private double[] u;
+	private double[] param;
+	private double start;
+	private double end;
+	private double S_H_ion;
+	private long evaluations;
+	
+	public ReducedModel(double start, double end, DigesterParameters parameters, StateVariables initial, StateVariables influent) {
+		u = influent.getVar(); // Influent
+		x = initial.getVar(); // Output (initial reactor conditions)
+		param = parameters.getParameters();
+		this.start = start;
+		this.end = end;
+		x[35] = u[35]; // Effluent flow rate = Influent flow rate
+		S_H_ion = DAEModel.initialSH(x, param);
+	}
+	
+	public void setTime(double start, double end) {
+		this.start = start;
+		this.end = end;
+	}
+	
+	public void setInfluent(StateVariables influent) {		
+		u = influent.getVar(); // Influent
+		x[35] = u[35]; // Effluent flow rate = Influent flow rate
+	}
+	
+	/**
+	 * Run the reduced model using set parameters
+	 */
+	public void simulate() {
+		DAEModel ode = new DAEModel(u, param, S_H_ion, true, -1.0);
+		QSSEquations qss = new QSSEquations(ode, x);
+		FirstOrderIntegrator integrator = new AdamsBashforthIntegrator(2, 1.0e-14, 100.0, 1.0e-10, 1.0e-10);
+		
+		double[] y = new double[SLOW.length];
+		for (int k=0;k<SLOW.length;k++) {
+			y[k] = x[SLOW[k]];
+		}
+		integrator.integrate(qss, start, y, end, y);
+		qss.computeDerivatives(end, y, new double[y.length]);
+		evaluations = qss.evaluations;
+		
+		// Pull all variables directly from model
+		x = ode.getDimensions().clone();
+	}
+	
+	public double[] getX() {
+		return x;
+	}
+	
+	public double[] getU() {
+		return u;
+	}
+	
+	public double getEnd() {
+		return end;
+	}
+	
+	/**
+	 * Full model evaluations used in the last run
+	 */
+	public long getEvaluations() {
+		return evaluations;
+	}
+	
+	/**
+	 * Allows the simulation to run on a separate thread
+	 */
+	@Override
+	public void run() {
+		simulate();
+	}
+	
+	/**
+	 * Reduced equations, gas states are solved by Newton iteration on each evaluation
+	 */
+	private static class QSSEquations implements FirstOrderDifferentialEquations {
+		private static final double GAS_TOL = 1.0e-6; // Relative gas rate (1/d) treated as steady
+		private static final int GAS_MAX = 20;
+		
+		private DAEModel ode;
+		private double[] full;
+		private double[] dfull;
+		private double[] f;
+		private double[] fh;
+		private double[][] jac;
+		private double[] delta;
+		private long evaluations;
+		
+		QSSEquations(DAEModel ode, double[] x) {
+			this.ode = ode;
+			full = x.clone();
+			dfull = new double[x.length];
+			f = new double[GAS.length];
+			fh = new double[GAS.length];
+			jac = new double[GAS.length][GAS.length];
+			delta = new double[GAS.length];
+		}
+		
+		@Override
+		public int getDimension() {
+			return SLOW.length;
+		}
+
+		@Override
+		public void computeDerivatives(double t, double[] y, double[] dy)
+				throws MaxCountExceededException, DimensionMismatchException {
+			for (int k=0;k<SLOW.length;k++) {
+				full[SLOW[k]] = y[k];
+			}
+			solveGas(t);
+			for (int k=0;k<SLOW.length;k++) {
+				dy[k] = dfull[SLOW[k]];
+			}
+		}
+		
+		/**
+		 * Newton iteration for d(gas)/dt = 0, warm started from the last solution.
+		 * Leaves dfull evaluated at the converged gas state.
+		 */
+		private void solveGas(double t) {
+			for (int it=0;it<GAS_MAX;it++) {
+				eval(t, f);
+				boolean steady = true;
+				for (int g=0;g<GAS.length;g++) {
+					if (Math.abs(f[g]) > GAS_TOL*(Math.abs(full[GAS[g]])+1.0e-10)) {
+						steady = false;
+					}
+				}
+				if (steady) {
+					return;
+				}
+				// Finite difference Jacobian of the gas rates
+				for (int c=0;c<GAS.length;c++) {
+					double s = full[GAS[c]];
+					double h = 1.0e-7*Math.max(Math.abs(s), 1.0e-8);
+					full[GAS[c]] = s+h;
+					eval(t, fh);
+					full[GAS[c]] = s;
+					for (int r=0;r<GAS.length;r++) {
+						jac[r][c] = (fh[r]-f[r])/h;
+					}
+				}
+				solve(jac, f, delta);
+				for (int g=0;g<GAS.length;g++) {
+					full[GAS[g]] = Math.max(full[GAS[g]]-delta[g], 0.0);
+				}
+			}
+			eval(t, f);
+		}
+		
+		private void eval(double t, double[] rates) {
+			ode.computeAll(t, full, dfull);
+			evaluations++;
+			for (int g=0;g<GAS.length;g++) {
+				rates[g] = dfull[GAS[g]];
+			}
+		}
+		
+		/**
+		 * Gaussian elimination with partial pivoting (destroys a and b)
+		 */
+		private static void solve(double[][] a, double[] b, double[] x) {
+			int n = b.length;
+			for (int c=0;c<n;c++) {
+				int p = c;
+				for (int r=c+1;r<n;r++) {
+					if (Math.abs(a[r][c]) > Math.abs(a[p][c])) {
+						p = r;
+					}
+				}
+				double[] tr = a[c]; a[c] = a[p]; a[p] = tr;
+				double tb = b[c]; b[c] = b[p]; b[p] = tb;
+				for (int r=c+1;r<n;r++) {
+					double m = a[r][c]/a[c][c];
+					for (int k=c;k<n;k++) {
+						a[r][k] -= m*a[c][k];
+					}
+					b[r] -= m*b[c];
+				}
+			}
+			for (int r=n-1;r>=0;r--) {
+				double s = b[r];
+				for (int k=r+1;k<n;k++) {
+					s -= a[r][k]*x[k];
+				}
+				x[r] = s/a[r][r];
+			}
+		}
+	}
+}
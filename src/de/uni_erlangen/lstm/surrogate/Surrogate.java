@@ -0,0 +1,121 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.surrogate;
+
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * Fast steady state surrogate of the digester trained from full model runs (see SurrogateTrainer).
+ * Mirrors the Model interface: set the influent, simulate and read the outputs.
+ * Only the selected influent variables (feed recipe) are inputs, the digester parameters 
+ * and initial conditions are those used in training.
+ * 
+ * @author liampetti
+ *
+ */
+public class Surrogate implements Runnable {
+	private int[] inputs;
+	private int[] outputs;
+	private GaussianProcess gp;
+	private SurrogateError error;
+	private double[] base; // Values of variables which are not predicted
+	private double[] u;
+	private double[] x;
+	private double[] in; // Workspace
+	private double[] out; // Workspace
+	
+	/**
+	 * @param inputs	Influent indices used as inputs
+	 * @param outputs	State indices predicted
+	 * @param gp		Fitted regression
+	 * @param base		Full state used for all variables which are not predicted
+	 */
+	public Surrogate(int[] inputs, int[] outputs, GaussianProcess gp, double[] base) {
+		this.inputs = inputs.clone();
+		this.outputs = outputs.clone();
+		this.gp = gp;
+		this.base = base.clone();
+		in = new double[inputs.length];
+		out = new double[outputs.length];
+		x = base.clone();
+	}
+	
+	public void setInfluent(StateVariables influent) {
+		u = influent.getVar(); // Influent
+	}
+	
+	/**
+	 * Predict the steady state for the current influent
+	 */
+	public void simulate() {
+		predict(u, x);
+	}
+	
+	/**
+	 * Predicts the steady state for the given influent without allocation
+	 * 
+	 * @param u		Influent (50 variables)
+	 * @param x		Predicted state (filled)
+	 */
+	public void predict(double[] u, double[] x) {
+		for (int j=0;j<inputs.length;j++) {
+			in[j] = u[inputs[j]];
+		}
+		gp.predict(in, out);
+		System.arraycopy(base, 0, x, 0, base.length);
+		for (int j=0;j<outputs.length;j++) {
+			x[outputs[j]] = out[j];
+		}
+	}
+	
+	public double[] getX() {
+		return x;
+	}
+	
+	public double[] getU() {
+		return u;
+	}
+	
+	public int[] getInputs() {
+		return inputs;
+	}
+	
+	public int[] getOutputs() {
+		return outputs;
+	}
+	
+	/**
+	 * Validation error against the full model
+	 */
+	public SurrogateError getError() {
+		return error;
+	}
+	
+	void setError(SurrogateError error) {
+		this.error = error;
+	}
+
+	@Override
+	public void run() {
+		simulate();
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.surrogate;
+
+/**
+ * Accumulates the error of an approximate model against the full model
+ * 
+ * @author liampetti
+ *
+ */
+public class SurrogateError {
+	private int[] outputs;
+	private double[] maxAbs;
+	private double[] maxRel;
+	private double[] sumRel;
+	private int samples;
+	private double evalNanos; // Mean evaluation time of one query
+	
+	/**
+	 * @param outputs	Variable indices that are compared
+	 */
+	public SurrogateError(int[] outputs) {
+		this.outputs = outputs.clone();
+		maxAbs = new double[outputs.length];
+		maxRel = new double[outputs.length];
+		sumRel = new double[outputs.length];
+	}
+	
+	/**
+	 * Adds one comparison
+	 * 
+	 * @param reference		Full model result (all variables)
+	 * @param approx		Approximate result (all variables)
+	 */
+	public void add(double[] reference, double[] approx) {
+		for (int k=0;k<outputs.length;k++) {
+			double ref = reference[outputs[k]];
+			double abs = Math.abs(approx[outputs[k]]-ref);
+			double rel = abs/Math.max(Math.abs(ref), 1.0e-12);
+			maxAbs[k] = Math.max(maxAbs[k], abs);
+			maxRel[k] = Math.max(maxRel[k], rel);
+			sumRel[k] += rel;
+		}
+		samples++;
+	}
+	
+	public void setEvalNanos(double evalNanos) {
+		this.evalNanos = evalNanos;
+	}
+	
+	public double getEvalNanos() {
+		return evalNanos;
+	}
+	
+	public int getSamples() {
+		return samples;
+	}
+	
+	public int[] getOutputs() {
+		return outputs;
+	}
+	
+	public double getMaxAbs(int k) {
+		return maxAbs[k];
+	}
+	
+	public double getMaxRel(int k) {
+		return maxRel[k];
+	}
+	
+	public double getMeanRel(int k) {
+		return samples > 0 ? sumRel[k]/samples : 0.0;
+	}
+	
+	/**
+	 * Largest relative error over all compared variables
+	 */
+	public double getMaxRel() {
+		double max = 0.0;
+		for (double r : maxRel) {
+			max = Math.max(max, r);
+		}
+		return max;
+	}
+	
+	@Override
+	public String toString() {
+		String output = "Samples; " + samples + "; Evaluation (us); " + String.format("%.3f", evalNanos/1000.0) + "\n";
+		for (int k=0;k<outputs.length;k++) {
+			output += "State no; " + (outputs[k]+1) + 
+					";\t Max abs; " + maxAbs[k] + 
+					";\t Max rel; " + maxRel[k] + 
+					";\t Mean rel; " + getMeanRel(k) + "\n";
+		}
+		return output;
+	}
+}
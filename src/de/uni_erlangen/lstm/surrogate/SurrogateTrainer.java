@@ -0,0 +1,249 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.surrogate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import de.uni_erlangen.lstm.modelaccess.Model;
+import de.uni_erlangen.lstm.models.adm1.DigesterParameters;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * Trains a steady state surrogate from a batch of full model runs.
+ * Influent recipes are sampled by latin hypercube over the given input ranges,
+ * the runs are distributed over a thread pool and part of the samples is held back 
+ * to report the surrogate error against the full model.
+ * 
+ * @author liampetti
+ *
+ */
+public class SurrogateTrainer {
+	public final static Logger LOGGER = Logger.getLogger(SurrogateTrainer.class.getName());
+	
+	private DigesterParameters parameters;
+	private StateVariables initial;
+	private StateVariables influent; // Base influent, inputs are varied around it
+	private List<Integer> inputs;
+	private List<double[]> ranges;
+	private int[] outputs;
+	private int samples;
+	private int validation;
+	private double horizon;
+	private int threads;
+	private long seed;
+	private boolean dae;
+	
+	public SurrogateTrainer(DigesterParameters parameters, StateVariables initial, StateVariables influent) {
+		this.parameters = parameters;
+		this.initial = initial;
+		this.influent = influent;
+		inputs = new ArrayList<Integer>();
+		ranges = new ArrayList<double[]>();
+		outputs = new int[initial.getVar().length];
+		for (int i=0;i<outputs.length;i++) {
+			outputs[i] = i;
+		}
+		samples = 40;
+		validation = 10;
+		horizon = 200.0;
+		threads = Runtime.getRuntime().availableProcessors();
+		seed = 1;
+		dae = true;
+	}
+	
+	/**
+	 * Vary the given influent variable between min and max
+	 */
+	public void addInput(int index, double min, double max) {
+		inputs.add(index);
+		ranges.add(new double[] {min, max});
+	}
+	
+	public void setOutputs(int... outputs) {
+		this.outputs = outputs.clone();
+	}
+	
+	/**
+	 * @param samples		Number of training runs
+	 * @param validation	Number of additional runs for the error report
+	 */
+	public void setSamples(int samples, int validation) {
+		this.samples = samples;
+		this.validation = validation;
+	}
+	
+	/**
+	 * Simulated time of each run until steady state (in days)
+	 */
+	public void setHorizon(double horizon) {
+		this.horizon = horizon;
+	}
+	
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+	
+	public void setDAE(boolean dae) {
+		this.dae = dae;
+	}
+	
+	/**
+	 * Run the full model for all samples and fit the surrogate
+	 */
+	public Surrogate train() {
+		if (inputs.isEmpty()) {
+			throw new IllegalStateException("No surrogate inputs defined");
+		}
+		int d = inputs.size();
+		int n = samples+validation;
+		double[][] design = latinHypercube(n, d, new Random(seed));
+		double[][] u = new double[n][];
+		for (int i=0;i<n;i++) {
+			u[i] = influent.getVar();
+			for (int j=0;j<d;j++) {
+				double[] r = ranges.get(j);
+				u[i][inputs.get(j)] = r[0]+design[i][j]*(r[1]-r[0]);
+			}
+		}
+		double[][] x = runAll(u);
+		
+		double[][] in = new double[samples][d];
+		double[][] out = new double[samples][outputs.length];
+		for (int i=0;i<samples;i++) {
+			for (int j=0;j<d;j++) {
+				in[i][j] = u[i][inputs.get(j)];
+			}
+			for (int j=0;j<outputs.length;j++) {
+				out[i][j] = x[i][outputs[j]];
+			}
+		}
+		GaussianProcess gp = new GaussianProcess();
+		gp.fit(in, out);
+		
+		int[] inIdx = new int[d];
+		for (int j=0;j<d;j++) {
+			inIdx[j] = inputs.get(j);
+		}
+		Surrogate surrogate = new Surrogate(inIdx, outputs, gp, x[0]);
+		
+		// Error against the full model on the held back runs
+		SurrogateError error = new SurrogateError(outputs);
+		double[] pred = new double[x[0].length];
+		for (int i=samples;i<n;i++) {
+			surrogate.predict(u[i], pred);
+			error.add(x[i], pred);
+		}
+		error.setEvalNanos(timeQuery(surrogate, u));
+		surrogate.setError(error);
+		return surrogate;
+	}
+	
+	/**
+	 * Mean time of one surrogate query (warmed up)
+	 */
+	private static double timeQuery(Surrogate surrogate, double[][] u) {
+		double[] pred = new double[u[0].length];
+		int reps = 20000;
+		for (int i=0;i<reps;i++) {
+			surrogate.predict(u[i%u.length], pred);
+		}
+		long t = System.nanoTime();
+		for (int i=0;i<reps;i++) {
+			surrogate.predict(u[i%u.length], pred);
+		}
+		return (System.nanoTime()-t)/(double) reps;
+	}
+	
+	/**
+	 * Runs the full model for each influent on the thread pool
+	 */
+	private double[][] runAll(double[][] u) {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			List<Future<double[]>> tasks = new ArrayList<Future<double[]>>();
+			for (final double[] ui : u) {
+				tasks.add(pool.submit(new Callable<double[]>() {
+					public double[] call() {
+						StateVariables in = new StateVariables();
+						in.setVar(ui);
+						Model model = new Model(0.0, horizon, parameters, initial, in, false, null);
+						model.setDAE(dae);
+						model.simulate();
+						return model.getX().clone();
+					}
+				}));
+			}
+			double[][] x = new double[u.length][];
+			for (int i=0;i<x.length;i++) {
+				x[i] = tasks.get(i).get();
+			}
+			return x;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Surrogate training interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Full model run failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Latin hypercube design in the unit box, one sample per stratum in every dimension
+	 * 
+	 * @param n		Number of samples
+	 * @param d		Number of dimensions
+	 * @param rand	Random source
+	 * @return Samples [n][d] in [0,1)
+	 */
+	public static double[][] latinHypercube(int n, int d, Random rand) {
+		double[][] design = new double[n][d];
+		int[] perm = new int[n];
+		for (int j=0;j<d;j++) {
+			for (int i=0;i<n;i++) {
+				perm[i] = i;
+			}
+			for (int i=n-1;i>0;i--) {
+				int k = rand.nextInt(i+1);
+				int tmp = perm[i];
+				perm[i] = perm[k];
+				perm[k] = tmp;
+			}
+			for (int i=0;i<n;i++) {
+				design[i][j] = (perm[i]+rand.nextDouble())/n;
+			}
+		}
+		return design;
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+
+package de.uni_erlangen.lstm.validation;
+
+import de.uni_erlangen.lstm.modelaccess.Model;
+
+/**
+ * Configures the model of a validation run (integrator options, fast math, kernel, ...)
+ * 
+ * @author liampetti
+ *
+ */
+public interface ModelSetup {
+	/**
+	 * Called once per case before the first run
+	 */
+	void configure(Model model);
+}
@@ -0,0 +1,404 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+
+package de.uni_erlangen.lstm.validation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import de.uni_erlangen.lstm.batch.InfluentGenerator;
+import de.uni_erlangen.lstm.batch.InfluentSeries;
+import de.uni_erlangen.lstm.file.CSVReader;
+import de.uni_erlangen.lstm.modelaccess.Model;
+import de.uni_erlangen.lstm.models.adm1.BSM2Defaults;
+import de.uni_erlangen.lstm.models.adm1.DigesterParameters;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * Regression harness against stored BSM2 reference trajectories. Two cases are run:
+ * the BSM2 steady state case (200 days, sampled every 10 days) and a dynamic segment
+ * (5 days of a generated influent with diurnal load, rain, a feed shock and co-substrate pulses, sampled every 6 hours).
+ * 
+ * The baseline (built-in model, default settings) and a candidate configuration are run side by side, every state
+ * of every sample is compared against the reference with per variable tolerances |x-ref| <= abs + rel*|ref|.
+ * The report lists run time, speed-up over the baseline and the largest relative error of each run.
+ * 
+ * The reference file has one line per sample: case;t;x[0];...;x[49] (separated by ;)
+ * 
+ * @author liampetti
+ *
+ */
+public class Validation {
+	public final static Logger LOGGER = Logger.getLogger(Validation.class.getName());
+	
+	public static final String STEADY = "steady";
+	public static final String DYNAMIC = "dynamic";
+	
+	// Generated influent of the dynamic case
+	private static final double DYNAMIC_DAYS = 5.0;
+	private static final double[] DYNAMIC_FACTORS = {0.3, 0.5, 2.0, 0.4, 1.5, 1.0, 15.0, 0.05};
+	private static final int DYNAMIC_SAMPLE = 24; // Influent steps between samples (6 hours)
+	private static final double STEADY_DAYS = 200.0;
+	private static final double STEADY_SAMPLE = 10.0;
+	
+	private String referenceFile;
+	private double[] relTol, absTol;
+	
+	// Baseline of the timing comparison, the built-in model with default settings
+	private static final ModelSetup BASELINE = new ModelSetup() {
+		public void configure(Model model) {
+		}
+	};
+	
+	private List<Result> results;
+	
+	public Validation() {
+		referenceFile = "validation/bsm2_reference.csv";
+		relTol = new double[StateVariables.SIZE];
+		absTol = new double[StateVariables.SIZE];
+		setTolerance(1.0e-4, 1.0e-12);
+		results = new ArrayList<Result>();
+	}
+	
+	public void setReferenceFile(String referenceFile) {
+		this.referenceFile = referenceFile;
+	}
+	
+	/**
+	 * Same tolerances for all variables
+	 */
+	public void setTolerance(double rel, double abs) {
+		Arrays.fill(relTol, rel);
+		Arrays.fill(absTol, abs);
+	}
+	
+	/**
+	 * Tolerances of one variable (index in the StateVariables layout)
+	 */
+	public void setTolerance(int i, double rel, double abs) {
+		relTol[i] = rel;
+		absTol[i] = abs;
+	}
+	
+	/**
+	 * Reads tolerances from a file with lines name;relative;absolute, names as in StateVariables.NAMES
+	 */
+	public void readTolerances(String filename) {
+		for (String[] line : read(filename)) {
+			if (line.length < 3) {
+				throw new IllegalArgumentException("Expected name;relative;absolute in " + filename);
+			}
+			int i = Arrays.asList(StateVariables.NAMES).indexOf(line[0].trim());
+			if (i < 0) {
+				throw new IllegalArgumentException("Unknown variable " + line[0] + " in " + filename);
+			}
+			setTolerance(i, Double.parseDouble(line[1].trim()), Double.parseDouble(line[2].trim()));
+		}
+	}
+	
+	/**
+	 * Runs the baseline and writes its samples as the new reference
+	 */
+	public void record() {
+		Map<String, List<double[]>> samples = new LinkedHashMap<String, List<double[]>>();
+		samples.put(STEADY, steady(BASELINE, STEADY_DAYS));
+		samples.put(DYNAMIC, dynamic(BASELINE));
+		File file = new File(referenceFile);
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		BufferedWriter out = null;
+		try {
+			out = new BufferedWriter(new FileWriter(file));
+			for (Map.Entry<String, List<double[]>> entry : samples.entrySet()) {
+				for (double[] row : entry.getValue()) {
+					out.write(entry.getKey());
+					for (int i=0;i<row.length;i++) {
+						out.write(";" + row[i]);
+					}
+					out.newLine();
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.severe(e.toString());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					LOGGER.severe(e.toString());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Runs both cases with the baseline and the candidate and compares them against the reference
+	 * 
+	 * @param name		Name of the candidate in the report
+	 * @param candidate	Configuration under test
+	 * @return True if the candidate is within the tolerances in all cases
+	 */
+	public boolean validate(String name, ModelSetup candidate) {
+		Map<String, List<double[]>> reference = readReference();
+		results.clear();
+		// Warm up the JIT compiler so the first timed run is not penalised
+		steady(BASELINE, 4*STEADY_SAMPLE);
+		steady(candidate, 4*STEADY_SAMPLE);
+		boolean passed = true;
+		for (String test : new String[] {STEADY, DYNAMIC}) {
+			if (!reference.containsKey(test)) {
+				throw new IllegalStateException("No reference samples for the " + test + " case in " + referenceFile);
+			}
+			Result base = run(test, "baseline", BASELINE, reference.get(test), 0);
+			Result result = run(test, name, candidate, reference.get(test), base.runtime);
+			results.add(base);
+			results.add(result);
+			passed = passed && result.passed;
+		}
+		return passed;
+	}
+	
+	/**
+	 * Results of the last validation, baseline and candidate for each case
+	 */
+	public List<Result> getResults() {
+		return results;
+	}
+	
+	/**
+	 * Table of the last validation, one line per case and run
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder("Case; Run; Runtime (ms); Speed-up; Max rel. error; Variable; Time (d); Result");
+		for (Result r : results) {
+			sb.append('\n').append(r.test)
+				.append("; ").append(r.name)
+				.append("; ").append(r.runtime)
+				.append("; ").append(String.format("%.2f", r.speedup))
+				.append("; ").append(String.format("%.3e", r.maxError))
+				.append("; ").append(r.variable < 0 ? "" : StateVariables.NAMES[r.variable])
+				.append("; ").append(r.time)
+				.append("; ").append(r.passed ? "passed" : "FAILED (" + r.violations + " values out of tolerance)");
+		}
+		return sb.toString();
+	}
+	
+	private Result run(String test, String name, ModelSetup setup, List<double[]> reference, long baseline) {
+		long stime = System.currentTimeMillis();
+		List<double[]> samples = test.equals(STEADY) ? steady(setup, STEADY_DAYS) : dynamic(setup);
+		long runtime = System.currentTimeMillis()-stime;
+		Result result = new Result(test, name, runtime, baseline > 0 ? (double) baseline/Math.max(runtime, 1) : 1.0);
+		if (samples.size() != reference.size()) {
+			result.violations = Math.abs(samples.size()-reference.size());
+			result.passed = false;
+		}
+		for (int s=0;s<samples.size() && s<reference.size();s++) {
+			double[] x = samples.get(s);
+			double[] ref = reference.get(s);
+			for (int i=0;i<StateVariables.SIZE;i++) {
+				double diff = Math.abs(x[i+1]-ref[i+1]);
+				if (!(diff <= absTol[i] + relTol[i]*Math.abs(ref[i+1]))) {
+					result.violations++;
+					result.passed = false;
+				}
+				double rel = ref[i+1] != 0.0 ? diff/Math.abs(ref[i+1]) : diff;
+				if (rel > result.maxError || Double.isNaN(rel)) {
+					result.maxError = rel;
+					result.variable = i;
+					result.time = x[0];
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * BSM2 steady state case, the state every STEADY_SAMPLE days
+	 */
+	private List<double[]> steady(ModelSetup setup, double days) {
+		BSM2Defaults defaults = new BSM2Defaults();
+		StateVariables initial = new StateVariables();
+		initial.setVar(defaults.DigesterInit());
+		StateVariables influent = new StateVariables();
+		influent.setVar(defaults.Influent());
+		Model model = new Model(0.0, STEADY_SAMPLE, new DigesterParameters(), initial, influent, false, null);
+		setup.configure(model);
+		List<double[]> samples = new ArrayList<double[]>();
+		for (double t=0.0;t<days-1.0e-9;t+=STEADY_SAMPLE) {
+			model.setTime(t, t+STEADY_SAMPLE);
+			model.simulate();
+			samples.add(sample(t+STEADY_SAMPLE, model.getX()));
+		}
+		return samples;
+	}
+	
+	/**
+	 * Dynamic segment with a generated influent, one run per influent step as in dynamic simulations
+	 */
+	private List<double[]> dynamic(ModelSetup setup) {
+		InfluentGenerator generator = new InfluentGenerator();
+		generator.setDuration(DYNAMIC_DAYS);
+		InfluentSeries series = generator.generate(0, DYNAMIC_FACTORS);
+		double step = generator.getStep();
+		StateVariables initial = new StateVariables();
+		initial.setVar(new BSM2Defaults().DigesterInit());
+		StateVariables influent = new StateVariables();
+		influent.setVar(series.getRow(0));
+		Model model = new Model(0.0, step, new DigesterParameters(), initial, influent, false, null);
+		setup.configure(model);
+		List<double[]> samples = new ArrayList<double[]>();
+		double t = 0.0;
+		for (int r=0;r<series.size();r++) {
+			influent.setVar(series.getRow(r));
+			model.setInfluent(influent);
+			model.setTime(t, t+step);
+			model.simulate();
+			t = t+step;
+			if ((r+1)%DYNAMIC_SAMPLE == 0) {
+				samples.add(sample(t, model.getX()));
+			}
+		}
+		return samples;
+	}
+	
+	private static double[] sample(double t, double[] x) {
+		double[] row = new double[StateVariables.SIZE+1];
+		row[0] = t;
+		System.arraycopy(x, 0, row, 1, Math.min(x.length, StateVariables.SIZE));
+		return row;
+	}
+	
+	private Map<String, List<double[]>> readReference() {
+		Map<String, List<double[]>> reference = new LinkedHashMap<String, List<double[]>>();
+		for (String[] line : read(referenceFile)) {
+			double[] row = new double[StateVariables.SIZE+1];
+			for (int i=1;i<line.length && i<=row.length;i++) {
+				row[i-1] = Double.parseDouble(line[i].trim());
+			}
+			String test = line[0].trim();
+			if (!reference.containsKey(test)) {
+				reference.put(test, new ArrayList<double[]>());
+			}
+			reference.get(test).add(row);
+		}
+		return reference;
+	}
+	
+	private static List<String[]> read(String filename) {
+		if (!new File(filename).isFile()) {
+			throw new IllegalArgumentException("File not found: " + filename);
+		}
+		CSVReader reader = new CSVReader(filename, ";");
+		List<String[]> lines = new ArrayList<String[]>();
+		while (!reader.finished()) {
+			String[] line = reader.getNextString();
+			if (line.length > 0 && !line[0].trim().isEmpty() && !line[0].trim().startsWith("#")) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+	
+	/**
+	 * Outcome of one case for one configuration
+	 */
+	public static class Result {
+		private String test;
+		private String name;
+		private long runtime;
+		private double speedup;
+		private double maxError;
+		private int variable;
+		private double time;
+		private int violations;
+		private boolean passed;
+		
+		Result(String test, String name, long runtime, double speedup) {
+			this.test = test;
+			this.name = name;
+			this.runtime = runtime;
+			this.speedup = speedup;
+			this.variable = -1;
+			this.passed = true;
+		}
+		
+		public String getCase() {
+			return test;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * Wall clock time (ms)
+		 */
+		public long getRuntime() {
+			return runtime;
+		}
+		
+		/**
+		 * Baseline run time over this run time
+		 */
+		public double getSpeedup() {
+			return speedup;
+		}
+		
+		/**
+		 * Largest relative error of any variable and sample against the reference
+		 */
+		public double getMaxError() {
+			return maxError;
+		}
+		
+		/**
+		 * Variable with the largest error, -1 if all are exact
+		 */
+		public int getVariable() {
+			return variable;
+		}
+		
+		public double getTime() {
+			return time;
+		}
+		
+		/**
+		 * Number of values outside the tolerances
+		 */
+		public int getViolations() {
+			return violations;
+		}
+		
+		public boolean isPassed() {
+			return passed;
+		}
+	}
+}
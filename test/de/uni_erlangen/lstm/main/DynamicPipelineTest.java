@@ -0,0 +1,112 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.main;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.uni_erlangen.lstm.file.OutputSink;
+import de.uni_erlangen.lstm.file.RowQueue;
+import de.uni_erlangen.lstm.models.adm1.BSM2Defaults;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * Failures of the reader and writer stages of dynamic runs end the run with the error
+ * 
+ * @author liampetti
+ *
+ */
+public class DynamicPipelineTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test(timeout=60000)
+	public void malformedRow() throws IOException {
+		File in = folder.newFile("influent.csv");
+		PrintWriter out = new PrintWriter(in);
+		StringBuilder row = new StringBuilder();
+		for (double value : new BSM2Defaults().Influent()) {
+			row.append(row.length() > 0 ? "," : "").append(value);
+		}
+		out.println(row);
+		out.println(row);
+		out.println(row.toString().replaceFirst("^[^,]*", "abc"));
+		out.println(row);
+		out.close();
+		
+		try {
+			new Main().start(new String[] {"-dynamic", "-in", in.getPath(), "-out", new File(folder.getRoot(), "out.csv").getPath()});
+			fail("The malformed row ended the run normally");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof NumberFormatException);
+		}
+	}
+	
+	@Test(timeout=60000)
+	public void failingSink() throws InterruptedException {
+		final RuntimeException error = new RuntimeException("Disk full");
+		RowQueue influents = new RowQueue(4, StateVariables.SIZE);
+		RowQueue outputs = new RowQueue(4, StateVariables.SIZE+1);
+		Thread writer = Main.writer(new OutputSink() {
+			public void open(String[] columns) {
+			}
+			
+			public void write(double[] row) {
+				throw error;
+			}
+			
+			public void close() {
+			}
+		}, outputs, influents);
+		writer.start();
+		
+		// More rows than the queue holds: without the failure the producer would wait forever
+		try {
+			for (int i=0;i<100;i++) {
+				outputs.claim();
+				outputs.publish();
+			}
+			fail("The producer was not stopped by the failed sink");
+		} catch (IllegalStateException e) {
+			assertSame(error, e.getCause());
+		}
+		writer.join();
+		assertSame(error, outputs.getFailure());
+		// The reader is stopped as well
+		try {
+			influents.claim();
+			fail("The reader was not stopped by the failed sink");
+		} catch (IllegalStateException e) {
+			assertSame(error, e.getCause());
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.modelaccess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.uni_erlangen.lstm.models.adm1.BSM2Defaults;
+import de.uni_erlangen.lstm.models.adm1.DigesterParameters;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+
+/**
+ * Cancellation before the first step: the run ends at its start with the initial state
+ * 
+ * @author liampetti
+ *
+ */
+public class ModelCancelTest {
+
+	private static Model model() {
+		BSM2Defaults defaults = new BSM2Defaults();
+		StateVariables initial = new StateVariables();
+		initial.setVar(defaults.DigesterInit());
+		StateVariables influent = new StateVariables();
+		influent.setVar(defaults.Influent());
+		Model model = new Model(0.0, 10.0, new DigesterParameters(), initial, influent, false, null);
+		model.setDAE(false);
+		return model;
+	}
+	
+	private static void assertInitial(Model model, double[] x0) {
+		assertTrue(model.isFinished());
+		assertEquals(0.0, model.getEnd(), 0.0);
+		assertEquals(0.0, model.getProgress(), 0.0);
+		double[] x = model.getX();
+		for (int i=0;i<=StateVariables.T_D;i++) {
+			assertEquals(StateVariables.NAMES[i], x0[i], x[i], 0.0);
+		}
+	}
+	
+	@Test
+	public void cancelBeforeSimulate() {
+		Model model = model();
+		double[] x0 = model.getX().clone();
+		// Cancelled before the run: simulate ends at the start without integrating
+		model.cancel();
+		model.simulate();
+		
+		assertInitial(model, x0);
+	}
+	
+	@Test
+	public void cancelBeforeFirstStep() {
+		final Model model = model();
+		double[] x0 = model.getX().clone();
+		// Applied at the start after the cancel event is set up, the integrator sees the request before its first step
+		model.addTimeEvent(new TimeEvent(0.0, new EventAction() {
+			public void apply(double t, double[] x, double[] u) {
+				model.cancel();
+			}
+		}));
+		model.simulate();
+		
+		assertInitial(model, x0);
+	}
+}
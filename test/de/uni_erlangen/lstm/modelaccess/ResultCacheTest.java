@@ -0,0 +1,177 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.modelaccess;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.uni_erlangen.lstm.models.adm1.BSM2Defaults;
+import de.uni_erlangen.lstm.models.adm1.DigesterParameters;
+import de.uni_erlangen.lstm.models.adm1.StateVariables;
+import de.uni_erlangen.lstm.solver.SolverStatistics;
+
+/**
+ * Result cache in a temporary directory: hits, trajectories of another resolution, eviction of the least recently 
+ * used entries and the warm start of the implicit integrators
+ * 
+ * @author liampetti
+ *
+ */
+public class ResultCacheTest {
+	private static final long LIMIT = 64L*1024*1024;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static Model model(double end) {
+		BSM2Defaults defaults = new BSM2Defaults();
+		StateVariables initial = new StateVariables();
+		initial.setVar(defaults.DigesterInit());
+		StateVariables influent = new StateVariables();
+		influent.setVar(defaults.Influent());
+		return new Model(0.0, end, new DigesterParameters(), initial, influent, false, null);
+	}
+	
+	private String directory() throws IOException {
+		return folder.newFolder().getPath();
+	}
+	
+	@Test
+	public void storeAndHit() throws IOException {
+		String directory = directory();
+		ResultCache cache = new ResultCache(directory, LIMIT);
+		Model run = model(1.0);
+		assertFalse(cache.simulate(run));
+		assertEquals(1, cache.getStored());
+		assertEquals(1, cache.size());
+		
+		Model again = model(1.0);
+		assertTrue(cache.simulate(again));
+		assertEquals(1, cache.getHits());
+		assertTrue(again.isFinished());
+		assertEquals(run.getEnd(), again.getEnd(), 0.0);
+		assertArrayEquals(run.getX(), again.getX(), 0.0);
+		
+		// Other inputs are another entry
+		assertFalse(cache.simulate(model(2.0)));
+		assertEquals(2, cache.size());
+		
+		// Entries survive a new cache on the directory
+		ResultCache reopened = new ResultCache(directory, LIMIT);
+		assertEquals(2, reopened.size());
+		assertTrue(reopened.simulate(model(1.0)));
+	}
+	
+	@Test
+	public void resolutionMismatch() throws IOException {
+		ResultCache cache = new ResultCache(directory(), LIMIT);
+		Model run = model(1.0);
+		run.setResolution(0.1);
+		SimulationResult stored = new SimulationResult();
+		run.setResult(stored);
+		assertFalse(cache.simulate(run));
+		
+		// The trajectory of another resolution is not taken, the run is repeated
+		Model finer = model(1.0);
+		finer.setResolution(0.05);
+		SimulationResult result = new SimulationResult();
+		finer.setResult(result);
+		assertFalse(cache.simulate(finer));
+		assertTrue(result.size() > stored.size());
+		
+		// The repeated run replaced the entry
+		Model same = model(1.0);
+		same.setResolution(0.05);
+		SimulationResult cached = new SimulationResult();
+		same.setResult(cached);
+		assertTrue(cache.simulate(same));
+		assertEquals(result.size(), cached.size());
+		assertEquals(1, cache.size());
+	}
+	
+	@Test
+	public void leastRecentlyUsedEvicted() throws IOException {
+		ResultCache probe = new ResultCache(directory(), LIMIT);
+		probe.simulate(model(1.0));
+		long entry = probe.getBytes();
+		
+		// Room for two entries of the same size
+		ResultCache cache = new ResultCache(directory(), 2*entry + entry/2);
+		assertFalse(cache.simulate(model(1.0)));
+		assertFalse(cache.simulate(model(2.0)));
+		assertTrue(cache.simulate(model(1.0)));
+		assertFalse(cache.simulate(model(3.0)));
+		assertEquals(1, cache.getEvictions());
+		assertEquals(2, cache.size());
+		assertTrue(cache.getBytes() <= 2*entry + entry/2);
+		assertTrue("Recently used entry evicted", cache.simulate(model(1.0)));
+		assertTrue(cache.simulate(model(3.0)));
+		assertFalse("Least recently used entry kept", cache.simulate(model(2.0)));
+	}
+	
+	@Test
+	public void warmStartRestored() throws IOException {
+		ResultCache cache = new ResultCache(directory(), LIMIT);
+		Model first = model(1.0);
+		first.setIntegrator(Model.BDF);
+		Model second = model(1.0);
+		second.setIntegrator(Model.BDF);
+		for (int k=0;k<2;k++) {
+			first.setTime(k, k+1.0);
+			assertFalse(cache.simulate(first));
+			second.setTime(k, k+1.0);
+			assertTrue("Run " + k + " not taken from the cache", cache.simulate(second));
+		}
+		assertEquals(0, second.getStatistics().getSteps(SolverStatistics.STIFF));
+		
+		// Without a run of its own the second model continues with the step size and Jacobian of the first
+		first.setTime(2.0, 3.0);
+		first.simulate();
+		second.setTime(2.0, 3.0);
+		second.simulate();
+		assertArrayEquals(first.getX(), second.getX(), 0.0);
+		
+	}
+	
+	@Test
+	public void warmStartInKey() {
+		// Another warm start is another entry for the implicit integrators only
+		Model model = model(1.0);
+		model.setIntegrator(Model.BDF);
+		String key = model.getCacheKey();
+		model.getIntegratorState().discontinuity();
+		assertFalse(key.equals(model.getCacheKey()));
+		
+		model = model(1.0);
+		key = model.getCacheKey();
+		model.getIntegratorState().discontinuity();
+		assertEquals(key, model.getCacheKey());
+	}
+}
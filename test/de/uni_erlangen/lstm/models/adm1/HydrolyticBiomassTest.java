@@ -0,0 +1,83 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.models.adm1;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The hydrolytic biomass X_xch, X_xpr and X_xli lives in the state slots 43-45: hydrolysis of the 
+ * composites and the mass balances of the biomass read these slots and their influent
+ * 
+ * @author liampetti
+ *
+ */
+public class HydrolyticBiomassTest {
+	private static final int[] BIOMASS = {43, 44, 45}; // X_xch, X_xpr, X_xli
+	private static final int[] SUBSTRATE = {13, 14, 15}; // X_ch, X_pr, X_li
+	
+	@Test
+	public void biomassHydrolysesItsSubstrate() {
+		for (int k=0;k<BIOMASS.length;k++) {
+			double[] x = new BSM2Defaults().DigesterInit();
+			x[BIOMASS[k]] = 0.0;
+			double[] without = derivatives(model(), x);
+			x[BIOMASS[k]] = 0.5;
+			double[] with = derivatives(model(), x);
+			assertTrue(StateVariables.NAMES[BIOMASS[k]] + " does not hydrolyse " + StateVariables.NAMES[SUBSTRATE[k]], 
+					with[SUBSTRATE[k]] < without[SUBSTRATE[k]]);
+		}
+	}
+	
+	@Test
+	public void biomassBalanceReadsItsInfluent() {
+		double[] x = new BSM2Defaults().DigesterInit();
+		for (int k=0;k<BIOMASS.length;k++) {
+			int j = BIOMASS[k];
+			DAEModel model = model();
+			double[] before = derivatives(model, x);
+			model.getInfluent()[j] += 1.0;
+			double[] after = derivatives(model, x);
+			assertTrue(StateVariables.NAMES[j] + " ignores its influent", after[j] > before[j]);
+			// The output slots 41-42 are no influent of the biomass
+			model = model();
+			model.getInfluent()[j-2] += 1.0;
+			double[] other = derivatives(model, x);
+			assertTrue(StateVariables.NAMES[j] + " reads the influent of slot " + (j-2), other[j] == before[j]);
+		}
+	}
+	
+	private static DAEModel model() {
+		BSM2Defaults defaults = new BSM2Defaults();
+		double[] param = new DigesterParameters().getParameters();
+		return new DAEModel(defaults.Influent(), param, DAEModel.initialSH(defaults.DigesterInit(), param), true, -1.0);
+	}
+	
+	private static double[] derivatives(DAEModel model, double[] x) {
+		double[] state = x.clone();
+		state[35] = model.getInfluent()[35]; // Effluent flow rate = Influent flow rate
+		double[] dx = new double[state.length];
+		model.computeAll(0.0, state, dx);
+		return dx;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.models.adm1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Influent as a function of time: STEP holds the rows, LINEAR passes through the rows, CUBIC does not overshoot 
+ * between the rows of a monotone series, and the breakpoints are the row times of STEP and LINEAR
+ * 
+ * @author liampetti
+ *
+ */
+public class InfluentInputTest {
+	private static final double START = 2.0;
+	private static final double STEP = 0.25;
+	// Monotone with flat parts and jumps, a cubic spline through these values would overshoot
+	private static final double[] VALUES = {1.0, 1.0, 2.0, 2.1, 6.0, 6.05, 10.0, 10.0};
+	private static final int VARIABLE = StateVariables.S_AC;
+	
+	private static InfluentInput input(int mode) {
+		double[][] rows = new double[VALUES.length][StateVariables.SIZE];
+		for (int k=0;k<rows.length;k++) {
+			rows[k][VARIABLE] = VALUES[k];
+			rows[k][StateVariables.T_D] = 35.0 - VALUES[k]; // Decreasing at the same rows
+		}
+		return new InfluentInput(START, STEP, rows, mode);
+	}
+	
+	private static double at(InfluentInput input, double t, int variable) {
+		double[] u = new double[StateVariables.SIZE];
+		input.evaluate(t, u);
+		return u[variable];
+	}
+	
+	@Test
+	public void stepHoldsRows() {
+		InfluentInput input = input(InfluentInput.STEP);
+		for (int k=0;k<VALUES.length;k++) {
+			for (double theta : new double[] {0.0, 0.3, 0.999}) {
+				assertEquals("Row " + k + " at " + theta, VALUES[k], at(input, START + (k+theta)*STEP, VARIABLE), 0.0);
+			}
+			// A time in the rounding error before the row time belongs to the row
+			assertEquals(VALUES[k], at(input, START + k*STEP - 1.0e-12, VARIABLE), 0.0);
+		}
+		assertEquals("Before the first row", VALUES[0], at(input, START-1.0, VARIABLE), 0.0);
+		assertEquals("After the last row", VALUES[VALUES.length-1], at(input, START + 100.0*STEP, VARIABLE), 0.0);
+	}
+	
+	@Test
+	public void linearHitsRowValues() {
+		InfluentInput input = input(InfluentInput.LINEAR);
+		for (int k=0;k<VALUES.length;k++) {
+			assertEquals("Row " + k, VALUES[k], at(input, START + k*STEP, VARIABLE), 1.0e-12);
+			if (k < VALUES.length-1) {
+				assertEquals("Between row " + k + " and the next", 0.5*(VALUES[k]+VALUES[k+1]), 
+						at(input, START + (k+0.5)*STEP, VARIABLE), 1.0e-12);
+			}
+		}
+	}
+	
+	@Test
+	public void cubicDoesNotOvershoot() {
+		InfluentInput input = input(InfluentInput.CUBIC);
+		for (int variable : new int[] {VARIABLE, StateVariables.T_D}) {
+			double previous = at(input, START, variable);
+			for (int k=0;k<VALUES.length-1;k++) {
+				double a = at(input, START + k*STEP, variable);
+				double b = at(input, START + (k+1)*STEP, variable);
+				assertEquals("Row " + k, variable == VARIABLE ? VALUES[k] : 35.0 - VALUES[k], a, 1.0e-12);
+				for (int j=1;j<=50;j++) {
+					double u = at(input, START + (k+j/50.0)*STEP, variable);
+					assertTrue("Overshoot between row " + k + " and the next: " + u, 
+							u >= Math.min(a, b) - 1.0e-12 && u <= Math.max(a, b) + 1.0e-12);
+					// Monotone in the direction of the series
+					assertTrue("Not monotone in row " + k, variable == VARIABLE ? u >= previous - 1.0e-12 : u <= previous + 1.0e-12);
+					previous = u;
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void breakpointsAtRowTimes() {
+		for (int mode : new int[] {InfluentInput.STEP, InfluentInput.LINEAR}) {
+			InfluentInput input = input(mode);
+			assertTrue(input.hasBreakpoints());
+			assertEquals(START + STEP, input.nextBreakpoint(START), 0.0);
+			assertEquals(START + 3*STEP, input.nextBreakpoint(START + 2.5*STEP), 0.0);
+			// From a row time the breakpoint is the next row time
+			assertEquals(START + 4*STEP, input.nextBreakpoint(START + 3*STEP), 0.0);
+			// The first row is held before its time, the influent does not jump there
+			assertEquals(START + STEP, input.nextBreakpoint(START - 1.0), 0.0);
+			assertEquals(Double.POSITIVE_INFINITY, input.nextBreakpoint(START + (VALUES.length-1)*STEP), 0.0);
+		}
+		InfluentInput cubic = input(InfluentInput.CUBIC);
+		assertFalse(cubic.hasBreakpoints());
+		assertEquals(Double.POSITIVE_INFINITY, cubic.nextBreakpoint(START), 0.0);
+	}
+	
+	@Test
+	public void modeByName() {
+		assertEquals(InfluentInput.STEP, InfluentInput.mode("step"));
+		assertEquals(InfluentInput.LINEAR, InfluentInput.mode("Linear"));
+		assertEquals(InfluentInput.CUBIC, InfluentInput.mode("CUBIC"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownMode() {
+		InfluentInput.mode("spline");
+	}
+}
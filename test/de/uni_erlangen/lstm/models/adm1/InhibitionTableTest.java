@@ -0,0 +1,87 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.models.adm1;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.uni_erlangen.lstm.modelaccess.Model;
+
+/**
+ * Fast math mode: the inhibition tables against the exact functions, and the BSM2 steady case against exact mode
+ * 
+ * @author liampetti
+ *
+ */
+public class InhibitionTableTest {
+	private static final double TOL = 1.0e-9;
+	
+	@Test
+	public void tablesMatchExactFunctions() {
+		BSM2Defaults defaults = new BSM2Defaults();
+		DigesterParameters parameters = new DigesterParameters();
+		double[] x = defaults.DigesterInit();
+		DAEModel model = new DAEModel(defaults.Influent(), parameters.getParameters(), 
+				DAEModel.initialSH(x, parameters.getParameters(), false), true, -1.0);
+		model.setFastMath(true, TOL);
+		InhibitionTable[] tables = model.getTables();
+		// Table ranges: S_H_ion 1e-14 to 0.1 (pH 1 to 14), free ammonia 1e-10 to 1
+		double[][] ranges = {{1.0e-14, 0.1}, {1.0e-14, 0.1}, {1.0e-14, 0.1}, {1.0e-10, 1.0}};
+		Random random = new Random(42);
+		for (int k=0;k<tables.length;k++) {
+			assertTrue("Table " + k + " sampled max error " + tables[k].getMaxError(), tables[k].getMaxError() <= TOL);
+			double lo = Math.log(ranges[k][0]), hi = Math.log(ranges[k][1]);
+			double max = 0.0;
+			// Random points, not the sample points the table was refined with
+			for (int i=0;i<100000;i++) {
+				double arg = Math.exp(lo + (hi-lo)*random.nextDouble());
+				max = Math.max(max, Math.abs(tables[k].value(arg) - model.exactInhibition(k, arg)));
+			}
+			assertTrue("Table " + k + " error " + max, max <= 10.0*TOL);
+		}
+	}
+	
+	@Test
+	public void steadyStateMatchesExactMode() {
+		double[] exact = steady(false);
+		double[] fast = steady(true);
+		for (int i=0;i<StateVariables.T_D;i++) {
+			double deviation = Math.abs(fast[i]-exact[i])/Math.max(Math.abs(exact[i]), 1.0e-6);
+			assertTrue(StateVariables.NAMES[i] + " deviates by " + deviation, deviation <= 1.0e-6);
+		}
+	}
+	
+	private static double[] steady(boolean fast) {
+		BSM2Defaults defaults = new BSM2Defaults();
+		StateVariables initial = new StateVariables();
+		initial.setVar(defaults.DigesterInit());
+		StateVariables influent = new StateVariables();
+		influent.setVar(defaults.Influent());
+		Model model = new Model(0.0, 50.0, new DigesterParameters(), initial, influent, false, null);
+		model.setFastMath(fast);
+		model.simulate();
+		return model.getX();
+	}
+}
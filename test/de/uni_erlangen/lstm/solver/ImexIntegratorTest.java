@@ -0,0 +1,79 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.solver;
+
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
+import org.apache.commons.math3.ode.nonstiff.AdamsBashforthIntegrator;
+import org.junit.Test;
+
+/**
+ * Error control of the IMEX integrator: rows of a dynamic run start with a first order step of the 
+ * step size carried over from the last row, the slow states of that step must be checked as well
+ * 
+ * @author liampetti
+ *
+ */
+public class ImexIntegratorTest {
+	private static final double ROW = 0.25;
+	private static final int ROWS = 20;
+	
+	// Two slow states and one fast state relaxing to the first
+	private static final FirstOrderDifferentialEquations ODE = new FirstOrderDifferentialEquations() {
+		public int getDimension() {
+			return 3;
+		}
+		
+		public void computeDerivatives(double t, double[] y, double[] dy) {
+			dy[0] = 0.1 - y[0]*y[1];
+			dy[1] = 2.0*Math.sin(3.0*t) - 0.2*y[1];
+			dy[2] = -500.0*(y[2] - y[0]);
+		}
+	};
+	
+	@Test
+	public void errorShrinksWithTolerance() {
+		double[] reference = {1.0, 0.5, 1.0};
+		AdamsBashforthIntegrator adams = new AdamsBashforthIntegrator(4, 1.0e-10, 0.01, 1.0e-12, 1.0e-12);
+		for (int r=0;r<ROWS;r++) {
+			adams.integrate(ODE, r*ROW, reference, (r+1)*ROW, reference);
+		}
+		// Each halving of the tolerance reduces the error
+		double previous = error(1.0e-3, reference);
+		for (double tol=0.5e-3;tol>1.0e-5;tol/=2.0) {
+			double e = error(tol, reference);
+			assertTrue("Error " + e + " at tolerance " + tol + ", " + previous + " at twice the tolerance", e < previous);
+			previous = e;
+		}
+	}
+	
+	// Largest error of the slow states over dynamic rows, each row a new run warm started from the last
+	private static double error(double tol, double[] reference) {
+		double[] y = {1.0, 0.5, 1.0};
+		ImexIntegrator imex = new ImexIntegrator(1.0e-12, 10.0, new double[] {tol, tol, tol}, new double[] {tol, tol, tol}, new int[] {2});
+		for (int r=0;r<ROWS;r++) {
+			imex.integrate(ODE, r*ROW, y, (r+1)*ROW, y);
+		}
+		return Math.max(Math.abs(y[0]-reference[0]), Math.abs(y[1]-reference[1]));
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.solver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
+import org.apache.commons.math3.ode.nonstiff.DormandPrince853Integrator;
+import org.junit.Test;
+
+import de.uni_erlangen.lstm.models.adm1.BSM2Defaults;
+import de.uni_erlangen.lstm.models.adm1.DAEModel;
+import de.uni_erlangen.lstm.models.adm1.DigesterParameters;
+
+/**
+ * The coloured Jacobian of the DAE model against the Jacobian of one forward difference per column, 
+ * the colouring and the detection of entries that vanish at the first detection state
+ * 
+ * @author liampetti
+ *
+ */
+public class SparseJacobianTest {
+	private static final double T = 1.0e-3;
+	
+	@Test
+	public void colouredMatchesDense() {
+		DAEModel model = model();
+		double[] y = model.compact(state(model));
+		int m = y.length;
+		SparseJacobian sparse = new SparseJacobian(m);
+		double[][] jac = new double[m][m];
+		sparse.compute(model, T, y, jac);
+		assertTrue("No fewer colours than columns", sparse.getColours() < m);
+		
+		double[][] dense = dense(model, y);
+		for (int a=0;a<m;a++) {
+			double scale = 0.0;
+			for (int b=0;b<m;b++) {
+				scale = Math.max(scale, Math.abs(dense[a][b]));
+			}
+			// Differences of the order of the rounding error are outside the pattern
+			for (int b=0;b<m;b++) {
+				assertEquals("Entry " + a + "," + b, dense[a][b], jac[a][b], 1.0e-6*scale);
+			}
+		}
+	}
+	
+	@Test
+	public void coloursShareNoRow() {
+		DAEModel model = model();
+		double[] y = model.compact(state(model));
+		SparseJacobian sparse = new SparseJacobian(y.length);
+		sparse.compute(model, T, y, new double[y.length][y.length]);
+		int[][] pattern = sparse.getPattern();
+		int[][] colouring = sparse.getColouring();
+		boolean[] coloured = new boolean[y.length];
+		for (int[] columns : colouring) {
+			boolean[] used = new boolean[y.length];
+			for (int b : columns) {
+				assertFalse("Column " + b + " in two colours", coloured[b]);
+				coloured[b] = true;
+				for (int a : pattern[b]) {
+					assertFalse("Row " + a + " twice in a colour", used[a]);
+					used[a] = true;
+				}
+			}
+		}
+		for (int b=0;b<y.length;b++) {
+			assertTrue("Column " + b + " not coloured", coloured[b]);
+		}
+	}
+	
+	@Test
+	public void threadsGiveTheSameJacobian() {
+		DAEModel model = model();
+		double[] y = model.compact(state(model));
+		int m = y.length;
+		double[][] serial = new double[m][m];
+		new SparseJacobian(m).compute(model, T, y, serial);
+		
+		SparseJacobian sparse = new SparseJacobian(m);
+		sparse.setThreads(3);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			sparse.setExecutor(executor);
+			double[][] parallel = new double[m][m];
+			for (int k=0;k<2;k++) {
+				sparse.compute(model, T, y, parallel);
+				for (int a=0;a<m;a++) {
+					assertArrayEquals("Row " + a, serial[a], parallel[a], 0.0);
+				}
+			}
+		} finally {
+			sparse.release();
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void redetectGrowsThePattern() {
+		// The first equation depends on the second state only above 1
+		FirstOrderDifferentialEquations equations = new FirstOrderDifferentialEquations() {
+			public int getDimension() {
+				return 2;
+			}
+			
+			public void computeDerivatives(double t, double[] y, double[] dy) {
+				dy[0] = -y[0] + Math.max(0.0, y[1]-1.0);
+				dy[1] = -y[1];
+			}
+		};
+		SparseJacobian sparse = new SparseJacobian(2);
+		double[][] jac = new double[2][2];
+		sparse.compute(equations, 0.0, new double[] {1.0, 0.5}, jac);
+		assertEquals(2, sparse.getNonZeros());
+		
+		// Not detected again without a request
+		sparse.compute(equations, 0.0, new double[] {1.0, 2.0}, jac);
+		assertEquals(2, sparse.getNonZeros());
+		assertEquals(0.0, jac[0][1], 0.0);
+		
+		assertTrue(sparse.redetect());
+		sparse.compute(equations, 0.0, new double[] {1.0, 2.0}, jac);
+		assertEquals(3, sparse.getNonZeros());
+		assertEquals(1.0, jac[0][1], 1.0e-6);
+		
+		// Detections without new entries back off, the request after the second one is ignored
+		for (int k=0;k<2;k++) {
+			assertTrue(sparse.redetect());
+			sparse.compute(equations, 0.0, new double[] {1.0, 2.0}, jac);
+			assertEquals(3, sparse.getNonZeros());
+		}
+		assertFalse(sparse.redetect());
+		assertTrue(sparse.redetect());
+	}
+	
+	/**
+	 * DAE model a short time into the BSM2 start, so the start values of the algebraic solutions are set
+	 */
+	private static DAEModel model() {
+		BSM2Defaults defaults = new BSM2Defaults();
+		double[] param = new DigesterParameters().getParameters();
+		return new DAEModel(defaults.Influent(), param, DAEModel.initialSH(defaults.DigesterInit(), param), true, -1.0);
+	}
+	
+	private static double[] state(DAEModel model) {
+		double[] x = new BSM2Defaults().DigesterInit();
+		x[35] = model.getInfluent()[35];
+		model.integrate(new DormandPrince853Integrator(1.0e-12, 1.0e-3, 1.0e-10, 1.0e-10), 0.0, x, T);
+		return x;
+	}
+	
+	/**
+	 * Forward differences column by column, every evaluation on a new copy of the model
+	 */
+	private static double[][] dense(DAEModel model, double[] y) {
+		int m = y.length;
+		double[] f = new double[m];
+		model.copy().computeDerivatives(T, y, f);
+		double[][] dense = new double[m][m];
+		double[] yp = y.clone();
+		double[] g = new double[m];
+		for (int b=0;b<m;b++) {
+			double delta = 1.5e-8*Math.max(Math.abs(y[b]), 1.0e-6);
+			yp[b] = y[b] + delta;
+			model.copy().computeDerivatives(T, yp, g);
+			for (int a=0;a<m;a++) {
+				dense[a][b] = (g[a]-f[a])/delta;
+			}
+			yp[b] = y[b];
+		}
+		return dense;
+	}
+}
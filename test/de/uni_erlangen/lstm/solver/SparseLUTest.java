@@ -0,0 +1,175 @@
+/*
+ * jADM1 -- Java Implementation of Anaerobic Digestion Model No 1
+ * ===============================================================
+ *
+ * Copyright 2015 Liam Pettigrew
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * ********************************************************************************************
+ */
+
+package de.uni_erlangen.lstm.solver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealVector;
+import org.junit.Test;
+
+/**
+ * Sparse LU factorization and solve against the dense LU decomposition with partial pivoting of commons math
+ * 
+ * @author liampetti
+ *
+ */
+public class SparseLUTest {
+	
+	@Test
+	public void randomSparse() {
+		Random random = new Random(42);
+		int n = 80;
+		double[][] a = new double[n][n];
+		for (int i=0;i<n;i++) {
+			for (int j=0;j<n;j++) {
+				if (i != j && random.nextDouble() < 0.05) {
+					a[i][j] = random.nextGaussian();
+				}
+			}
+			a[i][i] = 2.0 + random.nextDouble();
+		}
+		SparseLU lu = new SparseLU(pattern(a));
+		assertTrue(lu.factor(a));
+		for (int k=0;k<3;k++) {
+			double[] b = random(random, n);
+			assertSolves(a, lu, b);
+		}
+		
+		// Newton iteration matrix I - gh*J of the same pattern
+		double gh = 0.3;
+		assertTrue(lu.factor(a, gh));
+		double[][] m = new double[n][n];
+		for (int i=0;i<n;i++) {
+			for (int j=0;j<n;j++) {
+				m[i][j] = (i == j ? 1.0 : 0.0) - gh*a[i][j];
+			}
+		}
+		assertSolves(m, lu, random(random, n));
+	}
+	
+	@Test
+	public void tridiagonalChain() {
+		int n = 1000;
+		double[][] jac = new double[n][n];
+		for (int i=0;i<n;i++) {
+			jac[i][i] = -2.0;
+			if (i > 0) {
+				jac[i][i-1] = 1.0;
+			}
+			if (i < n-1) {
+				jac[i][i+1] = 1.0;
+			}
+		}
+		SparseLU lu = new SparseLU(pattern(jac));
+		assertEquals("Fill in a chain", 3*n-2, lu.getNonZeros());
+		double gh = 50.0;
+		assertTrue(lu.factor(jac, gh));
+		double[][] m = new double[n][n];
+		for (int i=0;i<n;i++) {
+			for (int j=0;j<n;j++) {
+				m[i][j] = (i == j ? 1.0 : 0.0) - gh*jac[i][j];
+			}
+		}
+		assertSolves(m, lu, random(new Random(7), n));
+	}
+	
+	@Test
+	public void smallPivotFallsBack() {
+		// Non singular but zero on the diagonal, needs row exchanges
+		double[][] a = {
+				{0.0, 1.0, 0.0},
+				{1.0, 0.0, 2.0},
+				{0.0, 3.0, 1.0}};
+		SparseLU lu = new SparseLU(pattern(a));
+		assertFalse("Small pivot accepted", lu.factor(a));
+		try {
+			lu.solve(new double[3]);
+			fail("Solve without a factorization");
+		} catch (IllegalStateException e) {
+			// Expected, the caller falls back to the dense decomposition
+		}
+		double[] b = {1.0, 2.0, 3.0};
+		RealVector x = new LUDecomposition(new Array2DRowRealMatrix(a)).getSolver().solve(new ArrayRealVector(b));
+		double[] r = new Array2DRowRealMatrix(a).operate(x).toArray();
+		for (int i=0;i<b.length;i++) {
+			assertEquals(b[i], r[i], 1.0e-12);
+		}
+		
+		// The same analysis factors a matrix of the pattern with good pivots again
+		a[0][0] = a[1][1] = a[2][2] = 4.0;
+		assertTrue(lu.factor(a));
+		assertSolves(a, lu, b);
+	}
+	
+	/**
+	 * Solution of the sparse factors against the dense decomposition, relative to the largest entry
+	 */
+	private static void assertSolves(double[][] a, SparseLU lu, double[] b) {
+		double[] expected = new LUDecomposition(new Array2DRowRealMatrix(a)).getSolver()
+				.solve(new ArrayRealVector(b)).toArray();
+		double[] x = b.clone();
+		lu.solve(x);
+		double scale = 0.0;
+		for (double v : expected) {
+			scale = Math.max(scale, Math.abs(v));
+		}
+		for (int i=0;i<x.length;i++) {
+			assertEquals("Entry " + i, expected[i], x[i], 1.0e-10*scale);
+		}
+	}
+	
+	/**
+	 * Non zero rows of each column
+	 */
+	private static int[][] pattern(double[][] a) {
+		int n = a.length;
+		int[][] pattern = new int[n][];
+		for (int j=0;j<n;j++) {
+			int m = 0;
+			int[] rows = new int[n];
+			for (int i=0;i<n;i++) {
+				if (a[i][j] != 0.0) {
+					rows[m++] = i;
+				}
+			}
+			pattern[j] = Arrays.copyOf(rows, m);
+		}
+		return pattern;
+	}
+	
+	private static double[] random(Random random, int n) {
+		double[] b = new double[n];
+		for (int i=0;i<n;i++) {
+			b[i] = random.nextGaussian();
+		}
+		return b;
+	}
+}